@@ -40,9 +40,11 @@ function TabPanel(props: TabPanelProps) {
 function App() {
   const [isAnalyzed, setIsAnalyzed] = useState(false);
   const [tabValue, setTabValue] = useState(0);
+  const [projectId, setProjectId] = useState<string>();
   const [dependencyData, setDependencyData] = useState<DependencyData>({ nodes: [], links: [] });
 
-  const handleAnalysisComplete = (data: DependencyData) => {
+  const handleAnalysisComplete = (analyzedProjectId: string, data: DependencyData) => {
+    setProjectId(analyzedProjectId);
     setDependencyData(data);
     setIsAnalyzed(true);
   };
@@ -67,7 +69,7 @@ function App() {
                 </Tabs>
               </Box>
               <TabPanel value={tabValue} index={0}>
-                <Chat />
+                <Chat projectId={projectId} />
               </TabPanel>
               <TabPanel value={tabValue} index={1}>
                 <DependencyGraph data={dependencyData} />
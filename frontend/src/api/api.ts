@@ -9,17 +9,70 @@ const api = axios.create({
 
 export interface ChatRequest {
   query: string;
+  projectId?: string;
 }
 
 export interface ChatResponse {
   response: string;
 }
 
+export interface ChatSource {
+  filePath: string;
+  startLine: number | null;
+  endLine: number | null;
+}
+
+export interface ChatStreamHandlers {
+  onSources?: (sources: ChatSource[]) => void;
+  onToken: (text: string) => void;
+}
+
+export type AnalysisStep =
+  'NOT_STARTED' | 'FETCHING_FILES' | 'PARSING_AST' | 'ANALYZING_DEPENDENCIES' | 'STORING_VECTORS' | 'COMPLETED';
+
+export interface FileError {
+  path: string;
+  message: string;
+}
+
 export interface AnalysisStatus {
-  currentStep: 'NOT_STARTED' | 'FETCHING_FILES' | 'PARSING_AST' | 'STORING_VECTORS' | 'COMPLETED';
+  currentStep: AnalysisStep;
   progress: number;
   error: string | null;
   success: boolean;
+  done: boolean;
+  totalFiles: number | null;
+  fetchedFiles: number;
+  parsedFiles: number;
+  chunkedFiles: number;
+  embeddedFiles: number;
+  failedFiles: number;
+  skippedFiles: number;
+  updatedFiles: number;
+  deletedFiles: number;
+  fileErrors: FileError[];
+}
+
+export interface AnalysisProgress {
+  step: AnalysisStep;
+  progress: number;
+  queuePosition: number;
+  totalFiles: number | null;
+  fetchedFiles: number;
+  parsedFiles: number;
+  chunkedFiles: number;
+  embeddedFiles: number;
+  storedFiles: number;
+  skippedFiles: number;
+  failedFiles: number;
+  deletedFiles: number;
+  filesPerSecond: number | null;
+  etaSeconds: number | null;
+  newErrors: FileError[];
+  errorCount: number;
+  done: boolean;
+  success: boolean;
+  error: string | null;
 }
 
 export interface DependencyNode {
@@ -44,8 +97,36 @@ export interface DependencyData {
   links: DependencyLink[];
 }
 
-export const analyzeRepository = async (projectId: string): Promise<void> => {
-  await api.post(`/analyze/${projectId}`);
+export interface AnalysisAdmission {
+  accepted: boolean;
+  queuePosition: number;
+  queueCapacity: number;
+}
+
+export interface AnalysisQueue {
+  running: string[];
+  queued: string[];
+  queueCapacity: number;
+}
+
+/**
+ * Resolves with the queue position (0 while running), also when the queue is full and the analysis
+ * was not accepted.
+ */
+export const analyzeRepository = async (projectId: string): Promise<AnalysisAdmission> => {
+  const response = await api.post(`/analyze/${projectId}`, null, {
+    validateStatus: (status) => status === 202 || status === 429,
+  });
+  return response.data;
+};
+
+export const getAnalysisQueue = async (): Promise<AnalysisQueue> => {
+  const response = await api.get('/analyze/queue');
+  return response.data;
+};
+
+export const deleteProject = async (projectId: string): Promise<void> => {
+  await api.delete(`/analyze/${projectId}`);
 };
 
 export const getAnalysisStatus = async (projectId: string): Promise<AnalysisStatus> => {
@@ -53,12 +134,156 @@ export const getAnalysisStatus = async (projectId: string): Promise<AnalysisStat
   return response.data;
 };
 
+/**
+ * Follows the analysis through /analyze/{projectId}/progress until an event with done set. Events carry
+ * only the file errors that were not sent before. Returns a function that stops following.
+ */
+export const watchAnalysisProgress = (
+  projectId: string,
+  onProgress: (progress: AnalysisProgress) => void,
+  onError: (error: Error) => void,
+): (() => void) => {
+  const source = new EventSource(`/api/v1/analyze/${encodeURIComponent(projectId)}/progress`);
+  source.addEventListener('progress', (event) => {
+    const progress: AnalysisProgress = JSON.parse((event as MessageEvent).data);
+    if (progress.done) {
+      source.close();
+    }
+    onProgress(progress);
+  });
+  source.onerror = () => {
+    // EventSource reconnects by itself unless the server refused the stream
+    if (source.readyState === EventSource.CLOSED) {
+      onError(new Error('Analysis progress stream failed'));
+    }
+  };
+  return () => source.close();
+};
+
 export const getDependencies = async (projectId: string): Promise<DependencyData> => {
   const response = await api.get(`/analyze/${projectId}/dependencies`);
   return response.data;
 };
 
-export const chat = async (query: string): Promise<string> => {
-  const response = await api.post<ChatResponse>('/chat', { query });
+export interface FileDepth {
+  path: string;
+  depth: number;
+}
+
+export interface FileDegree {
+  path: string;
+  fanIn: number;
+  fanOut: number;
+}
+
+export interface TopFiles {
+  mostDependents: FileDegree[];
+  mostDependencies: FileDegree[];
+}
+
+export const getTransitiveDependencies = async (projectId: string, file: string, depth = 3): Promise<FileDepth[]> => {
+  const response = await api.get(`/analyze/${projectId}/dependencies/transitive`, { params: { file, depth } });
+  return response.data;
+};
+
+export const getImpactedFiles = async (projectId: string, file: string, depth = 3): Promise<FileDepth[]> => {
+  const response = await api.get(`/analyze/${projectId}/dependencies/impact`, { params: { file, depth } });
+  return response.data;
+};
+
+export const getDependencyCycles = async (projectId: string): Promise<string[][]> => {
+  const response = await api.get(`/analyze/${projectId}/dependencies/cycles`);
+  return response.data;
+};
+
+export const getTopFiles = async (projectId: string, limit = 10): Promise<TopFiles> => {
+  const response = await api.get(`/analyze/${projectId}/dependencies/top`, { params: { limit } });
+  return response.data;
+};
+
+export type VectorQuantization = 'NONE' | 'INT8' | 'BINARY';
+
+export interface QuantizationRecall {
+  quantization: VectorQuantization;
+  bytesPerVector: number;
+  recall: number;
+}
+
+export interface RecallReport {
+  quantization: VectorQuantization;
+  chunks: number;
+  queries: number;
+  k: number;
+  recall: number;
+  searchMillis: number;
+  quantizations: QuantizationRecall[];
+}
+
+export const getVectorRecall = async (projectId: string, queries = 50): Promise<RecallReport> => {
+  const response = await api.get(`/analyze/${projectId}/vectors/recall`, { params: { queries } });
+  return response.data;
+};
+
+export const setVectorQuantization = async (projectId: string, mode: VectorQuantization): Promise<void> => {
+  await api.put(`/analyze/${projectId}/vectors/quantization`, null, { params: { mode } });
+};
+
+export const chat = async (query: string, projectId?: string): Promise<string> => {
+  const response = await api.post<ChatResponse>('/chat', { query, projectId });
   return response.data.response;
-}; 
\ No newline at end of file
+}; 
+/**
+ * Streams the answer from /chat/stream. Aborting the signal closes the connection, which stops the
+ * generation on the server.
+ */
+export const streamChat = async (
+  query: string,
+  projectId: string | undefined,
+  handlers: ChatStreamHandlers,
+  signal?: AbortSignal,
+): Promise<void> => {
+  const response = await fetch('/api/v1/chat/stream', {
+    method: 'POST',
+    headers: { 'Content-Type': 'application/json', Accept: 'text/event-stream' },
+    body: JSON.stringify({ query, projectId }),
+    signal,
+  });
+  if (!response.ok || !response.body) {
+    throw new Error(`Chat stream failed with status ${response.status}`);
+  }
+
+  const reader = response.body.pipeThrough(new TextDecoderStream()).getReader();
+  let buffer = '';
+  for (;;) {
+    const { value, done } = await reader.read();
+    if (done) {
+      return;
+    }
+    buffer += value.replace(/\r\n/g, '\n');
+    let separator;
+    while ((separator = buffer.indexOf('\n\n')) !== -1) {
+      const rawEvent = buffer.slice(0, separator);
+      buffer = buffer.slice(separator + 2);
+
+      let name = 'message';
+      const data: string[] = [];
+      for (const line of rawEvent.split('\n')) {
+        if (line.startsWith('event:')) {
+          name = line.slice(6).trim();
+        } else if (line.startsWith('data:')) {
+          data.push(line.slice(5));
+        }
+      }
+      const payload = data.length > 0 ? JSON.parse(data.join('\n')) : null;
+      if (name === 'sources') {
+        handlers.onSources?.(payload);
+      } else if (name === 'token') {
+        handlers.onToken(payload.text);
+      } else if (name === 'error') {
+        throw new Error(payload.message);
+      } else if (name === 'done') {
+        return;
+      }
+    }
+  }
+};
@@ -4,18 +4,24 @@ import SendIcon from '@mui/icons-material/Send';
 import ReactMarkdown from 'react-markdown';
 import { Prism as SyntaxHighlighter } from 'react-syntax-highlighter';
 import { oneDark } from 'react-syntax-highlighter/dist/esm/styles/prism';
-import { chat } from '../api/api';
+import { streamChat, ChatSource } from '../api/api';
 
 interface Message {
   role: 'user' | 'assistant';
   content: string;
+  sources?: ChatSource[];
 }
 
-export function Chat() {
+interface ChatProps {
+  projectId?: string;
+}
+
+export function Chat({ projectId }: ChatProps) {
   const [messages, setMessages] = useState<Message[]>([]);
   const [input, setInput] = useState('');
   const [isLoading, setIsLoading] = useState(false);
   const messagesEndRef = useRef<HTMLDivElement>(null);
+  const abortRef = useRef<AbortController | null>(null);
 
   const scrollToBottom = () => {
     messagesEndRef.current?.scrollIntoView({ behavior: 'smooth' });
@@ -25,25 +31,39 @@ export function Chat() {
     scrollToBottom();
   }, [messages]);
 
+  // Stop a running answer when the chat is closed
+  useEffect(() => () => abortRef.current?.abort(), []);
+
+  const updateAnswer = (update: (answer: Message) => Message) => {
+    setMessages(prev => [...prev.slice(0, -1), update(prev[prev.length - 1])]);
+  };
+
   const handleSubmit = async (e: React.FormEvent) => {
     e.preventDefault();
     if (!input.trim() || isLoading) return;
 
     const userMessage = { role: 'user' as const, content: input };
-    setMessages(prev => [...prev, userMessage]);
+    const assistantMessage = { role: 'assistant' as const, content: '' };
+    setMessages(prev => [...prev, userMessage, assistantMessage]);
     setInput('');
     setIsLoading(true);
+    const controller = new AbortController();
+    abortRef.current = controller;
 
     try {
-      const response = await chat(input);
-      const assistantMessage = { role: 'assistant' as const, content: response };
-      setMessages(prev => [...prev, assistantMessage]);
+      await streamChat(input, projectId, {
+        onSources: sources => updateAnswer(answer => ({ ...answer, sources })),
+        onToken: text => updateAnswer(answer => ({ ...answer, content: answer.content + text })),
+      }, controller.signal);
     } catch (error) {
-      setMessages(prev => [
-        ...prev,
-        { role: 'assistant', content: 'Sorry, I encountered an error processing your request.' }
-      ]);
+      if (!controller.signal.aborted) {
+        updateAnswer(answer => ({
+          ...answer,
+          content: answer.content || 'Sorry, I encountered an error processing your request.'
+        }));
+      }
     } finally {
+      abortRef.current = null;
       setIsLoading(false);
     }
   };
@@ -102,6 +122,15 @@ export function Chat() {
                 {message.content}
               </ReactMarkdown>
             </Typography>
+            {message.sources && message.sources.length > 0 && (
+              <Typography variant="caption" component="div" sx={{ mt: 0.5, color: 'text.secondary' }}>
+                Sources: {message.sources
+                  .map(source => source.startLine != null
+                    ? `${source.filePath}:${source.startLine}-${source.endLine}`
+                    : source.filePath)
+                  .join(', ')}
+              </Typography>
+            )}
           </Box>
         ))}
         <div ref={messagesEndRef} />
@@ -1,49 +1,67 @@
-import { useState } from 'react';
+import { useEffect, useRef, useState } from 'react';
 import { Box, Button, LinearProgress, TextField, Typography } from '@mui/material';
-import { analyzeRepository, getAnalysisStatus, AnalysisStatus, DependencyData, getDependencies } from '../api/api';
+import {
+  analyzeRepository,
+  watchAnalysisProgress,
+  AnalysisProgress,
+  DependencyData,
+  FileError,
+  getDependencies,
+} from '../api/api';
 
 interface ProjectAnalyzerProps {
-  onAnalysisComplete: (data: DependencyData) => void;
+  onAnalysisComplete: (projectId: string, data: DependencyData) => void;
 }
 
 export function ProjectAnalyzer({ onAnalysisComplete }: ProjectAnalyzerProps) {
   const [projectId, setProjectId] = useState('');
-  const [status, setStatus] = useState<AnalysisStatus | null>(null);
+  const [status, setStatus] = useState<AnalysisProgress | null>(null);
+  const [fileErrors, setFileErrors] = useState<FileError[]>([]);
   const [error, setError] = useState<string | null>(null);
+  const stopWatching = useRef<(() => void) | null>(null);
+
+  useEffect(() => () => stopWatching.current?.(), []);
 
   const startAnalysis = async () => {
     try {
       setError(null);
-      await analyzeRepository(projectId);
-      pollStatus();
+      setFileErrors([]);
+      const admission = await analyzeRepository(projectId);
+      if (!admission.accepted) {
+        setError(`The analysis queue is full (${admission.queueCapacity} waiting), please try again later`);
+        return;
+      }
+      watchProgress();
     } catch (err) {
       setError('Failed to start analysis');
     }
   };
 
-  const pollStatus = async () => {
-    try {
-      const status = await getAnalysisStatus(projectId);
-      setStatus(status);
-
-      if (status.error) {
-        setError(status.error);
-        return;
-      }
-
-      if (status.currentStep !== 'COMPLETED') {
-        setTimeout(pollStatus, 1000);
-      } else if (status.success) {
-        try {
-          const dependencyData = await getDependencies(projectId);
-          onAnalysisComplete(dependencyData);
-        } catch (err) {
-          setError('Failed to fetch dependency data');
+  const watchProgress = () => {
+    stopWatching.current?.();
+    stopWatching.current = watchAnalysisProgress(
+      projectId,
+      async (progress) => {
+        setStatus(progress);
+        if (progress.newErrors.length > 0) {
+          setFileErrors((errors) => [...errors, ...progress.newErrors]);
         }
-      }
-    } catch (err) {
-      setError('Failed to get analysis status');
-    }
+        if (!progress.done) {
+          return;
+        }
+        if (progress.error) {
+          setError(progress.error);
+        } else if (progress.success) {
+          try {
+            const dependencyData = await getDependencies(projectId);
+            onAnalysisComplete(projectId, dependencyData);
+          } catch (err) {
+            setError('Failed to fetch dependency data');
+          }
+        }
+      },
+      () => setError('Failed to get analysis progress'),
+    );
   };
 
   return (
@@ -65,7 +83,7 @@ export function ProjectAnalyzer({ onAnalysisComplete }: ProjectAnalyzerProps) {
         <Button
           variant="contained"
           onClick={startAnalysis}
-          disabled={!projectId || status?.currentStep === 'COMPLETED'}
+          disabled={!projectId || status?.step === 'COMPLETED'}
           sx={{ mt: 2 }}
         >
           Analyze Repository
@@ -74,13 +92,24 @@ export function ProjectAnalyzer({ onAnalysisComplete }: ProjectAnalyzerProps) {
       {status && (
         <Box sx={{ mt: 4 }}>
           <Typography variant="body1" gutterBottom>
-            {status.currentStep.replace(/_/g, ' ')}
+            {status.queuePosition > 0 ? `Queued (position ${status.queuePosition})` : status.step.replace(/_/g, ' ')}
           </Typography>
           <LinearProgress
             variant="determinate"
             value={status.progress}
             sx={{ mt: 1 }}
           />
+          <Typography variant="body2" color="text.secondary" sx={{ mt: 1 }}>
+            {status.fetchedFiles} fetched, {status.parsedFiles} parsed, {status.chunkedFiles} chunked,
+            {' '}{status.embeddedFiles} embedded, {status.storedFiles} stored, {status.skippedFiles} unchanged
+            {status.totalFiles !== null && ` of ${status.totalFiles} files`}
+            {status.etaSeconds !== null && !status.done && ` (about ${formatDuration(status.etaSeconds)} left)`}
+          </Typography>
+          {fileErrors.length > 0 && (
+            <Typography variant="body2" color="error" sx={{ mt: 1 }}>
+              {fileErrors.length} files failed, e.g. {fileErrors[0].path}: {fileErrors[0].message}
+            </Typography>
+          )}
         </Box>
       )}
       {error && (
@@ -90,4 +119,12 @@ export function ProjectAnalyzer({ onAnalysisComplete }: ProjectAnalyzerProps) {
       )}
     </Box>
   );
-} 
\ No newline at end of file
+} 
+
+function formatDuration(seconds: number): string {
+  if (seconds < 60) {
+    return `${seconds}s`;
+  }
+  const minutes = Math.floor(seconds / 60);
+  return minutes < 60 ? `${minutes}m ${seconds % 60}s` : `${Math.floor(minutes / 60)}h ${minutes % 60}m`;
+}
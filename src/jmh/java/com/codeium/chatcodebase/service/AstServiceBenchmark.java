@@ -0,0 +1,53 @@
+package com.codeium.chatcodebase.service;
+
+import com.github.javaparser.StaticJavaParser;
+import com.github.javaparser.ast.CompilationUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AstServiceBenchmark {
+    @Param({"5", "50", "200"})
+    private int methods;
+
+    @Param({"DECLARATIONS", "FULL"})
+    private AstService.ParseMode mode;
+
+    private AstService astService;
+    private GitLabService.CodeFile file;
+    private CompilationUnit compilationUnit;
+
+    @Setup
+    public void setUp() {
+        astService = new AstService(mode);
+        String source = SyntheticSources.javaClass("com.example.service", "OrderService", methods);
+        file = new GitLabService.CodeFile("src/main/java/com/example/service/OrderService.java", source, "100644");
+        compilationUnit = StaticJavaParser.parse(source);
+    }
+
+    @Benchmark
+    public AstService.AstDocument parseFile() {
+        return astService.parseFile(file);
+    }
+
+    @Benchmark
+    public AstService.AstMetadata extractMetadata() {
+        return astService.extractMetadata(compilationUnit);
+    }
+}
@@ -0,0 +1,67 @@
+package com.codeium.chatcodebase.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunking of a single file; {@code methods} controls the file size (about 600 characters per method).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkingBenchmark {
+    @Param({"20", "200", "2000"})
+    private int methods;
+
+    private VectorStoreService vectorStoreService;
+    private EmbeddingService embeddingService;
+    private TextChunker chunker;
+    private AstService.AstDocument document;
+
+    @Setup
+    public void setUp() {
+        // Chunking never touches the vector store itself
+        vectorStoreService = new VectorStoreService(null, null, null);
+        embeddingService = new EmbeddingService(vectorStoreService);
+        chunker = vectorStoreService.getChunker();
+        String source = SyntheticSources.javaClass("com.example.service", "OrderService", methods);
+        document = new AstService().parseFile(
+            new GitLabService.CodeFile("src/main/java/com/example/service/OrderService.java", source, "100644"));
+    }
+
+    @Benchmark
+    public List<TextChunker.Span> chunkerSpans() {
+        return chunker.split(document.getRawContent());
+    }
+
+    @Benchmark
+    public List<TextChunker.Span> chunkerMemberSpans() {
+        return chunker.pack(document.getRawContent(), document.getMemberOffsets());
+    }
+
+    @Benchmark
+    public List<Document> embeddingServiceChunks() {
+        return embeddingService.generateEmbeddings(document);
+    }
+
+    @Benchmark
+    public List<Document> vectorStoreServiceChunks() {
+        return vectorStoreService.chunkDocument("benchmark", document);
+    }
+}
@@ -0,0 +1,59 @@
+package com.codeium.chatcodebase.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries on the graph index of a synthetic repository with eight imports per file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DependencyGraphBenchmark {
+    @Param({"10000", "100000"})
+    private int files;
+
+    private DependencyService.DependencyData data;
+    private DependencyGraph graph;
+
+    @Setup
+    public void setUp() {
+        data = new DependencyService().analyzeDependencies(SyntheticSources.repository(files, 8));
+        graph = DependencyGraph.of(data);
+    }
+
+    @Benchmark
+    public DependencyGraph buildIndex() {
+        return DependencyGraph.of(data);
+    }
+
+    @Benchmark
+    public DependencyGraph.Traversal impactAllLevels() {
+        return graph.traverse(files - 1, Integer.MAX_VALUE, true);
+    }
+
+    @Benchmark
+    public List<int[]> cycles() {
+        return graph.cycles();
+    }
+
+    @Benchmark
+    public int[] topFanIn() {
+        return graph.topByDegree(10, false);
+    }
+}
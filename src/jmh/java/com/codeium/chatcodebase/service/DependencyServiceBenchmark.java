@@ -0,0 +1,40 @@
+package com.codeium.chatcodebase.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DependencyServiceBenchmark {
+    @Param({"1000", "10000", "100000"})
+    private int files;
+
+    private final DependencyService dependencyService = new DependencyService();
+    private List<AstService.AstDocument> documents;
+
+    @Setup
+    public void setUp() {
+        documents = SyntheticSources.repository(files, 8);
+    }
+
+    @Benchmark
+    public DependencyService.DependencyData analyzeDependencies() {
+        return dependencyService.analyzeDependencies(documents);
+    }
+}
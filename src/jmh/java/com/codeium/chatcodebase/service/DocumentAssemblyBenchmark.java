@@ -0,0 +1,52 @@
+package com.codeium.chatcodebase.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assembly of the embedded text and metadata of one chunk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocumentAssemblyBenchmark {
+    @Param({"10", "100"})
+    private int methods;
+
+    private final VectorStoreService vectorStoreService = new VectorStoreService(null, null, null);
+    private AstService.AstDocument document;
+    private String source;
+    private int[] lineStarts;
+    private TextChunker.Span span;
+
+    @Setup
+    public void setUp() {
+        source = SyntheticSources.javaClass("com.example.service", "OrderService", methods);
+        document = new AstService().parseFile(
+            new GitLabService.CodeFile("src/main/java/com/example/service/OrderService.java", source, "100644"));
+        lineStarts = TextChunker.lineStarts(source);
+        span = new TextChunker.Span(0, Math.min(source.length(), 4_000));
+    }
+
+    @Benchmark
+    public Document convertToAiDocument() {
+        String header = vectorStoreService.documentHeader(document);
+        return vectorStoreService.convertToAiDocument("benchmark", document, header, source, lineStarts, span,
+            1, 3);
+    }
+}
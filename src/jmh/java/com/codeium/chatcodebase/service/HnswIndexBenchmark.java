@@ -0,0 +1,85 @@
+package com.codeium.chatcodebase.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Top 10 search in a memory-mapped HNSW index of random 768-dimensional vectors, with the candidate
+ * search on float vectors or on quantized codes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HnswIndexBenchmark {
+    private static final int DIMENSION = 768;
+
+    @Param({"20000"})
+    private int vectors;
+
+    @Param({"NONE", "INT8", "BINARY"})
+    private VectorQuantization quantization;
+
+    private Path directory;
+    private HnswIndex index;
+    private float[][] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("hnsw-benchmark");
+        index = HnswIndex.open(directory, DIMENSION, 16, 100, quantization);
+        Random random = new Random(1);
+        for (int i = 0; i < vectors; i++) {
+            index.add(randomVector(random));
+        }
+        queries = new float[256][];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = randomVector(random);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        index.close();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public HnswIndex.Neighbors search() {
+        return index.search(queries[next++ & 255], 10, 64, node -> true);
+    }
+
+    @Benchmark
+    public HnswIndex.Neighbors exactSearch() {
+        return index.exactSearch(queries[next++ & 255], 10, node -> true);
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
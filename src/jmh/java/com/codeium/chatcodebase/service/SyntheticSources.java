@@ -0,0 +1,83 @@
+package com.codeium.chatcodebase.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates deterministic, realistically shaped Java sources for the benchmarks.
+ */
+final class SyntheticSources {
+    private static final String[] IMPORTS = {
+        "java.util.List", "java.util.Map", "java.util.Optional", "java.util.concurrent.ConcurrentHashMap",
+        "lombok.Getter", "lombok.RequiredArgsConstructor", "lombok.extern.slf4j.Slf4j",
+        "org.springframework.stereotype.Service", "org.springframework.beans.factory.annotation.Value"
+    };
+
+    private SyntheticSources() {
+    }
+
+    /**
+     * A service class with {@code methods} methods of about 15 lines each.
+     */
+    static String javaClass(String packageName, String className, int methods) {
+        StringBuilder source = new StringBuilder(methods * 600);
+        source.append("package ").append(packageName).append(";\n\n");
+        for (String anImport : IMPORTS) {
+            source.append("import ").append(anImport).append(";\n");
+        }
+        source.append("\n/**\n * Generated service ").append(className).append(".\n */\n")
+            .append("@Slf4j\n@Service\n@RequiredArgsConstructor\n")
+            .append("public class ").append(className).append(" {\n")
+            .append("    private final Map<String, List<String>> cache = new ConcurrentHashMap<>();\n")
+            .append("    @Value(\"${limit:100}\")\n    private int limit;\n\n");
+        for (int i = 0; i < methods; i++) {
+            source.append("    /**\n     * Handles request number ").append(i).append(".\n     */\n")
+                .append("    public Optional<String> handle").append(i).append("(String key, List<String> values) {\n")
+                .append("        if (values == null || values.isEmpty()) {\n")
+                .append("            log.warn(\"No values for {}\", key);\n")
+                .append("            return Optional.empty();\n")
+                .append("        }\n")
+                .append("        List<String> existing = cache.computeIfAbsent(key, k -> new java.util.ArrayList<>());\n")
+                .append("        for (String value : values) {\n")
+                .append("            if (existing.size() < limit && !existing.contains(value)) {\n")
+                .append("                existing.add(value.trim() + \"-").append(i).append("\");\n")
+                .append("            }\n")
+                .append("        }\n")
+                .append("        return existing.stream().findFirst();\n")
+                .append("    }\n\n");
+        }
+        source.append("}\n");
+        return source.toString();
+    }
+
+    /**
+     * Parsed documents for a synthetic repository of {@code files} classes spread over packages, each
+     * importing a few random other classes of the repository. The documents share a symbol table, as
+     * the files of an analysis do.
+     */
+    static List<AstService.AstDocument> repository(int files, int importsPerFile) {
+        Random random = new Random(42);
+        List<AstService.AstDocument> documents = new ArrayList<>(files);
+        SymbolTable symbols = new SymbolTable();
+        for (int i = 0; i < files; i++) {
+            String packageName = packageOf(i);
+            AstService.AstMetadata metadata = new AstService.AstMetadata(symbols);
+            metadata.setPackageName(packageName);
+            metadata.addClass("Class" + i);
+            metadata.addMethod("public void run()");
+            for (int j = 0; j < importsPerFile; j++) {
+                int target = random.nextInt(files);
+                metadata.addDependency(packageOf(target) + ".Class" + target);
+            }
+            metadata.addDependency("java.util.List");
+            String path = "src/main/java/" + packageName.replace('.', '/') + "/Class" + i + ".java";
+            documents.add(new AstService.AstDocument(path, "class Class" + i + " {}", metadata));
+        }
+        return documents;
+    }
+
+    private static String packageOf(int index) {
+        return "com.example.module" + (index % 50);
+    }
+}
@@ -2,9 +2,9 @@ package com.codeium.chatcodebase;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
-@EnableAsync
+@EnableScheduling
 @SpringBootApplication
 public class ChatCodebaseApplication {
     public static void main(String[] args) {
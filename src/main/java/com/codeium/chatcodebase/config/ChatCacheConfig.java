@@ -0,0 +1,31 @@
+package com.codeium.chatcodebase.config;
+
+import com.codeium.chatcodebase.service.CachingEmbeddingModel;
+import com.codeium.chatcodebase.service.ChatCache;
+import com.codeium.chatcodebase.service.MeteredEmbeddingModel;
+import com.codeium.chatcodebase.service.QueryCachingEmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+@Configuration
+public class ChatCacheConfig {
+
+    /**
+     * The embedding model used by the vector store: query embeddings in memory, then the persistent
+     * embedding cache if it is enabled, then the timed Ollama model.
+     */
+    @Bean
+    @Primary
+    public QueryCachingEmbeddingModel queryCachingEmbeddingModel(
+        MeteredEmbeddingModel embeddingModel,
+        ObjectProvider<CachingEmbeddingModel> embeddingCache,
+        ChatCache chatCache
+    ) {
+        EmbeddingModel delegate = embeddingCache.getIfAvailable();
+        return new QueryCachingEmbeddingModel(
+            delegate != null ? delegate : embeddingModel, chatCache.getQueryEmbeddings());
+    }
+}
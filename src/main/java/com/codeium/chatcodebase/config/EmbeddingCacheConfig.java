@@ -0,0 +1,23 @@
+package com.codeium.chatcodebase.config;
+
+import com.codeium.chatcodebase.service.CachingEmbeddingModel;
+import com.codeium.chatcodebase.service.EmbeddingCacheRepository;
+import com.codeium.chatcodebase.service.MeteredEmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(name = "embedding.cache.enabled", havingValue = "true", matchIfMissing = true)
+public class EmbeddingCacheConfig {
+
+    @Bean
+    public CachingEmbeddingModel cachingEmbeddingModel(
+        MeteredEmbeddingModel embeddingModel,
+        EmbeddingCacheRepository repository,
+        @Value("${spring.ai.ollama.embedding.options.model}") String modelName
+    ) {
+        return new CachingEmbeddingModel(embeddingModel, repository, modelName);
+    }
+}
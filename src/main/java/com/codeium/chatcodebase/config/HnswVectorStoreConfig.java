@@ -0,0 +1,35 @@
+package com.codeium.chatcodebase.config;
+
+import com.codeium.chatcodebase.service.HnswVectorStore;
+import com.codeium.chatcodebase.service.VectorQuantization;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+
+/**
+ * The embedded vector store, used instead of pgvector with {@code spring.ai.vectorstore.type=hnsw}
+ * (see the {@code hnsw} profile).
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.ai.vectorstore.type", havingValue = "hnsw")
+public class HnswVectorStoreConfig {
+
+    @Bean(destroyMethod = "close")
+    public HnswVectorStore hnswVectorStore(
+        EmbeddingModel embeddingModel,
+        @Value("${spring.ai.vectorstore.hnsw.directory:data/vectors}") String directory,
+        @Value("${spring.ai.vectorstore.hnsw.dimensions:768}") int dimensions,
+        @Value("${spring.ai.vectorstore.hnsw.m:16}") int m,
+        @Value("${spring.ai.vectorstore.hnsw.ef-construction:100}") int efConstruction,
+        @Value("${spring.ai.vectorstore.hnsw.ef-search:64}") int efSearch,
+        @Value("${spring.ai.vectorstore.hnsw.quantization:none}") VectorQuantization quantization,
+        @Value("${spring.ai.vectorstore.hnsw.compaction-ratio:0.25}") double compactionRatio
+    ) {
+        return new HnswVectorStore(Path.of(directory), embeddingModel, dimensions, m, efConstruction, efSearch,
+            quantization, compactionRatio);
+    }
+}
@@ -0,0 +1,20 @@
+package com.codeium.chatcodebase.config;
+
+import com.codeium.chatcodebase.service.MeteredEmbeddingModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.ollama.OllamaEmbeddingModel;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * Ollama behind all embedding caches, timed; only cache misses reach it.
+     */
+    @Bean
+    public MeteredEmbeddingModel meteredEmbeddingModel(OllamaEmbeddingModel ollamaEmbeddingModel,
+                                                       MeterRegistry meterRegistry) {
+        return new MeteredEmbeddingModel(ollamaEmbeddingModel, meterRegistry);
+    }
+}
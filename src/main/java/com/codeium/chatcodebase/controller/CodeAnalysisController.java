@@ -1,34 +1,131 @@
 package com.codeium.chatcodebase.controller;
 
+import com.codeium.chatcodebase.service.AnalysisProgress;
+import com.codeium.chatcodebase.service.AnalysisProgressService;
+import com.codeium.chatcodebase.service.AnalysisScheduler;
+import com.codeium.chatcodebase.service.CacheStats;
+import com.codeium.chatcodebase.service.CachingEmbeddingModel;
+import com.codeium.chatcodebase.service.ChatCache;
 import com.codeium.chatcodebase.service.ChatService;
+import com.codeium.chatcodebase.service.ChatTimings;
 import com.codeium.chatcodebase.service.CodeAnalysisOrchestrator;
+import com.codeium.chatcodebase.service.DependencyAnalyticsService;
 import com.codeium.chatcodebase.service.DependencyService;
+import com.codeium.chatcodebase.service.HnswVectorStore;
+import com.codeium.chatcodebase.service.ProjectVectorPartitions;
+import com.codeium.chatcodebase.service.RecallReport;
+import com.codeium.chatcodebase.service.VectorQuantization;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+
+@Slf4j
 @RestController
 @RequestMapping("/api/v1")
 @RequiredArgsConstructor
 public class CodeAnalysisController {
+    /**
+     * Per-stage durations of a chat request, see {@link ChatTimings}.
+     */
+    private static final String SERVER_TIMING = "Server-Timing";
+    /**
+     * Queries of a recall evaluation; each one scans all vectors of the project.
+     */
+    private static final int MAX_RECALL_QUERIES = 200;
+
     private final CodeAnalysisOrchestrator orchestrator;
+    private final AnalysisScheduler analysisScheduler;
+    private final AnalysisProgressService analysisProgress;
     private final ChatService chatService;
+    private final DependencyAnalyticsService dependencyAnalytics;
+    private final ObjectProvider<CachingEmbeddingModel> embeddingCache;
+    private final ChatCache chatCache;
+    private final ObjectProvider<HnswVectorStore> hnswVectorStore;
+
+    @Value("${chat.stream.timeout-ms:300000}")
+    private long chatStreamTimeoutMillis;
 
+    @Value("${analysis.progress.timeout-ms:3600000}")
+    private long progressStreamTimeoutMillis;
+
+    /**
+     * Starts or queues the analysis; a request for a project that is already queued or running joins
+     * that job. Answers 429 with the position the job would have had when the queue is full.
+     */
     @PostMapping("/analyze/{projectId}")
-    public ResponseEntity<Void> startAnalysis(@PathVariable String projectId) {
-        orchestrator.analyzeRepository(projectId);
-        return ResponseEntity.accepted().build();
+    public ResponseEntity<AnalysisScheduler.Admission> startAnalysis(@PathVariable String projectId) {
+        requireValidProjectId(projectId);
+        AnalysisScheduler.Admission admission = analysisScheduler.submit(projectId);
+        if (!admission.accepted()) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(admission);
+        }
+        return ResponseEntity.accepted().body(admission);
+    }
+
+    @GetMapping("/analyze/queue")
+    public ResponseEntity<AnalysisScheduler.Snapshot> getAnalysisQueue() {
+        return ResponseEntity.ok(analysisScheduler.snapshot());
+    }
+
+    @DeleteMapping("/analyze/{projectId}")
+    public ResponseEntity<Void> deleteProject(@PathVariable String projectId) {
+        requireValidProjectId(projectId);
+        if (!orchestrator.deleteProject(projectId)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        return ResponseEntity.noContent().build();
     }
 
     @GetMapping("/analyze/{projectId}/status")
     public ResponseEntity<CodeAnalysisOrchestrator.AnalysisStatus> getAnalysisStatus(
             @PathVariable String projectId) {
+        requireValidProjectId(projectId);
         return ResponseEntity.ok(orchestrator.getAnalysisStatus(projectId));
     }
 
+    /**
+     * Streams {@link AnalysisProgress} events named {@code progress} until the analysis is done. Streams
+     * that time out are resumed by the browser's {@code EventSource}.
+     */
+    @GetMapping(value = "/analyze/{projectId}/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamAnalysisProgress(@PathVariable String projectId) {
+        requireValidProjectId(projectId);
+        SseEmitter emitter = new SseEmitter(progressStreamTimeoutMillis);
+        Disposable subscription = analysisProgress.events(projectId)
+            .subscribe(
+                progress -> send(emitter, "progress", progress),
+                error -> {
+                    if (error instanceof UncheckedIOException) {
+                        log.info("Analysis progress client disconnected: {}", error.getMessage());
+                        return;
+                    }
+                    log.error("Analysis progress stream failed for project: {}", projectId, error);
+                    emitter.completeWithError(error);
+                },
+                emitter::complete);
+        emitter.onCompletion(subscription::dispose);
+        emitter.onTimeout(subscription::dispose);
+        emitter.onError(error -> subscription.dispose());
+        return emitter;
+    }
+
     @GetMapping("/analyze/{projectId}/dependencies")
     public ResponseEntity<DependencyService.DependencyData> getDependencies(
             @PathVariable String projectId) {
+        requireValidProjectId(projectId);
         DependencyService.DependencyData data = orchestrator.getDependencyData(projectId);
         if (data == null) {
             return ResponseEntity.notFound().build();
@@ -36,12 +133,154 @@ public class CodeAnalysisController {
         return ResponseEntity.ok(data);
     }
 
+    @GetMapping("/analyze/{projectId}/dependencies/transitive")
+    public ResponseEntity<List<DependencyAnalyticsService.FileDepth>> getTransitiveDependencies(
+            @PathVariable String projectId,
+            @RequestParam String file,
+            @RequestParam(defaultValue = "3") int depth) {
+        requireValidProjectId(projectId);
+        return ResponseEntity.of(dependencyAnalytics.transitiveDependencies(projectId, file, depth));
+    }
+
+    @GetMapping("/analyze/{projectId}/dependencies/impact")
+    public ResponseEntity<List<DependencyAnalyticsService.FileDepth>> getImpactedFiles(
+            @PathVariable String projectId,
+            @RequestParam String file,
+            @RequestParam(defaultValue = "3") int depth) {
+        requireValidProjectId(projectId);
+        return ResponseEntity.of(dependencyAnalytics.impactedFiles(projectId, file, depth));
+    }
+
+    @GetMapping("/analyze/{projectId}/dependencies/cycles")
+    public ResponseEntity<List<List<String>>> getDependencyCycles(@PathVariable String projectId) {
+        requireValidProjectId(projectId);
+        return ResponseEntity.of(dependencyAnalytics.cycles(projectId));
+    }
+
+    @GetMapping("/analyze/{projectId}/dependencies/top")
+    public ResponseEntity<DependencyAnalyticsService.TopFiles> getTopFiles(
+            @PathVariable String projectId,
+            @RequestParam(defaultValue = "10") int limit) {
+        requireValidProjectId(projectId);
+        return ResponseEntity.of(dependencyAnalytics.topFiles(projectId, limit));
+    }
+
+    /**
+     * Recall@10 of the project's vector searches against an exact scan, for the embedded vector store.
+     * At most {@value #MAX_RECALL_QUERIES} queries are evaluated.
+     */
+    @GetMapping("/analyze/{projectId}/vectors/recall")
+    public ResponseEntity<RecallReport> getVectorRecall(
+            @PathVariable String projectId,
+            @RequestParam(defaultValue = "50") int queries) {
+        requireValidProjectId(projectId);
+        if (queries <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "queries must be positive");
+        }
+        HnswVectorStore store = hnswVectorStore.getIfAvailable();
+        if (store == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.of(store.evaluate(projectId, Math.min(queries, MAX_RECALL_QUERIES)));
+    }
+
+    @PutMapping("/analyze/{projectId}/vectors/quantization")
+    public ResponseEntity<Void> setVectorQuantization(
+            @PathVariable String projectId,
+            @RequestParam VectorQuantization mode) {
+        requireValidProjectId(projectId);
+        HnswVectorStore store = hnswVectorStore.getIfAvailable();
+        if (store == null || !store.quantize(projectId, mode)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.noContent().build();
+    }
+
     @PostMapping("/chat")
     public ResponseEntity<ChatResponse> chat(@RequestBody ChatRequest request) {
-        String response = chatService.chatWithContext(request.query());
-        return ResponseEntity.ok(new ChatResponse(response));
+        requireValidProjectId(request);
+        ChatTimings timings = chatService.newTimings();
+        String response = chatService.chatWithContext(request.projectId(), request.query(), timings);
+        return ResponseEntity.ok()
+            .header(SERVER_TIMING, timings.toServerTiming())
+            .body(new ChatResponse(response));
+    }
+
+    /**
+     * Streams the answer as server-sent events, see {@link ChatService#streamWithContext}. Generation stops
+     * when the client disconnects or the stream times out.
+     */
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChat(@RequestBody ChatRequest request) {
+        requireValidProjectId(request);
+        SseEmitter emitter = new SseEmitter(chatStreamTimeoutMillis);
+        Disposable subscription = chatService.streamWithContext(request.projectId(), request.query())
+            .subscribe(
+                event -> send(emitter, event),
+                error -> {
+                    // Failures of the answer arrive as error events
+                    if (error instanceof UncheckedIOException) {
+                        // The client is gone, there is nobody left to tell
+                        log.info("Chat stream client disconnected: {}", error.getMessage());
+                        return;
+                    }
+                    log.error("Chat stream failed", error);
+                    emitter.completeWithError(error);
+                },
+                emitter::complete);
+        emitter.onCompletion(subscription::dispose);
+        emitter.onTimeout(subscription::dispose);
+        emitter.onError(error -> subscription.dispose());
+        return emitter;
+    }
+
+    /**
+     * Project ids end up in SQL and jsonpath expressions, see {@link ProjectVectorPartitions#VALID_PROJECT_ID}.
+     */
+    private static void requireValidProjectId(String projectId) {
+        if (!ProjectVectorPartitions.isValidProjectId(projectId)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid project id");
+        }
+    }
+
+    /**
+     * A chat without a project id searches all projects.
+     */
+    private static void requireValidProjectId(ChatRequest request) {
+        if (request.projectId() != null) {
+            requireValidProjectId(request.projectId());
+        }
+    }
+
+    /**
+     * Throws an unchecked exception when the client is gone, which cancels the subscription.
+     */
+    private static void send(SseEmitter emitter, ChatService.ChatEvent event) {
+        send(emitter, event.name(), event.data());
+    }
+
+    private static void send(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @GetMapping("/cache/embeddings")
+    public ResponseEntity<CacheStats> getEmbeddingCacheStats() {
+        CachingEmbeddingModel cache = embeddingCache.getIfAvailable();
+        if (cache == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(cache.getStats());
+    }
+
+    @GetMapping("/cache/chat")
+    public ResponseEntity<Map<String, CacheStats>> getChatCacheStats() {
+        return ResponseEntity.ok(chatCache.getStats());
     }
 
-    public record ChatRequest(String query) {}
+    public record ChatRequest(String query, String projectId) {}
     public record ChatResponse(String response) {}
 }
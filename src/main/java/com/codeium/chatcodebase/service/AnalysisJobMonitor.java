@@ -0,0 +1,33 @@
+package com.codeium.chatcodebase.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sends the heartbeats of the analyses running on this node and resumes analyses whose node stopped,
+ * including this node's own analyses from before a restart. Resumed analyses are submitted to the
+ * scheduler like new ones; when its queue is full, they are tried again on the next check.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AnalysisJobMonitor {
+    private final CodeAnalysisOrchestrator orchestrator;
+    private final AnalysisScheduler scheduler;
+
+    @Scheduled(fixedDelayString = "${analysis.jobs.heartbeat-ms:10000}")
+    public void checkJobs() {
+        try {
+            orchestrator.checkpointRunningAnalyses();
+            orchestrator.refreshAnalyzedProjects();
+            for (String projectId : orchestrator.findStaleAnalyses()) {
+                AnalysisScheduler.Admission admission = scheduler.submit(projectId);
+                log.info("Resuming the analysis of project: {} ({})", projectId, admission);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to check analysis jobs", e);
+        }
+    }
+}
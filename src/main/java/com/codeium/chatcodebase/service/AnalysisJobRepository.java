@@ -0,0 +1,170 @@
+package com.codeium.chatcodebase.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Persists the analysis job of each project, so that a job survives the node that runs it and every
+ * node agrees on which one runs it. The owner of a running job refreshes its heartbeat; a job whose
+ * heartbeat is older than the stale timeout may be claimed by another node.
+ */
+@Repository
+@RequiredArgsConstructor
+public class AnalysisJobRepository {
+    private static final String RUNNING = "RUNNING";
+    private static final String COMPLETED = "COMPLETED";
+    private static final String FAILED = "FAILED";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Starts a new job for the owner, unless the project's job is running or being deleted and its owner
+     * is alive.
+     *
+     * @return {@code false} if another job is running
+     */
+    public boolean claim(String projectId, String owner, Duration staleAfter) {
+        return jdbcTemplate.update("""
+            INSERT INTO analysis_job (project_id, state, step, owner)
+            VALUES (?, 'RUNNING', 'NOT_STARTED', ?)
+            ON CONFLICT (project_id)
+            DO UPDATE SET state = 'RUNNING',
+                          step = 'NOT_STARTED',
+                          progress = 0,
+                          updated_files = 0,
+                          skipped_files = 0,
+                          deleted_files = 0,
+                          error = NULL,
+                          owner = EXCLUDED.owner,
+                          started_at = now(),
+                          heartbeat_at = now()
+            WHERE analysis_job.state NOT IN ('RUNNING', 'DELETING')
+               OR analysis_job.heartbeat_at < now() - make_interval(secs => ?)
+            """, projectId, owner, seconds(staleAfter)) > 0;
+    }
+
+    /**
+     * Claims the project for deleting it, unless its job is running or being deleted and its owner is
+     * alive. No analysis of the project starts until the row is {@linkplain #delete deleted}.
+     *
+     * @return {@code false} if a job is running
+     */
+    public boolean claimDeletion(String projectId, String owner, Duration staleAfter) {
+        return jdbcTemplate.update("""
+            INSERT INTO analysis_job (project_id, state, step, owner)
+            VALUES (?, 'DELETING', 'NOT_STARTED', ?)
+            ON CONFLICT (project_id)
+            DO UPDATE SET state = 'DELETING',
+                          finished_at = NULL,
+                          owner = EXCLUDED.owner,
+                          heartbeat_at = now()
+            WHERE analysis_job.state NOT IN ('RUNNING', 'DELETING')
+               OR analysis_job.heartbeat_at < now() - make_interval(secs => ?)
+            """, projectId, owner, seconds(staleAfter)) > 0;
+    }
+
+    /**
+     * Records the progress of a running job and refreshes its heartbeat.
+     */
+    public void checkpoint(String projectId, String owner, CodeAnalysisOrchestrator.AnalysisStatus status) {
+        jdbcTemplate.update("""
+            UPDATE analysis_job
+            SET step = ?, progress = ?, updated_files = ?, skipped_files = ?, deleted_files = ?, heartbeat_at = now()
+            WHERE project_id = ? AND owner = ? AND state = 'RUNNING'
+            """, status.getCurrentStep().name(), status.getProgress().get(), status.getUpdatedFiles().get(),
+            status.getSkippedFiles().get(), status.getDeletedFiles(), projectId, owner);
+    }
+
+    public void finish(String projectId, String owner, CodeAnalysisOrchestrator.AnalysisStatus status) {
+        jdbcTemplate.update("""
+            UPDATE analysis_job
+            SET state = ?, step = ?, progress = ?, updated_files = ?, skipped_files = ?, deleted_files = ?,
+                error = ?, heartbeat_at = now(), finished_at = now()
+            WHERE project_id = ? AND owner = ?
+            """, status.isSuccess() ? COMPLETED : FAILED, status.getCurrentStep().name(), status.getProgress().get(),
+            status.getUpdatedFiles().get(), status.getSkippedFiles().get(), status.getDeletedFiles(),
+            status.getError(), projectId, owner);
+    }
+
+    public Optional<Job> load(String projectId) {
+        List<Job> jobs = jdbcTemplate.query("""
+            SELECT state, step, progress, updated_files, skipped_files, deleted_files, error, owner
+            FROM analysis_job WHERE project_id = ?
+            """,
+            (rs, rowNum) -> {
+                CodeAnalysisOrchestrator.AnalysisStatus status = new CodeAnalysisOrchestrator.AnalysisStatus(
+                    CodeAnalysisOrchestrator.AnalysisStep.valueOf(rs.getString("step")), rs.getInt("progress"),
+                    rs.getString("error"), COMPLETED.equals(rs.getString("state")));
+                status.setUpdatedFiles(rs.getInt("updated_files"));
+                status.setSkippedFiles(rs.getInt("skipped_files"));
+                status.setDeletedFiles(rs.getInt("deleted_files"));
+                boolean running = RUNNING.equals(rs.getString("state"));
+                if (!running) {
+                    status.complete();
+                }
+                return new Job(rs.getString("owner"), running, status);
+            },
+            projectId);
+        return jobs.stream().findFirst();
+    }
+
+    /**
+     * @return when the project's last analysis finished, on any node; the version of its stored index
+     */
+    public Optional<Instant> findFinishedAt(String projectId) {
+        List<Instant> rows = jdbcTemplate.query(
+            "SELECT finished_at FROM analysis_job WHERE project_id = ? AND finished_at IS NOT NULL",
+            (rs, rowNum) -> rs.getTimestamp("finished_at").toInstant(),
+            projectId);
+        return rows.stream().findFirst();
+    }
+
+    /**
+     * Projects whose job is running but whose owner has not sent a heartbeat within {@code staleAfter}.
+     */
+    public List<String> findStale(Duration staleAfter) {
+        return jdbcTemplate.queryForList("""
+            SELECT project_id FROM analysis_job
+            WHERE state = 'RUNNING' AND heartbeat_at < now() - make_interval(secs => ?)
+            """, String.class, seconds(staleAfter));
+    }
+
+    /**
+     * Projects that were analyzed or are being analyzed.
+     */
+    public List<String> findProjectIds() {
+        return jdbcTemplate.queryForList("SELECT project_id FROM analysis_job WHERE state <> 'DELETING'",
+            String.class);
+    }
+
+    /**
+     * Whether the project's job is running and its owner is alive.
+     */
+    public boolean isRunning(String projectId, Duration staleAfter) {
+        Integer running = jdbcTemplate.queryForObject("""
+            SELECT count(*) FROM analysis_job
+            WHERE project_id = ? AND state = 'RUNNING' AND heartbeat_at >= now() - make_interval(secs => ?)
+            """, Integer.class, projectId, seconds(staleAfter));
+        return running != null && running > 0;
+    }
+
+    public void delete(String projectId) {
+        jdbcTemplate.update("DELETE FROM analysis_job WHERE project_id = ?", projectId);
+    }
+
+    private static double seconds(Duration duration) {
+        return duration.toMillis() / 1000.0;
+    }
+
+    /**
+     * @param owner   the node that runs or ran the job
+     * @param running whether the job was still running at its last checkpoint
+     */
+    public record Job(String owner, boolean running, CodeAnalysisOrchestrator.AnalysisStatus status) {}
+}
@@ -0,0 +1,188 @@
+package com.codeium.chatcodebase.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.search.Search;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the analysis pipeline, tagged with the project. Together they show which stage limits the
+ * throughput of an analysis: fetching from GitLab, parsing, waiting for the model server, embedding or
+ * inserting vectors.
+ */
+@Component
+@RequiredArgsConstructor
+public class AnalysisMetrics {
+    /**
+     * Tag value of meters recorded without a project.
+     */
+    static final String NO_PROJECT = "none";
+    /**
+     * Tag value of meters recorded for a project id that was never analyzed. Chat requests name their
+     * project, so tagging with every id a client sends would create meters without bound.
+     */
+    static final String UNKNOWN_PROJECT = "unknown";
+
+    private final MeterRegistry registry;
+    private volatile Set<String> analyzedProjects = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Replaces the projects whose ids are used as tag values, e.g. with the projects of the job table.
+     */
+    public void setAnalyzedProjects(Collection<String> projectIds) {
+        Set<String> projects = ConcurrentHashMap.newKeySet();
+        projects.addAll(projectIds);
+        analyzedProjects = projects;
+    }
+
+    public void projectAnalyzed(String projectId) {
+        analyzedProjects.add(projectId);
+    }
+
+    /**
+     * Stops using the project as a tag value and removes its meters, so that deleted projects do not
+     * keep their meters until restart.
+     */
+    public void projectDeleted(String projectId) {
+        analyzedProjects.remove(projectId);
+        Search.in(registry).tag("project", projectId).meters().forEach(registry::remove);
+    }
+
+    public void fetchCompleted(String projectId, long nanos) {
+        Timer.builder("gitlab.fetch.duration")
+            .description("Duration of fetching all files of a repository from GitLab")
+            .tag("project", projectId)
+            .register(registry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void fileFetched(String projectId, String content) {
+        files(projectId, "fetched").increment();
+        Counter.builder("gitlab.fetch.bytes")
+            .description("UTF-8 bytes of the files fetched from GitLab")
+            .baseUnit("bytes")
+            .tag("project", projectId)
+            .register(registry)
+            .increment(utf8Length(content));
+    }
+
+    public void filesFailed(String projectId, int count) {
+        files(projectId, "failed").increment(count);
+    }
+
+    /**
+     * Records a parsed Java file; files that fail to parse are indexed as text.
+     */
+    public void fileParsed(String projectId, long nanos, boolean success) {
+        Timer.builder("analysis.parse.duration")
+            .description("Duration of parsing one Java file")
+            .tag("project", projectId)
+            .tag("outcome", success ? "parsed" : "failed")
+            .publishPercentileHistogram()
+            .register(registry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void fileChunked(String projectId, int chunks) {
+        DistributionSummary.builder("analysis.file.chunks")
+            .description("Chunks per changed file")
+            .tag("project", projectId)
+            .register(registry)
+            .record(chunks);
+    }
+
+    /**
+     * Records an embedding batch that was stored.
+     *
+     * @param waitNanos   time spent waiting for the {@link ModelGate}
+     * @param modelNanos  time spent in requests to the embedding model server
+     * @param insertNanos the rest of storing the batch: embedding cache lookups and the vector insert
+     */
+    public void batchStored(String projectId, int chunks, int tokens, long waitNanos, long modelNanos,
+                            long insertNanos) {
+        batchTimer("analysis.batch.wait", "Time an embedding batch waited for the model server", projectId)
+            .record(waitNanos, TimeUnit.NANOSECONDS);
+        batchTimer("analysis.batch.embedding", "Time the model server took to embed a batch", projectId)
+            .record(modelNanos, TimeUnit.NANOSECONDS);
+        batchTimer("analysis.batch.insert", "Time to store an embedded batch in the vector store", projectId)
+            .record(insertNanos, TimeUnit.NANOSECONDS);
+        Counter.builder("analysis.embedding.chunks")
+            .description("Chunks embedded and stored")
+            .tag("project", projectId)
+            .register(registry)
+            .increment(chunks);
+        Counter.builder("analysis.embedding.tokens")
+            .description("Estimated tokens embedded and stored; its rate is the ingest throughput")
+            .baseUnit("tokens")
+            .tag("project", projectId)
+            .register(registry)
+            .increment(tokens);
+        if (modelNanos > 0) {
+            DistributionSummary.builder("analysis.embedding.throughput")
+                .description("Estimated tokens per second of the model server, per batch")
+                .baseUnit("tokens/s")
+                .tag("project", projectId)
+                .register(registry)
+                .record(tokens * 1e9 / modelNanos);
+        }
+    }
+
+    public void batchFailed(String projectId) {
+        Counter.builder("analysis.batch.failures")
+            .description("Embedding batches that failed and were split or given up")
+            .tag("project", projectId)
+            .register(registry)
+            .increment();
+    }
+
+    private Counter files(String projectId, String outcome) {
+        return Counter.builder("gitlab.fetch.files")
+            .description("Files fetched from GitLab")
+            .tag("project", projectId)
+            .tag("outcome", outcome)
+            .register(registry);
+    }
+
+    private Timer batchTimer(String name, String description, String projectId) {
+        return Timer.builder(name)
+            .description(description)
+            .tag("project", projectId)
+            .publishPercentileHistogram()
+            .register(registry);
+    }
+
+    /**
+     * The tag value of a project id sent by a client: the id if the project was analyzed.
+     */
+    String projectTag(String projectId) {
+        return projectId == null ? NO_PROJECT
+            : analyzedProjects.contains(projectId) ? projectId
+            : UNKNOWN_PROJECT;
+    }
+
+    static long utf8Length(CharSequence text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,26 @@
+package com.codeium.chatcodebase.service;
+
+import java.util.List;
+
+/**
+ * A progress event of an analysis. File counts are cumulative and only cover the files that are
+ * analyzed, i.e. source files; each stage counts the files that have passed it.
+ *
+ * @param queuePosition  position in the analysis queue while waiting, otherwise 0
+ * @param totalFiles     files to analyze, {@code null} until all files are fetched
+ * @param storedFiles    changed files whose chunks are stored and recorded in the manifest
+ * @param skippedFiles   unchanged files, which are not embedded again
+ * @param failedFiles    files given up after they were fetched; they are retried by the next analysis
+ * @param filesPerSecond files finished (stored, skipped or failed) per second since the analysis started
+ * @param etaSeconds     estimated time until all files are finished, {@code null} while unknown
+ * @param newErrors      file errors not sent to this subscriber before
+ * @param errorCount     file errors so far, including files that could not be fetched
+ * @param done           whether the analysis has ended; no more events follow
+ */
+public record AnalysisProgress(CodeAnalysisOrchestrator.AnalysisStep step, int progress, int queuePosition,
+                               Integer totalFiles, int fetchedFiles, int parsedFiles, int chunkedFiles,
+                               int embeddedFiles, int storedFiles, int skippedFiles, int failedFiles,
+                               int deletedFiles, Double filesPerSecond, Long etaSeconds,
+                               List<CodeAnalysisOrchestrator.FileError> newErrors, int errorCount,
+                               boolean done, boolean success, String error) {
+}
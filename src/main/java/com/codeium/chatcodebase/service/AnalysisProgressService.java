@@ -0,0 +1,66 @@
+package com.codeium.chatcodebase.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams the progress of a project's analysis, at most one event per {@code min-interval}. While the
+ * analysis runs on this node its status pushes the events. While it waits in the queue, or runs on
+ * another node, its state is checked every interval instead. The last event has {@code done} set.
+ */
+@Service
+public class AnalysisProgressService {
+    private final CodeAnalysisOrchestrator orchestrator;
+    private final AnalysisScheduler scheduler;
+    private final Duration minInterval;
+
+    public AnalysisProgressService(CodeAnalysisOrchestrator orchestrator, AnalysisScheduler scheduler,
+                                   @Value("${analysis.progress.min-interval-ms:500}") long minIntervalMillis) {
+        this.orchestrator = orchestrator;
+        this.scheduler = scheduler;
+        this.minInterval = Duration.ofMillis(minIntervalMillis);
+    }
+
+    public Flux<AnalysisProgress> events(String projectId) {
+        return Flux.interval(Duration.ZERO, minInterval)
+            .onBackpressureDrop()
+            .concatMap(tick -> Mono.fromCallable(() -> phase(projectId)).subscribeOn(Schedulers.boundedElastic()), 1)
+            .takeUntil(phase -> !phase.waiting())
+            .concatMap(Phase::events)
+            .distinctUntilChanged();
+    }
+
+    private Phase phase(String projectId) {
+        Optional<CodeAnalysisOrchestrator.AnalysisStatus> running = orchestrator.getRunningStatus(projectId);
+        if (running.isPresent()) {
+            return new Phase(false, running.get().events(minInterval));
+        }
+        int queuePosition = scheduler.queuePosition(projectId);
+        if (queuePosition >= 0) {
+            // Queued, or about to be started by the scheduler
+            return waiting(new CodeAnalysisOrchestrator.AnalysisStatus(), queuePosition);
+        }
+        CodeAnalysisOrchestrator.AnalysisStatus status = orchestrator.getAnalysisStatus(projectId);
+        if (orchestrator.isAnalysisRunning(projectId)) {
+            return waiting(status, 0);
+        }
+        status.complete();
+        return new Phase(false, Flux.just(status.toProgress(0, new AtomicInteger())));
+    }
+
+    private static Phase waiting(CodeAnalysisOrchestrator.AnalysisStatus status, int queuePosition) {
+        return new Phase(true, Flux.just(status.toProgress(queuePosition, new AtomicInteger())));
+    }
+
+    /**
+     * @param waiting whether the state is checked again after the events
+     */
+    private record Phase(boolean waiting, Flux<AnalysisProgress> events) {}
+}
@@ -0,0 +1,121 @@
+package com.codeium.chatcodebase.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Admits analyses into a bounded queue and runs at most {@code max-running} of them at a time, in
+ * the order they were requested. A request for a project that is queued or running joins that job.
+ * Running jobs share the model server through the {@link ModelGate}, which serves their embedding
+ * batches round-robin.
+ */
+@Slf4j
+@Service
+public class AnalysisScheduler {
+    private final CodeAnalysisOrchestrator orchestrator;
+    private final int maxRunning;
+    private final int queueCapacity;
+    private final ExecutorService executor;
+    private final Set<String> queued = new LinkedHashSet<>();
+    private final Set<String> running = new LinkedHashSet<>();
+
+    public AnalysisScheduler(CodeAnalysisOrchestrator orchestrator,
+                             @Value("${analysis.scheduler.max-running:2}") int maxRunning,
+                             @Value("${analysis.scheduler.queue-capacity:20}") int queueCapacity) {
+        this.orchestrator = orchestrator;
+        this.maxRunning = maxRunning;
+        this.queueCapacity = queueCapacity;
+        this.executor = Executors.newFixedThreadPool(maxRunning, Thread.ofPlatform().name("analysis-", 1).factory());
+    }
+
+    /**
+     * Starts or queues the analysis of the project.
+     *
+     * @return the job's position, or a rejection with the position the job would have had if the queue
+     * is full
+     */
+    public synchronized Admission submit(String projectId) {
+        if (running.contains(projectId)) {
+            return new Admission(true, 0, queueCapacity);
+        }
+        if (queued.contains(projectId)) {
+            return new Admission(true, position(projectId), queueCapacity);
+        }
+        if (running.size() < maxRunning) {
+            start(projectId);
+            return new Admission(true, 0, queueCapacity);
+        }
+        if (queued.size() >= queueCapacity) {
+            return new Admission(false, queued.size() + 1, queueCapacity);
+        }
+        queued.add(projectId);
+        log.info("Queued the analysis of project: {} (position {})", projectId, queued.size());
+        return new Admission(true, queued.size(), queueCapacity);
+    }
+
+    /**
+     * @return 0 while the project's analysis runs, its position while it is queued, otherwise -1
+     */
+    public synchronized int queuePosition(String projectId) {
+        return running.contains(projectId) ? 0 : position(projectId);
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(List.copyOf(running), List.copyOf(queued), queueCapacity);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void start(String projectId) {
+        running.add(projectId);
+        executor.execute(() -> {
+            try {
+                orchestrator.analyzeRepository(projectId);
+            } catch (Exception e) {
+                // Already logged and recorded in the job by the orchestrator
+                log.debug("Analysis of project {} ended with an error", projectId, e);
+            } finally {
+                finished(projectId);
+            }
+        });
+    }
+
+    private synchronized void finished(String projectId) {
+        running.remove(projectId);
+        if (!queued.isEmpty()) {
+            String next = queued.iterator().next();
+            queued.remove(next);
+            start(next);
+        }
+    }
+
+    private int position(String projectId) {
+        int position = 1;
+        for (String project : queued) {
+            if (project.equals(projectId)) {
+                return position;
+            }
+            position++;
+        }
+        return -1;
+    }
+
+    /**
+     * @param accepted      whether the job is running or queued
+     * @param queuePosition 0 while running, otherwise the number of jobs up to and including this one
+     */
+    public record Admission(boolean accepted, int queuePosition, int queueCapacity) {}
+
+    public record Snapshot(List<String> running, List<String> queued, int queueCapacity) {}
+}
@@ -1,105 +1,345 @@
 package com.codeium.chatcodebase.service;
 
-import com.github.javaparser.StaticJavaParser;
-import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.Position;
 import com.github.javaparser.ast.CompilationUnit;
-import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.BodyDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
 import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 @Service
 public class AstService {
-    private static final Set<String> JAVA_EXTENSIONS = Set.of(".java", ".kt", ".scala");
+    private static final Set<String> SOURCE_EXTENSIONS = Set.of(".java", ".kt", ".scala");
+    private static final int MAX_ERROR_LENGTH = 200;
+
+    @Value("${analysis.parser.mode:declarations}")
+    private ParseMode parseMode = ParseMode.DECLARATIONS;
+
+    /**
+     * Language level the code is validated against in {@link ParseMode#FULL} mode.
+     */
+    @Value("${analysis.parser.language-level:JAVA_17}")
+    private ParserConfiguration.LanguageLevel languageLevel = ParserConfiguration.LanguageLevel.JAVA_17;
+
+    /**
+     * A {@link JavaParser} is not thread-safe; every parsing thread configures one on first use.
+     */
+    private final ThreadLocal<JavaParser> parsers = ThreadLocal.withInitial(this::newParser);
+
+    public AstService() {
+    }
+
+    AstService(ParseMode parseMode) {
+        this.parseMode = parseMode;
+    }
 
     public List<AstDocument> parseFiles(List<GitLabService.CodeFile> files) {
+        SymbolTable symbols = new SymbolTable();
         return files.parallelStream()
-            .filter(file -> isJavaFile(file.path()))
-            .map(this::parseFile)
+            .filter(file -> isSourceFile(file.path()))
+            .map(file -> parseFile(file, symbols))
             .toList();
     }
 
-    private boolean isJavaFile(String path) {
-        return JAVA_EXTENSIONS.stream()
+    /**
+     * Whether the file is analyzed. Only Java files are parsed, other sources are indexed as text.
+     */
+    public boolean isSourceFile(String path) {
+        return SOURCE_EXTENSIONS.stream()
             .anyMatch(path::endsWith);
     }
 
-    private AstDocument parseFile(GitLabService.CodeFile file) {
+    public boolean isJavaFile(String path) {
+        return path.endsWith(".java");
+    }
+
+    public AstDocument parseFile(GitLabService.CodeFile file) {
+        return parseFile(file, new SymbolTable());
+    }
+
+    /**
+     * Parses a Java file, interning its names in the symbol table shared by the files of the project.
+     * Files that are not Java, or that fail to parse, are returned without metadata and member offsets,
+     * so they are still indexed as text; a parse failure is recorded in the document.
+     */
+    public AstDocument parseFile(GitLabService.CodeFile file, SymbolTable symbols) {
+        if (!isJavaFile(file.path())) {
+            return AstDocument.unparsed(file.path(), file.content(), symbols, null);
+        }
         try {
-            CompilationUnit cu = StaticJavaParser.parse(file.content());
-            AstMetadata metadata = extractMetadata(cu);
-            
+            ParseResult<CompilationUnit> result = parsers.get().parse(file.content());
+            if (!result.isSuccessful() || result.getResult().isEmpty()) {
+                String error = result.getProblems().isEmpty()
+                    ? "Failed to parse"
+                    : result.getProblems().get(0).getMessage();
+                return AstDocument.unparsed(file.path(), file.content(), symbols, abbreviate(error));
+            }
+            CompilationUnit cu = result.getResult().get();
+            int[] lineStarts = TextChunker.lineStarts(file.content());
             return new AstDocument(
                 file.path(),
                 file.content(),
-                serializeAst(cu),
-                metadata
+                extractMetadata(cu, symbols, parseMode == ParseMode.FULL
+                    ? MethodDeclaration::getDeclarationAsString
+                    : method -> sourceSignature(method, file.content(), lineStarts)),
+                memberOffsets(cu, file.content(), lineStarts)
             );
-        } catch (ParseProblemException e) {
-            throw new AstParseException("Failed to parse file: " + file.path(), e);
+        } catch (RuntimeException | StackOverflowError e) {
+            // The parser fails on some inputs instead of reporting a problem, e.g. deeply nested expressions
+            return AstDocument.unparsed(file.path(), file.content(), symbols, abbreviate("Failed to parse: " + e));
         }
     }
 
-    private AstMetadata extractMetadata(CompilationUnit cu) {
-        AstMetadata metadata = new AstMetadata();
-        
-        // Class/Interface declarations
-        cu.findAll(ClassOrInterfaceDeclaration.class).forEach(cls -> {
-            metadata.addClass(cls.getNameAsString());
-            cls.getMethods().forEach(method -> 
-                metadata.addMethod(method.getDeclarationAsString()));
-            cls.getFields().forEach(field -> 
+    /**
+     * The declarations mode parses without validating the code against the language level, which takes
+     * about a third of the parse time and is not needed to read declarations.
+     */
+    private JavaParser newParser() {
+        return new JavaParser(new ParserConfiguration()
+            .setLanguageLevel(parseMode == ParseMode.FULL ? languageLevel : ParserConfiguration.LanguageLevel.RAW)
+            // Comments are found by memberOffsets, assigning them to nodes is a large part of parsing
+            .setAttributeComments(false));
+    }
+
+    AstMetadata extractMetadata(CompilationUnit cu) {
+        return extractMetadata(cu, new SymbolTable(), MethodDeclaration::getDeclarationAsString);
+    }
+
+    private AstMetadata extractMetadata(CompilationUnit cu, SymbolTable symbols,
+                                        Function<MethodDeclaration, String> signature) {
+        AstMetadata metadata = new AstMetadata(symbols);
+
+        // Package info, which qualifies the classes
+        cu.getPackageDeclaration().ifPresent(pkg -> 
+            metadata.setPackageName(pkg.getNameAsString()));
+
+        // Class, interface, enum, record and annotation declarations
+        for (TypeDeclaration<?> type : cu.findAll(TypeDeclaration.class)) {
+            metadata.addClass(type.getNameAsString());
+            type.getMethods().forEach(method -> 
+                metadata.addMethod(signature.apply(method)));
+            type.getFields().forEach(field -> 
                 metadata.addField(field.getVariables().get(0).getNameAsString()));
-        });
+        }
 
         // Import statements
         cu.getImports().forEach(importDecl -> 
             metadata.addDependency(importDecl.getNameAsString()));
 
-        // Package info
-        cu.getPackageDeclaration().ifPresent(pkg -> 
-            metadata.setPackageName(pkg.getNameAsString()));
-
         return metadata;
     }
 
-    private String serializeAst(CompilationUnit cu) {
-        return cu.toString();
+    /**
+     * The method's declaration as written, from its modifiers up to its body or semicolon, with whitespace
+     * collapsed. Cheaper than {@link MethodDeclaration#getDeclarationAsString()}, which prints the types.
+     */
+    static String sourceSignature(MethodDeclaration method, String content, int[] lineStarts) {
+        Optional<Position> begin = Stream.of(method.getModifiers().getFirst(),
+                method.getTypeParameters().getFirst(), Optional.of(method.getType()))
+            .flatMap(Optional::stream)
+            .map(Node::getBegin)
+            .flatMap(Optional::stream)
+            .min(Position::compareTo);
+        Optional<Position> end = method.getBody()
+            .flatMap(Node::getBegin)
+            .or(method::getEnd);
+        if (begin.isEmpty() || end.isEmpty()) {
+            return method.getDeclarationAsString();
+        }
+        int from = offset(lineStarts, begin.get());
+        int to = offset(lineStarts, end.get());
+        if (from < 0 || to <= from || to > content.length()) {
+            return method.getDeclarationAsString();
+        }
+        StringBuilder signature = new StringBuilder(to - from);
+        boolean space = false;
+        for (int i = from; i < to; i++) {
+            char c = content.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = signature.length() > 0;
+            } else {
+                if (space) {
+                    signature.append(' ');
+                    space = false;
+                }
+                signature.append(c);
+            }
+        }
+        return signature.toString();
+    }
+
+    private static int offset(int[] lineStarts, Position position) {
+        return position.line > 0 && position.line <= lineStarts.length
+            ? lineStarts[position.line - 1] + position.column - 1
+            : -1;
     }
 
+    /**
+     * Offsets of the lines on which each type and each member of a type starts, including its
+     * comment and annotations. Members of local and anonymous classes are part of the enclosing member.
+     */
+    int[] memberOffsets(CompilationUnit cu, String content) {
+        return memberOffsets(cu, content, TextChunker.lineStarts(content));
+    }
+
+    private int[] memberOffsets(CompilationUnit cu, String content, int[] lineStarts) {
+        return cu.findAll(BodyDeclaration.class).stream()
+            .map(Node.class::cast)
+            .filter(AstService::isTypeMember)
+            .mapToInt(member -> {
+                int line = member.getBegin()
+                    .map(position -> leadingCommentLine(content, lineStarts, position.line))
+                    .orElse(0);
+                return line > 0 && line <= lineStarts.length ? lineStarts[line - 1] : -1;
+            })
+            .filter(offset -> offset > 0)
+            .distinct()
+            .sorted()
+            .toArray();
+    }
+
+    /**
+     * The first line of the comment directly above the given line, or the line itself. Like the parser,
+     * a comment separated by an empty line does not belong to the declaration below it.
+     */
+    static int leadingCommentLine(String content, int[] lineStarts, int line) {
+        int first = line;
+        while (first > 1 && isCommentLine(content, lineStarts, first - 1)) {
+            first--;
+        }
+        return first;
+    }
+
+    private static boolean isCommentLine(String content, int[] lineStarts, int line) {
+        int end = line < lineStarts.length ? lineStarts[line] : content.length();
+        String text = content.substring(lineStarts[line - 1], end).strip();
+        return text.startsWith("//") || text.startsWith("/*") || text.startsWith("*") || text.endsWith("*/");
+    }
+
+    private static boolean isTypeMember(Node node) {
+        Optional<Node> parent = node.getParentNode();
+        while (parent.isPresent() && parent.get() instanceof TypeDeclaration<?>) {
+            parent = parent.get().getParentNode();
+        }
+        return parent.isPresent() && parent.get() instanceof CompilationUnit;
+    }
+
+    private static String abbreviate(String message) {
+        String firstLine = message.lines().findFirst().orElse(message);
+        return firstLine.length() <= MAX_ERROR_LENGTH ? firstLine : firstLine.substring(0, MAX_ERROR_LENGTH) + "...";
+    }
+
+    public enum ParseMode {
+        /**
+         * Declarations, imports and member signatures as written; no validation against the language level.
+         */
+        DECLARATIONS,
+        /**
+         * Validates the code against the language level and prints member signatures from the AST.
+         */
+        FULL
+    }
+
+    /**
+     * A parsed file: its content and the declarations read from it, but not its syntax tree, which is
+     * dropped after parsing. Documents are streamed through the analysis, which only keeps what each
+     * consumer extracts from them.
+     */
     @Getter
     public static class AstDocument {
         private final String filePath;
         private final String rawContent;
-        private final String astContent;
         private final AstMetadata metadata;
+        /**
+         * Ascending offsets in {@code rawContent} at which a type or member starts, empty if unknown.
+         */
+        private final int[] memberOffsets;
+        /**
+         * Why a Java file could not be parsed, {@code null} otherwise.
+         */
+        private final String parseError;
+
+        public AstDocument(String filePath, String rawContent, AstMetadata metadata) {
+            this(filePath, rawContent, metadata, new int[0]);
+        }
+
+        public AstDocument(String filePath, String rawContent, AstMetadata metadata, int[] memberOffsets) {
+            this(filePath, rawContent, metadata, memberOffsets, null);
+        }
 
-        public AstDocument(String filePath, String rawContent, String astContent, 
-                         AstMetadata metadata ) {
+        private AstDocument(String filePath, String rawContent, AstMetadata metadata, int[] memberOffsets,
+                            String parseError) {
             this.filePath = filePath;
             this.rawContent = rawContent;
-            this.astContent = astContent;
             this.metadata = metadata;
+            this.memberOffsets = memberOffsets;
+            this.parseError = parseError;
+        }
+
+        /**
+         * A file indexed as text only.
+         */
+        static AstDocument unparsed(String filePath, String rawContent, SymbolTable symbols, String parseError) {
+            return new AstDocument(filePath, rawContent, new AstMetadata(symbols), new int[0], parseError);
         }
     }
 
-    @Getter
+    /**
+     * Declarations and imports of a file as ids of a {@link SymbolTable}, which stores each distinct name
+     * once per analysis. Classes are interned by their qualified name, so an import is resolved to the
+     * file declaring the class by comparing ids.
+     */
     public static class AstMetadata {
-        private String packageName;
-        private final List<String> classes = new ArrayList<>();
+        private final SymbolTable symbols;
+        private int packageName = SymbolTable.NONE;
+        private final IdList classes = new IdList();
+        private final IdList dependencies = new IdList();
+        // Member names are rarely shared between files and resolve nothing, so they are not interned
         private final List<String> methods = new ArrayList<>();
         private final List<String> fields = new ArrayList<>();
-        private final List<String> dependencies = new ArrayList<>();
 
+        public AstMetadata() {
+            this(new SymbolTable());
+        }
+
+        public AstMetadata(SymbolTable symbols) {
+            this.symbols = symbols;
+        }
+
+        public SymbolTable getSymbols() {
+            return symbols;
+        }
+
+        /**
+         * Set before classes are added, which are qualified with the package.
+         */
         public void setPackageName(String packageName) {
-            this.packageName = packageName;
+            this.packageName = packageName == null ? SymbolTable.NONE : symbols.intern(packageName);
+        }
+
+        public String getPackageName() {
+            return symbols.name(packageName);
         }
 
         public void addClass(String className) {
-            classes.add(className);
+            String packageName = getPackageName();
+            classes.add(symbols.intern(packageName == null || packageName.isEmpty()
+                ? className
+                : packageName + '.' + className));
         }
 
         public void addMethod(String methodDeclaration) {
@@ -111,13 +351,65 @@ public class AstService {
         }
 
         public void addDependency(String dependency) {
-            dependencies.add(dependency);
+            dependencies.add(symbols.intern(dependency));
+        }
+
+        /**
+         * Simple names of the declared classes.
+         */
+        public List<String> getClasses() {
+            return classes.names(symbols, name -> name.substring(name.lastIndexOf('.') + 1));
+        }
+
+        public List<String> getMethods() {
+            return List.copyOf(methods);
+        }
+
+        public List<String> getFields() {
+            return List.copyOf(fields);
+        }
+
+        public List<String> getDependencies() {
+            return dependencies.names(symbols, Function.identity());
+        }
+
+        /**
+         * Ids of the qualified names of the declared classes.
+         */
+        public int[] getClassIds() {
+            return classes.toArray();
+        }
+
+        /**
+         * Ids of the imported names.
+         */
+        public int[] getDependencyIds() {
+            return dependencies.toArray();
         }
     }
 
-    public static class AstParseException extends RuntimeException {
-        public AstParseException(String message, Throwable cause) {
-            super(message, cause);
+    private static final class IdList {
+        private static final int[] EMPTY = new int[0];
+        private int[] ids = EMPTY;
+        private int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(4, size * 2));
+            }
+            ids[size++] = id;
+        }
+
+        int[] toArray() {
+            return size == 0 ? EMPTY : Arrays.copyOf(ids, size);
+        }
+
+        List<String> names(SymbolTable symbols, Function<String, String> mapping) {
+            String[] names = new String[size];
+            for (int i = 0; i < size; i++) {
+                names[i] = mapping.apply(symbols.name(ids[i]));
+            }
+            return List.of(names);
         }
     }
 }
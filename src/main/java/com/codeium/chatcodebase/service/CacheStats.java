@@ -0,0 +1,9 @@
+package com.codeium.chatcodebase.service;
+
+public record CacheStats(long hits, long misses, double hitRatio) {
+
+    public static CacheStats of(long hits, long misses) {
+        long total = hits + misses;
+        return new CacheStats(hits, misses, total == 0 ? 0.0 : (double) hits / total);
+    }
+}
@@ -0,0 +1,127 @@
+package com.codeium.chatcodebase.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.embedding.EmbeddingResponseMetadata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content addressed cache in front of an {@link EmbeddingModel}. Texts that were embedded before
+ * with the same model are served from the cache and never reach the model server. The cache is kept
+ * within its size by {@link EmbeddingCacheEvictor}.
+ */
+@Slf4j
+public class CachingEmbeddingModel implements EmbeddingModel {
+    private final EmbeddingModel delegate;
+    private final EmbeddingCacheRepository repository;
+    private final String modelName;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CachingEmbeddingModel(EmbeddingModel delegate, EmbeddingCacheRepository repository, String modelName) {
+        this.delegate = delegate;
+        this.repository = repository;
+        this.modelName = modelName;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+
+        // Identical texts within one request are embedded once
+        Map<String, List<Integer>> positionsByKey = new LinkedHashMap<>();
+        Map<String, String> textByKey = new HashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            String key = cacheKey(texts.get(i));
+            positionsByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+            textByKey.putIfAbsent(key, texts.get(i));
+        }
+
+        Map<String, float[]> vectors = lookup(positionsByKey.keySet());
+
+        List<String> missingKeys = positionsByKey.keySet().stream()
+            .filter(key -> !vectors.containsKey(key))
+            .toList();
+        // Counted per text; duplicates of a missing text are embedded once but were not found either
+        int found = 0;
+        for (String key : vectors.keySet()) {
+            found += positionsByKey.get(key).size();
+        }
+        hits.addAndGet(found);
+        misses.addAndGet(texts.size() - found);
+
+        EmbeddingResponseMetadata metadata = new EmbeddingResponseMetadata();
+        if (!missingKeys.isEmpty()) {
+            List<String> missingTexts = missingKeys.stream().map(textByKey::get).toList();
+            EmbeddingResponse response = delegate.call(new EmbeddingRequest(missingTexts, request.getOptions()));
+            metadata = response.getMetadata();
+
+            Map<String, float[]> computed = new HashMap<>();
+            for (int i = 0; i < missingKeys.size(); i++) {
+                computed.put(missingKeys.get(i), response.getResults().get(i).getOutput());
+            }
+            vectors.putAll(computed);
+            store(computed);
+        }
+
+        float[][] ordered = new float[texts.size()][];
+        positionsByKey.forEach((key, positions) -> positions.forEach(i -> ordered[i] = vectors.get(key)));
+
+        List<Embedding> embeddings = new ArrayList<>(texts.size());
+        for (int i = 0; i < ordered.length; i++) {
+            embeddings.add(new Embedding(ordered[i], i));
+        }
+        return new EmbeddingResponse(embeddings, metadata);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getFormattedContent());
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    public CacheStats getStats() {
+        return CacheStats.of(hits.get(), misses.get());
+    }
+
+    private Map<String, float[]> lookup(Collection<String> keys) {
+        try {
+            Map<String, float[]> found = repository.findAll(keys);
+            repository.touch(found.keySet());
+            return found;
+        } catch (Exception e) {
+            // The cache must never fail an embedding request
+            log.warn("Embedding cache lookup failed, embedding without cache: {}", e.getMessage());
+            return new HashMap<>();
+        }
+    }
+
+    private void store(Map<String, float[]> computed) {
+        try {
+            repository.saveAll(modelName, computed);
+        } catch (Exception e) {
+            log.warn("Failed to store embeddings in cache: {}", e.getMessage());
+        }
+    }
+
+    private String cacheKey(String text) {
+        return DigestUtils.sha256Hex(modelName + '\n' + text);
+    }
+}
@@ -0,0 +1,125 @@
+package com.codeium.chatcodebase.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Caches the steps before the answer of a chat request: rewritten queries, query embeddings and retrieved
+ * documents. Repeated questions skip the rewrite call to the chat model and the query embedding.
+ *
+ * <p>Rewrites and retrievals are keyed by the index version of their project, the time its last analysis
+ * finished on any node. The version is checked against the database every few seconds, so entries of an
+ * index that another node re-analyzed or deleted are no longer returned.
+ */
+@Slf4j
+@Service
+public class ChatCache {
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final AnalysisJobRepository jobRepository;
+    private final TtlCache<QueryKey, String> rewrites;
+    private final TtlCache<String, float[]> queryEmbeddings;
+    private final TtlCache<RetrievalKey, List<Document>> retrievals;
+    /**
+     * Index version of each project, empty if no analysis of it finished, until it is checked again.
+     */
+    private final TtlCache<String, Optional<Instant>> indexVersions;
+
+    @Autowired
+    public ChatCache(
+        AnalysisJobRepository jobRepository,
+        @Value("${chat.cache.max-entries:1000}") int maxEntries,
+        @Value("${chat.cache.ttl-seconds:3600}") long ttlSeconds,
+        @Value("${chat.cache.revalidate-seconds:10}") long revalidateSeconds
+    ) {
+        this(jobRepository, maxEntries, ttlSeconds, revalidateSeconds, System::nanoTime);
+    }
+
+    ChatCache(AnalysisJobRepository jobRepository, int maxEntries, long ttlSeconds, long revalidateSeconds,
+              LongSupplier clock) {
+        long ttlMillis = ttlSeconds * 1000;
+        this.jobRepository = jobRepository;
+        this.rewrites = new TtlCache<>(maxEntries, ttlMillis, clock);
+        this.queryEmbeddings = new TtlCache<>(maxEntries, ttlMillis, clock);
+        this.retrievals = new TtlCache<>(maxEntries, ttlMillis, clock);
+        this.indexVersions = new TtlCache<>(maxEntries, revalidateSeconds * 1000, clock);
+    }
+
+    /**
+     * @return the cached rewrite of the query, or {@code null}
+     */
+    public String getRewrite(String projectId, String query) {
+        return rewrites.get(new QueryKey(projectId, indexVersion(projectId), normalize(query)));
+    }
+
+    public void putRewrite(String projectId, String query, String rewrittenQuery) {
+        rewrites.put(new QueryKey(projectId, indexVersion(projectId), normalize(query)), rewrittenQuery);
+    }
+
+    /**
+     * Returns the documents retrieved for the query from the current index of the project, searching with
+     * {@code retriever} on a miss.
+     */
+    public List<Document> retrieve(String projectId, String query, Supplier<List<Document>> retriever) {
+        RetrievalKey key = new RetrievalKey(projectId, indexVersion(projectId), normalize(query));
+        return retrievals.computeIfAbsent(key, k -> List.copyOf(retriever.get()));
+    }
+
+    /**
+     * Embeddings of chat queries, keyed by the exact text; used by {@link QueryCachingEmbeddingModel}.
+     */
+    public TtlCache<String, float[]> getQueryEmbeddings() {
+        return queryEmbeddings;
+    }
+
+    /**
+     * Drops everything cached for the project, and any entry not bound to a project, after its index
+     * changed on this node, and reads its index version again. Query embeddings only depend on the
+     * embedding model and are kept.
+     */
+    public void invalidate(String projectId) {
+        indexVersions.removeIf(projectId::equals);
+        rewrites.removeIf(key -> key.projectId() == null || key.projectId().equals(projectId));
+        retrievals.removeIf(key -> key.projectId() == null || key.projectId().equals(projectId));
+        log.info("Invalidated chat cache for project: {}", projectId);
+    }
+
+    public Map<String, CacheStats> getStats() {
+        Map<String, CacheStats> stats = new LinkedHashMap<>();
+        stats.put("rewrites", rewrites.getStats());
+        stats.put("queryEmbeddings", queryEmbeddings.getStats());
+        stats.put("retrievals", retrievals.getStats());
+        return stats;
+    }
+
+    private Instant indexVersion(String projectId) {
+        if (projectId == null) {
+            return null;
+        }
+        return indexVersions.computeIfAbsent(projectId, jobRepository::findFinishedAt).orElse(null);
+    }
+
+    static String normalize(String query) {
+        return WHITESPACE.matcher(Objects.requireNonNullElse(query, "").strip())
+            .replaceAll(" ")
+            .toLowerCase(Locale.ROOT);
+    }
+
+    private record QueryKey(String projectId, Instant indexVersion, String query) {}
+
+    private record RetrievalKey(String projectId, Instant indexVersion, String query) {}
+}
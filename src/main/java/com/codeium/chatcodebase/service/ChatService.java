@@ -1,80 +1,320 @@
 package com.codeium.chatcodebase.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.client.advisor.QuestionAnswerAdvisor;
 import org.springframework.ai.chat.model.ChatModel;
-import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.chat.prompt.SystemPromptTemplate;
-import org.springframework.ai.chat.messages.Message;
-import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.rag.Query;
-import org.springframework.ai.rag.postretrieval.ranking.DocumentRanker;
 import org.springframework.ai.rag.preretrieval.query.transformation.QueryTransformer;
 import org.springframework.ai.rag.preretrieval.query.transformation.RewriteQueryTransformer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Description;
-import com.fasterxml.jackson.annotation.JsonClassDescription;
-import com.fasterxml.jackson.annotation.JsonPropertyDescription;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 public class ChatService {
+    private static final String SYSTEM_PROMPT = """
+            You are a senior Java developer assistant analyzing a codebase.
+            Use the following code context to answer the user's question.
+
+            You can use the getFileDependencies function to get dependencies for specific files.
+            This function takes a filePath parameter and returns:
+            - fileName: The name of the file
+            - dependencies: The paths of the files that this file depends on
+            - dependents: The paths of the files that depend on this file
+
+            You can use the getImpactedFiles function to find the files that may be impacted by a
+            change of a file, including indirect dependents up to a given depth.
+
+            {context}
+
+            When referencing code, use specific file names, class names, and line numbers.
+            Format code examples in markdown with appropriate language tags.
+            Keep responses concise but informative, focusing on the most relevant parts of the codebase.
+            """;
+
     private final ChatClient chatClient;
-    private final VectorStoreService vectorStore;
     private final ChatModel chatModel;
+    private final ChatCache chatCache;
+    private final RetrievalService retrievalService;
+    private final MeterRegistry meterRegistry;
+    private final ModelGate modelGate;
+    private final AnalysisMetrics analysisMetrics;
+    private final long budgetMillis;
+    private final long generationReserveMillis;
+    private final long initialRewriteEstimateMillis;
+    private final AtomicLong rewriteEstimateMillis;
 
-    public ChatService(VectorStoreService vectorStore, ChatModel chatModel ) {
+    public ChatService(ChatModel chatModel, ChatCache chatCache,
+                       RetrievalService retrievalService, MeterRegistry meterRegistry, ModelGate modelGate,
+                       AnalysisMetrics analysisMetrics,
+                       @Value("${chat.latency.budget-ms:30000}") long budgetMillis,
+                       @Value("${chat.latency.generation-reserve-ms:15000}") long generationReserveMillis,
+                       @Value("${chat.latency.rewrite-estimate-ms:3000}") long rewriteEstimateMillis) {
         this.chatClient = ChatClient.builder(chatModel).build();
-        this.vectorStore = vectorStore;
         this.chatModel = chatModel;
+        this.chatCache = chatCache;
+        this.retrievalService = retrievalService;
+        this.meterRegistry = meterRegistry;
+        this.modelGate = modelGate;
+        this.analysisMetrics = analysisMetrics;
+        this.budgetMillis = budgetMillis;
+        this.generationReserveMillis = generationReserveMillis;
+        this.initialRewriteEstimateMillis = rewriteEstimateMillis;
+        this.rewriteEstimateMillis = new AtomicLong(rewriteEstimateMillis);
+    }
+
+    /**
+     * Starts the latency budget of a chat request.
+     */
+    public ChatTimings newTimings() {
+        return new ChatTimings(budgetMillis);
+    }
+
+    /**
+     * @param projectId the analyzed project the question is about, used by the tools; may be {@code null}
+     * @param timings   receives the duration of every stage of the request
+     */
+    public String chatWithContext(String projectId, String query, ChatTimings timings) {
+        PreparedChat chat = prepare(projectId, query, timings);
+
+        long start = System.nanoTime();
+        String response = modelGate.interactive(() -> chat.request()
+                .call()
+                .content());
+        recordGeneration(timings, System.nanoTime() - start);
+
+        record(projectId, timings);
+        log.info("Chat response: {}", response);
+        return response;
+    }
+
+    /**
+     * Streams the answer as it is generated: first a {@link ChatEvent#sources} event with the retrieved
+     * files, then one {@link ChatEvent#token} event per generated fragment, a {@link ChatEvent#timings}
+     * event and a final {@link ChatEvent#done}. If preparing or generating the answer fails, the stream ends
+     * with an {@link ChatEvent#error} event instead. Cancelling the subscription stops the generation in the
+     * model. The stream holds a {@link ModelGate} permit while the answer is generated.
+     */
+    public Flux<ChatEvent> streamWithContext(String projectId, String query) {
+        ChatTimings timings = newTimings();
+        // Rewriting and retrieval block, so keep them off the caller's thread
+        return Mono.fromCallable(() -> prepare(projectId, query, timings))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(chat -> {
+                    AtomicLong start = new AtomicLong();
+                    AtomicBoolean firstToken = new AtomicBoolean(true);
+                    Flux<ChatEvent> tokens = Flux.using(modelGate::acquireInteractive, permit ->
+                            chat.request().stream().chatResponse()
+                                    .doOnSubscribe(subscription -> start.set(System.nanoTime()))
+                                    .map(ChatService::textOf)
+                                    .filter(text -> !text.isEmpty())
+                                    .doOnNext(text -> {
+                                        if (firstToken.getAndSet(false)) {
+                                            timings.record(ChatTimings.FIRST_TOKEN, timings.elapsedNanos());
+                                        }
+                                    })
+                                    .map(ChatEvent::token)
+                                    .doOnComplete(() -> recordGeneration(timings, System.nanoTime() - start.get())),
+                            ModelGate.Permit::close);
+                    return Flux.concat(
+                            Flux.just(ChatEvent.sources(chat.sources())),
+                            tokens,
+                            Flux.defer(() -> {
+                                record(projectId, timings);
+                                return Flux.just(ChatEvent.timings(timings.toMap()), ChatEvent.done());
+                            }));
+                })
+                .onErrorResume(error -> {
+                    log.error("Chat stream failed", error);
+                    return Flux.just(ChatEvent.error(error.getMessage()));
+                })
+                .doOnCancel(() -> log.info("Chat stream cancelled for query: {}", query));
+    }
+
+    private PreparedChat prepare(String projectId, String query, ChatTimings timings) {
+        String transformedQuery = rewriteWithinBudget(projectId, query, timings);
+        log.info("Transformed query: {}", transformedQuery);
+
+        List<Document> documents = chatCache.retrieve(projectId, transformedQuery, () ->
+                retrievalService.retrieve(projectId, transformedQuery, timings));
+        String context = documents.stream()
+                .map(Document::getText)
+                .collect(Collectors.joining(System.lineSeparator()));
+
+        ChatClient.ChatClientRequestSpec request = chatClient.prompt()
+                .user(transformedQuery)
+                .system(system -> system.text(SYSTEM_PROMPT).param("context", context))
+                .functions("getFileDependencies", "getImpactedFiles")
+                .toolContext(toolContext(projectId, timings));
+        return new PreparedChat(request, toSources(documents));
+    }
+
+    private static Map<String, Object> toolContext(String projectId, ChatTimings timings) {
+        Map<String, Object> context = new HashMap<>();
+        context.put(DependencyToolConfig.TIMINGS, timings);
+        if (projectId != null) {
+            context.put(DependencyToolConfig.PROJECT_ID, projectId);
+        }
+        return context;
     }
 
+    /**
+     * Rewrites the query unless a rewrite is cached, the query already names code elements, or the
+     * expected rewrite time would cut into the time reserved for generating the answer.
+     */
+    private String rewriteWithinBudget(String projectId, String query, ChatTimings timings) {
+        String cached = chatCache.getRewrite(projectId, query);
+        if (cached != null) {
+            return cached;
+        }
+        String skipReason = RetrievalService.containsIdentifier(query) ? "identifiers"
+                : !rewriteFits(timings) ? "budget"
+                : null;
+        if (skipReason != null) {
+            timings.skip(ChatTimings.REWRITE, skipReason);
+            meterRegistry.counter("chat.rewrite.skipped", "reason", skipReason).increment();
+            return query;
+        }
 
-    public String chatWithContext(String query) {
-        String systemPrompt = """
-                You are a senior Java developer assistant analyzing a codebase.
-                Use the following code context to answer the user's question.
-                
-                You can use the getFileDependencies function to get dependencies for specific files.
-                This function takes a filePath parameter and returns:
-                - fileName: The name of the file
-                - dependencies: A list of files, classes or methods that this file depends on
-                
-                {context}
-                
-                When referencing code, use specific file names, class names, and line numbers.
-                Format code examples in markdown with appropriate language tags.
-                Keep responses concise but informative, focusing on the most relevant parts of the codebase.
-                """;
+        String rewritten = timings.time(ChatTimings.REWRITE, () -> modelGate.interactive(() -> rewrite(query)));
+        recordRewrite(TimeUnit.NANOSECONDS.toMillis(timings.stageNanos(ChatTimings.REWRITE)));
+        chatCache.putRewrite(projectId, query, rewritten);
+        return rewritten;
+    }
 
-        Query chatQuery = new Query(query);
+    /**
+     * Whether the expected rewrite time leaves the generation reserve. The estimate only learns from
+     * rewrites that run, so while they are skipped it decays toward the configured estimate; otherwise
+     * a few slow rewrites would keep every later request from rewriting.
+     */
+    boolean rewriteFits(ChatTimings timings) {
+        if (timings.remainingMillis() - rewriteEstimateMillis.get() >= generationReserveMillis) {
+            return true;
+        }
+        rewriteEstimateMillis.updateAndGet(estimate -> (estimate * 3 + initialRewriteEstimateMillis) / 4);
+        return false;
+    }
 
+    void recordRewrite(long observedMillis) {
+        rewriteEstimateMillis.updateAndGet(estimate -> (estimate * 3 + observedMillis) / 4);
+    }
+
+    private String rewrite(String query) {
         QueryTransformer queryTransformer = RewriteQueryTransformer.builder()
                 .chatClientBuilder(ChatClient.builder(chatModel))
                 .build();
+        return queryTransformer.transform(new Query(query)).text();
+    }
 
-        Query transformedQuery = queryTransformer.transform(chatQuery);
-        log.info("Transformed query: {}", transformedQuery.text());
+    /**
+     * Tool calls happen while the answer is generated; their time is reported separately.
+     */
+    private static void recordGeneration(ChatTimings timings, long nanos) {
+        timings.record(ChatTimings.GENERATION, Math.max(0, nanos - timings.stageNanos(ChatTimings.TOOLS)));
+    }
 
-        String response = chatClient.prompt()
-                .advisors(new QuestionAnswerAdvisor(vectorStore.getVectorStore()))
-                .user(transformedQuery.text())
-                .system(systemPrompt)
-                .functions("getFileDependencies")
-                .call()
-                .content();
+    private void record(String projectId, ChatTimings timings) {
+        String project = analysisMetrics.projectTag(projectId);
+        timings.getStageNanos().forEach((stage, nanos) -> Timer.builder("chat.stage.duration")
+                .description("Duration of a stage of a chat request")
+                .tag("stage", stage)
+                .tag("project", project)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS));
+        Timer.builder("chat.duration")
+                .description("Duration of a chat request until the answer is complete")
+                .tag("project", project)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(timings.elapsedNanos(), TimeUnit.NANOSECONDS);
+    }
 
-        log.info("Chat response: {}", response);
-        return response;
+    /**
+     * One source per file, covering the lines of all retrieved chunks of that file, in retrieval order.
+     */
+    static List<Source> toSources(List<Document> documents) {
+        Map<String, Source> sources = new LinkedHashMap<>();
+        for (Document document : documents) {
+            Object filePath = document.getMetadata().get("filePath");
+            if (filePath == null) {
+                continue;
+            }
+            Integer startLine = lineOf(document, "startLine");
+            Integer endLine = lineOf(document, "endLine");
+            sources.merge(filePath.toString(), new Source(filePath.toString(), startLine, endLine),
+                    (current, added) -> new Source(current.filePath(),
+                            min(current.startLine(), added.startLine()), max(current.endLine(), added.endLine())));
+        }
+        return List.copyOf(sources.values());
+    }
+
+    private static Integer lineOf(Document document, String key) {
+        return document.getMetadata().get(key) instanceof Number line ? line.intValue() : null;
+    }
+
+    private static Integer min(Integer a, Integer b) {
+        return a == null ? b : b == null ? a : Integer.valueOf(Math.min(a, b));
     }
 
+    private static Integer max(Integer a, Integer b) {
+        return a == null ? b : b == null ? a : Integer.valueOf(Math.max(a, b));
+    }
+
+    private static String textOf(ChatResponse response) {
+        if (response.getResult() == null || response.getResult().getOutput() == null) {
+            return "";
+        }
+        String text = response.getResult().getOutput().getText();
+        return text == null ? "" : text;
+    }
+
+    private record PreparedChat(ChatClient.ChatClientRequestSpec request, List<Source> sources) {}
+
+    /**
+     * A retrieved file and the range of lines that was retrieved from it, if known.
+     */
+    public record Source(String filePath, Integer startLine, Integer endLine) {}
+
+    /**
+     * An event of a streamed answer; {@code name} is the SSE event name and {@code data} is sent as JSON.
+     */
+    public record ChatEvent(String name, Object data) {
+        public static ChatEvent sources(List<Source> sources) {
+            return new ChatEvent("sources", sources);
+        }
+
+        public static ChatEvent token(String text) {
+            return new ChatEvent("token", Map.of("text", text));
+        }
+
+        public static ChatEvent timings(Map<String, Object> timings) {
+            return new ChatEvent("timings", timings);
+        }
+
+        public static ChatEvent done() {
+            return new ChatEvent("done", Map.of());
+        }
+
+        public static ChatEvent error(String message) {
+            return new ChatEvent("error", Map.of("message", Objects.requireNonNullElse(message, "Unknown error")));
+        }
+    }
 }
@@ -0,0 +1,98 @@
+package com.codeium.chatcodebase.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Latency budget and per-stage durations of one chat request. Stages may be timed from several threads,
+ * e.g. tool calls made by the model while the answer is generated.
+ */
+public class ChatTimings {
+    public static final String REWRITE = "rewrite";
+    public static final String LEXICAL_SEARCH = "lexicalSearch";
+    public static final String EMBEDDING = "embedding";
+    public static final String VECTOR_SEARCH = "vectorSearch";
+    public static final String TOOLS = "tools";
+    public static final String GENERATION = "generation";
+    public static final String FIRST_TOKEN = "firstToken";
+
+    private final long startNanos = System.nanoTime();
+    private final long budgetNanos;
+    private final Map<String, Long> stageNanos = new LinkedHashMap<>();
+    private final Map<String, String> skippedStages = new LinkedHashMap<>();
+
+    public ChatTimings(long budgetMillis) {
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    public <T> T time(String stage, Supplier<T> step) {
+        long start = System.nanoTime();
+        try {
+            return step.get();
+        } finally {
+            record(stage, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Adds to the duration of the stage, so a stage that runs several times is reported once.
+     */
+    public synchronized void record(String stage, long nanos) {
+        stageNanos.merge(stage, nanos, Long::sum);
+    }
+
+    public synchronized void skip(String stage, String reason) {
+        skippedStages.put(stage, reason);
+    }
+
+    public synchronized long stageNanos(String stage) {
+        return stageNanos.getOrDefault(stage, 0L);
+    }
+
+    public long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    public long remainingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(budgetNanos - elapsedNanos());
+    }
+
+    public synchronized Map<String, Long> getStageNanos() {
+        return new LinkedHashMap<>(stageNanos);
+    }
+
+    public synchronized Map<String, String> getSkippedStages() {
+        return new LinkedHashMap<>(skippedStages);
+    }
+
+    /**
+     * Durations in milliseconds, skipped stages and the total time so far.
+     */
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        stageNanos.forEach((stage, nanos) -> map.put(stage, toMillis(nanos)));
+        map.put("total", toMillis(elapsedNanos()));
+        if (!skippedStages.isEmpty()) {
+            map.put("skipped", new LinkedHashMap<>(skippedStages));
+        }
+        return map;
+    }
+
+    /**
+     * The breakdown in the format of the {@code Server-Timing} response header.
+     */
+    public synchronized String toServerTiming() {
+        StringBuilder header = new StringBuilder();
+        stageNanos.forEach((stage, nanos) ->
+            header.append(stage).append(";dur=").append(toMillis(nanos)).append(", "));
+        skippedStages.forEach((stage, reason) ->
+            header.append(stage).append(";desc=\"skipped: ").append(reason).append("\", "));
+        return header.append("total;dur=").append(toMillis(elapsedNanos())).toString();
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 10_000.0) / 100.0;
+    }
+}
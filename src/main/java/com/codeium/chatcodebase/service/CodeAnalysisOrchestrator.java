@@ -1,13 +1,29 @@
 package com.codeium.chatcodebase.service;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Async;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
@@ -18,64 +34,412 @@ public class CodeAnalysisOrchestrator {
     private final AstService astService;
     private final VectorStoreService vectorStore;
     private final DependencyService dependencyService;
+    private final FileManifestRepository manifestRepository;
+    private final DependencyGraphStore dependencyGraphStore;
+    private final DependencyAnalyticsService dependencyAnalytics;
+    private final ChatCache chatCache;
+    private final SymbolIndexService symbolIndexService;
+    private final ProjectVectorPartitions projectVectors;
+    private final AnalysisJobRepository jobRepository;
+    private final AnalysisMetrics metrics;
     
     private final ConcurrentHashMap<String, AnalysisStatus> analysisStatusMap = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, DependencyService.DependencyData> dependencyDataMap = new ConcurrentHashMap<>();
+    private final Set<String> runningAnalyses = ConcurrentHashMap.newKeySet();
+    /**
+     * Owner of the jobs claimed by this instance.
+     */
+    private final String nodeId = UUID.randomUUID().toString();
 
-    @Async
+    @Value("${analysis.jobs.stale-after-ms:60000}")
+    private long staleAfterMillis;
+
+    @Value("${analysis.pipeline.queue-capacity:64}")
+    private int queueCapacity;
+
+    @Value("${analysis.pipeline.parse-workers:4}")
+    private int parseWorkers;
+
+    @Value("${analysis.pipeline.chunk-workers:2}")
+    private int chunkWorkers;
+
+    /**
+     * Runs fetch, parse, chunk and store as concurrent stages connected by bounded queues, so embedding
+     * starts with the first parsed file and only a queue's worth of files is held in memory at a time.
+     *
+     * <p>A request for a project that is already being analyzed, by this or another live node, joins
+     * that analysis instead of starting another one. Stored files are checkpointed in the manifest, so a
+     * resumed analysis only processes the files that were not stored yet.
+     *
+     * <p>Runs on the caller's thread; analyses are started by the {@link AnalysisScheduler}.
+     */
     public void analyzeRepository(String projectId) {
+        if (!runningAnalyses.add(projectId)) {
+            log.info("Analysis of project {} is already running", projectId);
+            return;
+        }
+        boolean claimed;
+        try {
+            claimed = jobRepository.claim(projectId, nodeId, staleAfter());
+        } catch (RuntimeException e) {
+            runningAnalyses.remove(projectId);
+            throw e;
+        }
+        if (!claimed) {
+            runningAnalyses.remove(projectId);
+            log.info("Analysis of project {} is already running on another node", projectId);
+            return;
+        }
+        metrics.projectAnalyzed(projectId);
         AnalysisStatus status = new AnalysisStatus();
         analysisStatusMap.put(projectId, status);
+        // Owns the chunk texts written so far until the index is built
+        SymbolIndex.Builder symbols = symbolIndexService.newBuilder();
+        boolean interrupted = false;
         
         try {
-            // Step 1: Fetch repository files
+            Map<String, FileManifestRepository.FileState> manifest = manifestRepository.load(projectId);
+            assignUntaggedChunks(projectId, manifest);
+            Set<String> currentPaths = ConcurrentHashMap.newKeySet();
+            // Names declared and imported by the files, shared by their metadata and the dependency graph
+            SymbolTable symbolTable = new SymbolTable();
+            DependencyService.Collector dependencies = dependencyService.newCollector(symbolTable);
+            StagedPipeline pipeline = new StagedPipeline("analysis-" + projectId);
+
+            // Step 1: Fetch the source files
             status.setCurrentStep(AnalysisStep.FETCHING_FILES);
-            List<GitLabService.CodeFile> files = gitLabService.fetchRepository(projectId);
-            status.setProgress(20);
-            
-            // Step 2: Parse AST
-            status.setCurrentStep(AnalysisStep.PARSING_AST);
-            List<AstService.AstDocument> astDocs = astService.parseFiles(files);
-            status.setProgress(40);
-            
-            // Step 3: Analyze dependencies
+            StagedPipeline.Channel<GitLabService.CodeFile> files = pipeline.source("fetch", queueCapacity, sink -> {
+                long fetchStart = System.nanoTime();
+                List<GitLabService.FetchFailure> failures = gitLabService.fetchRepository(projectId, file -> {
+                    metrics.fileFetched(projectId, file.content());
+                    if (astService.isSourceFile(file.path())) {
+                        status.fileFetched();
+                        sink.accept(file);
+                    }
+                });
+                metrics.fetchCompleted(projectId, System.nanoTime() - fetchStart);
+                metrics.filesFailed(projectId, failures.size());
+                failures.forEach(failure -> {
+                    // Still in the repository: its chunks and manifest entry are kept for the next analysis
+                    currentPaths.add(failure.path());
+                    status.addFileError(failure.path(), failure.reason());
+                });
+                status.setCurrentStep(AnalysisStep.PARSING_AST);
+                status.fetchCompleted();
+            });
+
+            // Step 2: Parse AST, feed the dependency graph and drop files that did not change since the last run
+            StagedPipeline.Channel<ChangedFile> changedFiles = pipeline.stage("parse", files, parseWorkers, queueCapacity,
+                (file, emit) -> {
+                    long parseStart = System.nanoTime();
+                    AstService.AstDocument doc = astService.parseFile(file, symbolTable);
+                    if (astService.isJavaFile(file.path())) {
+                        metrics.fileParsed(projectId, System.nanoTime() - parseStart, doc.getParseError() == null);
+                    }
+                    if (doc.getParseError() != null) {
+                        // Still indexed as text, but without declarations for the dependency graph
+                        status.addFileError(doc.getFilePath(), "Indexed as text: " + doc.getParseError());
+                    }
+                    status.fileParsed();
+                    currentPaths.add(doc.getFilePath());
+                    dependencies.accept(doc);
+
+                    String hash = DigestUtils.sha256Hex(doc.getRawContent());
+                    FileManifestRepository.FileState previous = manifest.get(doc.getFilePath());
+                    if (previous != null && previous.contentHash().equals(hash)) {
+                        // Unchanged files are not embedded again, but the in-memory symbol index needs them
+                        vectorStore.chunkDocument(projectId, doc).forEach(symbols::add);
+                        status.incrementSkippedFiles();
+                        return;
+                    }
+                    emit.accept(new ChangedFile(doc, new PendingFile(doc.getFilePath(), hash, previous)));
+                });
+
+            // Step 3: Chunk changed files and index them for lexical search; only the chunks are passed on,
+            // not the file content
+            StagedPipeline.Channel<ChunkedFile> chunkedFiles = pipeline.stage("chunk", changedFiles, chunkWorkers, queueCapacity,
+                (file, emit) -> {
+                    List<Document> chunks = vectorStore.chunkDocument(projectId, file.document());
+                    metrics.fileChunked(projectId, chunks.size());
+                    status.fileChunked();
+                    chunks.forEach(symbols::add);
+                    emit.accept(new ChunkedFile(file.pending(), chunks));
+                });
+
+            // Step 4: Generate embeddings and store, batching chunks across files
+            EmbeddingBatcher<PendingFile> batcher = vectorStore.newBatcher(projectId, new EmbeddingBatcher.Listener<>() {
+                @Override
+                public void fileStored(PendingFile file, int chunkCount) {
+                    status.fileEmbedded();
+                    recordStoredFile(projectId, file, chunkCount, status);
+                }
+
+                @Override
+                public void fileFailed(PendingFile file, Exception cause) {
+                    // The file is not recorded in the manifest and will be retried by the next analysis
+                    status.fileFailed(file.path(), cause.getMessage());
+                }
+            });
+            try {
+                pipeline.sink("store", chunkedFiles, 1, file -> {
+                    try {
+                        deleteStaleChunks(projectId, file.pending());
+                        batcher.add(file.pending(), file.chunks());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new StagedPipeline.PipelineException("Interrupted while storing chunks", e);
+                    }
+                });
+                pipeline.await();
+                batcher.flush();
+            } finally {
+                // Without a flush, the chunks of an aborted analysis are discarded rather than stored
+                batcher.close();
+            }
+
+            // Step 5: Resolve dependencies between all parsed files
             status.setCurrentStep(AnalysisStep.ANALYZING_DEPENDENCIES);
-            DependencyService.DependencyData dependencyData = dependencyService.analyzeDependencies(astDocs);
-            dependencyDataMap.put(projectId, dependencyData);
-            status.setProgress(60);
-            
-            // Step 4: Generate embeddings and store
-            status.setCurrentStep(AnalysisStep.STORING_VECTORS);
-            vectorStore.storeAstDocuments(astDocs);
+            dependencyGraphStore.put(projectId, DependencyGraph.of(dependencies.build()));
+            symbolIndexService.put(projectId, symbols.build());
+            status.setProgress(80);
+
+            deleteRemovedFiles(projectId, manifest, currentPaths, status);
+            projectVectors.updateProjectIndex(projectId);
             status.setProgress(100);
             
             status.setCurrentStep(AnalysisStep.COMPLETED);
             status.setSuccess(true);
             
-            log.info("Repository analysis completed successfully for project: {}", projectId);
+            log.info("Repository analysis completed successfully for project: {} ({} updated, {} skipped, {} deleted)",
+                projectId, status.getUpdatedFiles(), status.getSkippedFiles(), status.getDeletedFiles());
         } catch (Exception e) {
-            status.setError(e.getMessage());
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            interrupted = isInterruption(e);
+            status.setError(interrupted ? "Interrupted, the analysis will be resumed" : e.getMessage());
             status.setSuccess(false);
             log.error("Repository analysis failed for project: {}", projectId, e);
             throw new AnalysisException("Analysis failed for project: " + projectId, e);
+        } finally {
+            if (interrupted) {
+                // E.g. the node is shutting down: the job stays running, and once its heartbeat is stale
+                // it is resumed by the next node that checks
+                log.info("Analysis of project {} was interrupted and is left to be resumed", projectId);
+            } else {
+                try {
+                    jobRepository.finish(projectId, nodeId, status);
+                } catch (Exception e) {
+                    log.error("Failed to record the end of the analysis of project: {}", projectId, e);
+                }
+            }
+            // Even a failed analysis may have changed the stored chunks; after the job is finished, so
+            // that the new index version is read
+            chatCache.invalidate(projectId);
+            try {
+                symbols.close();
+            } catch (IOException e) {
+                log.warn("Failed to discard the symbol index of project: {}", projectId, e);
+            }
+            // Completed first, so that subscribers never see the analysis neither running nor done
+            status.complete();
+            runningAnalyses.remove(projectId);
+        }
+    }
+
+    private static boolean isInterruption(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException || cause instanceof ClosedByInterruptException) {
+                return true;
+            }
+        }
+        return Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Records the progress of the analyses running on this node, which also tells other nodes that
+     * they are alive.
+     */
+    public void checkpointRunningAnalyses() {
+        for (String projectId : runningAnalyses) {
+            AnalysisStatus status = analysisStatusMap.get(projectId);
+            if (status != null) {
+                jobRepository.checkpoint(projectId, nodeId, status);
+            }
         }
     }
+
+    /**
+     * Loads the projects analyzed by any node, whose ids the metrics may use as tag values.
+     */
+    public void refreshAnalyzedProjects() {
+        metrics.setAnalyzedProjects(jobRepository.findProjectIds());
+    }
+
+    /**
+     * Projects whose analysis was left running by a node that stopped, to be resumed.
+     */
+    public List<String> findStaleAnalyses() {
+        return jobRepository.findStale(staleAfter());
+    }
+
+    private Duration staleAfter() {
+        return Duration.ofMillis(staleAfterMillis);
+    }
+
+    /**
+     * Removes everything stored for the project: its chunks, manifest, dependency graph with its cached
+     * query results, and symbol index.
+     *
+     * @return {@code false} if the project is being analyzed or deleted and was left untouched
+     */
+    public boolean deleteProject(String projectId) {
+        // Claiming the job keeps analyses from starting until the project is deleted
+        if (!jobRepository.claimDeletion(projectId, nodeId, staleAfter())) {
+            return false;
+        }
+        try {
+            int chunks = projectVectors.deleteProject(projectId);
+            manifestRepository.deleteProject(projectId);
+            dependencyGraphStore.remove(projectId);
+            dependencyAnalytics.remove(projectId);
+            symbolIndexService.remove(projectId);
+            chatCache.invalidate(projectId);
+            analysisStatusMap.remove(projectId);
+            metrics.projectDeleted(projectId);
+            log.info("Deleted project: {} ({} chunks)", projectId, chunks);
+            return true;
+        } finally {
+            jobRepository.delete(projectId);
+        }
+    }
+
+    /**
+     * Chunks stored before chunks carried their project id are found through their ids, which are
+     * derived from the manifest, and tagged so that project-scoped searches find them.
+     */
+    private void assignUntaggedChunks(String projectId, Map<String, FileManifestRepository.FileState> manifest) {
+        if (manifest.isEmpty() || projectVectors.countChunks(projectId) > 0) {
+            return;
+        }
+        List<String> ids = new ArrayList<>();
+        manifest.forEach((path, state) -> {
+            for (int chunkIndex = 1; chunkIndex <= state.chunkCount(); chunkIndex++) {
+                ids.add(VectorStoreService.chunkId(projectId, path, chunkIndex));
+            }
+        });
+        projectVectors.assignProject(projectId, ids);
+    }
+
+    private void deleteStaleChunks(String projectId, PendingFile file) {
+        FileManifestRepository.FileState previous = file.previous();
+        if (previous != null) {
+            vectorStore.deleteFileChunks(projectId, Map.of(file.path(), previous.chunkCount()));
+        }
+    }
+
+    private void recordStoredFile(String projectId, PendingFile file, int chunkCount, AnalysisStatus status) {
+        String path = file.path();
+        try {
+            manifestRepository.saveAll(projectId,
+                Map.of(path, new FileManifestRepository.FileState(file.contentHash(), chunkCount)));
+            status.incrementUpdatedFiles();
+        } catch (Exception e) {
+            log.error("Failed to record stored file: {}", path, e);
+            status.fileFailed(path, e.getMessage());
+        }
+    }
+
+    private void deleteRemovedFiles(String projectId, Map<String, FileManifestRepository.FileState> manifest,
+                                    Set<String> currentPaths, AnalysisStatus status) {
+        Map<String, Integer> removed = new HashMap<>();
+        manifest.forEach((path, state) -> {
+            if (!currentPaths.contains(path)) {
+                removed.put(path, state.chunkCount());
+            }
+        });
+        vectorStore.deleteFileChunks(projectId, removed);
+        manifestRepository.deleteAll(projectId, removed.keySet());
+        status.setDeletedFiles(removed.size());
+    }
+
+    private record ChangedFile(AstService.AstDocument document, PendingFile pending) {}
+
+    /**
+     * A changed file waiting to be stored, without its content.
+     */
+    private record PendingFile(String path, String contentHash, FileManifestRepository.FileState previous) {}
+
+    private record ChunkedFile(PendingFile pending, List<Document> chunks) {}
     
+    /**
+     * The status of the analysis running on this node, or else of the project's last job on any node.
+     * File errors are only known to the node that ran the job.
+     */
     public AnalysisStatus getAnalysisStatus(String projectId) {
-        return analysisStatusMap.getOrDefault(projectId, 
-            new AnalysisStatus(AnalysisStep.NOT_STARTED, 0, null, false));
+        AnalysisStatus local = analysisStatusMap.get(projectId);
+        if (local != null && runningAnalyses.contains(projectId)) {
+            return local;
+        }
+        return jobRepository.load(projectId)
+            .map(job -> local != null && job.owner().equals(nodeId) ? local : job.status())
+            .orElseGet(() -> new AnalysisStatus(AnalysisStep.NOT_STARTED, 0, null, false));
     }
     
+    /**
+     * The status of the analysis running on this node, if there is one.
+     */
+    public Optional<AnalysisStatus> getRunningStatus(String projectId) {
+        AnalysisStatus local = analysisStatusMap.get(projectId);
+        return local != null && runningAnalyses.contains(projectId) ? Optional.of(local) : Optional.empty();
+    }
+
+    /**
+     * Whether the project is being analyzed by this or another live node.
+     */
+    public boolean isAnalysisRunning(String projectId) {
+        return runningAnalyses.contains(projectId) || jobRepository.isRunning(projectId, staleAfter());
+    }
+
     public DependencyService.DependencyData getDependencyData(String projectId) {
-        return dependencyDataMap.get(projectId);
+        DependencyGraph graph = dependencyGraphStore.get(projectId);
+        return graph == null ? null : graph.toData();
     }
     
+    /**
+     * The state of an analysis. Changes are published to the subscribers of {@link #events}, and
+     * {@link #complete()} ends their streams once the analysis has ended.
+     */
     @Getter
     public static class AnalysisStatus {
-        private AnalysisStep currentStep;
+        private static final Duration COMPLETE_TIMEOUT = Duration.ofSeconds(1);
+
+        private volatile AnalysisStep currentStep;
         private final AtomicInteger progress;
         private String error;
         private boolean success;
+        private boolean done;
+        /**
+         * Files to analyze, known once all files are fetched.
+         */
+        private volatile Integer totalFiles;
+        private final AtomicInteger fetchedFiles = new AtomicInteger();
+        private final AtomicInteger parsedFiles = new AtomicInteger();
+        private final AtomicInteger chunkedFiles = new AtomicInteger();
+        private final AtomicInteger embeddedFiles = new AtomicInteger();
+        private final AtomicInteger failedFiles = new AtomicInteger();
+        private final AtomicInteger skippedFiles = new AtomicInteger();
+        private final AtomicInteger updatedFiles = new AtomicInteger();
+        private int deletedFiles;
+        private final List<FileError> fileErrors = new CopyOnWriteArrayList<>();
+        @Getter(AccessLevel.NONE)
+        private final long startNanos = System.nanoTime();
+        @Getter(AccessLevel.NONE)
+        private volatile long endNanos;
+        /**
+         * Signals changes; concurrent signals are dropped, which is fine as subscribers sample them.
+         */
+        @Getter(AccessLevel.NONE)
+        private final Sinks.Many<AnalysisStatus> changes = Sinks.many().multicast().directBestEffort();
         
         public AnalysisStatus() {
             this.currentStep = AnalysisStep.NOT_STARTED;
@@ -92,19 +456,183 @@ public class CodeAnalysisOrchestrator {
         
         public void setCurrentStep(AnalysisStep step) {
             this.currentStep = step;
+            changed();
         }
         
         public void setProgress(int progress) {
             this.progress.set(progress);
+            changed();
         }
         
         public void setError(String error) {
             this.error = error;
+            changed();
         }
         
         public void setSuccess(boolean success) {
             this.success = success;
         }
+
+        public void fileFetched() {
+            fetchedFiles.incrementAndGet();
+            changed();
+        }
+
+        /**
+         * All files are fetched; their number is the total the other stages progress towards.
+         */
+        public void fetchCompleted() {
+            totalFiles = fetchedFiles.get();
+            storingWhenAllParsed();
+            progress.accumulateAndGet(20, Math::max);
+            fileFinished();
+        }
+
+        public void fileParsed() {
+            parsedFiles.incrementAndGet();
+            storingWhenAllParsed();
+            changed();
+        }
+
+        /**
+         * Once every fetched file is parsed, only storing the chunks of the changed ones is left. Checked by
+         * both the last parsed file and the end of the fetch, whichever comes last.
+         */
+        private void storingWhenAllParsed() {
+            Integer total = totalFiles;
+            if (total != null && parsedFiles.get() >= total) {
+                currentStep = AnalysisStep.STORING_VECTORS;
+            }
+        }
+
+        public void fileChunked() {
+            chunkedFiles.incrementAndGet();
+            changed();
+        }
+
+        public void fileEmbedded() {
+            embeddedFiles.incrementAndGet();
+            changed();
+        }
+
+        public void incrementSkippedFiles() {
+            skippedFiles.incrementAndGet();
+            fileFinished();
+        }
+
+        public void incrementUpdatedFiles() {
+            updatedFiles.incrementAndGet();
+            fileFinished();
+        }
+
+        public void setSkippedFiles(int skippedFiles) {
+            this.skippedFiles.set(skippedFiles);
+        }
+
+        public void setUpdatedFiles(int updatedFiles) {
+            this.updatedFiles.set(updatedFiles);
+        }
+
+        public void setDeletedFiles(int deletedFiles) {
+            this.deletedFiles = deletedFiles;
+            changed();
+        }
+
+        /**
+         * Records an error that does not stop an analyzed file, or of a file that is not analyzed, like a
+         * file that could not be fetched.
+         */
+        public void addFileError(String path, String message) {
+            fileErrors.add(new FileError(path, message));
+            changed();
+        }
+
+        /**
+         * Records an analyzed file that was given up.
+         */
+        public void fileFailed(String path, String message) {
+            fileErrors.add(new FileError(path, message));
+            failedFiles.incrementAndGet();
+            fileFinished();
+        }
+
+        /**
+         * Marks the analysis as ended and completes the event streams after a last event.
+         */
+        public void complete() {
+            if (done) {
+                return;
+            }
+            endNanos = System.nanoTime();
+            done = true;
+            changes.emitNext(this, Sinks.EmitFailureHandler.busyLooping(COMPLETE_TIMEOUT));
+            changes.emitComplete(Sinks.EmitFailureHandler.busyLooping(COMPLETE_TIMEOUT));
+        }
+
+        /**
+         * Progress events of this analysis, at most one per {@code minInterval}: the current progress,
+         * then the latest progress of every interval with changes, and the final progress.
+         */
+        public Flux<AnalysisProgress> events(Duration minInterval) {
+            return Flux.defer(() -> {
+                AtomicInteger sentErrors = new AtomicInteger();
+                return changes.asFlux()
+                    .sample(minInterval)
+                    .startWith(this)
+                    .concatWith(Mono.fromSupplier(() -> this))
+                    .map(status -> toProgress(0, sentErrors))
+                    .takeUntil(AnalysisProgress::done);
+            });
+        }
+
+        /**
+         * The current progress, with the file errors after the first {@code sentErrors}, which is
+         * advanced past them.
+         */
+        public AnalysisProgress toProgress(int queuePosition, AtomicInteger sentErrors) {
+            List<FileError> errors = List.copyOf(fileErrors);
+            int from = Math.min(sentErrors.getAndSet(errors.size()), errors.size());
+            Integer total = totalFiles;
+            int finished = finishedFiles();
+            Double filesPerSecond = null;
+            Long etaSeconds = null;
+            if (total != null) {
+                long end = done ? endNanos : System.nanoTime();
+                double seconds = Math.max(end - startNanos, 1) / 1e9;
+                filesPerSecond = finished / seconds;
+                if (done || finished >= total) {
+                    etaSeconds = 0L;
+                } else if (finished > 0) {
+                    etaSeconds = Math.round((total - finished) / filesPerSecond);
+                }
+            }
+            return new AnalysisProgress(currentStep, progress.get(), queuePosition, total, fetchedFiles.get(),
+                parsedFiles.get(), chunkedFiles.get(), embeddedFiles.get(), updatedFiles.get(),
+                skippedFiles.get(), failedFiles.get(), deletedFiles, filesPerSecond, etaSeconds,
+                errors.subList(from, errors.size()), errors.size(), done, success, error);
+        }
+
+        private int finishedFiles() {
+            return updatedFiles.get() + skippedFiles.get() + failedFiles.get();
+        }
+
+        /**
+         * Files are fetched until 20%, finished files take the progress to 80%.
+         */
+        private void fileFinished() {
+            Integer total = totalFiles;
+            if (total != null && total > 0) {
+                progress.accumulateAndGet(20 + 60 * Math.min(finishedFiles(), total) / total, Math::max);
+            }
+            changed();
+        }
+
+        private void changed() {
+            changes.tryEmitNext(this);
+        }
+    }
+
+    public record FileError(String path, String message) {
     }
     
     public enum AnalysisStep {
@@ -0,0 +1,115 @@
+package com.codeium.chatcodebase.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Append-only store of texts in a temporary file, memory-mapped in segments that are added as it grows,
+ * so the texts live in the page cache instead of the heap. A text is referenced by the offset returned
+ * when it is appended. Appends are serialized; reads of appended texts may run concurrently.
+ */
+final class ContentStore implements Closeable {
+    static final String FILE_SUFFIX = ".content";
+    private static final int DEFAULT_SEGMENT_BYTES = 64 << 20;
+
+    private final FileChannel channel;
+    private final int segmentBytes;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private long size;
+
+    ContentStore(Path path, int segmentBytes) {
+        this.segmentBytes = segmentBytes;
+        try {
+            // The file is deleted when the store is closed, or right away where open files can be unlinked;
+            // its mapped segments stay readable until they are unreferenced
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open " + path, e);
+        }
+    }
+
+    /**
+     * Opens a store in a new file of the directory.
+     */
+    static ContentStore create(Path directory) {
+        try {
+            Files.createDirectories(directory);
+            Path path = Files.createTempFile(directory, "content-", FILE_SUFFIX);
+            return new ContentStore(path, DEFAULT_SEGMENT_BYTES);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create a content store in " + directory, e);
+        }
+    }
+
+    /**
+     * Appends the text as a length followed by its UTF-8 bytes; entries never span two segments.
+     *
+     * @return the offset by which the text is read
+     */
+    synchronized long append(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int length = Integer.BYTES + bytes.length;
+        if (length > segmentBytes) {
+            throw new IllegalArgumentException("Text of " + bytes.length + " bytes exceeds the segment size");
+        }
+        long offset = size;
+        if (offset % segmentBytes + length > segmentBytes) {
+            offset = (offset / segmentBytes + 1) * segmentBytes;
+        }
+        MappedByteBuffer segment = mapSegment((int) (offset / segmentBytes));
+        int position = (int) (offset % segmentBytes);
+        segment.putInt(position, bytes.length);
+        segment.put(position + Integer.BYTES, bytes);
+        size = offset + length;
+        return offset;
+    }
+
+    String read(long offset) {
+        MappedByteBuffer segment = segments[(int) (offset / segmentBytes)];
+        int position = (int) (offset % segmentBytes);
+        byte[] bytes = new byte[segment.getInt(position)];
+        segment.get(position + Integer.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Bytes used by the appended texts, including the space left at the end of full segments.
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    private MappedByteBuffer mapSegment(int index) {
+        MappedByteBuffer[] current = segments;
+        if (index < current.length) {
+            return current[index];
+        }
+        MappedByteBuffer[] grown = Arrays.copyOf(current, index + 1);
+        try {
+            for (int i = current.length; i <= index; i++) {
+                grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * segmentBytes, segmentBytes);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map content store segment", e);
+        }
+        segments = grown;
+        return grown[index];
+    }
+
+    /**
+     * Deletes the file. The segments are kept mapped, so that reads still in progress complete.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
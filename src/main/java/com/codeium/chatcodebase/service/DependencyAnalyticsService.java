@@ -0,0 +1,143 @@
+package com.codeium.chatcodebase.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Queries over the dependency graph of a project, so clients never need the whole graph to answer them.
+ * Results are cached until the project is analyzed again.
+ */
+@Service
+@RequiredArgsConstructor
+public class DependencyAnalyticsService {
+    private final DependencyGraphStore dependencyGraphStore;
+
+    @Value("${analysis.dependencies.max-depth:10}")
+    private int maxDepth = 10;
+
+    @Value("${analysis.dependencies.cache-size:1024}")
+    private int cacheSize = 1024;
+
+    private final Map<String, GraphResults> results = new ConcurrentHashMap<>();
+
+    /**
+     * Files the given file depends on, directly or through up to {@code depth} dependencies.
+     *
+     * @return empty if the project was not analyzed or has no such file
+     */
+    public Optional<List<FileDepth>> transitiveDependencies(String projectId, String filePath, int depth) {
+        return traverse(projectId, filePath, depth, false);
+    }
+
+    /**
+     * Files that may be impacted by a change of the given file, i.e. that depend on it directly or through
+     * up to {@code depth} other files.
+     *
+     * @return empty if the project was not analyzed or has no such file
+     */
+    public Optional<List<FileDepth>> impactedFiles(String projectId, String filePath, int depth) {
+        return traverse(projectId, filePath, depth, true);
+    }
+
+    private Optional<List<FileDepth>> traverse(String projectId, String filePath, int depth, boolean reverse) {
+        int boundedDepth = Math.max(1, Math.min(depth, maxDepth));
+        String key = (reverse ? "impact:" : "transitive:") + boundedDepth + ':' + filePath;
+        return cached(projectId, key, graph -> {
+            int id = graph.resolve(filePath);
+            if (id == -1) {
+                return Optional.empty();
+            }
+            DependencyGraph.Traversal traversal = graph.traverse(id, boundedDepth, reverse);
+            List<FileDepth> files = new ArrayList<>(traversal.ids().length);
+            for (int i = 0; i < traversal.ids().length; i++) {
+                files.add(new FileDepth(graph.path(traversal.ids()[i]), traversal.depths()[i]));
+            }
+            return Optional.of(files);
+        });
+    }
+
+    /**
+     * Groups of files that depend on each other in a cycle, largest first.
+     *
+     * @return empty if the project was not analyzed
+     */
+    public Optional<List<List<String>>> cycles(String projectId) {
+        return cached(projectId, "cycles", graph -> {
+            List<List<String>> cycles = new ArrayList<>();
+            for (int[] component : graph.cycles()) {
+                List<String> files = new ArrayList<>(component.length);
+                for (int id : component) {
+                    files.add(graph.path(id));
+                }
+                cycles.add(files);
+            }
+            return Optional.of(cycles);
+        });
+    }
+
+    /**
+     * The files with the most dependents and the files with the most dependencies.
+     *
+     * @return empty if the project was not analyzed
+     */
+    public Optional<TopFiles> topFiles(String projectId, int limit) {
+        int boundedLimit = Math.max(1, Math.min(limit, 100));
+        return cached(projectId, "top:" + boundedLimit, graph -> Optional.of(new TopFiles(
+            toDegrees(graph, graph.topByDegree(boundedLimit, false)),
+            toDegrees(graph, graph.topByDegree(boundedLimit, true)))));
+    }
+
+    /**
+     * Drops the cached results of a deleted project, which would otherwise keep its graph on the heap.
+     */
+    public void remove(String projectId) {
+        results.remove(projectId);
+    }
+
+    private static List<FileDegree> toDegrees(DependencyGraph graph, int[] ids) {
+        List<FileDegree> files = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            files.add(new FileDegree(graph.path(id), graph.fanIn(id), graph.fanOut(id)));
+        }
+        return files;
+    }
+
+    /**
+     * Every analysis produces a new graph instance, so results are only reused for the same instance.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Optional<T> cached(String projectId, String key, Function<DependencyGraph, Optional<T>> query) {
+        DependencyGraph graph = dependencyGraphStore.get(projectId);
+        if (graph == null) {
+            // Deleted, possibly by another node
+            results.remove(projectId);
+            return Optional.empty();
+        }
+        GraphResults graphResults = results.compute(projectId,
+            (id, current) -> current != null && current.graph() == graph ? current : new GraphResults(graph));
+        if (graphResults.values().size() >= cacheSize) {
+            graphResults.values().clear();
+        }
+        return (Optional<T>) graphResults.values().computeIfAbsent(key, k -> query.apply(graph));
+    }
+
+    private record GraphResults(DependencyGraph graph, Map<String, Optional<?>> values) {
+        GraphResults(DependencyGraph graph) {
+            this(graph, new ConcurrentHashMap<>());
+        }
+    }
+
+    public record FileDepth(String path, int depth) {}
+
+    public record FileDegree(String path, int fanIn, int fanOut) {}
+
+    public record TopFiles(List<FileDegree> mostDependents, List<FileDegree> mostDependencies) {}
+}
@@ -0,0 +1,386 @@
+package com.codeium.chatcodebase.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable file dependency graph of one project. File paths are interned to int ids and edges are kept
+ * in compressed sparse row form: the dependencies of file {@code i} are
+ * {@code forwardTargets[forwardOffsets[i] .. forwardOffsets[i + 1])}, and the files depending on it are
+ * found the same way in the reverse arrays. Looking up the edges of a file takes O(degree).
+ */
+public final class DependencyGraph {
+    private static final int FORMAT_VERSION = 1;
+
+    private final String[] paths;
+    private final String[] names;
+    private final int[] sizes;
+    private final Map<String, Integer> ids;
+    private final int[] forwardOffsets;
+    private final int[] forwardTargets;
+    private final int[] reverseOffsets;
+    private final int[] reverseSources;
+
+    private DependencyGraph(String[] paths, String[] names, int[] sizes, int[] forwardOffsets, int[] forwardTargets) {
+        this.paths = paths;
+        this.names = names;
+        this.sizes = sizes;
+        this.forwardOffsets = forwardOffsets;
+        this.forwardTargets = forwardTargets;
+        this.ids = new HashMap<>(paths.length * 4 / 3 + 1);
+        for (int i = 0; i < paths.length; i++) {
+            ids.put(paths[i], i);
+        }
+        this.reverseOffsets = new int[paths.length + 1];
+        this.reverseSources = new int[forwardTargets.length];
+        transpose();
+    }
+
+    /**
+     * Builds the index from dependency data; links to files that are not nodes of the graph are dropped.
+     */
+    public static DependencyGraph of(DependencyService.DependencyData data) {
+        int nodeCount = data.nodes().size();
+        String[] paths = new String[nodeCount];
+        String[] names = new String[nodeCount];
+        int[] sizes = new int[nodeCount];
+        Map<String, Integer> ids = new HashMap<>(nodeCount * 4 / 3 + 1);
+        for (int i = 0; i < nodeCount; i++) {
+            DependencyService.DependencyNode node = data.nodes().get(i);
+            paths[i] = node.id();
+            names[i] = node.name();
+            sizes[i] = node.size();
+            ids.put(node.id(), i);
+        }
+
+        int[] sources = new int[data.links().size()];
+        int[] targets = new int[data.links().size()];
+        int edgeCount = 0;
+        for (DependencyService.DependencyLink link : data.links()) {
+            Integer source = ids.get(link.source());
+            Integer target = ids.get(link.target());
+            if (source != null && target != null) {
+                sources[edgeCount] = source;
+                targets[edgeCount] = target;
+                edgeCount++;
+            }
+        }
+
+        int[] offsets = new int[nodeCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            offsets[sources[e] + 1]++;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] next = Arrays.copyOf(offsets, nodeCount);
+        int[] forwardTargets = new int[edgeCount];
+        for (int e = 0; e < edgeCount; e++) {
+            forwardTargets[next[sources[e]]++] = targets[e];
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            Arrays.sort(forwardTargets, offsets[i], offsets[i + 1]);
+        }
+        return new DependencyGraph(paths, names, sizes, offsets, forwardTargets);
+    }
+
+    private void transpose() {
+        int nodeCount = paths.length;
+        for (int target : forwardTargets) {
+            reverseOffsets[target + 1]++;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            reverseOffsets[i + 1] += reverseOffsets[i];
+        }
+        // Sources are visited in ascending order, so every reverse row ends up sorted
+        int[] next = Arrays.copyOf(reverseOffsets, nodeCount);
+        for (int source = 0; source < nodeCount; source++) {
+            for (int e = forwardOffsets[source]; e < forwardOffsets[source + 1]; e++) {
+                reverseSources[next[forwardTargets[e]]++] = source;
+            }
+        }
+    }
+
+    public int nodeCount() {
+        return paths.length;
+    }
+
+    public int edgeCount() {
+        return forwardTargets.length;
+    }
+
+    /**
+     * The id of the file with exactly the given path, otherwise of the only file whose path ends with
+     * {@code /path}, or -1.
+     */
+    public int resolve(String path) {
+        Integer id = ids.get(path);
+        if (id != null) {
+            return id;
+        }
+        String suffix = path.startsWith("/") ? path : "/" + path;
+        int match = -1;
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i].endsWith(suffix)) {
+                if (match != -1) {
+                    return -1;
+                }
+                match = i;
+            }
+        }
+        return match;
+    }
+
+    public String path(int id) {
+        return paths[id];
+    }
+
+    /**
+     * Files that the given file depends on.
+     */
+    public List<String> dependencies(int id) {
+        return toPaths(forwardTargets, forwardOffsets[id], forwardOffsets[id + 1]);
+    }
+
+    /**
+     * Files that depend on the given file.
+     */
+    public List<String> dependents(int id) {
+        return toPaths(reverseSources, reverseOffsets[id], reverseOffsets[id + 1]);
+    }
+
+    private List<String> toPaths(int[] adjacency, int from, int to) {
+        List<String> result = new ArrayList<>(to - from);
+        for (int e = from; e < to; e++) {
+            result.add(paths[adjacency[e]]);
+        }
+        return result;
+    }
+
+    public int fanOut(int id) {
+        return forwardOffsets[id + 1] - forwardOffsets[id];
+    }
+
+    public int fanIn(int id) {
+        return reverseOffsets[id + 1] - reverseOffsets[id];
+    }
+
+    /**
+     * Breadth-first search from {@code start} along dependencies, or along dependents when {@code reverse}
+     * is set, up to {@code maxDepth} edges away. The start file itself is not part of the result.
+     */
+    public Traversal traverse(int start, int maxDepth, boolean reverse) {
+        int[] offsets = reverse ? reverseOffsets : forwardOffsets;
+        int[] adjacency = reverse ? reverseSources : forwardTargets;
+        int[] depths = new int[paths.length];
+        Arrays.fill(depths, -1);
+        int[] queue = new int[paths.length];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        depths[start] = 0;
+        while (head < tail) {
+            int node = queue[head++];
+            int depth = depths[node];
+            if (depth >= maxDepth) {
+                continue;
+            }
+            for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+                int next = adjacency[e];
+                if (depths[next] == -1) {
+                    depths[next] = depth + 1;
+                    queue[tail++] = next;
+                }
+            }
+        }
+
+        int[] ids = Arrays.copyOfRange(queue, 1, tail);
+        int[] idDepths = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            idDepths[i] = depths[ids[i]];
+        }
+        return new Traversal(ids, idDepths);
+    }
+
+    /**
+     * Strongly connected components with more than one file, i.e. the dependency cycles, largest first.
+     * Uses Tarjan's algorithm with an explicit stack, so deep graphs cannot overflow the thread stack.
+     */
+    public List<int[]> cycles() {
+        int nodeCount = paths.length;
+        int[] index = new int[nodeCount];
+        Arrays.fill(index, -1);
+        int[] low = new int[nodeCount];
+        boolean[] onStack = new boolean[nodeCount];
+        int[] stack = new int[nodeCount];
+        int stackSize = 0;
+        int[] callStack = new int[nodeCount];
+        int[] nextEdge = new int[nodeCount];
+        int callDepth = 0;
+        int counter = 0;
+        List<int[]> components = new ArrayList<>();
+
+        for (int root = 0; root < nodeCount; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+            index[root] = low[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            nextEdge[root] = forwardOffsets[root];
+            callStack[callDepth++] = root;
+
+            while (callDepth > 0) {
+                int node = callStack[callDepth - 1];
+                if (nextEdge[node] < forwardOffsets[node + 1]) {
+                    int next = forwardTargets[nextEdge[node]++];
+                    if (index[next] == -1) {
+                        index[next] = low[next] = counter++;
+                        stack[stackSize++] = next;
+                        onStack[next] = true;
+                        nextEdge[next] = forwardOffsets[next];
+                        callStack[callDepth++] = next;
+                    } else if (onStack[next]) {
+                        low[node] = Math.min(low[node], index[next]);
+                    }
+                    continue;
+                }
+
+                callDepth--;
+                if (callDepth > 0) {
+                    int parent = callStack[callDepth - 1];
+                    low[parent] = Math.min(low[parent], low[node]);
+                }
+                if (low[node] == index[node]) {
+                    int start = stackSize;
+                    do {
+                        onStack[stack[--start]] = false;
+                    } while (stack[start] != node);
+                    if (stackSize - start > 1) {
+                        int[] component = Arrays.copyOfRange(stack, start, stackSize);
+                        Arrays.sort(component);
+                        components.add(component);
+                    }
+                    stackSize = start;
+                }
+            }
+        }
+        components.sort((a, b) -> Integer.compare(b.length, a.length));
+        return components;
+    }
+
+    /**
+     * Ids of the {@code limit} files with the most dependents, or the most dependencies when
+     * {@code fanOut} is set, in descending order. Files without any such edge are left out.
+     */
+    public int[] topByDegree(int limit, boolean fanOut) {
+        int[] offsets = fanOut ? forwardOffsets : reverseOffsets;
+        int[] top = new int[Math.max(0, Math.min(limit, paths.length))];
+        if (top.length == 0) {
+            return top;
+        }
+        int size = 0;
+        for (int id = 0; id < paths.length; id++) {
+            int degree = offsets[id + 1] - offsets[id];
+            if (degree == 0 || (size == top.length && degree <= degree(offsets, top[size - 1]))) {
+                continue;
+            }
+            // Insertion into the small sorted array; most files are rejected by the check above
+            int position = size == top.length ? size - 1 : size++;
+            while (position > 0 && degree(offsets, top[position - 1]) < degree) {
+                top[position] = top[position - 1];
+                position--;
+            }
+            top[position] = id;
+        }
+        return Arrays.copyOf(top, size);
+    }
+
+    private static int degree(int[] offsets, int id) {
+        return offsets[id + 1] - offsets[id];
+    }
+
+    public DependencyService.DependencyData toData() {
+        List<DependencyService.DependencyNode> nodes = new ArrayList<>(paths.length);
+        for (int i = 0; i < paths.length; i++) {
+            nodes.add(new DependencyService.DependencyNode(paths[i], names[i], "file", sizes[i]));
+        }
+        List<DependencyService.DependencyLink> links = new ArrayList<>(forwardTargets.length);
+        for (int source = 0; source < paths.length; source++) {
+            for (int e = forwardOffsets[source]; e < forwardOffsets[source + 1]; e++) {
+                links.add(new DependencyService.DependencyLink(paths[source], paths[forwardTargets[e]], 1));
+            }
+        }
+        return new DependencyService.DependencyData(nodes, links);
+    }
+
+    /**
+     * Files reached by {@link #traverse}, in breadth-first order, and their distance from the start file.
+     */
+    public record Traversal(int[] ids, int[] depths) {}
+
+    /**
+     * Serializes nodes and forward edges; the reverse edges are rebuilt by {@link #fromBytes}.
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + paths.length * 64 + forwardTargets.length * 4);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(paths.length);
+            for (int i = 0; i < paths.length; i++) {
+                out.writeUTF(paths[i]);
+                out.writeUTF(names[i]);
+                out.writeInt(sizes[i]);
+            }
+            out.writeInt(forwardTargets.length);
+            for (int i = 1; i <= paths.length; i++) {
+                out.writeInt(forwardOffsets[i]);
+            }
+            for (int target : forwardTargets) {
+                out.writeInt(target);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static DependencyGraph fromBytes(byte[] data) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported dependency graph format: " + version);
+            }
+            int nodeCount = in.readInt();
+            String[] paths = new String[nodeCount];
+            String[] names = new String[nodeCount];
+            int[] sizes = new int[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                paths[i] = in.readUTF();
+                names[i] = in.readUTF();
+                sizes[i] = in.readInt();
+            }
+            int edgeCount = in.readInt();
+            int[] offsets = new int[nodeCount + 1];
+            for (int i = 1; i <= nodeCount; i++) {
+                offsets[i] = in.readInt();
+            }
+            int[] targets = new int[edgeCount];
+            for (int e = 0; e < edgeCount; e++) {
+                targets[e] = in.readInt();
+            }
+            return new DependencyGraph(paths, names, sizes, offsets, targets);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.codeium.chatcodebase.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Persists the dependency graph of each project, so it is available after a restart without re-analysis.
+ */
+@Repository
+@RequiredArgsConstructor
+public class DependencyGraphRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    public Optional<DependencyGraph> load(String projectId) {
+        List<byte[]> rows = jdbcTemplate.query(
+            "SELECT graph FROM dependency_graph WHERE project_id = ?",
+            (rs, rowNum) -> rs.getBytes("graph"),
+            projectId);
+        return rows.stream().findFirst().map(DependencyGraph::fromBytes);
+    }
+
+    /**
+     * @return when the project's graph was last saved, by any node
+     */
+    public Optional<Instant> findUpdatedAt(String projectId) {
+        List<Instant> rows = jdbcTemplate.query(
+            "SELECT updated_at FROM dependency_graph WHERE project_id = ?",
+            (rs, rowNum) -> rs.getTimestamp("updated_at").toInstant(),
+            projectId);
+        return rows.stream().findFirst();
+    }
+
+    /**
+     * @return when the graph was saved
+     */
+    public Instant save(String projectId, DependencyGraph graph) {
+        return jdbcTemplate.queryForObject("""
+            INSERT INTO dependency_graph (project_id, node_count, edge_count, graph)
+            VALUES (?, ?, ?, ?)
+            ON CONFLICT (project_id)
+            DO UPDATE SET node_count = EXCLUDED.node_count,
+                          edge_count = EXCLUDED.edge_count,
+                          graph = EXCLUDED.graph,
+                          updated_at = now()
+            RETURNING updated_at
+            """, Timestamp.class, projectId, graph.nodeCount(), graph.edgeCount(), graph.toBytes()).toInstant();
+    }
+
+    public void delete(String projectId) {
+        jdbcTemplate.update("DELETE FROM dependency_graph WHERE project_id = ?", projectId);
+    }
+}
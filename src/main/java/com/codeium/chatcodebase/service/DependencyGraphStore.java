@@ -0,0 +1,94 @@
+package com.codeium.chatcodebase.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Dependency graph of each analyzed project, kept in memory and loaded from the database on first use.
+ * Cached graphs are checked against the database every few seconds, so that graphs stored or removed by
+ * other nodes are picked up.
+ */
+@Slf4j
+@Service
+public class DependencyGraphStore {
+    private static final int MAX_MISSING = 1_000;
+    private static final long MISSING_TTL_MILLIS = 60_000;
+    private static final long REVALIDATE_MILLIS = 10_000;
+
+    private final DependencyGraphRepository repository;
+
+    private final ConcurrentHashMap<String, StoredGraph> graphs = new ConcurrentHashMap<>();
+    /**
+     * Projects without a stored graph, so that repeated lookups, e.g. by the chat tools, do not query the
+     * database every time. Bounded because the ids come from clients, and short-lived because another
+     * node may store the graph in the meantime.
+     */
+    private final TtlCache<String, Boolean> missing;
+    /**
+     * Projects whose cached graph was recently found to be the stored one.
+     */
+    private final TtlCache<String, Boolean> validated;
+
+    @Autowired
+    public DependencyGraphStore(DependencyGraphRepository repository) {
+        this(repository, System::nanoTime);
+    }
+
+    DependencyGraphStore(DependencyGraphRepository repository, LongSupplier clock) {
+        this.repository = repository;
+        this.missing = new TtlCache<>(MAX_MISSING, MISSING_TTL_MILLIS, clock);
+        // Only holds projects that have a cached graph, so it needs no tighter bound than the graphs
+        this.validated = new TtlCache<>(Integer.MAX_VALUE, REVALIDATE_MILLIS, clock);
+    }
+
+    /**
+     * @return the graph of the last completed analysis of the project, or {@code null} if there is none
+     */
+    public DependencyGraph get(String projectId) {
+        StoredGraph cached = graphs.get(projectId);
+        if (cached != null ? validated.get(projectId) != null : missing.get(projectId) != null) {
+            return cached == null ? null : cached.graph();
+        }
+        Optional<Instant> updatedAt = repository.findUpdatedAt(projectId);
+        if (updatedAt.isPresent() && cached != null && cached.updatedAt().equals(updatedAt.get())) {
+            validated.put(projectId, Boolean.TRUE);
+            return cached.graph();
+        }
+        // Stored or removed by another node
+        Optional<DependencyGraph> loaded = updatedAt.isEmpty() ? Optional.empty() : repository.load(projectId);
+        if (loaded.isEmpty()) {
+            graphs.remove(projectId, cached);
+            missing.put(projectId, Boolean.TRUE);
+            return null;
+        }
+        StoredGraph stored = new StoredGraph(loaded.get(), updatedAt.get());
+        // A graph put while this one was loaded is newer
+        StoredGraph current = graphs.compute(projectId,
+            (id, existing) -> existing == null || existing == cached ? stored : existing);
+        validated.put(projectId, Boolean.TRUE);
+        return current.graph();
+    }
+
+    public void put(String projectId, DependencyGraph graph) {
+        Instant updatedAt = repository.save(projectId, graph);
+        graphs.put(projectId, new StoredGraph(graph, updatedAt));
+        validated.put(projectId, Boolean.TRUE);
+        missing.removeIf(projectId::equals);
+        log.info("Stored dependency graph for project: {} ({} files, {} dependencies)",
+            projectId, graph.nodeCount(), graph.edgeCount());
+    }
+
+    public void remove(String projectId) {
+        repository.delete(projectId);
+        graphs.remove(projectId);
+        validated.removeIf(projectId::equals);
+    }
+
+    private record StoredGraph(DependencyGraph graph, Instant updatedAt) {}
+}
@@ -9,69 +9,115 @@ import lombok.extern.slf4j.Slf4j;
 public class DependencyService {
     
     public DependencyData analyzeDependencies(List<AstService.AstDocument> documents) {
-        Map<String, DependencyNode> nodes = new HashMap<>();
-        Map<String, Set<String>> dependencyMap = new HashMap<>();
-        Map<String, String> classToFileMap = new HashMap<>();
-        
-        // First pass: Create nodes for all files and collect their dependencies
-        for (AstService.AstDocument doc : documents) {
+        Collector collector = documents.isEmpty()
+            ? newCollector()
+            : newCollector(documents.get(0).getMetadata().getSymbols());
+        documents.forEach(collector::accept);
+        return collector.build();
+    }
+
+    /**
+     * Creates a collector that consumes parsed documents one at a time, so the dependency graph can be
+     * built while the documents are streamed through the analysis pipeline.
+     */
+    public Collector newCollector() {
+        return newCollector(new SymbolTable());
+    }
+
+    /**
+     * Creates a collector for documents whose names are interned in the given table; names of documents
+     * parsed with another table are interned again.
+     */
+    public Collector newCollector(SymbolTable symbols) {
+        return new Collector(symbols);
+    }
+
+    /**
+     * Keeps only the data needed for dependency resolution of each accepted document, not its content.
+     * Imports are resolved by symbol id: an array indexed by the id of a qualified class name holds the
+     * file declaring the class. Safe to call {@link #accept} from several threads.
+     */
+    public class Collector {
+        private final SymbolTable symbols;
+        private final Map<String, Integer> fileIndexes = new HashMap<>();
+        private final List<DependencyNode> nodes = new ArrayList<>();
+        private final List<int[]> importsByFile = new ArrayList<>();
+        /**
+         * One more than the index of the file declaring each class id, 0 for other ids.
+         */
+        private int[] classFiles = new int[0];
+
+        private Collector(SymbolTable symbols) {
+            this.symbols = symbols;
+        }
+
+        public synchronized void accept(AstService.AstDocument doc) {
             try {
                 String filePath = doc.getFilePath();
-                String fileId = filePath;
+                AstService.AstMetadata metadata = doc.getMetadata();
                 
-                // Add file node
-                nodes.put(fileId, new DependencyNode(
-                    fileId,
+                // Add file node and store dependencies for this file
+                DependencyNode node = new DependencyNode(
+                    filePath,
                     getSimpleFileName(filePath),
                     "file",
                     calculateFileSize(doc.getRawContent())
-                ));
-                
-                // Store dependencies for this file
-                dependencyMap.put(fileId, new HashSet<>());
+                );
+                int[] imports = localIds(metadata, metadata.getDependencyIds());
+                Integer existing = fileIndexes.putIfAbsent(filePath, nodes.size());
+                int file = existing == null ? nodes.size() : existing;
+                if (existing == null) {
+                    nodes.add(node);
+                    importsByFile.add(imports);
+                } else {
+                    nodes.set(file, node);
+                    importsByFile.set(file, imports);
+                }
                 
-                // Map package names to file paths for dependency resolution
-                String packageName = doc.getMetadata().getPackageName();
+                // Map qualified class names to the file for dependency resolution
+                String packageName = metadata.getPackageName();
                 if (packageName != null && !packageName.isEmpty()) {
-                    for (String className : doc.getMetadata().getClasses()) {
-                        String fullClassName = packageName + "." + className;
-                        classToFileMap.put(fullClassName, fileId);
+                    for (int classId : localIds(metadata, metadata.getClassIds())) {
+                        if (classId >= classFiles.length) {
+                            classFiles = Arrays.copyOf(classFiles, Math.max(classId + 1, classFiles.length * 2));
+                        }
+                        classFiles[classId] = file + 1;
                     }
                 }
             } catch (Exception e) {
                 log.error("Failed to process document: {}", doc.getFilePath(), e);
             }
         }
-        
-        // Second pass: Create dependency links between files
-        List<DependencyLink> links = new ArrayList<>();
-        
-        // Then create the dependency links
-        for (AstService.AstDocument doc : documents) {
-            try {
-                String sourceFile = doc.getFilePath();
-                
-                // Process each import statement
-                for (String dependency : doc.getMetadata().getDependencies()) {
-                    String targetFile = classToFileMap.get(dependency);
-                    if (targetFile != null && !targetFile.equals(sourceFile)) {
-                        // Add to dependency map to avoid duplicates
-                        dependencyMap.get(sourceFile).add(targetFile);
+
+        public synchronized DependencyData build() {
+            List<DependencyLink> links = new ArrayList<>();
+            // Marks the targets already linked from the current source, to avoid duplicates
+            int[] linkedFrom = new int[nodes.size()];
+
+            // Create dependency links between files once every class is known
+            for (int source = 0; source < importsByFile.size(); source++) {
+                for (int dependency : importsByFile.get(source)) {
+                    int target = dependency < classFiles.length ? classFiles[dependency] - 1 : -1;
+                    if (target >= 0 && target != source && linkedFrom[target] != source + 1) {
+                        linkedFrom[target] = source + 1;
+                        links.add(new DependencyLink(nodes.get(source).id(), nodes.get(target).id(), 1));
                     }
                 }
-            } catch (Exception e) {
-                log.error("Failed to process dependencies for: {}", doc.getFilePath(), e);
             }
+            
+            return new DependencyData(new ArrayList<>(nodes), links);
+        }
+
+        private int[] localIds(AstService.AstMetadata metadata, int[] ids) {
+            if (metadata.getSymbols() == symbols) {
+                return ids;
+            }
+            int[] local = new int[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                local[i] = symbols.intern(metadata.getSymbols().name(ids[i]));
+            }
+            return local;
         }
-        
-        // Convert dependency map to links
-        dependencyMap.forEach((source, targets) -> {
-            targets.forEach(target -> {
-                links.add(new DependencyLink(source, target, 1));
-            });
-        });
-        
-        return new DependencyData(new ArrayList<>(nodes.values()), links);
     }
     
     private int calculateFileSize(String content) {
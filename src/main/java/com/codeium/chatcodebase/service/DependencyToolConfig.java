@@ -3,22 +3,34 @@ package com.codeium.chatcodebase.service;
 import com.fasterxml.jackson.annotation.JsonClassDescription;
 import com.fasterxml.jackson.annotation.JsonPropertyDescription;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ToolContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Description;
 
 import java.util.List;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 @Slf4j
 @Configuration
 public class DependencyToolConfig {
+    /**
+     * Tool context key of the project the chat is about.
+     */
+    public static final String PROJECT_ID = "projectId";
+    /**
+     * Tool context key of the {@link ChatTimings} of the chat request, if any.
+     */
+    public static final String TIMINGS = "timings";
 
-    private final DependencyService dependencyService;
+    private final DependencyGraphStore dependencyGraphStore;
+    private final DependencyAnalyticsService dependencyAnalytics;
 
-    public DependencyToolConfig(DependencyService dependencyService) {
-        this.dependencyService = dependencyService;
+    public DependencyToolConfig(DependencyGraphStore dependencyGraphStore,
+                                DependencyAnalyticsService dependencyAnalytics) {
+        this.dependencyGraphStore = dependencyGraphStore;
+        this.dependencyAnalytics = dependencyAnalytics;
     }
 
     @JsonClassDescription("Request to get dependencies for a specific file")
@@ -28,33 +40,57 @@ public class DependencyToolConfig {
     ) {
     }
 
-    public record FileDependencies(String fileName, List<String> dependencies) {
+    public record FileDependencies(String fileName, List<String> dependencies, List<String> dependents) {
+    }
+
+    @JsonClassDescription("Request to get the files impacted by a change of a specific file")
+    public record ImpactRequest(
+            @JsonPropertyDescription("The path of the changed file")
+            String filePath,
+            @JsonPropertyDescription("How many levels of indirect dependents to include, 1 for direct dependents only")
+            Integer depth
+    ) {
+    }
+
+    public record ImpactedFiles(String filePath, List<DependencyAnalyticsService.FileDepth> impactedFiles) {
     }
 
     @Bean
     @Description("Get dependencies for a specific file")
-    public Function<FileRequest, FileDependencies> getFileDependencies() {
-        return request -> {
-            var data = dependencyService.analyzeDependencies(List.of());
-            var dependencies = data.nodes().stream()
-                    .filter(node -> node.id().equals(request.filePath()))
-                    .findFirst()
-                    .map(node -> {
-                        List<String> deps = data.links().stream()
-                                .filter(link -> link.source().equals(node.id()))
-                                .map(link -> data.nodes().stream()
-                                        .filter(n -> n.id().equals(link.target()))
-                                        .findFirst()
-                                        .map(n -> n.name())
-                                        .orElse("Unknown"))
-                                .collect(Collectors.toList());
-                        return new FileDependencies(node.name(), deps);
-                    })
-                    .orElse(new FileDependencies(request.filePath(), List.of()));
-
-            log.info("Found dependencies for file {}: {}", request.filePath(), dependencies);
+    public BiFunction<FileRequest, ToolContext, FileDependencies> getFileDependencies() {
+        return (request, toolContext) -> timed(toolContext, () -> {
+            Object projectId = toolContext == null ? null : toolContext.getContext().get(PROJECT_ID);
+            DependencyGraph graph = projectId == null ? null : dependencyGraphStore.get(projectId.toString());
+            int id = graph == null || request.filePath() == null ? -1 : graph.resolve(request.filePath());
+
+            FileDependencies dependencies = id == -1
+                    ? new FileDependencies(request.filePath(), List.of(), List.of())
+                    : new FileDependencies(graph.path(id), graph.dependencies(id), graph.dependents(id));
+
+            log.info("Found dependencies for file {} in project {}: {}", request.filePath(), projectId, dependencies);
             return dependencies;
-        };
+        });
+    }
+
+    @Bean
+    @Description("Get the files that directly or indirectly depend on a specific file and may be impacted by changing it")
+    public BiFunction<ImpactRequest, ToolContext, ImpactedFiles> getImpactedFiles() {
+        return (request, toolContext) -> timed(toolContext, () -> {
+            Object projectId = toolContext == null ? null : toolContext.getContext().get(PROJECT_ID);
+            int depth = request.depth() == null ? 3 : request.depth();
+            List<DependencyAnalyticsService.FileDepth> impacted = projectId == null || request.filePath() == null
+                    ? List.of()
+                    : dependencyAnalytics.impactedFiles(projectId.toString(), request.filePath(), depth)
+                        .orElse(List.of());
+
+            log.info("Found {} impacted files for file {} in project {}", impacted.size(), request.filePath(), projectId);
+            return new ImpactedFiles(request.filePath(), impacted);
+        });
+    }
+
+    private static <T> T timed(ToolContext toolContext, Supplier<T> call) {
+        Object timings = toolContext == null ? null : toolContext.getContext().get(TIMINGS);
+        return timings instanceof ChatTimings chatTimings ? chatTimings.time(ChatTimings.TOOLS, call) : call.get();
     }
 
 }
@@ -0,0 +1,296 @@
+package com.codeium.chatcodebase.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Coalesces the chunks of many files into batches of roughly {@code tokenBudget} tokens and stores up to
+ * {@code maxInFlight} batches concurrently. A batch the model rejects, e.g. because a chunk exceeds its
+ * context length, is split in half and retried, so a single bad chunk only fails its own file. A batch
+ * the model server throttles is retried with exponential backoff. Any other failure, e.g. the model
+ * server being unreachable, a model that was never pulled, a proxy denying access or an interrupt, fails
+ * the batch once and aborts the batcher: the next {@link #add} or {@link #flush} throws a
+ * {@link BatcherAbortedException}, and the remaining batches fail without being sent. The listener is
+ * notified once all chunks of a file are stored or failed.
+ *
+ * <p>The last, partial batch is only stored by {@link #flush}; closing without flushing, e.g. after the
+ * analysis failed, discards it and its files are reported neither stored nor failed.
+ *
+ * @param <T> the caller's handle for a file
+ */
+@Slf4j
+public class EmbeddingBatcher<T> implements AutoCloseable {
+    private static final int MAX_THROTTLED_ATTEMPTS = 5;
+    private static final long THROTTLE_BACKOFF_MILLIS = 1_000;
+    /**
+     * Spring AI reports error responses as {@code "<status> - <body>"}.
+     */
+    private static final Pattern STATUS_MESSAGE = Pattern.compile("^(\\d{3}) - ");
+
+    private final Consumer<List<Document>> store;
+    private final int tokenBudget;
+    private final int maxInFlight;
+    private final Listener<T> listener;
+    private final long throttleBackoffMillis;
+    private final Semaphore inFlight;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicReference<Exception> abortCause = new AtomicReference<>();
+
+    private List<Item<T>> currentBatch = new ArrayList<>();
+    private int currentTokens;
+
+    public EmbeddingBatcher(Consumer<List<Document>> store, int tokenBudget, int maxInFlight, Listener<T> listener) {
+        this(store, tokenBudget, maxInFlight, listener, THROTTLE_BACKOFF_MILLIS);
+    }
+
+    EmbeddingBatcher(Consumer<List<Document>> store, int tokenBudget, int maxInFlight, Listener<T> listener,
+                     long throttleBackoffMillis) {
+        this.store = store;
+        this.tokenBudget = tokenBudget;
+        this.maxInFlight = maxInFlight;
+        this.listener = listener;
+        this.throttleBackoffMillis = throttleBackoffMillis;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Queues the chunks of one file. Blocks while {@code maxInFlight} batches are being stored.
+     *
+     * @throws BatcherAbortedException if a batch failed for a reason other than its chunks
+     */
+    public synchronized void add(T file, List<Document> chunks) throws InterruptedException {
+        checkAborted();
+        if (chunks.isEmpty()) {
+            listener.fileStored(file, 0);
+            return;
+        }
+
+        FileProgress<T> progress = new FileProgress<>(file, chunks.size());
+        for (Document chunk : chunks) {
+            int tokens = estimateTokens(chunk);
+            if (!currentBatch.isEmpty() && currentTokens + tokens > tokenBudget) {
+                storeCurrentBatch();
+            }
+            currentBatch.add(new Item<>(progress, chunk));
+            currentTokens += tokens;
+        }
+    }
+
+    /**
+     * Stores the remaining chunks and waits until every batch has completed.
+     *
+     * @throws BatcherAbortedException if a batch failed for a reason other than its chunks
+     */
+    public void flush() throws InterruptedException {
+        synchronized (this) {
+            checkAborted();
+            if (!currentBatch.isEmpty()) {
+                storeCurrentBatch();
+            }
+        }
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+        checkAborted();
+    }
+
+    /**
+     * Discards the chunks that were not flushed and waits until the batches being stored have completed.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            currentBatch = new ArrayList<>();
+            currentTokens = 0;
+        }
+        executor.close();
+    }
+
+    private void storeCurrentBatch() throws InterruptedException {
+        List<Item<T>> batch = currentBatch;
+        currentBatch = new ArrayList<>();
+        currentTokens = 0;
+
+        inFlight.acquire();
+        executor.execute(() -> {
+            try {
+                storeBatch(batch);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private void checkAborted() {
+        Exception cause = abortCause.get();
+        if (cause != null) {
+            throw new BatcherAbortedException(cause);
+        }
+    }
+
+    private void storeBatch(List<Item<T>> batch) {
+        Exception aborted = abortCause.get();
+        if (aborted != null) {
+            batch.forEach(item -> item.progress().chunkDone(listener, aborted));
+            return;
+        }
+        try {
+            storeThrottled(batch.stream().map(Item::chunk).toList());
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            if (classify(e) != Failure.INPUT) {
+                if (abortCause.compareAndSet(null, e)) {
+                    log.error("Failed to store batch of {} chunks, aborting", batch.size(), e);
+                }
+                batch.forEach(item -> item.progress().chunkDone(listener, e));
+                return;
+            }
+            if (batch.size() == 1) {
+                log.error("Failed to store chunk {}", batch.get(0).chunk().getId(), e);
+                batch.get(0).progress().chunkDone(listener, e);
+                return;
+            }
+            log.warn("Failed to store batch of {} chunks, retrying in two halves: {}", batch.size(), e.getMessage());
+            int middle = batch.size() / 2;
+            storeBatch(batch.subList(0, middle));
+            storeBatch(batch.subList(middle, batch.size()));
+            return;
+        }
+        batch.forEach(item -> item.progress().chunkDone(listener, null));
+    }
+
+    /**
+     * Stores the chunks, waiting and trying again while the model server throttles the requests.
+     */
+    private void storeThrottled(List<Document> chunks) throws InterruptedException {
+        long backoff = throttleBackoffMillis;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                store.accept(chunks);
+                return;
+            } catch (RuntimeException e) {
+                if (classify(e) != Failure.THROTTLED || attempt == MAX_THROTTLED_ATTEMPTS) {
+                    throw e;
+                }
+                log.warn("Model server throttled a batch of {} chunks, retrying in {} ms", chunks.size(), backoff);
+                Thread.sleep(backoff);
+                backoff *= 2;
+            }
+        }
+    }
+
+    /**
+     * How a failed batch is handled. Only 400 and 413 responses and inputs longer than the context length
+     * of the model are rejections of the chunks themselves, which a smaller batch may avoid. Spring AI
+     * reports error responses as {@link NonTransientAiException} or {@link TransientAiException} with the
+     * status at the start of the message.
+     */
+    static Failure classify(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("context length")) {
+                return Failure.INPUT;
+            }
+            int status = statusOf(cause);
+            if (status == 400 || status == 413) {
+                return Failure.INPUT;
+            }
+            if (status == 429) {
+                return Failure.THROTTLED;
+            }
+            if (status > 0) {
+                return Failure.FATAL;
+            }
+        }
+        return Failure.FATAL;
+    }
+
+    private static int statusOf(Throwable e) {
+        if (e instanceof HttpStatusCodeException http) {
+            return http.getStatusCode().value();
+        }
+        if ((e instanceof NonTransientAiException || e instanceof TransientAiException) && e.getMessage() != null) {
+            Matcher matcher = STATUS_MESSAGE.matcher(e.getMessage());
+            if (matcher.find()) {
+                return Integer.parseInt(matcher.group(1));
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Same estimate as the chunkers use: about four characters per token.
+     */
+    static int estimateTokens(Document chunk) {
+        return chunk.getText().length() / 4 + 1;
+    }
+
+    enum Failure {
+        /**
+         * The model rejected the chunks; the batch is split.
+         */
+        INPUT,
+        /**
+         * The model server is overloaded; the batch is retried after a backoff.
+         */
+        THROTTLED,
+        /**
+         * The model server is unreachable, failing or refusing every request; the batcher aborts.
+         */
+        FATAL
+    }
+
+    public interface Listener<T> {
+        void fileStored(T file, int chunkCount);
+
+        void fileFailed(T file, Exception cause);
+    }
+
+    public static class BatcherAbortedException extends RuntimeException {
+        public BatcherAbortedException(Exception cause) {
+            super("Storing embeddings was aborted: " + cause.getMessage(), cause);
+        }
+    }
+
+    private record Item<T>(FileProgress<T> progress, Document chunk) {}
+
+    private static class FileProgress<T> {
+        private final T file;
+        private final int chunkCount;
+        private final AtomicInteger remaining;
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        FileProgress(T file, int chunkCount) {
+            this.file = file;
+            this.chunkCount = chunkCount;
+            this.remaining = new AtomicInteger(chunkCount);
+        }
+
+        void chunkDone(Listener<T> listener, Exception error) {
+            if (error != null) {
+                failure.compareAndSet(null, error);
+            }
+            if (remaining.decrementAndGet() == 0) {
+                if (failure.get() == null) {
+                    listener.fileStored(file, chunkCount);
+                } else {
+                    listener.fileFailed(file, failure.get());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.codeium.chatcodebase.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Deletes the least recently used embedding cache entries beyond {@code embedding.cache.max-entries}.
+ * Runs on a schedule rather than on the embedding path, and deletes in batches so that no statement
+ * holds locks on a large part of the table.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "embedding.cache.enabled", havingValue = "true", matchIfMissing = true)
+public class EmbeddingCacheEvictor {
+    static final int BATCH_SIZE = 10_000;
+
+    private final EmbeddingCacheRepository repository;
+
+    @Value("${embedding.cache.max-entries:1000000}")
+    private long maxEntries = 1_000_000;
+
+    @Scheduled(fixedDelayString = "${embedding.cache.eviction-interval-ms:600000}",
+        initialDelayString = "${embedding.cache.eviction-interval-ms:600000}")
+    public void evict() {
+        try {
+            long evicted = 0;
+            int deleted;
+            do {
+                deleted = repository.evict(maxEntries, BATCH_SIZE);
+                evicted += deleted;
+            } while (deleted == BATCH_SIZE);
+            if (evicted > 0) {
+                log.info("Evicted {} least recently used embedding cache entries", evicted);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to evict embedding cache entries", e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.codeium.chatcodebase.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Postgres backed storage for {@link CachingEmbeddingModel}.
+ */
+@Repository
+@RequiredArgsConstructor
+public class EmbeddingCacheRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    public Map<String, float[]> findAll(Collection<String> keys) {
+        Map<String, float[]> found = new HashMap<>();
+        if (keys.isEmpty()) {
+            return found;
+        }
+        jdbcTemplate.query(
+            "SELECT cache_key, embedding FROM embedding_cache WHERE cache_key = ANY(?)",
+            ps -> ps.setArray(1, ps.getConnection().createArrayOf("text", keys.toArray())),
+            rs -> {
+                found.put(rs.getString("cache_key").trim(), toVector(rs.getBytes("embedding")));
+            });
+        return found;
+    }
+
+    /**
+     * Marks the entries as used. Entries used within the last day are not updated again, so that hits do
+     * not write a row each; the eviction order only needs the day an entry was last used.
+     */
+    public void touch(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update("""
+            UPDATE embedding_cache SET last_used_at = now()
+            WHERE cache_key = ANY(?) AND last_used_at < now() - INTERVAL '1 day'
+            """,
+            ps -> ps.setArray(1, ps.getConnection().createArrayOf("text", keys.toArray())));
+    }
+
+    public void saveAll(String model, Map<String, float[]> embeddings) {
+        if (embeddings.isEmpty()) {
+            return;
+        }
+        List<Object[]> args = new ArrayList<>(embeddings.size());
+        embeddings.forEach((key, vector) -> args.add(new Object[]{key, model, toBytes(vector)}));
+        jdbcTemplate.batchUpdate("""
+            INSERT INTO embedding_cache (cache_key, model, embedding)
+            VALUES (?, ?, ?)
+            ON CONFLICT (cache_key) DO UPDATE SET last_used_at = now()
+            WHERE embedding_cache.last_used_at < now() - INTERVAL '1 day'
+            """, args);
+    }
+
+    /**
+     * Deletes up to {@code batchSize} entries that were last used before the {@code maxEntries} most
+     * recently used one. Entries used at the same time as that one are kept, so slightly more than
+     * {@code maxEntries} may remain.
+     *
+     * @return the number of deleted entries, less than {@code batchSize} once no more are beyond the limit
+     */
+    public int evict(long maxEntries, int batchSize) {
+        return jdbcTemplate.update("""
+            DELETE FROM embedding_cache WHERE cache_key IN (
+                SELECT cache_key FROM embedding_cache
+                WHERE last_used_at < (
+                    SELECT last_used_at FROM embedding_cache ORDER BY last_used_at DESC OFFSET ? LIMIT 1)
+                LIMIT ?)
+            """, Math.max(0, maxEntries - 1), batchSize);
+    }
+
+    private static byte[] toBytes(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    private static float[] toVector(byte[] bytes) {
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).asFloatBuffer().get(vector);
+        return vector;
+    }
+}
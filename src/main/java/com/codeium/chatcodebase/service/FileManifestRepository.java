@@ -0,0 +1,65 @@
+package com.codeium.chatcodebase.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-project manifest of path to content hash for every file that was stored in the vector store.
+ */
+@Repository
+@RequiredArgsConstructor
+public class FileManifestRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    public Map<String, FileState> load(String projectId) {
+        Map<String, FileState> manifest = new HashMap<>();
+        jdbcTemplate.query(
+            "SELECT file_path, content_hash, chunk_count FROM file_manifest WHERE project_id = ?",
+            rs -> {
+                manifest.put(rs.getString("file_path"),
+                    new FileState(rs.getString("content_hash"), rs.getInt("chunk_count")));
+            },
+            projectId);
+        return manifest;
+    }
+
+    public void saveAll(String projectId, Map<String, FileState> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        List<Object[]> args = new ArrayList<>(entries.size());
+        entries.forEach((path, state) ->
+            args.add(new Object[]{projectId, path, state.contentHash(), state.chunkCount()}));
+        jdbcTemplate.batchUpdate("""
+            INSERT INTO file_manifest (project_id, file_path, content_hash, chunk_count)
+            VALUES (?, ?, ?, ?)
+            ON CONFLICT (project_id, file_path)
+            DO UPDATE SET content_hash = EXCLUDED.content_hash,
+                          chunk_count = EXCLUDED.chunk_count,
+                          updated_at = now()
+            """, args);
+    }
+
+    public void deleteAll(String projectId, Collection<String> paths) {
+        if (paths.isEmpty()) {
+            return;
+        }
+        List<Object[]> args = paths.stream()
+            .map(path -> new Object[]{projectId, path})
+            .toList();
+        jdbcTemplate.batchUpdate("DELETE FROM file_manifest WHERE project_id = ? AND file_path = ?", args);
+    }
+
+    public void deleteProject(String projectId) {
+        jdbcTemplate.update("DELETE FROM file_manifest WHERE project_id = ?", projectId);
+    }
+
+    public record FileState(String contentHash, int chunkCount) {}
+}
@@ -2,28 +2,34 @@ package com.codeium.chatcodebase.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.codec.digest.DigestUtils;
+import org.gitlab4j.api.Constants;
 import org.gitlab4j.api.GitLabApi;
 import org.gitlab4j.api.GitLabApiException;
-import org.gitlab4j.api.ProjectApi;
-import org.gitlab4j.api.RepositoryApi;
-import org.gitlab4j.api.RepositoryFileApi;
+import org.gitlab4j.api.models.Project;
+import org.gitlab4j.api.models.RepositoryArchiveParams;
 import org.gitlab4j.api.models.RepositoryFile;
 import org.gitlab4j.api.models.TreeItem;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 @Slf4j
 @Service
@@ -31,118 +37,319 @@ import java.util.zip.ZipFile;
 public class GitLabService {
     private final GitLabApi gitLabApi;
 
-    @Value("${gitlab.default-branch:main}")
-    private String defaultBranch;
+    @Value("${gitlab.fetch-mode:archive}")
+    private FetchMode fetchMode = FetchMode.ARCHIVE;
+
+    @Value("${gitlab.fetch.concurrency:16}")
+    private int fetchConcurrency = 16;
+
+    @Value("${gitlab.fetch.max-attempts:5}")
+    private int maxAttempts = 5;
+
+    @Value("${gitlab.fetch.initial-backoff-ms:500}")
+    private long initialBackoffMillis = 500;
 
     private static final int MAX_FILE_SIZE_BYTES = 100_000; // 100KB limit to prevent token overflow
+    private static final String ARCHIVE_FILE_MODE = "100644"; // archives carry no git modes
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
     private static final List<String> SUPPORTED_EXTENSIONS = List.of(
             ".java", ".kt", ".py", ".js", ".ts", ".jsx", ".tsx", 
             ".xml", ".yml", ".yaml", ".json", ".md", ".txt"
     );
 
     public List<CodeFile> fetchRepository(String projectIdOrPath) {
+        List<CodeFile> files = Collections.synchronizedList(new ArrayList<>());
+        fetchRepository(projectIdOrPath, files::add);
+        return files;
+    }
+
+    /**
+     * Fetches all supported files of the project and hands them to {@code sink} one by one.
+     * In {@link FetchMode#ARCHIVE} mode files are delivered while the archive is still downloading,
+     * in {@link FetchMode#API} mode {@code sink} is called concurrently from several threads.
+     *
+     * @return the files that could not be fetched
+     */
+    public List<FetchFailure> fetchRepository(String projectIdOrPath, Consumer<CodeFile> sink) {
         try {
             log.debug("Attempting to fetch repository for project: {}", projectIdOrPath);
             
             // First verify the project exists and is accessible
+            Project project;
             try {
-                gitLabApi.getProjectApi().getProject(projectIdOrPath);
+                project = gitLabApi.getProjectApi().getProject(projectIdOrPath);
                 log.debug("Successfully verified project access");
             } catch (GitLabApiException e) {
                 log.error("Failed to access project: {}. Error: {}", projectIdOrPath, e.getMessage());
                 throw new RepositoryFetchException("Project not found or not accessible", e);
             }
-            
-            List<TreeItem> tree = getCompleteTree(projectIdOrPath);
-            return processTreeNodes(projectIdOrPath, tree);
+
+            if (fetchMode == FetchMode.ARCHIVE) {
+                fetchRepositoryArchive(projectIdOrPath, project, sink);
+                return List.of();
+            }
+
+            RepositoryTree tree = getCompleteTree(projectIdOrPath, project);
+            return processTreeNodes(projectIdOrPath, tree.branch(), tree.items(), sink);
         } catch (GitLabApiException e) {
             throw new RepositoryFetchException("Failed to fetch repository", e);
         }
     }
 
-    private List<TreeItem> getCompleteTree(String projectId) throws GitLabApiException {
-        log.error("Starting repository tree fetch for project: {}", projectId);
-        
-        // First try to get the default branch if it's not set correctly
-        try {
-            var project = gitLabApi.getProjectApi().getProject(projectId);
-            String actualDefaultBranch = project.getDefaultBranch();
-            log.error("Project info - ID: {}, Name: {}, Default Branch: {}", 
-                project.getId(), project.getName(), actualDefaultBranch);
-            
-            if (actualDefaultBranch == null || actualDefaultBranch.isEmpty()) {
-                log.error("Project has no default branch, it might be empty");
-                return new ArrayList<>();
-            }
-            
-            if (!actualDefaultBranch.equals(defaultBranch)) {
-                log.error("Using project's default branch: {} instead of configured branch: {}", actualDefaultBranch, defaultBranch);
-                defaultBranch = actualDefaultBranch;
+    private void fetchRepositoryArchive(String projectId, Project project, Consumer<CodeFile> sink)
+            throws GitLabApiException {
+        String branch = project.getDefaultBranch();
+        if (branch == null || branch.isEmpty()) {
+            log.warn("Project {} has no default branch, it might be empty", projectId);
+            return;
+        }
+
+        log.debug("Downloading repository archive for project: {} (branch {})", projectId, branch);
+        try (InputStream archive = withRetry("archive of " + projectId, () -> gitLabApi.getRepositoryApi()
+                .getRepositoryArchive(projectId, new RepositoryArchiveParams().withSha(branch),
+                    Constants.ArchiveFormat.ZIP))) {
+            int count = readArchive(archive, sink);
+            log.info("Read {} files from repository archive of project: {}", count, projectId);
+        } catch (IOException e) {
+            throw new RepositoryFetchException("Failed to read repository archive", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryFetchException("Interrupted while downloading repository archive", e);
+        }
+    }
+
+    /**
+     * Streams a zip archive as produced by GitLab's archive endpoint without extracting it to disk.
+     *
+     * @return the number of files handed to {@code sink}
+     */
+    public int readArchive(InputStream archive, Consumer<CodeFile> sink) throws IOException {
+        int count = 0;
+        try (ZipInputStream zip = new ZipInputStream(archive, StandardCharsets.UTF_8)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                CodeFile file = readArchiveEntry(entry, zip);
+                if (file != null) {
+                    sink.accept(file);
+                    count++;
+                }
             }
+        }
+        return count;
+    }
 
-            // Get repository tree with recursive flag
-            log.error("Attempting to get repository tree recursively");
-            List<TreeItem> items = gitLabApi.getRepositoryApi().getTree(projectId, null, defaultBranch, true);
+    private CodeFile readArchiveEntry(ZipEntry entry, InputStream in) throws IOException {
+        if (entry.isDirectory()) {
+            return null;
+        }
+
+        String path = stripArchiveRoot(entry.getName());
+        if (path.isEmpty() || !isPathSupported(path)) {
+            return null;
+        }
+
+        // The size is only known up front for archives with a central directory header
+        if (entry.getSize() > MAX_FILE_SIZE_BYTES) {
+            log.warn("Skipping large file from archive: {} ({} bytes)", path, entry.getSize());
+            return null;
+        }
+
+        byte[] content = in.readNBytes(MAX_FILE_SIZE_BYTES + 1);
+        if (content.length > MAX_FILE_SIZE_BYTES) {
+            log.warn("Skipping large file from archive: {} (more than {} bytes)", path, MAX_FILE_SIZE_BYTES);
+            return null;
+        }
+
+        return new CodeFile(path, new String(content, StandardCharsets.UTF_8), ARCHIVE_FILE_MODE);
+    }
+
+    /**
+     * GitLab archives wrap everything in a single {@code <project>-<ref>-<sha>/} directory.
+     */
+    private String stripArchiveRoot(String entryName) {
+        int slash = entryName.indexOf('/');
+        return slash == -1 ? entryName : entryName.substring(slash + 1);
+    }
+
+    /**
+     * Lists the repository tree of the project's default branch. The branch is returned with the tree
+     * rather than kept in a field, since several projects are fetched at once.
+     */
+    private RepositoryTree getCompleteTree(String projectId, Project project) throws GitLabApiException {
+        String branch = project.getDefaultBranch();
+        if (branch == null || branch.isEmpty()) {
+            log.warn("Project {} has no default branch, it might be empty", projectId);
+            return new RepositoryTree(branch, List.of());
+        }
+
+        log.debug("Fetching repository tree for project: {} (branch {})", projectId, branch);
+        try {
+            List<TreeItem> items = gitLabApi.getRepositoryApi().getTree(projectId, null, branch, true);
             if (items == null || items.isEmpty()) {
-                log.error("No files found in repository");
-                return new ArrayList<>();
+                log.warn("No files found in repository of project: {}", projectId);
+                return new RepositoryTree(branch, List.of());
             }
-            
-            log.error("Successfully retrieved {} files from tree", items.size());
-            return items;
-            
+            log.info("Retrieved {} tree entries of project: {}", items.size(), projectId);
+            return new RepositoryTree(branch, items);
         } catch (GitLabApiException e) {
             log.error("Failed to get repository files: {} - {}", e.getMessage(), e.getHttpStatus());
             throw e;
         }
     }
 
-    private List<CodeFile> processTreeNodes(String projectId, List<TreeItem> nodes) {
-        return nodes.parallelStream()
-                .filter(node -> node.getType() == TreeItem.Type.BLOB) // Only process files, skip directories
-                .filter(this::isFileSupported) // Only process supported file types
-                .map(node -> processFile(projectId, node))
-                .filter(Objects::nonNull)
-                .toList();
+    /**
+     * Fetches every file on its own virtual thread. The semaphore, not the number of cores, bounds
+     * the number of concurrent requests against GitLab. A permit is held until the sink has taken the
+     * file, so a sink that blocks also stops the fetching and at most one file per permit is held.
+     */
+    List<FetchFailure> processTreeNodes(String projectId, String branch, List<TreeItem> nodes,
+                                        Consumer<CodeFile> sink) {
+        List<FetchFailure> failures = Collections.synchronizedList(new ArrayList<>());
+        Semaphore permits = new Semaphore(fetchConcurrency);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            nodes.stream()
+                    .filter(node -> node.getType() == TreeItem.Type.BLOB) // Only process files, skip directories
+                    .filter(node -> isPathSupported(node.getPath())) // Only process supported file types
+                    .forEach(node -> executor.submit(() -> {
+                        try {
+                            permits.acquire();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            failures.add(new FetchFailure(node.getPath(), "Interrupted"));
+                            return;
+                        }
+                        try {
+                            CodeFile file = processFile(projectId, branch, node);
+                            if (file != null) {
+                                sink.accept(file);
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            failures.add(new FetchFailure(node.getPath(), "Interrupted"));
+                        } catch (GitLabApiException e) {
+                            log.error("Failed to process file: {}", node.getPath(), e);
+                            failures.add(new FetchFailure(node.getPath(), e.getHttpStatus() + " " + e.getMessage()));
+                        } catch (RuntimeException e) {
+                            // Would otherwise be dropped with the task's future
+                            log.error("Failed to process file: {}", node.getPath(), e);
+                            failures.add(new FetchFailure(node.getPath(), String.valueOf(e.getMessage())));
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+        }
+
+        if (!failures.isEmpty()) {
+            log.warn("Failed to fetch {} files of project {}", failures.size(), projectId);
+        }
+        return failures;
     }
 
-    private boolean isFileSupported(TreeItem node) {
-        String path = node.getPath().toLowerCase();
+    private boolean isPathSupported(String filePath) {
+        String path = filePath.toLowerCase();
         return SUPPORTED_EXTENSIONS.stream().anyMatch(path::endsWith) &&
                !path.contains("/test/") && // Skip test files
                !path.contains("/tests/") &&
                !path.contains("/generated/"); // Skip generated files
     }
 
-    private CodeFile processFile(String projectId, TreeItem node) {
-        try {
-            // Get file content using repository file API with correct parameter order
-            RepositoryFile file = gitLabApi.getRepositoryFileApi().getFile(projectId, node.getPath(), defaultBranch);
-            if (file == null) {
-                log.error("File not found: {}", node.getPath());
-                return null;
+    /**
+     * @return the file, or {@code null} if it is too large to be analyzed
+     */
+    CodeFile processFile(String projectId, String branch, TreeItem node)
+            throws GitLabApiException, InterruptedException {
+        // Get file content using repository file API with correct parameter order
+        RepositoryFile file = withRetry(node.getPath(), () ->
+                gitLabApi.getRepositoryFileApi().getFile(projectId, node.getPath(), branch));
+        if (file == null) {
+            throw new RepositoryFetchException("File not found", null);
+        }
+        
+        // Get the content and decode from base64
+        String content = file.getDecodedContentAsString();
+        
+        // Double check content size after decoding
+        if (content.length() > MAX_FILE_SIZE_BYTES) {
+            log.warn("File too large after decoding: {} ({} bytes)", node.getPath(), content.length());
+            return null;
+        }
+
+        return new CodeFile(
+                node.getPath(),
+                content,
+                node.getMode()
+        );
+    }
+
+    /**
+     * Retries rate limited (429) and server side (5xx) failures with exponential backoff. A
+     * {@code Retry-After} header sent by GitLab takes precedence over the computed delay.
+     */
+    <T> T withRetry(String description, GitLabCall<T> call) throws GitLabApiException, InterruptedException {
+        long backoffMillis = initialBackoffMillis;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.execute();
+            } catch (GitLabApiException e) {
+                if (!isRetryable(e) || attempt >= maxAttempts) {
+                    throw e;
+                }
+                long delayMillis = retryAfterMillis(e).orElse(
+                        backoffMillis + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1));
+                log.warn("GitLab returned {} for {}, retrying in {} ms (attempt {}/{})",
+                        e.getHttpStatus(), description, delayMillis, attempt, maxAttempts);
+                Thread.sleep(delayMillis);
+                backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
             }
-            
-            // Get the content and decode from base64
-            String content = file.getDecodedContentAsString();
-            
-            // Double check content size after decoding
-            if (content.length() > MAX_FILE_SIZE_BYTES) {
-                log.warn("File too large after decoding: {} ({} bytes)", node.getPath(), content.length());
+        }
+    }
+
+    private boolean isRetryable(GitLabApiException e) {
+        return e.getHttpStatus() == 429 || e.getHttpStatus() >= 500;
+    }
+
+    private Optional<Long> retryAfterMillis(GitLabApiException e) {
+        String retryAfter = getHeader(e, "Retry-After");
+        if (retryAfter == null || retryAfter.isBlank()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Math.min(Long.parseLong(retryAfter.trim()) * 1000, MAX_BACKOFF_MILLIS));
+        } catch (NumberFormatException ignored) {
+            // Retry-After may also be an HTTP date
+        }
+        try {
+            ZonedDateTime retryAt = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            long millis = Duration.between(ZonedDateTime.now(retryAt.getZone()), retryAt).toMillis();
+            return Optional.of(Math.max(0, Math.min(millis, MAX_BACKOFF_MILLIS)));
+        } catch (DateTimeParseException ignored) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * gitlab4j exposes response headers as a javax or jakarta {@code MultivaluedMap} depending on the
+     * version on the classpath, so the header is looked up reflectively.
+     */
+    private String getHeader(GitLabApiException e, String name) {
+        try {
+            Object headers = GitLabApiException.class.getMethod("getHeaders").invoke(e);
+            if (headers == null) {
                 return null;
             }
-
-            return new CodeFile(
-                    node.getPath(),
-                    content,
-                    node.getMode()
-            );
-        } catch (GitLabApiException e) {
-            log.error("Failed to process file: {}", node.getPath(), e);
+            Object value = headers.getClass().getMethod("getFirst", Object.class).invoke(headers, name);
+            return value == null ? null : value.toString();
+        } catch (ReflectiveOperationException | LinkageError ignored) {
             return null;
         }
     }
 
+    @FunctionalInterface
+    interface GitLabCall<T> {
+        T execute() throws GitLabApiException;
+    }
+
     public static record CodeFile(
             String path,
             String content,
@@ -150,6 +357,19 @@ public class GitLabService {
             ) {
     }
 
+    public record FetchFailure(String path, String reason) {
+    }
+
+    private record RepositoryTree(String branch, List<TreeItem> items) {
+    }
+
+    public enum FetchMode {
+        /** One repository archive download, streamed entry by entry. */
+        ARCHIVE,
+        /** One repository file API call per blob in the tree. */
+        API
+    }
+
     public static class RepositoryFetchException extends RuntimeException {
         public RepositoryFetchException(String message, Throwable cause) {
             super(message, cause);
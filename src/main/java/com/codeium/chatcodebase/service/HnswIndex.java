@@ -0,0 +1,1027 @@
+package com.codeium.chatcodebase.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Hierarchical navigable small world graph over unit vectors, scored by dot product (cosine similarity).
+ * Vectors, adjacency lists and the header are memory-mapped files in one directory, so the index
+ * survives restarts and its size does not count against the heap.
+ *
+ * <p>Nodes are identified by the slot they were added at. Deleted nodes stay in the graph to keep it
+ * connected, but are never returned, until the live nodes are copied into a new index with
+ * {@link #copyLiveNodes}. Adds and deletes are serialized; searches run concurrently.
+ *
+ * <p>With a {@link VectorQuantization quantization}, searches traverse the graph with compact codes
+ * and re-rank the candidates with the float vectors. The graph is always built with the float vectors,
+ * so the quantization can be changed without rebuilding it.
+ */
+final class HnswIndex implements Closeable {
+    private static final int MAGIC = 0x484e5357;
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_LEVEL = 16;
+    private static final int SLOTS_PER_SEGMENT = 1 << 14;
+
+    // Header ints
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 1;
+    private static final int H_DIMENSION = 2;
+    private static final int H_M = 3;
+    private static final int H_SIZE = 4;
+    private static final int H_UPPER_BLOCKS = 5;
+    private static final int H_ENTRY = 6;
+    private static final int H_MAX_LEVEL = 7;
+    private static final int H_DELETED = 8;
+    private static final int H_QUANTIZATION = 9;
+    private static final int HEADER_INTS = 16;
+
+    // Node ints: level, deleted flag, first upper level block, then the level 0 neighbor count and neighbors
+    private static final int N_LEVEL = 0;
+    private static final int N_DELETED = 1;
+    private static final int N_UPPER_BLOCK = 2;
+    private static final int N_LEVEL0 = 3;
+
+    private static final ThreadLocal<Visited> VISITED = ThreadLocal.withInitial(Visited::new);
+
+    private final int dimension;
+    private final int m;
+    private final int m0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Path directory;
+    private final MappedSlotFile header;
+    private final MappedSlotFile vectors;
+    private final MappedSlotFile nodes;
+    private final MappedSlotFile upperLevels;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final ThreadLocal<float[]> scratch;
+    private final ThreadLocal<float[][]> selectedVectors;
+    private final ThreadLocal<byte[]> codeScratch;
+    private VectorQuantization quantization;
+    private MappedSlotFile codes;
+    private boolean closed;
+
+    private HnswIndex(Path directory, int dimension, int m, int efConstruction, VectorQuantization quantization) {
+        this.directory = directory;
+        this.header = new MappedSlotFile(directory.resolve("header.bin"), HEADER_INTS * Integer.BYTES, 1);
+        header.ensureCapacity(1);
+        if (header.getInt(0, H_MAGIC) == MAGIC) {
+            if (header.getInt(0, H_VERSION) != FORMAT_VERSION) {
+                throw new IllegalStateException("Unsupported HNSW index format in " + directory);
+            }
+            dimension = header.getInt(0, H_DIMENSION);
+            m = header.getInt(0, H_M);
+            quantization = VectorQuantization.values()[header.getInt(0, H_QUANTIZATION)];
+        } else {
+            header.putInt(0, H_VERSION, FORMAT_VERSION);
+            header.putInt(0, H_DIMENSION, dimension);
+            header.putInt(0, H_M, m);
+            header.putInt(0, H_QUANTIZATION, quantization.ordinal());
+            header.putInt(0, H_ENTRY, -1);
+            header.putInt(0, H_MAGIC, MAGIC);
+        }
+        this.dimension = dimension;
+        this.m = m;
+        this.m0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1 / Math.log(m);
+        this.scratch = ThreadLocal.withInitial(() -> new float[this.dimension]);
+        this.selectedVectors = ThreadLocal.withInitial(() -> new float[m0][this.dimension]);
+        this.codeScratch = ThreadLocal.withInitial(() -> new byte[this.dimension]);
+        this.quantization = quantization;
+        this.vectors = new MappedSlotFile(directory.resolve("vectors.bin"), dimension * Float.BYTES, SLOTS_PER_SEGMENT);
+        this.nodes = new MappedSlotFile(directory.resolve("nodes.bin"), (N_LEVEL0 + 1 + m0) * Integer.BYTES,
+            SLOTS_PER_SEGMENT);
+        this.upperLevels = new MappedSlotFile(directory.resolve("levels.bin"), (1 + m) * Integer.BYTES,
+            SLOTS_PER_SEGMENT);
+        vectors.ensureCapacity(size());
+        nodes.ensureCapacity(size());
+        upperLevels.ensureCapacity(header.getInt(0, H_UPPER_BLOCKS));
+        if (quantization != VectorQuantization.NONE) {
+            this.codes = openCodes(quantization);
+            codes.ensureCapacity(size());
+        }
+    }
+
+    /**
+     * Opens the index in the directory, or creates an empty one. The dimension and {@code m} of an
+     * existing index are kept.
+     *
+     * @param m              neighbors per node on the upper levels, twice as many on level 0
+     * @param efConstruction candidates considered when linking a new node
+     */
+    static HnswIndex open(Path directory, int dimension, int m, int efConstruction) {
+        return open(directory, dimension, m, efConstruction, VectorQuantization.NONE);
+    }
+
+    /**
+     * Opens the index like {@link #open(Path, int, int, int)}; a new index searches with the
+     * quantization, an existing one keeps its own.
+     */
+    static HnswIndex open(Path directory, int dimension, int m, int efConstruction,
+                          VectorQuantization quantization) {
+        return new HnswIndex(directory, dimension, m, efConstruction, quantization);
+    }
+
+    int dimension() {
+        return dimension;
+    }
+
+    VectorQuantization quantization() {
+        lock.readLock().lock();
+        try {
+            return quantization;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Number of slots, including deleted nodes.
+     */
+    int size() {
+        return header.getInt(0, H_SIZE);
+    }
+
+    int liveCount() {
+        return size() - header.getInt(0, H_DELETED);
+    }
+
+    boolean isDeleted(int node) {
+        return nodes.getInt(node, N_DELETED) != 0;
+    }
+
+    /**
+     * The stored, normalized vector of the node.
+     */
+    float[] vector(int node) {
+        float[] vector = new float[dimension];
+        vectors.getFloats(node, vector);
+        return vector;
+    }
+
+    /**
+     * Normalizes and links the vector.
+     *
+     * @return the node of the vector
+     */
+    int add(float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException(
+                "Expected a vector of dimension " + dimension + " but got " + vector.length);
+        }
+        float[] unit = normalize(vector);
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            int node = size();
+            vectors.ensureCapacity(node + 1);
+            nodes.ensureCapacity(node + 1);
+            for (int i = 0; i < dimension; i++) {
+                vectors.putFloat(node, i, unit[i]);
+            }
+            if (codes != null) {
+                codes.ensureCapacity(node + 1);
+                encode(codes, quantization, node, unit);
+            }
+            int level = randomLevel();
+            nodes.putInt(node, N_LEVEL, level);
+            nodes.putInt(node, N_DELETED, 0);
+            nodes.putInt(node, N_LEVEL0, 0);
+            if (level > 0) {
+                int firstBlock = header.getInt(0, H_UPPER_BLOCKS);
+                upperLevels.ensureCapacity(firstBlock + level);
+                for (int block = firstBlock; block < firstBlock + level; block++) {
+                    upperLevels.putInt(block, 0, 0);
+                }
+                nodes.putInt(node, N_UPPER_BLOCK, firstBlock);
+                header.putInt(0, H_UPPER_BLOCKS, firstBlock + level);
+            }
+            header.putInt(0, H_SIZE, node + 1);
+            link(node, unit, level);
+            return node;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void delete(int node) {
+        lock.writeLock().lock();
+        try {
+            if (!closed && node < size() && !isDeleted(node)) {
+                nodes.putInt(node, N_DELETED, 1);
+                header.putInt(0, H_DELETED, header.getInt(0, H_DELETED) + 1);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the vectors of the live, accepted nodes in {@code [from, to)} to the target index in node
+     * order, which drops the deleted nodes and relinks the others. Only the read of each vector holds
+     * the lock, so adds to this index proceed while a large range is copied.
+     *
+     * @return the node in the target of each node of the range, or -1 for nodes that were not copied
+     */
+    int[] copyLiveNodes(HnswIndex target, int from, int to, IntPredicate accept) {
+        int[] copied = new int[to - from];
+        float[] vector = new float[dimension];
+        for (int node = from; node < to; node++) {
+            copied[node - from] = accept.test(node) && readLive(node, vector) ? target.add(vector) : -1;
+        }
+        return copied;
+    }
+
+    private boolean readLive(int node, float[] vector) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            if (node >= size() || isDeleted(node)) {
+                return false;
+            }
+            vectors.getFloats(node, vector);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Approximate nearest neighbors of the query among the accepted, live nodes. With a quantization,
+     * all {@code ef} candidates are re-ranked with their float vectors, so the scores are exact.
+     *
+     * @param ef size of the candidate list, at least {@code k}; larger is slower and more accurate
+     */
+    Neighbors search(float[] query, int k, int ef, IntPredicate accept) {
+        float[] unit = normalize(query);
+        lock.readLock().lock();
+        try {
+            int entry = closed ? -1 : header.getInt(0, H_ENTRY);
+            if (entry < 0 || k <= 0) {
+                return new Neighbors(new int[0], new float[0]);
+            }
+            Scorer scorer = candidateScorer(unit);
+            int current = entry;
+            for (int level = header.getInt(0, H_MAX_LEVEL); level > 0; level--) {
+                current = greedyClosest(scorer, current, level);
+            }
+            IntPredicate live = node -> !isDeleted(node) && accept.test(node);
+            ScoreHeap results = searchLayer(scorer, current, Math.max(ef, k), 0, live);
+            if (quantization != VectorQuantization.NONE) {
+                ScoreHeap reranked = new ScoreHeap(false);
+                while (results.size() > 0) {
+                    int node = results.pop();
+                    reranked.push(node, score(node, unit));
+                }
+                results = reranked;
+            }
+            return toNeighbors(results, k);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Exact nearest neighbors by scanning every accepted, live node; used to measure recall.
+     */
+    Neighbors exactSearch(float[] query, int k, IntPredicate accept) {
+        float[] unit = normalize(query);
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            ScoreHeap results = new ScoreHeap(false);
+            for (int node = 0, size = size(); node < size; node++) {
+                if (isDeleted(node) || !accept.test(node)) {
+                    continue;
+                }
+                results.offer(node, score(node, unit), k);
+            }
+            return toNeighbors(results, k);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Switches the codes the candidate search uses. The codes are computed from the stored float vectors,
+     * so neither the embeddings nor the graph have to be rebuilt.
+     */
+    void quantize(VectorQuantization target) {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            if (target == quantization) {
+                return;
+            }
+            MappedSlotFile encoded = null;
+            if (target != VectorQuantization.NONE) {
+                encoded = openCodes(target);
+                encoded.ensureCapacity(size());
+                float[] vector = scratch.get();
+                for (int node = 0, size = size(); node < size; node++) {
+                    vectors.getFloats(node, vector);
+                    encode(encoded, target, node, vector);
+                }
+                encoded.force();
+            }
+            MappedSlotFile previous = codes;
+            VectorQuantization previousQuantization = quantization;
+            codes = encoded;
+            quantization = target;
+            header.putInt(0, H_QUANTIZATION, target.ordinal());
+            header.force();
+            if (previous != null) {
+                previous.close();
+                Files.deleteIfExists(codesPath(previousQuantization));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to remove the previous codes in " + directory, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Measures recall@k against an exact scan, using stored vectors of random live nodes as queries
+     * (excluding the query node itself). Besides the index search, every quantization is measured by
+     * scanning its codes for the best {@code ef} nodes and re-ranking them, which shows what switching
+     * the quantization would cost before doing it.
+     */
+    RecallReport evaluate(int queries, int k, int ef, long seed) {
+        int[] sample;
+        float[][] queryVectors;
+        ScoreHeap[] exact;
+        List<VectorQuantization> quantizations = List.of(VectorQuantization.values());
+        ScoreHeap[][] scanned;
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            sample = sampleLiveNodes(queries, new SplittableRandom(seed));
+            queryVectors = new float[sample.length][];
+            long[][] queryBits = new long[sample.length][];
+            byte[][] queryCodes = new byte[sample.length][dimension];
+            float[] queryScales = new float[sample.length];
+            for (int q = 0; q < sample.length; q++) {
+                queryVectors[q] = vector(sample[q]);
+                queryScales[q] = encodeInt8(queryVectors[q], queryCodes[q]);
+                queryBits[q] = new long[VectorQuantization.BINARY.codeBytes(dimension) / Long.BYTES];
+                encodeBinary(queryVectors[q], queryBits[q]);
+            }
+            exact = new ScoreHeap[sample.length];
+            scanned = new ScoreHeap[quantizations.size()][sample.length];
+            for (int q = 0; q < sample.length; q++) {
+                exact[q] = new ScoreHeap(false);
+                for (ScoreHeap[] heaps : scanned) {
+                    heaps[q] = new ScoreHeap(false);
+                }
+            }
+
+            float[] vector = new float[dimension];
+            byte[] int8 = new byte[dimension];
+            long[] bits = new long[VectorQuantization.BINARY.codeBytes(dimension) / Long.BYTES];
+            for (int node = 0, size = size(); node < size; node++) {
+                if (isDeleted(node)) {
+                    continue;
+                }
+                vectors.getFloats(node, vector);
+                float int8Scale = encodeInt8(vector, int8);
+                encodeBinary(vector, bits);
+                for (int q = 0; q < sample.length; q++) {
+                    if (node == sample[q]) {
+                        continue;
+                    }
+                    float score = dot(vector, queryVectors[q]);
+                    exact[q].offer(node, score, k);
+                    for (int i = 0; i < quantizations.size(); i++) {
+                        float codeScore = switch (quantizations.get(i)) {
+                            case NONE -> score;
+                            case INT8 -> queryScales[q] * int8Scale * int8Dot(queryCodes[q], int8);
+                            case BINARY -> binaryScore(queryBits[q], bits);
+                        };
+                        scanned[i][q].offer(node, codeScore, Math.max(ef, k));
+                    }
+                }
+            }
+            for (ScoreHeap[] heaps : scanned) {
+                for (int q = 0; q < sample.length; q++) {
+                    ScoreHeap reranked = new ScoreHeap(false);
+                    while (heaps[q].size() > 0) {
+                        int node = heaps[q].pop();
+                        reranked.offer(node, score(node, queryVectors[q]), k);
+                    }
+                    heaps[q] = reranked;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        int[][] exactNodes = new int[sample.length][];
+        for (int q = 0; q < sample.length; q++) {
+            exactNodes[q] = toNeighbors(exact[q], k).nodes();
+        }
+        List<RecallReport.QuantizationRecall> quantizationRecalls = new ArrayList<>();
+        for (int i = 0; i < quantizations.size(); i++) {
+            int[][] found = new int[sample.length][];
+            for (int q = 0; q < sample.length; q++) {
+                found[q] = toNeighbors(scanned[i][q], k).nodes();
+            }
+            quantizationRecalls.add(new RecallReport.QuantizationRecall(quantizations.get(i),
+                quantizations.get(i).codeBytes(dimension), recall(exactNodes, found)));
+        }
+
+        int[][] searched = new int[sample.length][];
+        long start = System.nanoTime();
+        for (int q = 0; q < sample.length; q++) {
+            int self = sample[q];
+            searched[q] = search(queryVectors[q], k, ef, node -> node != self).nodes();
+        }
+        double searchMillis = sample.length == 0 ? 0 : (System.nanoTime() - start) / 1e6 / sample.length;
+        return new RecallReport(quantization(), liveCount(), sample.length, k, recall(exactNodes, searched),
+            searchMillis, quantizationRecalls);
+    }
+
+    void force() {
+        lock.readLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            vectors.force();
+            if (codes != null) {
+                codes.force();
+            }
+            nodes.force();
+            upperLevels.force();
+            header.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            vectors.close();
+            if (codes != null) {
+                codes.close();
+            }
+            nodes.close();
+            upperLevels.close();
+            header.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("HNSW index is closed");
+        }
+    }
+
+    private void link(int node, float[] unit, int level) {
+        int entry = header.getInt(0, H_ENTRY);
+        if (entry < 0) {
+            header.putInt(0, H_ENTRY, node);
+            header.putInt(0, H_MAX_LEVEL, level);
+            return;
+        }
+        int maxLevel = header.getInt(0, H_MAX_LEVEL);
+        Scorer scorer = candidate -> score(candidate, unit);
+        int current = entry;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedyClosest(scorer, current, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            ScoreHeap candidates = searchLayer(scorer, current, efConstruction, l, candidate -> true);
+            int[] sorted = new int[candidates.size()];
+            float[] scores = new float[candidates.size()];
+            for (int i = sorted.length - 1; i >= 0; i--) {
+                scores[i] = candidates.topScore();
+                sorted[i] = candidates.pop();
+            }
+            int[] selected = selectNeighbors(sorted, scores, maxNeighbors(l));
+            setNeighbors(node, l, selected, selected.length);
+            for (int neighbor : selected) {
+                addLink(neighbor, node, l);
+            }
+            current = sorted[0];
+        }
+        if (level > maxLevel) {
+            header.putInt(0, H_ENTRY, node);
+            header.putInt(0, H_MAX_LEVEL, level);
+        }
+    }
+
+    /**
+     * Adds {@code node} to the neighbors of {@code target}. A full list drops its farthest neighbor
+     * instead; re-running the selection heuristic on every overflow would dominate the insert time.
+     */
+    private void addLink(int target, int node, int level) {
+        int count = neighborCount(target, level);
+        if (count < maxNeighbors(level)) {
+            setNeighbor(target, level, count, node);
+            setNeighborCount(target, level, count + 1);
+            return;
+        }
+        float[] targetVector = vector(target);
+        int farthest = -1;
+        float farthestScore = score(node, targetVector);
+        for (int i = 0; i < count; i++) {
+            float score = score(neighbor(target, level, i), targetVector);
+            if (score < farthestScore) {
+                farthest = i;
+                farthestScore = score;
+            }
+        }
+        if (farthest >= 0) {
+            setNeighbor(target, level, farthest, node);
+        }
+    }
+
+    /**
+     * Keeps candidates that are closer to the base than to any already selected neighbor, so links
+     * spread in all directions, then fills up with the closest remaining candidates.
+     *
+     * @param sorted candidates by descending score to the base
+     */
+    private int[] selectNeighbors(int[] sorted, float[] scores, int max) {
+        int[] selected = new int[Math.min(max, sorted.length)];
+        float[][] selectedVector = selectedVectors.get();
+        float[] candidate = scratch.get();
+        int count = 0;
+        boolean[] taken = new boolean[sorted.length];
+        for (int i = 0; i < sorted.length && count < selected.length; i++) {
+            vectors.getFloats(sorted[i], candidate);
+            boolean diverse = true;
+            for (int j = 0; j < count; j++) {
+                if (dot(candidate, selectedVector[j]) > scores[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                System.arraycopy(candidate, 0, selectedVector[count], 0, dimension);
+                selected[count++] = sorted[i];
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < sorted.length && count < selected.length; i++) {
+            if (!taken[i]) {
+                selected[count++] = sorted[i];
+            }
+        }
+        return selected;
+    }
+
+    private int greedyClosest(Scorer scorer, int start, int level) {
+        int current = start;
+        float currentScore = scorer.score(current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int i = 0, count = neighborCount(current, level); i < count; i++) {
+                int neighbor = neighbor(current, level, i);
+                float score = scorer.score(neighbor);
+                if (score > currentScore) {
+                    current = neighbor;
+                    currentScore = score;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first search of one level. All nodes are traversed, but only accepted nodes are collected.
+     *
+     * @return up to {@code ef} accepted nodes, worst on top
+     */
+    private ScoreHeap searchLayer(Scorer scorer, int entry, int ef, int level, IntPredicate accept) {
+        float entryScore = scorer.score(entry);
+        Visited visited = VISITED.get();
+        visited.reset(size());
+        ScoreHeap candidates = new ScoreHeap(true);
+        ScoreHeap results = new ScoreHeap(false);
+        visited.add(entry);
+        candidates.push(entry, entryScore);
+        if (accept.test(entry)) {
+            results.push(entry, entryScore);
+        }
+        while (candidates.size() > 0) {
+            float candidateScore = candidates.topScore();
+            int candidate = candidates.pop();
+            if (results.size() >= ef && candidateScore < results.topScore()) {
+                break;
+            }
+            for (int i = 0, count = neighborCount(candidate, level); i < count; i++) {
+                int neighbor = neighbor(candidate, level, i);
+                if (!visited.add(neighbor)) {
+                    continue;
+                }
+                float score = scorer.score(neighbor);
+                if (results.size() < ef || score > results.topScore()) {
+                    candidates.push(neighbor, score);
+                    if (accept.test(neighbor)) {
+                        results.push(neighbor, score);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private int maxNeighbors(int level) {
+        return level == 0 ? m0 : m;
+    }
+
+    private int neighborCount(int node, int level) {
+        return level == 0 ? nodes.getInt(node, N_LEVEL0) : upperLevels.getInt(upperBlock(node, level), 0);
+    }
+
+    private int neighbor(int node, int level, int index) {
+        return level == 0
+            ? nodes.getInt(node, N_LEVEL0 + 1 + index)
+            : upperLevels.getInt(upperBlock(node, level), 1 + index);
+    }
+
+    private void setNeighborCount(int node, int level, int count) {
+        if (level == 0) {
+            nodes.putInt(node, N_LEVEL0, count);
+        } else {
+            upperLevels.putInt(upperBlock(node, level), 0, count);
+        }
+    }
+
+    private void setNeighbor(int node, int level, int index, int neighbor) {
+        if (level == 0) {
+            nodes.putInt(node, N_LEVEL0 + 1 + index, neighbor);
+        } else {
+            upperLevels.putInt(upperBlock(node, level), 1 + index, neighbor);
+        }
+    }
+
+    private void setNeighbors(int node, int level, int[] neighbors, int count) {
+        for (int i = 0; i < count; i++) {
+            setNeighbor(node, level, i, neighbors[i]);
+        }
+        setNeighborCount(node, level, count);
+    }
+
+    private int upperBlock(int node, int level) {
+        return nodes.getInt(node, N_UPPER_BLOCK) + level - 1;
+    }
+
+    private int randomLevel() {
+        return Math.min(MAX_LEVEL, (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier));
+    }
+
+    private float score(int node, float[] unit) {
+        float[] vector = scratch.get();
+        vectors.getFloats(node, vector);
+        return dot(vector, unit);
+    }
+
+    /**
+     * Scores nodes for the candidate search: with the codes of the quantization, if there is one.
+     */
+    private Scorer candidateScorer(float[] unit) {
+        MappedSlotFile file = codes;
+        return switch (quantization) {
+            case NONE -> node -> score(node, unit);
+            case INT8 -> {
+                byte[] queryCode = new byte[dimension];
+                float queryScale = encodeInt8(unit, queryCode);
+                yield node -> {
+                    byte[] code = codeScratch.get();
+                    file.getBytes(node, Float.BYTES, code);
+                    return queryScale * file.getFloat(node, 0) * int8Dot(queryCode, code);
+                };
+            }
+            case BINARY -> {
+                long[] queryBits = new long[VectorQuantization.BINARY.codeBytes(dimension) / Long.BYTES];
+                encodeBinary(unit, queryBits);
+                yield node -> {
+                    int differing = 0;
+                    for (int i = 0; i < queryBits.length; i++) {
+                        differing += Long.bitCount(queryBits[i] ^ file.getLong(node, i));
+                    }
+                    return 1 - 2f * differing / dimension;
+                };
+            }
+        };
+    }
+
+    private void encode(MappedSlotFile file, VectorQuantization target, int node, float[] unit) {
+        switch (target) {
+            case INT8 -> {
+                byte[] code = codeScratch.get();
+                file.putFloat(node, 0, encodeInt8(unit, code));
+                file.putBytes(node, Float.BYTES, code);
+            }
+            case BINARY -> {
+                long[] bits = new long[VectorQuantization.BINARY.codeBytes(dimension) / Long.BYTES];
+                encodeBinary(unit, bits);
+                for (int i = 0; i < bits.length; i++) {
+                    file.putLong(node, i, bits[i]);
+                }
+            }
+            case NONE -> {
+            }
+        }
+    }
+
+    private MappedSlotFile openCodes(VectorQuantization target) {
+        return new MappedSlotFile(codesPath(target), target.codeBytes(dimension), SLOTS_PER_SEGMENT);
+    }
+
+    private Path codesPath(VectorQuantization target) {
+        return directory.resolve("codes-" + target.name().toLowerCase(Locale.ROOT) + ".bin");
+    }
+
+    private int[] sampleLiveNodes(int count, SplittableRandom random) {
+        int[] live = new int[liveCount()];
+        int found = 0;
+        for (int node = 0, size = size(); node < size && found < live.length; node++) {
+            if (!isDeleted(node)) {
+                live[found++] = node;
+            }
+        }
+        int sampled = Math.min(count, found);
+        for (int i = 0; i < sampled; i++) {
+            int j = i + random.nextInt(found - i);
+            int swap = live[i];
+            live[i] = live[j];
+            live[j] = swap;
+        }
+        return Arrays.copyOf(live, sampled);
+    }
+
+    /**
+     * Share of the exact neighbors that were found, over all queries.
+     */
+    private static double recall(int[][] exact, int[][] found) {
+        int expected = 0;
+        int hits = 0;
+        for (int q = 0; q < exact.length; q++) {
+            expected += exact[q].length;
+            for (int node : found[q]) {
+                for (int e : exact[q]) {
+                    if (e == node) {
+                        hits++;
+                        break;
+                    }
+                }
+            }
+        }
+        return expected == 0 ? 1 : (double) hits / expected;
+    }
+
+    /**
+     * Keeps the best {@code k} nodes of the heap, best first.
+     */
+    private static Neighbors toNeighbors(ScoreHeap results, int k) {
+        while (results.size() > k) {
+            results.pop();
+        }
+        int[] found = new int[results.size()];
+        float[] scores = new float[results.size()];
+        for (int i = found.length - 1; i >= 0; i--) {
+            scores[i] = results.topScore();
+            found[i] = results.pop();
+        }
+        return new Neighbors(found, scores);
+    }
+
+    /**
+     * Rounds the components to multiples of the largest component divided by 127.
+     *
+     * @return the scale that multiplies the codes back to the components
+     */
+    static float encodeInt8(float[] unit, byte[] code) {
+        float max = 0;
+        for (float value : unit) {
+            max = Math.max(max, Math.abs(value));
+        }
+        float scale = max / 127;
+        for (int i = 0; i < unit.length; i++) {
+            code[i] = scale == 0 ? 0 : (byte) Math.round(unit[i] / scale);
+        }
+        return scale;
+    }
+
+    /**
+     * Sets bit {@code i % 64} of word {@code i / 64} for every positive component {@code i}.
+     */
+    static void encodeBinary(float[] unit, long[] bits) {
+        Arrays.fill(bits, 0);
+        for (int i = 0; i < unit.length; i++) {
+            if (unit[i] > 0) {
+                bits[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
+    /**
+     * Integer dot product of two codes; unlike float sums, the JIT vectorizes it.
+     */
+    static int int8Dot(byte[] a, byte[] b) {
+        int sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Agreement of the signs, from 1 when all are equal to -1 when all differ.
+     */
+    private float binaryScore(long[] a, long[] b) {
+        int differing = 0;
+        for (int i = 0; i < a.length; i++) {
+            differing += Long.bitCount(a[i] ^ b[i]);
+        }
+        return 1 - 2f * differing / dimension;
+    }
+
+    /**
+     * Dot product with four independent sums, so consecutive additions do not wait for each other.
+     */
+    static float dot(float[] a, float[] b) {
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int i = 0;
+        for (int end = a.length & ~3; i < end; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) {
+            s0 += a[i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            return vector.clone();
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        float[] unit = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = vector[i] * scale;
+        }
+        return unit;
+    }
+
+    /**
+     * Nodes with their cosine similarity to the query, most similar first.
+     */
+    record Neighbors(int[] nodes, float[] scores) {}
+
+    @FunctionalInterface
+    private interface Scorer {
+        float score(int node);
+    }
+
+    /**
+     * Binary heap of nodes by score; a max-heap yields the best node first, a min-heap the worst.
+     */
+    private static final class ScoreHeap {
+        private final boolean max;
+        private int[] nodes = new int[16];
+        private float[] scores = new float[16];
+        private int size;
+
+        ScoreHeap(boolean max) {
+            this.max = max;
+        }
+
+        int size() {
+            return size;
+        }
+
+        float topScore() {
+            return scores[0];
+        }
+
+        /**
+         * Pushes the node if the heap holds fewer than {@code limit} nodes or it beats the worst one;
+         * only meaningful for a min-heap.
+         */
+        void offer(int node, float score, int limit) {
+            if (size < limit) {
+                push(node, score);
+            } else if (score > scores[0]) {
+                pop();
+                push(node, score);
+            }
+        }
+
+        void push(int node, float score) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(score, scores[parent])) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            int node = nodes[size];
+            float score = scores[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && before(scores[child + 1], scores[child])) {
+                    child++;
+                }
+                if (!before(scores[child], score)) {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+            return top;
+        }
+
+        private boolean before(float a, float b) {
+            return max ? a > b : a < b;
+        }
+    }
+
+    /**
+     * Visited marks reused across searches of a thread; a new generation clears them in constant time.
+     */
+    private static final class Visited {
+        private int[] marks = new int[0];
+        private int generation;
+
+        void reset(int size) {
+            if (marks.length < size) {
+                marks = new int[Math.max(size, marks.length * 2)];
+                generation = 0;
+            }
+            if (++generation == 0) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        boolean add(int node) {
+            if (marks[node] == generation) {
+                return false;
+            }
+            marks[node] = generation;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,780 @@
+package com.codeium.chatcodebase.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * In-process vector store for deployments without pgvector. Every project is a partition with its own
+ * {@link HnswIndex} and document log in a sub-directory, so a project-scoped search only traverses
+ * the vectors of that project, and deleting a project removes its directory.
+ *
+ * <p>Vectors and graph are memory-mapped; ids, texts and metadata are kept on the heap and rebuilt
+ * from the append-only document log on startup. Deletions only mark nodes, so once the deleted nodes
+ * reach the compaction ratio of a partition, its index and log are rebuilt from the live documents
+ * in the background.
+ * A partition may search with quantized codes, see {@link VectorQuantization}; {@link #evaluate}
+ * measures what each quantization costs in recall.
+ */
+@Slf4j
+public class HnswVectorStore implements VectorStore, ProjectVectorPartitions, Closeable {
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {};
+    /**
+     * Names the project of a partition directory, whose name is a hash of the project id.
+     */
+    private static final String PROJECT_FILE = "project.id";
+    private static final String LOG_FILE = "documents.log";
+    private static final String SHARED_PARTITION = "shared";
+    /**
+     * Sub-directories of a partition holding a compacted copy while it is written, and once it is
+     * complete until its files replace those of the partition.
+     */
+    private static final String COMPACTING_DIRECTORY = "compacting";
+    private static final String COMPACTED_DIRECTORY = "compacted";
+    private static final byte ADDED = 1;
+    private static final byte DELETED = 2;
+    /**
+     * Neighbors compared by {@link #evaluate}, i.e. recall@10.
+     */
+    private static final int EVALUATED_NEIGHBORS = 10;
+
+    private final Path directory;
+    private final EmbeddingModel embeddingModel;
+    private final int dimension;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final VectorQuantization quantization;
+    private final double compactionRatio;
+    private final ConcurrentHashMap<String, Partition> partitions = new ConcurrentHashMap<>();
+    /**
+     * The partition of each document.
+     */
+    private final ConcurrentHashMap<String, Partition> locations = new ConcurrentHashMap<>();
+    private final ExecutorService compactor =
+        Executors.newSingleThreadExecutor(Thread.ofPlatform().name("hnsw-compaction").daemon().factory());
+
+    /**
+     * Opens the store like {@link #HnswVectorStore(Path, EmbeddingModel, int, int, int, int,
+     * VectorQuantization, double)}, compacting a partition once a quarter of its nodes are deleted.
+     */
+    public HnswVectorStore(Path directory, EmbeddingModel embeddingModel, int dimension, int m,
+                           int efConstruction, int efSearch, VectorQuantization quantization) {
+        this(directory, embeddingModel, dimension, m, efConstruction, efSearch, quantization, 0.25);
+    }
+
+    /**
+     * Opens the store in the directory and loads the partitions stored there.
+     *
+     * @param m               neighbors per node, see {@link HnswIndex#open}
+     * @param efConstruction  candidates considered when inserting
+     * @param efSearch        candidates considered when searching, at least the requested top k
+     * @param quantization    codes searched by new partitions; existing partitions keep theirs
+     * @param compactionRatio share of deleted nodes at which a partition is rebuilt from its live documents
+     */
+    public HnswVectorStore(Path directory, EmbeddingModel embeddingModel, int dimension, int m,
+                           int efConstruction, int efSearch, VectorQuantization quantization,
+                           double compactionRatio) {
+        if (compactionRatio <= 0 || compactionRatio > 1) {
+            throw new IllegalArgumentException("The compaction ratio must be in (0, 1] but is " + compactionRatio);
+        }
+        this.directory = directory;
+        this.embeddingModel = embeddingModel;
+        this.dimension = dimension;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.quantization = quantization;
+        this.compactionRatio = compactionRatio;
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> children = Files.list(directory)) {
+                for (Path child : children.filter(Files::isDirectory).toList()) {
+                    Partition partition = openPartition(child);
+                    partitions.put(partition.key, partition);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open vector store in " + directory, e);
+        }
+        log.info("Opened HNSW vector store in {} ({} partitions, {} chunks)",
+            directory, partitions.size(), locations.size());
+    }
+
+    @Override
+    public String getName() {
+        return "HnswVectorStore";
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        List<float[]> embeddings = embeddingModel.embed(documents.stream().map(Document::getText).toList());
+        Set<Partition> touched = new HashSet<>();
+        for (int i = 0; i < documents.size(); i++) {
+            Document document = documents.get(i);
+            // Adding an existing id replaces the document
+            remove(document.getId(), touched);
+            Partition partition = partition(projectOf(document.getMetadata()));
+            partition.add(document, embeddings.get(i));
+            locations.put(document.getId(), partition);
+            touched.add(partition);
+        }
+        flush(touched);
+    }
+
+    @Override
+    public Optional<Boolean> delete(List<String> ids) {
+        Set<Partition> touched = new HashSet<>();
+        ids.forEach(id -> remove(id, touched));
+        flush(touched);
+        return Optional.of(true);
+    }
+
+    private void remove(String id, Set<Partition> touched) {
+        Partition partition = locations.remove(id);
+        if (partition != null) {
+            partition.delete(id);
+            touched.add(partition);
+        }
+    }
+
+    private void flush(Set<Partition> touched) {
+        for (Partition partition : touched) {
+            partition.flush();
+            partition.scheduleCompactionIfNeeded();
+        }
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        float[] query = embeddingModel.embed(request.getQuery());
+        Filter.Expression filter = request.getFilterExpression();
+        String project = scopedProject(filter);
+        Collection<Partition> searched = project == null
+            ? partitions.values()
+            : Stream.ofNullable(partitions.get(partitionKey(project))).toList();
+
+        List<Document> results = new ArrayList<>();
+        for (Partition partition : searched) {
+            partition.search(query, request.getTopK(), filter, request.getSimilarityThreshold(), results);
+        }
+        results.sort(Comparator.comparing(Document::getScore).reversed());
+        return results.size() > request.getTopK() ? results.subList(0, request.getTopK()) : results;
+    }
+
+    @Override
+    public int countChunks(String projectId) {
+        Partition partition = partitions.get(partitionKey(projectId));
+        return partition == null ? 0 : partition.liveCount();
+    }
+
+    @Override
+    public void forEachChunk(String projectId, Consumer<Document> chunks) {
+        Partition partition = partitions.get(partitionKey(projectId));
+        if (partition != null) {
+            partition.forEachDocument(chunks);
+        }
+    }
+
+    /**
+     * Chunks are assigned to the partition of their project when they are added.
+     */
+    @Override
+    public void assignProject(String projectId, List<String> chunkIds) {
+    }
+
+    @Override
+    public int deleteProject(String projectId) {
+        Partition partition = partitions.remove(partitionKey(projectId));
+        if (partition == null) {
+            return 0;
+        }
+        int chunks = partition.liveCount();
+        locations.values().removeIf(location -> location == partition);
+        partition.close();
+        try {
+            FileSystemUtils.deleteRecursively(partition.directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete " + partition.directory, e);
+        }
+        return chunks;
+    }
+
+    /**
+     * Every partition is its own index, so there is nothing to build after an analysis.
+     */
+    @Override
+    public void updateProjectIndex(String projectId) {
+    }
+
+    /**
+     * Recall@10 of the project's searches against an exact scan, see {@link HnswIndex#evaluate}.
+     *
+     * @param queries number of stored chunks used as queries
+     * @return empty if the project has no partition
+     */
+    public Optional<RecallReport> evaluate(String projectId, int queries) {
+        return Optional.ofNullable(partitions.get(partitionKey(projectId)))
+            .map(partition -> partition.evaluate(queries, EVALUATED_NEIGHBORS,
+                Math.max(efSearch, EVALUATED_NEIGHBORS), projectId.hashCode()));
+    }
+
+    /**
+     * Switches the codes the project's searches use, re-encoding the stored vectors.
+     *
+     * @return false if the project has no partition
+     */
+    public boolean quantize(String projectId, VectorQuantization target) {
+        Partition partition = partitions.get(partitionKey(projectId));
+        if (partition == null) {
+            return false;
+        }
+        partition.quantize(target);
+        log.info("Project {} now searches with {} codes", projectId, target);
+        return true;
+    }
+
+    /**
+     * Waits for the scheduled compactions, e.g. before inspecting the files of a partition.
+     */
+    void awaitCompactions() {
+        partitions.values().forEach(Partition::awaitCompaction);
+    }
+
+    @Override
+    public void close() {
+        partitions.values().forEach(Partition::close);
+        compactor.shutdown();
+    }
+
+    private Partition partition(String projectId) {
+        return partitions.computeIfAbsent(partitionKey(projectId), key -> {
+            Path partitionDirectory = directory.resolve(key);
+            try {
+                Files.createDirectories(partitionDirectory);
+                if (projectId != null) {
+                    Files.writeString(partitionDirectory.resolve(PROJECT_FILE), projectId);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to create partition " + partitionDirectory, e);
+            }
+            return openPartition(partitionDirectory);
+        });
+    }
+
+    private Partition openPartition(Path partitionDirectory) {
+        String key = partitionDirectory.getFileName().toString();
+        try {
+            installCompacted(partitionDirectory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to complete the compaction of " + partitionDirectory, e);
+        }
+        Partition partition = new Partition(key, partitionDirectory,
+            HnswIndex.open(partitionDirectory, dimension, m, efConstruction, quantization));
+        partition.replayLog(id -> locations.put(id, partition));
+        return partition;
+    }
+
+    /**
+     * Moves the files of a complete compaction over those of the partition and removes an incomplete one.
+     * Each file is replaced atomically and the compaction directory is only deleted once all of them are,
+     * so after a crash in between the remaining files are moved when the partition is opened again.
+     */
+    private static void installCompacted(Path partitionDirectory) throws IOException {
+        FileSystemUtils.deleteRecursively(partitionDirectory.resolve(COMPACTING_DIRECTORY));
+        Path compacted = partitionDirectory.resolve(COMPACTED_DIRECTORY);
+        if (!Files.isDirectory(compacted)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(compacted)) {
+            for (Path file : files.toList()) {
+                Files.move(file, partitionDirectory.resolve(file.getFileName()),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        Files.delete(compacted);
+    }
+
+    /**
+     * Directory name of the project's partition; project ids may contain characters that are not
+     * allowed in file names.
+     */
+    static String partitionKey(String projectId) {
+        return projectId == null ? SHARED_PARTITION : DigestUtils.md5Hex(projectId);
+    }
+
+    private static String projectOf(Map<String, Object> metadata) {
+        Object projectId = metadata.get(PROJECT_ID);
+        return projectId == null ? null : projectId.toString();
+    }
+
+    /**
+     * The project a filter restricts the search to, if it requires {@code projectId == '...'}.
+     */
+    static String scopedProject(Filter.Operand operand) {
+        if (operand instanceof Filter.Group group) {
+            return scopedProject(group.content());
+        }
+        if (!(operand instanceof Filter.Expression expression)) {
+            return null;
+        }
+        return switch (expression.type()) {
+            case EQ -> expression.left() instanceof Filter.Key key && PROJECT_ID.equals(key.key())
+                && expression.right() instanceof Filter.Value value && value.value() != null
+                ? value.value().toString() : null;
+            case AND -> {
+                String left = scopedProject(expression.left());
+                yield left != null ? left : scopedProject(expression.right());
+            }
+            default -> null;
+        };
+    }
+
+    /**
+     * Evaluates a filter expression against the metadata of a document.
+     */
+    static boolean matches(Filter.Operand operand, Map<String, Object> metadata) {
+        if (operand instanceof Filter.Group group) {
+            return matches(group.content(), metadata);
+        }
+        Filter.Expression expression = (Filter.Expression) operand;
+        return switch (expression.type()) {
+            case AND -> matches(expression.left(), metadata) && matches(expression.right(), metadata);
+            case OR -> matches(expression.left(), metadata) || matches(expression.right(), metadata);
+            case NOT -> !matches(expression.left(), metadata);
+            case IN, NIN -> {
+                Object actual = metadata.get(((Filter.Key) expression.left()).key());
+                boolean found = ((List<?>) ((Filter.Value) expression.right()).value()).stream()
+                    .anyMatch(value -> compare(actual, value) == 0);
+                yield found == (expression.type() == Filter.ExpressionType.IN);
+            }
+            default -> {
+                Object actual = metadata.get(((Filter.Key) expression.left()).key());
+                Object expected = ((Filter.Value) expression.right()).value();
+                if (actual == null) {
+                    yield expression.type() == Filter.ExpressionType.NE;
+                }
+                int comparison = compare(actual, expected);
+                yield switch (expression.type()) {
+                    case EQ -> comparison == 0;
+                    case NE -> comparison != 0;
+                    case GT -> comparison > 0;
+                    case GTE -> comparison >= 0;
+                    case LT -> comparison < 0;
+                    case LTE -> comparison <= 0;
+                    default -> throw new IllegalArgumentException("Unsupported filter: " + expression);
+                };
+            }
+        };
+    }
+
+    private static int compare(Object actual, Object expected) {
+        if (actual instanceof Number a && expected instanceof Number b) {
+            return Double.compare(a.doubleValue(), b.doubleValue());
+        }
+        return String.valueOf(actual).compareTo(String.valueOf(expected));
+    }
+
+    private record StoredDocument(String id, String text, Map<String, Object> metadata) {}
+
+    /**
+     * The index of one project and its documents by node. Documents are appended to a log before they
+     * become visible, so a node without a document, e.g. after a crash, is never returned. Adds and
+     * deletes are serialized; compactions copy the live nodes concurrently and only hold the monitor to
+     * catch up and install the copy. Searches run concurrently and only wait while a compacted index
+     * replaces the current one.
+     */
+    private final class Partition {
+        private final String key;
+        private final Path directory;
+        private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+        private volatile HnswIndex index;
+        private volatile StoredDocument[] documents = new StoredDocument[0];
+        private Map<String, Integer> nodes = new HashMap<>();
+        private DataOutputStream logOut;
+        private FileOutputStream logFile;
+        private Future<?> compaction;
+        private volatile boolean closed;
+
+        Partition(String key, Path directory, HnswIndex index) {
+            this.key = key;
+            this.directory = directory;
+            this.index = index;
+        }
+
+        synchronized void add(Document document, float[] embedding) {
+            int node = index.add(embedding);
+            StoredDocument stored = new StoredDocument(document.getId(), document.getText(), document.getMetadata());
+            try {
+                writeAdded(log(), node, stored);
+            } catch (IOException e) {
+                index.delete(node);
+                throw new UncheckedIOException("Failed to log document " + document.getId(), e);
+            }
+            setDocument(node, stored);
+            nodes.put(stored.id(), node);
+        }
+
+        synchronized void delete(String id) {
+            Integer node = nodes.remove(id);
+            if (node == null) {
+                return;
+            }
+            index.delete(node);
+            try {
+                DataOutputStream out = log();
+                out.writeByte(DELETED);
+                out.writeInt(node);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to log deletion in " + directory, e);
+            }
+            setDocument(node, null);
+        }
+
+        void search(float[] query, int topK, Filter.Expression filter, double threshold, List<Document> results) {
+            swapLock.readLock().lock();
+            try {
+                HnswIndex.Neighbors neighbors = index.search(query, topK, Math.max(efSearch, topK), node -> {
+                    StoredDocument document = document(node);
+                    return document != null && (filter == null || matches(filter, document.metadata()));
+                });
+                for (int i = 0; i < neighbors.nodes().length; i++) {
+                    StoredDocument document = document(neighbors.nodes()[i]);
+                    float score = neighbors.scores()[i];
+                    if (document == null || score < threshold) {
+                        continue;
+                    }
+                    Map<String, Object> metadata = new HashMap<>(document.metadata());
+                    metadata.put("distance", 1 - score);
+                    results.add(Document.builder()
+                        .id(document.id())
+                        .text(document.text())
+                        .metadata(metadata)
+                        .score((double) score)
+                        .build());
+                }
+            } finally {
+                swapLock.readLock().unlock();
+            }
+        }
+
+        void forEachDocument(Consumer<Document> consumer) {
+            StoredDocument[] current = documents;
+            for (StoredDocument document : current) {
+                if (document != null) {
+                    consumer.accept(new Document(document.id(), document.text(), document.metadata()));
+                }
+            }
+        }
+
+        int liveCount() {
+            swapLock.readLock().lock();
+            try {
+                return index.liveCount();
+            } finally {
+                swapLock.readLock().unlock();
+            }
+        }
+
+        RecallReport evaluate(int queries, int k, int ef, long seed) {
+            swapLock.readLock().lock();
+            try {
+                return index.evaluate(queries, k, ef, seed);
+            } finally {
+                swapLock.readLock().unlock();
+            }
+        }
+
+        synchronized void quantize(VectorQuantization target) {
+            index.quantize(target);
+        }
+
+        synchronized void scheduleCompactionIfNeeded() {
+            if (!closed && (compaction == null || compaction.isDone()) && needsCompaction()) {
+                compaction = compactor.submit(this::compact);
+            }
+        }
+
+        void awaitCompaction() {
+            Future<?> current;
+            synchronized (this) {
+                current = compaction;
+            }
+            if (current == null) {
+                return;
+            }
+            try {
+                current.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                log.warn("Failed to compact partition {}", directory, e.getCause());
+            }
+        }
+
+        private boolean needsCompaction() {
+            int size = index.size();
+            int deleted = size - index.liveCount();
+            return deleted > 0 && deleted >= size * compactionRatio;
+        }
+
+        /**
+         * Rebuilds the index and the log from the live documents. The documents live when the compaction
+         * starts are copied without holding the monitor, so adds and deletes continue meanwhile; only the
+         * changes made during the copy are applied under the monitor before the copy replaces the
+         * partition. The copy is written to a staging directory, which is renamed when complete, so a
+         * crash leaves either the current files or a complete copy to install on the next start.
+         */
+        private void compact() {
+            int snapshotSize;
+            StoredDocument[] snapshot;
+            synchronized (this) {
+                if (closed || !needsCompaction()) {
+                    return;
+                }
+                snapshotSize = index.size();
+                snapshot = Arrays.copyOf(documents, snapshotSize);
+            }
+            HnswIndex current = index;
+            Path staging = directory.resolve(COMPACTING_DIRECTORY);
+            try {
+                FileSystemUtils.deleteRecursively(staging);
+                Files.createDirectories(staging);
+                try (HnswIndex copy = HnswIndex.open(staging, current.dimension(), m, efConstruction,
+                         current.quantization());
+                     FileOutputStream file = new FileOutputStream(staging.resolve(LOG_FILE).toFile());
+                     DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+                    int[] copied = current.copyLiveNodes(copy, 0, snapshotSize,
+                        node -> !closed && snapshot[node] != null);
+                    StoredDocument[] compacted = new StoredDocument[copy.size()];
+                    Map<String, Integer> compactedNodes = new HashMap<>();
+                    for (int node = 0; node < snapshotSize; node++) {
+                        if (copied[node] >= 0) {
+                            writeAdded(out, copied[node], snapshot[node]);
+                            compacted[copied[node]] = snapshot[node];
+                            compactedNodes.put(snapshot[node].id(), copied[node]);
+                        }
+                    }
+
+                    synchronized (this) {
+                        if (closed) {
+                            return;
+                        }
+                        for (int node = 0; node < snapshotSize; node++) {
+                            int target = copied[node];
+                            if (target >= 0 && document(node) == null) {
+                                copy.delete(target);
+                                out.writeByte(DELETED);
+                                out.writeInt(target);
+                                compactedNodes.remove(compacted[target].id());
+                                compacted[target] = null;
+                            }
+                        }
+                        int size = current.size();
+                        int[] added = current.copyLiveNodes(copy, snapshotSize, size, node -> document(node) != null);
+                        compacted = Arrays.copyOf(compacted, copy.size());
+                        for (int i = 0; i < added.length; i++) {
+                            if (added[i] >= 0) {
+                                StoredDocument document = document(snapshotSize + i);
+                                writeAdded(out, added[i], document);
+                                compacted[added[i]] = document;
+                                compactedNodes.put(document.id(), added[i]);
+                            }
+                        }
+                        // The quantization may have been switched during the copy
+                        copy.quantize(current.quantization());
+                        out.flush();
+                        file.getFD().sync();
+                        copy.force();
+                        out.close();
+                        copy.close();
+                        Files.move(staging, directory.resolve(COMPACTED_DIRECTORY), StandardCopyOption.ATOMIC_MOVE);
+                        install(compacted, compactedNodes, current.quantization());
+                        log.info("Compacted partition {} from {} to {} nodes", directory, size, compacted.length);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                if (!closed) {
+                    // The partition is unchanged unless the copy was moved; the next deletion tries again
+                    log.warn("Failed to compact partition {}", directory, e);
+                }
+            }
+        }
+
+        /**
+         * Replaces the files of the partition with the compacted copy; the caller holds the monitor.
+         */
+        private void install(StoredDocument[] compacted, Map<String, Integer> compactedNodes,
+                             VectorQuantization current) throws IOException {
+            swapLock.writeLock().lock();
+            try {
+                closeFiles();
+                installCompacted(directory);
+                index = HnswIndex.open(directory, dimension, m, efConstruction, current);
+                documents = compacted;
+                nodes = compactedNodes;
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+        }
+
+        synchronized void flush() {
+            try {
+                if (logOut != null) {
+                    logOut.flush();
+                    logFile.getFD().sync();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to flush " + directory, e);
+            }
+            index.force();
+        }
+
+        /**
+         * Stops a running compaction and closes the files of the partition.
+         */
+        void close() {
+            closed = true;
+            awaitCompaction();
+            closeFiles();
+        }
+
+        private synchronized void closeFiles() {
+            try {
+                if (logOut != null) {
+                    logOut.close();
+                    logOut = null;
+                }
+                index.close();
+            } catch (IOException e) {
+                log.warn("Failed to close partition {}", directory, e);
+            }
+        }
+
+        /**
+         * Restores the documents of the partition from its log.
+         */
+        void replayLog(Consumer<String> added) {
+            Path file = directory.resolve(LOG_FILE);
+            if (!Files.exists(file)) {
+                return;
+            }
+            Map<Integer, StoredDocument> byNode = new HashMap<>();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                while (true) {
+                    byte type;
+                    try {
+                        type = in.readByte();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    int node = in.readInt();
+                    if (type == DELETED) {
+                        byNode.remove(node);
+                        continue;
+                    }
+                    String id = in.readUTF();
+                    String text = new String(readBytes(in), StandardCharsets.UTF_8);
+                    Map<String, Object> metadata = JSON.readValue(readBytes(in), METADATA_TYPE);
+                    byNode.put(node, new StoredDocument(id, text, metadata));
+                }
+            } catch (EOFException e) {
+                log.warn("Ignoring the incomplete last entry of {}", file);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read " + file, e);
+            }
+            byNode.forEach((node, document) -> {
+                if (node < index.size()) {
+                    setDocument(node, document);
+                    nodes.put(document.id(), node);
+                    added.accept(document.id());
+                }
+            });
+        }
+
+        private StoredDocument document(int node) {
+            StoredDocument[] current = documents;
+            return node < current.length ? current[node] : null;
+        }
+
+        private void setDocument(int node, StoredDocument document) {
+            StoredDocument[] current = documents;
+            if (node >= current.length) {
+                current = Arrays.copyOf(current, Math.max(node + 1, current.length * 2));
+            }
+            current[node] = document;
+            documents = current;
+        }
+
+        private DataOutputStream log() throws IOException {
+            if (logOut == null) {
+                logFile = new FileOutputStream(directory.resolve(LOG_FILE).toFile(), true);
+                logOut = new DataOutputStream(new BufferedOutputStream(logFile));
+            }
+            return logOut;
+        }
+    }
+
+    private static void writeAdded(DataOutputStream out, int node, StoredDocument document) throws IOException {
+        out.writeByte(ADDED);
+        out.writeInt(node);
+        out.writeUTF(document.id());
+        writeBytes(out, document.text().getBytes(StandardCharsets.UTF_8));
+        writeBytes(out, JSON.writeValueAsBytes(document.metadata()));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,133 @@
+package com.codeium.chatcodebase.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * File of fixed-size slots, memory-mapped in segments that are added as the file grows. Slot contents
+ * live in the page cache instead of the heap. Reads may run concurrently with each other; writes and
+ * growth must be serialized by the caller.
+ */
+final class MappedSlotFile implements Closeable {
+    private final FileChannel channel;
+    private final int slotBytes;
+    private final int slotsPerSegment;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private volatile FloatBuffer[] floatSegments = new FloatBuffer[0];
+
+    MappedSlotFile(Path path, int slotBytes, int slotsPerSegment) {
+        this.slotBytes = slotBytes;
+        this.slotsPerSegment = slotsPerSegment;
+        try {
+            this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long existingSlots = channel.size() / slotBytes;
+            if (existingSlots > 0) {
+                ensureCapacity((int) Math.min(Integer.MAX_VALUE, existingSlots));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open " + path, e);
+        }
+    }
+
+    /**
+     * Maps enough segments to hold {@code slots} slots, extending the file if needed.
+     */
+    void ensureCapacity(int slots) {
+        int needed = (slots + slotsPerSegment - 1) / slotsPerSegment;
+        MappedByteBuffer[] current = segments;
+        if (needed <= current.length) {
+            return;
+        }
+        MappedByteBuffer[] grown = Arrays.copyOf(current, needed);
+        FloatBuffer[] grownFloats = Arrays.copyOf(floatSegments, needed);
+        long segmentBytes = (long) slotsPerSegment * slotBytes;
+        try {
+            for (int i = current.length; i < needed; i++) {
+                grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * segmentBytes, segmentBytes);
+                grown[i].order(ByteOrder.LITTLE_ENDIAN);
+                grownFloats[i] = grown[i].asFloatBuffer();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map slot file segment", e);
+        }
+        floatSegments = grownFloats;
+        segments = grown;
+    }
+
+    float getFloat(int slot, int index) {
+        return segment(slot).getFloat(offset(slot) + index * Float.BYTES);
+    }
+
+    void putFloat(int slot, int index, float value) {
+        segment(slot).putFloat(offset(slot) + index * Float.BYTES, value);
+    }
+
+    long getLong(int slot, int index) {
+        return segment(slot).getLong(offset(slot) + index * Long.BYTES);
+    }
+
+    void putLong(int slot, int index, long value) {
+        segment(slot).putLong(offset(slot) + index * Long.BYTES, value);
+    }
+
+    int getInt(int slot, int index) {
+        return segment(slot).getInt(offset(slot) + index * Integer.BYTES);
+    }
+
+    void putInt(int slot, int index, int value) {
+        segment(slot).putInt(offset(slot) + index * Integer.BYTES, value);
+    }
+
+    /**
+     * Copies {@code floats.length} floats from the start of the slot; a bulk copy is much faster than
+     * reading the floats one by one.
+     */
+    void getFloats(int slot, float[] floats) {
+        floatSegments[slot / slotsPerSegment].get(offset(slot) / Float.BYTES, floats);
+    }
+
+    /**
+     * Copies {@code bytes.length} bytes starting {@code byteOffset} bytes into the slot.
+     */
+    void getBytes(int slot, int byteOffset, byte[] bytes) {
+        segment(slot).get(offset(slot) + byteOffset, bytes);
+    }
+
+    void putBytes(int slot, int byteOffset, byte[] bytes) {
+        segment(slot).put(offset(slot) + byteOffset, bytes);
+    }
+
+    /**
+     * Writes dirty pages to disk.
+     */
+    void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        segments = new MappedByteBuffer[0];
+        floatSegments = new FloatBuffer[0];
+        channel.close();
+    }
+
+    private MappedByteBuffer segment(int slot) {
+        return segments[slot / slotsPerSegment];
+    }
+
+    private int offset(int slot) {
+        return (slot % slotsPerSegment) * slotBytes;
+    }
+}
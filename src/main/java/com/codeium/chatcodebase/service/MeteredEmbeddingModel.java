@@ -0,0 +1,65 @@
+package com.codeium.chatcodebase.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the requests that reach the embedding model server, behind all caches. The time is also summed
+ * per thread, so a caller that embeds and stores in one call, like {@code VectorStore#add}, can tell
+ * the two apart with {@link #threadModelNanos()}.
+ */
+public class MeteredEmbeddingModel implements EmbeddingModel {
+    private static final ThreadLocal<long[]> THREAD_MODEL_NANOS = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final EmbeddingModel delegate;
+    private final Timer requests;
+    private final Counter texts;
+
+    public MeteredEmbeddingModel(EmbeddingModel delegate, MeterRegistry registry) {
+        this.delegate = delegate;
+        this.requests = Timer.builder("model.embedding.duration")
+            .description("Duration of an embedding request to the model server")
+            .publishPercentileHistogram()
+            .register(registry);
+        this.texts = Counter.builder("model.embedding.texts")
+            .description("Texts sent to the model server to be embedded")
+            .register(registry);
+    }
+
+    /**
+     * Total time the current thread spent in embedding requests; callers measure the difference.
+     */
+    public static long threadModelNanos() {
+        return THREAD_MODEL_NANOS.get()[0];
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        long start = System.nanoTime();
+        try {
+            return delegate.call(request);
+        } finally {
+            long nanos = System.nanoTime() - start;
+            THREAD_MODEL_NANOS.get()[0] += nanos;
+            requests.record(nanos, TimeUnit.NANOSECONDS);
+            texts.increment(request.getInstructions().size());
+        }
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getFormattedContent());
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+}
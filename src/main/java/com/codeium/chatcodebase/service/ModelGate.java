@@ -0,0 +1,220 @@
+package com.codeium.chatcodebase.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Limits the concurrent requests to the model server across all callers. Interactive requests (chat
+ * answers, query rewrites and query embeddings) are admitted before any waiting bulk request. Bulk
+ * requests (the embedding batches of analyses) are admitted round-robin by project, one batch at a
+ * time, so a large project cannot starve the others.
+ *
+ * <p>The gate only admits the requests of this JVM. Nodes that share the jobs table each admit up to
+ * their own limit, so a model server shared by several nodes sees up to the sum of their limits.
+ */
+@Component
+public class ModelGate {
+    private final int permits;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition interactiveTurn = lock.newCondition();
+    private final Condition bulkTurn = lock.newCondition();
+    /**
+     * Waiting bulk requests by project, in the order the projects take turns.
+     */
+    private final Map<String, ArrayDeque<BulkWaiter>> bulkWaiters = new LinkedHashMap<>();
+    private int available;
+    private int interactiveWaiting;
+
+    public ModelGate(@Value("${model.max-concurrent-requests:4}") int permits) {
+        this.permits = permits;
+        this.available = permits;
+    }
+
+    /**
+     * Waits for a permit ahead of all bulk requests; the permit must be closed when the request is done.
+     */
+    public Permit acquireInteractive() throws InterruptedException {
+        lock.lock();
+        try {
+            interactiveWaiting++;
+            try {
+                while (available == 0) {
+                    interactiveTurn.await();
+                }
+                available--;
+            } finally {
+                interactiveWaiting--;
+                // Permits left over, or a signal meant for an interrupted waiter, go to the next waiter
+                dispatch();
+            }
+            return new Permit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the project's turn; the permit must be closed when the request is done.
+     */
+    public Permit acquireBulk(String projectId) throws InterruptedException {
+        lock.lock();
+        try {
+            if (available > 0 && interactiveWaiting == 0 && bulkWaiters.isEmpty()) {
+                available--;
+                return new Permit();
+            }
+            BulkWaiter waiter = new BulkWaiter();
+            bulkWaiters.computeIfAbsent(projectId, id -> new ArrayDeque<>()).add(waiter);
+            try {
+                while (!waiter.granted) {
+                    bulkTurn.await();
+                }
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    available++;
+                    dispatch();
+                } else {
+                    ArrayDeque<BulkWaiter> queue = bulkWaiters.get(projectId);
+                    queue.remove(waiter);
+                    if (queue.isEmpty()) {
+                        bulkWaiters.remove(projectId);
+                    }
+                }
+                throw e;
+            }
+            return new Permit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs an interactive request with a permit.
+     *
+     * @throws GateInterruptedException if interrupted while waiting; the interrupt flag is restored
+     */
+    public <T> T interactive(Supplier<T> request) {
+        Permit permit;
+        try {
+            permit = acquireInteractive();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GateInterruptedException(e);
+        }
+        try {
+            return request.get();
+        } finally {
+            permit.close();
+        }
+    }
+
+    /**
+     * Runs a bulk request of the project with a permit.
+     *
+     * @throws GateInterruptedException if interrupted while waiting; the interrupt flag is restored
+     */
+    public void bulk(String projectId, Runnable request) {
+        Permit permit;
+        try {
+            permit = acquireBulk(projectId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GateInterruptedException(e);
+        }
+        try {
+            request.run();
+        } finally {
+            permit.close();
+        }
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+
+    public int getAvailable() {
+        lock.lock();
+        try {
+            return available;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            available++;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands free permits to waiting interactive requests first, then to the bulk request at the head
+     * of the next project's queue, moving that project to the back.
+     */
+    private void dispatch() {
+        if (interactiveWaiting > 0) {
+            if (available > 0) {
+                interactiveTurn.signal();
+            }
+            return;
+        }
+        boolean granted = false;
+        while (available > 0 && !bulkWaiters.isEmpty()) {
+            Iterator<Map.Entry<String, ArrayDeque<BulkWaiter>>> projects = bulkWaiters.entrySet().iterator();
+            Map.Entry<String, ArrayDeque<BulkWaiter>> next = projects.next();
+            projects.remove();
+            next.getValue().poll().granted = true;
+            available--;
+            granted = true;
+            if (!next.getValue().isEmpty()) {
+                bulkWaiters.put(next.getKey(), next.getValue());
+            }
+        }
+        if (granted) {
+            bulkTurn.signalAll();
+        }
+    }
+
+    private static final class BulkWaiter {
+        private boolean granted;
+    }
+
+    /**
+     * An admitted request; closing it admits the next one. Closing twice has no effect.
+     */
+    public final class Permit implements AutoCloseable {
+        private boolean closed;
+
+        private Permit() {
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            release();
+        }
+    }
+
+    public static class GateInterruptedException extends RuntimeException {
+        public GateInterruptedException(InterruptedException cause) {
+            super("Interrupted while waiting for the model server", cause);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.codeium.chatcodebase.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Per-project storage management of the vector store. Every stored chunk carries its project id in
+ * the {@link #PROJECT_ID} metadata entry, and searches are scoped with {@link #projectFilter}.
+ */
+public interface ProjectVectorPartitions {
+    String PROJECT_ID = "projectId";
+
+    /**
+     * Project ids that can be embedded in index DDL and jsonpath literals without escaping. The filter
+     * converter of pgvector does not escape values, so no other project id may reach a search.
+     */
+    Pattern VALID_PROJECT_ID = Pattern.compile("[\\w./-]+");
+
+    static boolean isValidProjectId(String projectId) {
+        return projectId != null && VALID_PROJECT_ID.matcher(projectId).matches();
+    }
+
+    /**
+     * The filter restricting a search to one project.
+     *
+     * @throws IllegalArgumentException if the project id is not {@linkplain #isValidProjectId valid}
+     */
+    static Filter.Expression projectFilter(String projectId) {
+        if (!isValidProjectId(projectId)) {
+            throw new IllegalArgumentException("Invalid project id");
+        }
+        return new FilterExpressionBuilder().eq(PROJECT_ID, projectId).build();
+    }
+
+    int countChunks(String projectId);
+
+    /**
+     * Hands every stored chunk of the project to the consumer, without its embedding.
+     */
+    void forEachChunk(String projectId, Consumer<Document> chunks);
+
+    /**
+     * Adds the project id to chunks stored before chunks carried one.
+     */
+    void assignProject(String projectId, List<String> chunkIds);
+
+    /**
+     * Deletes all chunks of the project.
+     *
+     * @return the number of deleted chunks
+     */
+    int deleteProject(String projectId);
+
+    /**
+     * Called after an analysis of the project stored its chunks.
+     */
+    void updateProjectIndex(String projectId);
+}
@@ -0,0 +1,177 @@
+package com.codeium.chatcodebase.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.pgvector.PgVectorFilterExpressionConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Per-project partitioning of the pgvector table. A GIN index on the metadata serves project-scoped
+ * searches and deletes, and projects with many chunks get a partial HNSW index of their own, so their
+ * searches do not traverse other projects' vectors.
+ */
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "spring.ai.vectorstore.type", havingValue = "pgvector", matchIfMissing = true)
+public class ProjectVectorRepository implements ProjectVectorPartitions {
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {};
+    /**
+     * Chunks read per query by {@link #forEachChunk}, so that a large project is never held in memory.
+     */
+    private static final int CHUNK_PAGE_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${spring.ai.vectorstore.pgvector.schema-name:public}")
+    private String schemaName = "public";
+
+    @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}")
+    private String tableName = "vector_store";
+
+    @Value("${spring.ai.vectorstore.pgvector.distance-type:COSINE_DISTANCE}")
+    private String distanceType = "COSINE_DISTANCE";
+
+    @Value("${spring.ai.vectorstore.pgvector.project-index-min-chunks:50000}")
+    private int projectIndexMinChunks = 50000;
+
+    /**
+     * The vector table is created by the vector store on startup, so its indexes are added once the
+     * application is ready.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void createProjectIndex() {
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + tableName + "_metadata_idx ON " + table()
+            + " USING gin ((metadata::jsonb) jsonb_path_ops)");
+    }
+
+    @Override
+    public int countChunks(String projectId) {
+        Integer count = jdbcTemplate.queryForObject(
+            "SELECT count(*) FROM " + table() + " WHERE metadata::jsonb @> jsonb_build_object('" + PROJECT_ID + "', ?)",
+            Integer.class, projectId);
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public void forEachChunk(String projectId, Consumer<Document> chunks) {
+        String lastId = null;
+        while (true) {
+            List<Document> page = jdbcTemplate.query("SELECT id, content, metadata FROM " + table()
+                    + " WHERE metadata::jsonb @> jsonb_build_object('" + PROJECT_ID + "', ?)"
+                    + (lastId == null ? "" : " AND id > ?::uuid")
+                    + " ORDER BY id LIMIT " + CHUNK_PAGE_SIZE,
+                (rs, rowNum) -> new Document(rs.getString("id"), rs.getString("content"),
+                    readMetadata(rs.getString("metadata"))),
+                lastId == null ? new Object[]{projectId} : new Object[]{projectId, lastId});
+            page.forEach(chunks);
+            if (page.size() < CHUNK_PAGE_SIZE) {
+                return;
+            }
+            lastId = page.get(page.size() - 1).getId();
+        }
+    }
+
+    private static Map<String, Object> readMetadata(String json) {
+        try {
+            return JSON.readValue(json, METADATA_TYPE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read chunk metadata", e);
+        }
+    }
+
+    @Override
+    public void assignProject(String projectId, List<String> chunkIds) {
+        List<Object[]> args = chunkIds.stream()
+            .map(id -> new Object[]{projectId, id})
+            .toList();
+        jdbcTemplate.batchUpdate("UPDATE " + table()
+            + " SET metadata = (metadata::jsonb || jsonb_build_object('" + PROJECT_ID + "', ?))::json"
+            + " WHERE id = ?::uuid", args);
+        log.info("Assigned {} chunks to project: {}", chunkIds.size(), projectId);
+    }
+
+    /**
+     * Deletes all chunks and the partial index of the project.
+     */
+    @Override
+    public int deleteProject(String projectId) {
+        if (ProjectVectorPartitions.isValidProjectId(projectId)) {
+            jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + schemaName + '.' + projectIndexName(projectId));
+        }
+        return jdbcTemplate.update(
+            "DELETE FROM " + table() + " WHERE metadata::jsonb @> jsonb_build_object('" + PROJECT_ID + "', ?)",
+            projectId);
+    }
+
+    /**
+     * Creates the partial HNSW index of the project once it has {@code project-index-min-chunks} chunks.
+     * The index predicate is the filter the vector store generates for {@link ProjectVectorPartitions#projectFilter}, so the
+     * planner can match it against project-scoped searches.
+     */
+    @Override
+    public void updateProjectIndex(String projectId) {
+        if (projectIndexMinChunks <= 0 || !ProjectVectorPartitions.isValidProjectId(projectId)) {
+            return;
+        }
+        int chunks = countChunks(projectId);
+        if (chunks < projectIndexMinChunks) {
+            return;
+        }
+        String predicate = new PgVectorFilterExpressionConverter()
+            .convertExpression(ProjectVectorPartitions.projectFilter(projectId));
+        String indexName = projectIndexName(projectId);
+        if (isInvalidIndex(indexName)) {
+            // Left by a concurrent build that failed; IF NOT EXISTS would keep it forever
+            log.warn("Dropping invalid HNSW index of project: {}", projectId);
+            jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + schemaName + '.' + indexName);
+        }
+        log.info("Creating HNSW index for project: {} ({} chunks)", projectId, chunks);
+        // Concurrently, so that other projects can be indexed and searched meanwhile
+        jdbcTemplate.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + indexName
+            + " ON " + table() + " USING hnsw (embedding " + operatorClass() + ")"
+            + " WHERE metadata::jsonb @@ '" + predicate + "'::jsonpath");
+    }
+
+    private boolean isInvalidIndex(String indexName) {
+        List<Boolean> valid = jdbcTemplate.queryForList("""
+            SELECT i.indisvalid FROM pg_index i
+            JOIN pg_class c ON c.oid = i.indexrelid
+            JOIN pg_namespace n ON n.oid = c.relnamespace
+            WHERE c.relname = ? AND n.nspname = ?
+            """, Boolean.class, indexName, schemaName);
+        return valid.contains(Boolean.FALSE);
+    }
+
+    static String projectIndexName(String projectId) {
+        return "vector_store_project_" + DigestUtils.md5Hex(projectId).substring(0, 16) + "_hnsw";
+    }
+
+    private String table() {
+        return schemaName + '.' + tableName;
+    }
+
+    private String operatorClass() {
+        return switch (distanceType) {
+            case "EUCLIDEAN_DISTANCE" -> "vector_l2_ops";
+            case "NEGATIVE_INNER_PRODUCT" -> "vector_ip_ops";
+            default -> "vector_cosine_ops";
+        };
+    }
+}
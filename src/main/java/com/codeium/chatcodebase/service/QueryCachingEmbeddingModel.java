@@ -0,0 +1,62 @@
+package com.codeium.chatcodebase.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.List;
+
+/**
+ * Keeps the embeddings of chat queries in memory in front of an {@link EmbeddingModel}. The retrieval
+ * path embeds a query with {@link #embedQuery}, which caches it, so repeated questions and the vector
+ * store's own embedding of the query for its similarity search are answered without a model call.
+ * Other requests, such as the batches of an analysis, are never cached, even if they hold one text.
+ */
+public class QueryCachingEmbeddingModel implements EmbeddingModel {
+    private final EmbeddingModel delegate;
+    private final TtlCache<String, float[]> cache;
+
+    public QueryCachingEmbeddingModel(EmbeddingModel delegate, TtlCache<String, float[]> cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    /**
+     * Embeds a chat query and keeps its embedding for the similarity search and later questions.
+     */
+    public float[] embedQuery(String query) {
+        float[] cached = cache.get(query);
+        if (cached != null) {
+            return cached;
+        }
+        float[] embedding = delegate.embed(query);
+        cache.put(query, embedding);
+        return embedding;
+    }
+
+    /**
+     * Answers a request for a single text that was embedded as a query from the cache.
+     */
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        if (request.getInstructions().size() == 1) {
+            float[] cached = cache.get(request.getInstructions().get(0));
+            if (cached != null) {
+                return new EmbeddingResponse(List.of(new Embedding(cached, 0)));
+            }
+        }
+        return delegate.call(request);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getFormattedContent());
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+}
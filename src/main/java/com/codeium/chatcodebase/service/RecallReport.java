@@ -0,0 +1,21 @@
+package com.codeium.chatcodebase.service;
+
+import java.util.List;
+
+/**
+ * Recall of the approximate search of one project against an exact scan, for the stored quantization
+ * and for every quantization the project could be switched to.
+ *
+ * @param quantization     the quantization the index currently searches with
+ * @param recall           share of the exact top {@code k} found by the index
+ * @param searchMillis     average duration of an index search
+ * @param quantizations    recall of each quantization when its codes select the candidates that are re-ranked
+ */
+public record RecallReport(VectorQuantization quantization, int chunks, int queries, int k,
+                           double recall, double searchMillis, List<QuantizationRecall> quantizations) {
+
+    /**
+     * @param bytesPerVector size of the codes searched per vector
+     */
+    public record QuantizationRecall(VectorQuantization quantization, int bytesPerVector, double recall) {}
+}
@@ -0,0 +1,102 @@
+package com.codeium.chatcodebase.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Hybrid retrieval: BM25 over the symbol index and vector similarity search, fused by reciprocal rank.
+ * Queries that consist of identifiers only are answered from the symbol index without embedding them.
+ */
+@Service
+@RequiredArgsConstructor
+public class RetrievalService {
+    /**
+     * Code elements: camelCase, PascalCase or snake_case names, calls, qualified names, paths or file names.
+     */
+    private static final Pattern IDENTIFIER = Pattern.compile(
+            "\\b[a-z]+[A-Z]\\w*|\\b[A-Z][a-z0-9]+[A-Z]\\w*|\\b[A-Za-z0-9]+_\\w+|\\w\\(|\\b\\w+\\.\\w+\\.\\w+|\\w/\\w|\\.(?:java|kt|scala)\\b");
+    private static final Pattern TOKEN_PUNCTUATION = Pattern.compile("^[\\p{Punct}&&[^_$]]+|[\\p{Punct}&&[^_$)]]+$");
+
+    private final SymbolIndexService symbolIndexService;
+    private final VectorStoreService vectorStore;
+    private final QueryCachingEmbeddingModel embeddingModel;
+    private final ModelGate modelGate;
+
+    @Value("${retrieval.top-k:4}")
+    private int topK = 4;
+
+    @Value("${retrieval.candidates:20}")
+    private int candidates = 20;
+
+    @Value("${retrieval.rrf-k:60}")
+    private int rrfK = 60;
+
+    public List<Document> retrieve(String projectId, String query, ChatTimings timings) {
+        List<Document> lexical = timings.time(ChatTimings.LEXICAL_SEARCH, () ->
+                symbolIndexService.search(projectId, query, candidates));
+        if (!lexical.isEmpty() && isIdentifierQuery(query)) {
+            timings.skip(ChatTimings.EMBEDDING, "identifiers");
+            return lexical.subList(0, Math.min(topK, lexical.size()));
+        }
+
+        // Embedding first fills the query embedding cache, so the search itself only measures the store
+        timings.time(ChatTimings.EMBEDDING, () -> modelGate.interactive(() -> embeddingModel.embedQuery(query)));
+        List<Document> semantic = timings.time(ChatTimings.VECTOR_SEARCH, () ->
+                vectorStore.semanticSearch(projectId, query, candidates));
+        return fuse(List.of(lexical, semantic), rrfK, topK);
+    }
+
+    /**
+     * Reciprocal rank fusion: every document scores {@code 1 / (k + rank)} per result list it appears in.
+     * Documents are matched by id; the first occurrence is kept.
+     */
+    static List<Document> fuse(List<List<Document>> rankings, int k, int limit) {
+        Map<String, Document> documents = new LinkedHashMap<>();
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (List<Document> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                Document document = ranking.get(rank);
+                documents.putIfAbsent(document.getId(), document);
+                scores.merge(document.getId(), 1.0 / (k + rank + 1), Double::sum);
+            }
+        }
+
+        List<Document> fused = new ArrayList<>(documents.size());
+        documents.forEach((id, document) -> fused.add(document.mutate().score(scores.get(id)).build()));
+        fused.sort(Comparator.comparing(Document::getScore).reversed());
+        return fused.subList(0, Math.min(limit, fused.size()));
+    }
+
+    /**
+     * Whether the query names at least one code element, i.e. is specific enough to search as it is.
+     */
+    public static boolean containsIdentifier(String query) {
+        return query != null && IDENTIFIER.matcher(query).find();
+    }
+
+    /**
+     * Whether every word of the query is a code element or a stop word, as in
+     * {@code where is `AnalysisStatus.setProgress` used?}.
+     */
+    static boolean isIdentifierQuery(String query) {
+        if (!containsIdentifier(query)) {
+            return false;
+        }
+        for (String word : query.strip().split("\\s+")) {
+            String token = TOKEN_PUNCTUATION.matcher(word).replaceAll("");
+            if (!token.isEmpty() && !containsIdentifier(token) && !SymbolIndex.isStopWord(token)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,184 @@
+package com.codeium.chatcodebase.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Stages connected by bounded queues. Every stage runs on its own worker threads and blocks when the
+ * queue to the next stage is full, so the number of items in flight is bounded by the queue capacities.
+ * The first failure in any stage aborts the whole pipeline.
+ */
+@Slf4j
+public class StagedPipeline {
+    private static final Object END = new Object();
+    private static final long POLL_MILLIS = 200;
+
+    private final String name;
+    private final List<Thread> workers = new CopyOnWriteArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public StagedPipeline(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Starts a single producer thread that feeds the returned channel.
+     */
+    public <T> Channel<T> source(String stage, int capacity, Consumer<Consumer<T>> producer) {
+        Channel<T> output = new Channel<>(capacity);
+        AtomicInteger running = new AtomicInteger(1);
+        startWorker(stage, 0, () -> producer.accept(output::put), running, output);
+        return output;
+    }
+
+    /**
+     * Starts {@code parallelism} workers that take items from {@code input} and may emit any number of
+     * results to the returned channel.
+     */
+    public <I, O> Channel<O> stage(String stage, Channel<I> input, int parallelism, int capacity,
+                                   BiConsumer<I, Consumer<O>> worker) {
+        Channel<O> output = new Channel<>(capacity);
+        AtomicInteger running = new AtomicInteger(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            startWorker(stage, i, () -> drain(input, item -> worker.accept(item, output::put)), running, output);
+        }
+        return output;
+    }
+
+    /**
+     * Starts {@code parallelism} workers that consume the items of {@code input}.
+     */
+    public <I> void sink(String stage, Channel<I> input, int parallelism, Consumer<I> worker) {
+        AtomicInteger running = new AtomicInteger(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            startWorker(stage, i, () -> drain(input, worker), running, null);
+        }
+    }
+
+    /**
+     * Waits for all stages to finish and rethrows the first failure.
+     */
+    public void await() throws InterruptedException {
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            abort(e);
+            throw e;
+        }
+        Throwable cause = failure.get();
+        if (cause != null) {
+            throw new PipelineException("Pipeline " + name + " failed", cause);
+        }
+    }
+
+    public boolean isAborted() {
+        return failure.get() != null;
+    }
+
+    private void abort(Throwable cause) {
+        if (failure.compareAndSet(null, cause)) {
+            log.error("Aborting pipeline {}", name, cause);
+            workers.forEach(Thread::interrupt);
+        }
+    }
+
+    private void startWorker(String stage, int index, Runnable body, AtomicInteger running, Channel<?> output) {
+        Thread thread = Thread.ofPlatform()
+            .name(name + "-" + stage + "-" + index)
+            .unstarted(() -> {
+                try {
+                    body.run();
+                } catch (Throwable e) {
+                    abort(e);
+                } finally {
+                    // The last worker of a stage closes its output
+                    if (running.decrementAndGet() == 0 && output != null) {
+                        output.close();
+                    }
+                }
+            });
+        workers.add(thread);
+        thread.start();
+    }
+
+    private <I> void drain(Channel<I> input, Consumer<I> worker) {
+        I item;
+        while ((item = input.take()) != null) {
+            worker.accept(item);
+        }
+    }
+
+    public class Channel<T> {
+        private final BlockingQueue<Object> queue;
+
+        private Channel(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void put(T item) {
+            offer(item);
+        }
+
+        private void close() {
+            if (!isAborted()) {
+                offer(END);
+            }
+        }
+
+        /**
+         * @return the next item, or {@code null} once the channel is closed and drained
+         */
+        @SuppressWarnings("unchecked")
+        T take() {
+            try {
+                Object item;
+                while ((item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                    checkAborted();
+                }
+                if (item == END) {
+                    // Leave the marker for the other workers of the consuming stage
+                    queue.put(END);
+                    return null;
+                }
+                return (T) item;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PipelineException("Interrupted while waiting for input", e);
+            }
+        }
+
+        private void offer(Object item) {
+            try {
+                while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    checkAborted();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PipelineException("Interrupted while waiting for queue capacity", e);
+            }
+        }
+
+        private void checkAborted() {
+            if (isAborted()) {
+                throw new PipelineException("Pipeline " + name + " was aborted", failure.get());
+            }
+        }
+    }
+
+    public static class PipelineException extends RuntimeException {
+        public PipelineException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
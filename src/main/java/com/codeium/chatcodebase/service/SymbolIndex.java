@@ -0,0 +1,299 @@
+package com.codeium.chatcodebase.service;
+
+import org.springframework.ai.document.Document;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Immutable in-memory inverted index over the chunks of one project, scored with BM25. Identifiers are
+ * indexed whole and split into their camelCase and snake_case parts, so {@code setProgress} matches
+ * both the exact name and questions about "progress". Chunk texts are kept in a {@link ContentStore};
+ * the heap only holds the postings, ids and scalar metadata of the chunks.
+ */
+public final class SymbolIndex implements Closeable {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final Set<String> STOP_WORDS = Set.of(
+        "a", "an", "and", "are", "as", "at", "be", "by", "does", "do", "for", "from", "how", "i", "in", "is",
+        "it", "me", "of", "on", "or", "show", "that", "the", "this", "to", "used", "uses", "what", "when",
+        "where", "which", "who", "why", "with");
+
+    private final ContentStore contents;
+    private final String[] ids;
+    private final long[] textOffsets;
+    private final List<Map<String, Object>> metadata;
+    private final int[] documentLengths;
+    private final double averageLength;
+    private final Map<String, Postings> postings;
+
+    private SymbolIndex(ContentStore contents, String[] ids, long[] textOffsets, List<Map<String, Object>> metadata,
+                        int[] documentLengths, Map<String, Postings> postings) {
+        this.contents = contents;
+        this.ids = ids;
+        this.textOffsets = textOffsets;
+        this.metadata = metadata;
+        this.documentLengths = documentLengths;
+        this.postings = postings;
+        long total = 0;
+        for (int length : documentLengths) {
+            total += length;
+        }
+        this.averageLength = ids.length == 0 ? 0 : (double) total / ids.length;
+    }
+
+    /**
+     * A builder keeping chunk texts in the temporary directory.
+     */
+    public static Builder builder() {
+        return builder(Path.of(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * A builder keeping chunk texts in a file of the directory, which is deleted when the index is closed.
+     */
+    public static Builder builder(Path contentDirectory) {
+        return new Builder(contentDirectory);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * The best matching chunks, each with its BM25 score.
+     */
+    public List<Document> search(String query, int limit) {
+        Map<String, Integer> queryTerms = new LinkedHashMap<>();
+        tokenize(query, term -> queryTerms.merge(term, 1, Integer::sum));
+
+        double[] scores = new double[ids.length];
+        int[] matched = new int[ids.length];
+        int matchedCount = 0;
+        for (String term : queryTerms.keySet()) {
+            Postings termPostings = postings.get(term);
+            if (termPostings == null) {
+                continue;
+            }
+            int documentFrequency = termPostings.documents().length;
+            double idf = Math.log(1 + (ids.length - documentFrequency + 0.5) / (documentFrequency + 0.5));
+            for (int i = 0; i < documentFrequency; i++) {
+                int document = termPostings.documents()[i];
+                int frequency = termPostings.frequencies()[i];
+                double norm = K1 * (1 - B + B * documentLengths[document] / averageLength);
+                if (scores[document] == 0) {
+                    matched[matchedCount++] = document;
+                }
+                scores[document] += idf * frequency * (K1 + 1) / (frequency + norm);
+            }
+        }
+
+        Integer[] ranked = new Integer[matchedCount];
+        for (int i = 0; i < matchedCount; i++) {
+            ranked[i] = matched[i];
+        }
+        Arrays.sort(ranked, (a, b) -> Double.compare(scores[b], scores[a]));
+
+        List<Document> results = new ArrayList<>(Math.min(limit, matchedCount));
+        for (int i = 0; i < Math.min(limit, matchedCount); i++) {
+            int document = ranked[i];
+            results.add(Document.builder()
+                .id(ids[document])
+                .text(contents.read(textOffsets[document]))
+                .metadata(metadata.get(document))
+                .score(scores[document])
+                .build());
+        }
+        return results;
+    }
+
+    /**
+     * Deletes the chunk texts; searches still in progress complete.
+     */
+    @Override
+    public void close() throws IOException {
+        if (contents != null) {
+            contents.close();
+        }
+    }
+
+    /**
+     * Lower cased terms of the text: every identifier and, for compound identifiers, each of its parts.
+     */
+    static void tokenize(String text, Consumer<String> terms) {
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isJavaIdentifierPart(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && Character.isJavaIdentifierPart(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                emitIdentifier(text, start, i, terms);
+            }
+        }
+    }
+
+    private static void emitIdentifier(String text, int start, int end, Consumer<String> terms) {
+        String identifier = text.substring(start, end).toLowerCase(Locale.ROOT);
+        boolean compound = false;
+        int partStart = start;
+        for (int i = start + 1; i <= end; i++) {
+            boolean boundary = i == end
+                || text.charAt(i) == '_' || text.charAt(i) == '$'
+                || (Character.isUpperCase(text.charAt(i)) && Character.isLowerCase(text.charAt(i - 1)))
+                || (Character.isUpperCase(text.charAt(i)) && i + 1 < end
+                    && Character.isUpperCase(text.charAt(i - 1)) && Character.isLowerCase(text.charAt(i + 1)));
+            if (boundary) {
+                if (partStart > start || i < end) {
+                    compound = true;
+                    emitTerm(text.substring(partStart, i).toLowerCase(Locale.ROOT), terms);
+                }
+                partStart = i < end && (text.charAt(i) == '_' || text.charAt(i) == '$') ? i + 1 : i;
+            }
+        }
+        if (compound || !STOP_WORDS.contains(identifier)) {
+            emitTerm(identifier, terms);
+        }
+    }
+
+    static boolean isStopWord(String word) {
+        return STOP_WORDS.contains(word.toLowerCase(Locale.ROOT));
+    }
+
+    private static void emitTerm(String term, Consumer<String> terms) {
+        if (term.length() > 1 && !STOP_WORDS.contains(term)) {
+            terms.accept(term);
+        }
+    }
+
+    private record Postings(int[] documents, int[] frequencies) {}
+
+    /**
+     * Collects the chunks of a project; safe to call {@link #add} from several threads. The builder owns
+     * the chunk texts until it builds the index, and deletes them if it is closed before.
+     */
+    public static final class Builder implements Closeable {
+        private final Path contentDirectory;
+        private ContentStore contents;
+        private boolean finished;
+        private final List<String> ids = new ArrayList<>();
+        private final LongList textOffsets = new LongList();
+        private final List<Map<String, Object>> metadata = new ArrayList<>();
+        private final List<Integer> lengths = new ArrayList<>();
+        private final Map<String, IntPairList> postings = new HashMap<>();
+
+        private Builder(Path contentDirectory) {
+            this.contentDirectory = contentDirectory;
+        }
+
+        /**
+         * Indexes the text of the chunk and the field names in its metadata.
+         */
+        public synchronized void add(Document chunk) {
+            if (finished) {
+                throw new IllegalStateException("The builder is already built or closed");
+            }
+            int document = ids.size();
+            Map<String, Integer> frequencies = new HashMap<>();
+            tokenize(chunk.getText(), term -> frequencies.merge(term, 1, Integer::sum));
+            if (chunk.getMetadata().get("fields") instanceof List<?> fields) {
+                fields.forEach(field -> tokenize(String.valueOf(field), term -> frequencies.merge(term, 1, Integer::sum)));
+            }
+
+            int length = 0;
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), term -> new IntPairList()).add(document, entry.getValue());
+                length += entry.getValue();
+            }
+            if (contents == null) {
+                contents = ContentStore.create(contentDirectory);
+            }
+            textOffsets.add(contents.append(chunk.getText()));
+            ids.add(chunk.getId());
+            metadata.add(scalarMetadata(chunk.getMetadata()));
+            lengths.add(length);
+        }
+
+        public synchronized SymbolIndex build() {
+            Map<String, Postings> built = new HashMap<>(postings.size() * 4 / 3 + 1);
+            postings.forEach((term, list) -> built.put(term, list.toPostings()));
+            int[] documentLengths = lengths.stream().mapToInt(Integer::intValue).toArray();
+            finished = true;
+            return new SymbolIndex(contents, ids.toArray(String[]::new), textOffsets.toArray(),
+                List.copyOf(metadata), documentLengths, built);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (!finished && contents != null) {
+                finished = true;
+                contents.close();
+            }
+        }
+
+        /**
+         * The metadata without lists and null values. The lists are the declarations of the file, which
+         * every chunk of the file repeats and which are part of the chunk text.
+         */
+        private static Map<String, Object> scalarMetadata(Map<String, Object> metadata) {
+            Map<String, Object> scalars = new HashMap<>();
+            metadata.forEach((key, value) -> {
+                if (value != null && !(value instanceof Collection<?>)) {
+                    scalars.put(key, value);
+                }
+            });
+            return Map.copyOf(scalars);
+        }
+    }
+
+    private static final class LongList {
+        private long[] values = new long[16];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static final class IntPairList {
+        private int[] documents = new int[4];
+        private int[] frequencies = new int[4];
+        private int size;
+
+        void add(int document, int frequency) {
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            documents[size] = document;
+            frequencies[size] = frequency;
+            size++;
+        }
+
+        Postings toPostings() {
+            return new Postings(Arrays.copyOf(documents, size), Arrays.copyOf(frequencies, size));
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.codeium.chatcodebase.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Lexical index of each analyzed project, built by every analysis. A node that did not analyze the
+ * project, e.g. another node or this one after a restart, rebuilds the index from the stored chunks on
+ * first use. Indexes are checked against the finish time of the project's last analysis every few
+ * seconds, so an index is rebuilt once another node re-analyzed the project. The chunk texts of the
+ * indexes are kept in files of the content directory, which only live as long as their index.
+ */
+@Slf4j
+@Service
+public class SymbolIndexService {
+    private static final int MAX_MISSING = 1_000;
+    private static final long MISSING_TTL_MILLIS = 60_000;
+    private static final long REVALIDATE_MILLIS = 10_000;
+
+    private final ProjectVectorPartitions projectVectors;
+    private final AnalysisJobRepository jobRepository;
+    private final Path contentDirectory;
+    private final ConcurrentHashMap<String, VersionedIndex> indexes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<SymbolIndex>> rebuilds = new ConcurrentHashMap<>();
+    /**
+     * Projects without stored chunks, so that searches of projects that were never analyzed do not query
+     * the database every time.
+     */
+    private final TtlCache<String, Boolean> missing;
+    /**
+     * Projects whose index was recently found to be of their last analysis.
+     */
+    private final TtlCache<String, Boolean> validated;
+    private final Counter missingSearches;
+    private final Counter rebuiltIndexes;
+
+    @Autowired
+    public SymbolIndexService(ProjectVectorPartitions projectVectors, AnalysisJobRepository jobRepository,
+                              MeterRegistry meterRegistry,
+                              @Value("${analysis.content-store.directory:data/content}") String contentDirectory) {
+        this(projectVectors, jobRepository, meterRegistry, contentDirectory, System::nanoTime);
+    }
+
+    SymbolIndexService(ProjectVectorPartitions projectVectors, AnalysisJobRepository jobRepository,
+                       MeterRegistry meterRegistry, String contentDirectory, LongSupplier clock) {
+        this.projectVectors = projectVectors;
+        this.jobRepository = jobRepository;
+        this.contentDirectory = Path.of(contentDirectory);
+        this.missing = new TtlCache<>(MAX_MISSING, MISSING_TTL_MILLIS, clock);
+        // Only holds projects that have an index, so it needs no tighter bound than the indexes
+        this.validated = new TtlCache<>(Integer.MAX_VALUE, REVALIDATE_MILLIS, clock);
+        this.missingSearches = Counter.builder("retrieval.symbol.index.missing")
+            .description("Searches of projects without stored chunks, answered by vector search only")
+            .register(meterRegistry);
+        this.rebuiltIndexes = Counter.builder("retrieval.symbol.index.rebuilt")
+            .description("Symbol indexes rebuilt from the stored chunks of a project")
+            .register(meterRegistry);
+        deleteLeftoverContent();
+    }
+
+    public SymbolIndex.Builder newBuilder() {
+        return SymbolIndex.builder(contentDirectory);
+    }
+
+    /**
+     * Replaces the index of the project with the one of the analysis that is finishing on this node.
+     */
+    public void put(String projectId, SymbolIndex index) {
+        // The analysis finishes after its index is put, so the version is taken at the next validation
+        VersionedIndex replaced = indexes.put(projectId, new VersionedIndex(index, null));
+        close(projectId, replaced == null ? null : replaced.index());
+        validated.put(projectId, Boolean.TRUE);
+        missing.removeIf(projectId::equals);
+        log.info("Built symbol index for project: {} ({} chunks)", projectId, index.size());
+    }
+
+    public void remove(String projectId) {
+        VersionedIndex removed = indexes.remove(projectId);
+        validated.removeIf(projectId::equals);
+        close(projectId, removed == null ? null : removed.index());
+    }
+
+    /**
+     * @return the best lexical matches, or nothing if the project has no completed analysis with stored chunks
+     */
+    public List<Document> search(String projectId, String query, int limit) {
+        if (projectId == null) {
+            return List.of();
+        }
+        SymbolIndex index = currentIndex(projectId);
+        if (index == null) {
+            missingSearches.increment();
+            return List.of();
+        }
+        return index.search(query, limit);
+    }
+
+    private SymbolIndex currentIndex(String projectId) {
+        VersionedIndex cached = indexes.get(projectId);
+        if (cached != null ? validated.get(projectId) != null : missing.get(projectId) != null) {
+            return cached == null ? null : cached.index();
+        }
+        Instant finishedAt = jobRepository.findFinishedAt(projectId).orElse(null);
+        if (cached != null && (cached.version() == null || cached.version().equals(finishedAt))) {
+            if (cached.version() == null && finishedAt != null) {
+                indexes.replace(projectId, cached, new VersionedIndex(cached.index(), finishedAt));
+            }
+            validated.put(projectId, Boolean.TRUE);
+            return cached.index();
+        }
+        if (finishedAt == null) {
+            // Never analyzed, or being deleted; the chunks of a first analysis may still be incomplete
+            discard(projectId, cached);
+            return null;
+        }
+        // Not built on this node since it started, or re-analyzed by another node
+        return rebuild(projectId, cached, finishedAt);
+    }
+
+    /**
+     * Builds the index from the stored chunks; concurrent searches of the project wait for the same build.
+     *
+     * @return {@code null} if the project has no stored chunks or the build failed
+     */
+    private SymbolIndex rebuild(String projectId, VersionedIndex stale, Instant version) {
+        CompletableFuture<SymbolIndex> build = new CompletableFuture<>();
+        CompletableFuture<SymbolIndex> running = rebuilds.putIfAbsent(projectId, build);
+        if (running != null) {
+            return running.join();
+        }
+        try {
+            SymbolIndex index = load(projectId, stale, version);
+            build.complete(index);
+            return index;
+        } finally {
+            // Only reached with an uncompleted build if load threw an Error
+            build.complete(null);
+            rebuilds.remove(projectId, build);
+        }
+    }
+
+    private SymbolIndex load(String projectId, VersionedIndex stale, Instant version) {
+        long start = System.nanoTime();
+        AtomicInteger chunks = new AtomicInteger();
+        SymbolIndex index;
+        try (SymbolIndex.Builder builder = newBuilder()) {
+            projectVectors.forEachChunk(projectId, chunk -> {
+                builder.add(chunk);
+                chunks.incrementAndGet();
+            });
+            index = chunks.get() == 0 ? null : builder.build();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to rebuild the symbol index of project: {}, searching vectors only", projectId, e);
+            return null;
+        }
+
+        if (index == null) {
+            discard(projectId, stale);
+            log.info("Project {} has no stored chunks, searching vectors only", projectId);
+            return null;
+        }
+        VersionedIndex rebuilt = new VersionedIndex(index, version);
+        // An index put by an analysis while this one was built is newer
+        VersionedIndex current = indexes.compute(projectId,
+            (id, existing) -> existing == null || existing == stale ? rebuilt : existing);
+        if (current != rebuilt) {
+            close(projectId, index);
+            return current.index();
+        }
+        if (stale != null) {
+            close(projectId, stale.index());
+        }
+        validated.put(projectId, Boolean.TRUE);
+        rebuiltIndexes.increment();
+        log.info("Rebuilt symbol index for project: {} from {} stored chunks in {} ms",
+            projectId, chunks.get(), (System.nanoTime() - start) / 1_000_000);
+        return index;
+    }
+
+    private void discard(String projectId, VersionedIndex stale) {
+        if (stale != null && indexes.remove(projectId, stale)) {
+            validated.removeIf(projectId::equals);
+            close(projectId, stale.index());
+        }
+        missing.put(projectId, Boolean.TRUE);
+    }
+
+    private void close(String projectId, SymbolIndex index) {
+        if (index == null) {
+            return;
+        }
+        try {
+            index.close();
+        } catch (IOException e) {
+            log.warn("Failed to close the symbol index of project: {}", projectId, e);
+        }
+    }
+
+    /**
+     * Content files are deleted when their index is closed, on Unix already when they are opened; files
+     * left by a process that did not stop cleanly are removed at startup.
+     */
+    private void deleteLeftoverContent() {
+        if (!Files.isDirectory(contentDirectory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(contentDirectory, "*" + ContentStore.FILE_SUFFIX)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to delete leftover content files in {}", contentDirectory, e);
+        }
+    }
+
+    /**
+     * @param version finish time of the analysis the index was built from, {@code null} for an index put by
+     *                an analysis on this node until the finish time is read
+     */
+    private record VersionedIndex(SymbolIndex index, Instant version) {
+        VersionedIndex {
+            Objects.requireNonNull(index);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.codeium.chatcodebase.service;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of the package, class and imported names of the files of a project, shared by the files of
+ * an analysis. Each distinct name is stored once and identified by a dense int id, so metadata holds ids
+ * and dependencies are resolved by id. Safe to use from several threads.
+ */
+public final class SymbolTable {
+    /**
+     * The id of no name, e.g. of an absent package.
+     */
+    public static final int NONE = -1;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[64];
+    private int size;
+
+    /**
+     * The id of the name, assigning the next id to a new name.
+     */
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : add(name);
+    }
+
+    /**
+     * The id of the name, or {@link #NONE} if it was never interned.
+     */
+    public int find(String name) {
+        Integer id = ids.get(name);
+        return id == null ? NONE : id;
+    }
+
+    public String name(int id) {
+        return id == NONE ? null : names[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized int add(String name) {
+        Integer existing = ids.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        int id = size++;
+        String[] current = names;
+        if (id == current.length) {
+            current = Arrays.copyOf(current, id * 2);
+        }
+        current[id] = name;
+        names = current;
+        // Published after the name, so whoever gets the id can read the name
+        ids.put(name, id);
+        return id;
+    }
+}
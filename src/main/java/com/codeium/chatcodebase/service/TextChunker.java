@@ -0,0 +1,163 @@
+package com.codeium.chatcodebase.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits text into overlapping chunks of about {@code chunkSize} tokens (four characters per token).
+ * Chunks are returned as offsets into the original text, so no intermediate strings are created.
+ * A chunk preferably ends after a closing brace, a statement, a blank line, a line or a sentence,
+ * searched within the last {@code chunkOverlap} tokens of the chunk.
+ * <p>
+ * {@link #pack} instead keeps syntactic units such as class members whole, and only falls back to
+ * splitting text for a unit that is larger than a chunk by itself.
+ */
+public final class TextChunker {
+    private static final String[] BOUNDARIES = {"\n}", ";\n", "\n\n", "\n", ". "};
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private final int chunkChars;
+    private final int overlapChars;
+
+    public TextChunker(int chunkSize, int chunkOverlap) {
+        this.chunkChars = Math.max(1, chunkSize * CHARS_PER_TOKEN);
+        this.overlapChars = Math.max(0, chunkOverlap * CHARS_PER_TOKEN);
+    }
+
+    public List<Span> split(CharSequence content) {
+        int length = content.length();
+        if (length <= chunkChars) {
+            return length == 0 ? List.of() : List.of(new Span(0, length));
+        }
+
+        List<Span> spans = new ArrayList<>(length / chunkChars + 2);
+        split(content, 0, length, spans);
+        return spans;
+    }
+
+    /**
+     * Packs consecutive units into chunks of at most {@code chunkSize} tokens without cutting a unit.
+     * Units that do not fit into a chunk on their own are split like plain text. Chunks produced by
+     * packing do not overlap.
+     *
+     * @param unitStarts ascending offsets at which a new unit starts; the text before the first offset
+     *                   is a unit of its own
+     */
+    public List<Span> pack(CharSequence content, int[] unitStarts) {
+        int length = content.length();
+        if (length <= chunkChars) {
+            return length == 0 ? List.of() : List.of(new Span(0, length));
+        }
+
+        List<Span> spans = new ArrayList<>(length / chunkChars + 2);
+        int chunkStart = 0;
+        int unitStart = 0;
+        for (int i = 0; i <= unitStarts.length; i++) {
+            int unitEnd = i < unitStarts.length ? Math.min(unitStarts[i], length) : length;
+            if (unitEnd <= unitStart) {
+                continue;
+            }
+            if (unitEnd - chunkStart > chunkChars) {
+                if (unitStart > chunkStart) {
+                    spans.add(new Span(chunkStart, unitStart));
+                    chunkStart = unitStart;
+                }
+                if (unitEnd - unitStart > chunkChars) {
+                    split(content, unitStart, unitEnd, spans);
+                    chunkStart = unitEnd;
+                }
+            }
+            unitStart = unitEnd;
+        }
+        if (length > chunkStart) {
+            spans.add(new Span(chunkStart, length));
+        }
+        return spans;
+    }
+
+    private void split(CharSequence content, int from, int to, List<Span> spans) {
+        int start = from;
+        while (to - start >= chunkChars) {
+            int end = findChunkEnd(content, start, to);
+            spans.add(new Span(start, end));
+            if (end >= to) {
+                return;
+            }
+            // Always make progress, even when the overlap is larger than the chunk
+            start = Math.max(start + 1, end - overlapChars);
+        }
+        spans.add(new Span(start, to));
+    }
+
+    /**
+     * Scans backwards once from the target end and returns the end of the highest ranked boundary, or
+     * the target end if there is no boundary within the overlap window.
+     */
+    private int findChunkEnd(CharSequence content, int start, int length) {
+        int targetEnd = Math.min(length, start + chunkChars);
+        int searchStart = Math.max(start, targetEnd - overlapChars);
+
+        int bestEnd = targetEnd;
+        int bestRank = BOUNDARIES.length;
+        for (int i = Math.min(targetEnd, length - 1); i >= searchStart && bestRank > 0; i--) {
+            for (int rank = 0; rank < bestRank; rank++) {
+                if (matchesAt(content, i, length, BOUNDARIES[rank])) {
+                    bestEnd = i + BOUNDARIES[rank].length();
+                    bestRank = rank;
+                    break;
+                }
+            }
+        }
+        return bestEnd;
+    }
+
+    private static boolean matchesAt(CharSequence content, int index, int length, String boundary) {
+        if (index + boundary.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < boundary.length(); i++) {
+            if (content.charAt(index + i) != boundary.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Offsets at which each line starts; {@code lineStarts[0]} is always 0.
+     */
+    public static int[] lineStarts(CharSequence content) {
+        int count = 1;
+        for (int i = 0; i < content.length(); i++) {
+            if (content.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        int[] starts = new int[count];
+        int line = 1;
+        for (int i = 0; i < content.length(); i++) {
+            if (content.charAt(i) == '\n') {
+                starts[line++] = i + 1;
+            }
+        }
+        return starts;
+    }
+
+    /**
+     * The 1-based line that contains {@code offset}.
+     */
+    public static int lineAt(int[] lineStarts, int offset) {
+        int index = Arrays.binarySearch(lineStarts, offset);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * A chunk from {@code start} (inclusive) to {@code end} (exclusive).
+     */
+    public record Span(int start, int end) {
+        public int length() {
+            return end - start;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.codeium.chatcodebase.service;
+
+/**
+ * How the embedded vector store encodes vectors for the candidate search. Quantized codes are a
+ * fraction of the size of the float vectors, so the codes and the graph stay in the page cache; the
+ * candidates are re-ranked with the float vectors, which are only read for a few nodes per search.
+ *
+ * <p>Stored by ordinal in the index header, so new modes must be appended.
+ */
+public enum VectorQuantization {
+    /**
+     * Candidates are searched with the float vectors.
+     */
+    NONE,
+    /**
+     * One signed byte per dimension, scaled by the largest component of the vector.
+     */
+    INT8,
+    /**
+     * One bit per dimension, the sign of the component; scored by Hamming distance.
+     */
+    BINARY;
+
+    /**
+     * Bytes per vector used by the candidate search.
+     */
+    public int codeBytes(int dimension) {
+        return switch (this) {
+            case NONE -> dimension * Float.BYTES;
+            case INT8 -> Float.BYTES + dimension;
+            case BINARY -> (dimension + Long.SIZE - 1) / Long.SIZE * Long.BYTES;
+        };
+    }
+}
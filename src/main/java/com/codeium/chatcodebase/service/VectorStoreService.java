@@ -10,136 +10,172 @@ import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 @Service
 @RequiredArgsConstructor
 @Getter
 public class VectorStoreService {
     private final VectorStore vectorStore;
+    private final ModelGate modelGate;
+    private final AnalysisMetrics metrics;
     private static final Logger log = LoggerFactory.getLogger(VectorStoreService.class);
 
     @Value("${spring.ai.vectorstore.max-tokens:8000}")
-    private int maxTokens;
+    private int maxTokens = 8000;
 
     @Value("${spring.ai.vectorstore.chunk-size:6000}")
-    private int chunkSize;
+    private int chunkSize = 6000;
 
     @Value("${spring.ai.vectorstore.chunk-overlap:500}")
-    private int chunkOverlap;
-
-    private static final int BUFFER_SIZE = 8192;
-
-    public void storeAstDocuments(List<AstService.AstDocument> documents) {
-        for (AstService.AstDocument doc : documents) {
-            try {
-                List<Document> chunks = generateEmbeddings(doc);
-                if (!chunks.isEmpty()) {
-                    vectorStore.add(chunks);
-                }
-            } catch (Exception e) {
-                log.error("Failed to process document: {}", doc.getFilePath(), e);
-            }
-        }
+    private int chunkOverlap = 500;
+
+    @Value("${spring.ai.vectorstore.chunking-mode:ast}")
+    private ChunkingMode chunkingMode = ChunkingMode.AST;
+
+    @Value("${spring.ai.vectorstore.max-in-flight-batches:4}")
+    private int maxInFlightBatches = 4;
+
+    /**
+     * Creates a batcher that stores chunks of many files in batches of at most {@code maxTokens} tokens,
+     * with up to {@code maxInFlightBatches} embedding requests of the project waiting for or holding a
+     * {@link ModelGate} permit.
+     */
+    public <T> EmbeddingBatcher<T> newBatcher(String projectId, EmbeddingBatcher.Listener<T> listener) {
+        return new EmbeddingBatcher<>(chunks -> storeBatch(projectId, chunks), maxTokens, maxInFlightBatches,
+            listener);
     }
 
-    private List<Document> generateEmbeddings(AstService.AstDocument doc) {
-        String content = doc.getRawContent();
-        if (content == null || content.isEmpty()) {
-            return List.of();
+    /**
+     * Stores a batch with a {@link ModelGate} permit and records how long it waited for the permit, how
+     * long the model server took to embed it and how long the rest of storing it took.
+     */
+    private void storeBatch(String projectId, List<Document> chunks) {
+        long requested = System.nanoTime();
+        try {
+            modelGate.bulk(projectId, () -> {
+                long admitted = System.nanoTime();
+                long modelBefore = MeteredEmbeddingModel.threadModelNanos();
+                storeChunks(chunks);
+                long modelNanos = MeteredEmbeddingModel.threadModelNanos() - modelBefore;
+                long storeNanos = System.nanoTime() - admitted;
+                int tokens = chunks.stream().mapToInt(EmbeddingBatcher::estimateTokens).sum();
+                metrics.batchStored(projectId, chunks.size(), tokens, admitted - requested, modelNanos,
+                    storeNanos - modelNanos);
+            });
+        } catch (RuntimeException e) {
+            metrics.batchFailed(projectId);
+            throw e;
         }
+    }
 
-        if (content.length() / 4 <= chunkSize) {
-            return List.of(convertToAiDocument(doc, content, 1, 1));
+    /**
+     * Embeds and stores already chunked documents.
+     */
+    private void storeChunks(List<Document> chunks) {
+        if (!chunks.isEmpty()) {
+            vectorStore.add(chunks);
         }
+    }
 
-        List<Document> documents = new ArrayList<>();
-        StringBuilder currentChunk = new StringBuilder(chunkSize * 4);
-        int chunkIndex = 1;
-        int totalChunks = estimateTotalChunks(content.length());
-
-        try (java.io.StringReader reader = new java.io.StringReader(content)) {
-            char[] buffer = new char[BUFFER_SIZE];
-            int bytesRead;
-
-            while ((bytesRead = reader.read(buffer)) != -1) {
-                currentChunk.append(buffer, 0, bytesRead);
-
-                while (currentChunk.length() >= chunkSize * 4) {
-                    int endIndex = findChunkEndIndex(currentChunk);
-                    documents.add(convertToAiDocument(
-                        doc,
-                        currentChunk.substring(0, endIndex),
-                        chunkIndex++,
-                        totalChunks
-                    ));
-
-                    if (endIndex < currentChunk.length()) {
-                        currentChunk.delete(0, Math.max(0, endIndex - (chunkOverlap * 4)));
-                    } else {
-                        currentChunk.setLength(0);
-                    }
-                }
+    /**
+     * Removes all chunks previously stored for the given files.
+     *
+     * @param chunkCounts number of stored chunks per file path
+     */
+    public void deleteFileChunks(String projectId, Map<String, Integer> chunkCounts) {
+        List<String> ids = new ArrayList<>();
+        chunkCounts.forEach((filePath, count) -> {
+            for (int chunkIndex = 1; chunkIndex <= count; chunkIndex++) {
+                ids.add(chunkId(projectId, filePath, chunkIndex));
             }
+        });
+        if (!ids.isEmpty()) {
+            vectorStore.delete(ids);
+            log.info("Deleted {} chunks of {} files for project: {}", ids.size(), chunkCounts.size(), projectId);
+        }
+    }
 
-            if (currentChunk.length() > 0) {
-                documents.add(convertToAiDocument(
-                    doc,
-                    currentChunk.toString(),
-                    chunkIndex,
-                    totalChunks
-                ));
-            }
-        } catch (java.io.IOException e) {
-            log.error("Failed to read content for file: {}", doc.getFilePath(), e);
+    /**
+     * Chunk ids are derived from project, file and chunk position so that stale chunks can be
+     * deleted without querying the vector store.
+     */
+    static String chunkId(String projectId, String filePath, int chunkIndex) {
+        String key = projectId + ':' + filePath + '#' + chunkIndex;
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Splits a document into chunks ready to be embedded. Chunks get stable ids when a project is given.
+     * In {@link ChunkingMode#AST} mode whole types and members are packed into chunks when the member
+     * offsets of the document are known.
+     */
+    public List<Document> chunkDocument(String projectId, AstService.AstDocument doc) {
+        String content = doc.getRawContent();
+        if (content == null || content.isEmpty()) {
             return List.of();
         }
 
+        List<TextChunker.Span> spans = splitDocument(doc);
+        int[] lineStarts = TextChunker.lineStarts(content);
+        String header = documentHeader(doc);
+        List<Document> documents = new ArrayList<>(spans.size());
+        for (int i = 0; i < spans.size(); i++) {
+            documents.add(convertToAiDocument(projectId, doc, header, content, lineStarts, spans.get(i),
+                i + 1, spans.size()));
+        }
         return documents;
     }
 
-    private int estimateTotalChunks(int contentLength) {
-        int chunkSizeInChars = chunkSize * 4;
-        return (contentLength + chunkSizeInChars - 1) / chunkSizeInChars;
+    List<TextChunker.Span> splitDocument(AstService.AstDocument doc) {
+        int[] memberOffsets = doc.getMemberOffsets();
+        return chunkingMode == ChunkingMode.AST && memberOffsets.length > 0
+            ? getChunker().pack(doc.getRawContent(), memberOffsets)
+            : getChunker().split(doc.getRawContent());
     }
 
-    private int findChunkEndIndex(StringBuilder content) {
-        int targetEnd = Math.min(content.length(), chunkSize * 4);
-        int searchStart = Math.max(0, targetEnd - (chunkOverlap * 4));
-
-        for (String boundary : new String[]{"\n}", ";\n", "\n\n", "\n", ". "}) {
-            int index = content.lastIndexOf(boundary, targetEnd);
-            if (index >= searchStart) {
-                return index + boundary.length();
-            }
-        }
+    public TextChunker getChunker() {
+        return new TextChunker(chunkSize, chunkOverlap);
+    }
 
-        return targetEnd;
+    /**
+     * The part of the embedded text that is the same for every chunk of a document.
+     */
+    String documentHeader(AstService.AstDocument doc) {
+        return "Package: " + doc.getMetadata().getPackageName() + '\n'
+            + "Classes: " + String.join(", ", doc.getMetadata().getClasses()) + '\n'
+            + "Methods: " + String.join(", ", doc.getMetadata().getMethods()) + '\n'
+            + "Content:\n";
     }
 
-    private Document convertToAiDocument(AstService.AstDocument doc, String chunkContent, int chunkIndex, int totalChunks) {
-        Map<String, Object> metadata = enhanceMetadata(doc, chunkIndex, totalChunks);
-
-        return new Document(
-            new StringBuilder(chunkContent.length() + 200)
-                .append("File: ").append(doc.getFilePath())
-                .append(" (").append(chunkIndex).append('/').append(totalChunks).append(")\n")
-                .append("Package: ").append(doc.getMetadata().getPackageName()).append('\n')
-                .append("Classes: ").append(String.join(", ", doc.getMetadata().getClasses())).append('\n')
-                .append("Methods: ").append(String.join(", ", doc.getMetadata().getMethods())).append('\n')
-                .append("Content:\n")
-                .append(chunkContent)
-                .append('\n')
-                .toString(),
-            metadata
-        );
+    Document convertToAiDocument(String projectId, AstService.AstDocument doc, String header, CharSequence content,
+                                 int[] lineStarts, TextChunker.Span span, int chunkIndex, int totalChunks) {
+        Map<String, Object> metadata = enhanceMetadata(projectId, doc, chunkIndex, totalChunks);
+        metadata.put("startLine", TextChunker.lineAt(lineStarts, span.start()));
+        metadata.put("endLine", TextChunker.lineAt(lineStarts, Math.max(span.start(), span.end() - 1)));
+        String text = new StringBuilder(doc.getFilePath().length() + header.length() + span.length() + 32)
+            .append("File: ").append(doc.getFilePath())
+            .append(" (").append(chunkIndex).append('/').append(totalChunks).append(")\n")
+            .append(header)
+            .append(content, span.start(), span.end())
+            .append('\n')
+            .toString();
+
+        return projectId == null
+            ? new Document(text, metadata)
+            : new Document(chunkId(projectId, doc.getFilePath(), chunkIndex), text, metadata);
     }
 
-    private Map<String, Object> enhanceMetadata(AstService.AstDocument doc, int chunkIndex, int totalChunks) {
+    Map<String, Object> enhanceMetadata(String projectId, AstService.AstDocument doc, int chunkIndex, int totalChunks) {
         Map<String, Object> metadata = new HashMap<>();
+        if (projectId != null) {
+            metadata.put(ProjectVectorPartitions.PROJECT_ID, projectId);
+        }
         metadata.put("filePath", doc.getFilePath());
         metadata.put("package", doc.getMetadata().getPackageName());
         metadata.put("classes", doc.getMetadata().getClasses());
@@ -151,13 +187,28 @@ public class VectorStoreService {
         return metadata;
     }
 
-    public List<Document> semanticSearch(String query) {
-       List<Document> foundDocuments = vectorStore.similaritySearch(SearchRequest.builder()
+    /**
+     * The {@code topK} most similar chunks of the project, or of all projects if none is given,
+     * without a similarity threshold.
+     */
+    public List<Document> semanticSearch(String projectId, String query, int topK) {
+        SearchRequest.Builder request = SearchRequest.builder()
                 .query(query)
-                .topK(10)
-                .similarityThreshold(0.8)
-                .build());
-        log.info("Found {} relevant documents for query: {}", foundDocuments, query);
-        return foundDocuments;
+                .topK(topK);
+        if (projectId != null) {
+            request.filterExpression(ProjectVectorPartitions.projectFilter(projectId));
+        }
+        return vectorStore.similaritySearch(request.build());
+    }
+
+    public enum ChunkingMode {
+        /**
+         * Chunks contain whole types and members; only members larger than a chunk are split.
+         */
+        AST,
+        /**
+         * Chunks are cut at textual boundaries with overlap.
+         */
+        TEXT
     }
 }
@@ -0,0 +1,46 @@
+-- Content hash of every indexed file, used to skip unchanged files on re-analysis
+CREATE TABLE IF NOT EXISTS file_manifest (
+    project_id   VARCHAR(255) NOT NULL,
+    file_path    TEXT         NOT NULL,
+    content_hash CHAR(64)     NOT NULL,
+    chunk_count  INT          NOT NULL,
+    updated_at   TIMESTAMP    NOT NULL DEFAULT now(),
+    PRIMARY KEY (project_id, file_path)
+);
+
+-- Embeddings keyed by a hash of model name and embedded text, shared by all projects
+CREATE TABLE IF NOT EXISTS embedding_cache (
+    cache_key    CHAR(64)     PRIMARY KEY,
+    model        VARCHAR(255) NOT NULL,
+    embedding    BYTEA        NOT NULL,
+    last_used_at TIMESTAMP    NOT NULL DEFAULT now()
+);
+CREATE INDEX IF NOT EXISTS embedding_cache_last_used_idx ON embedding_cache (last_used_at);
+
+-- Serialized file dependency graph of the last analysis of each project
+CREATE TABLE IF NOT EXISTS dependency_graph (
+    project_id VARCHAR(255) PRIMARY KEY,
+    node_count INT          NOT NULL,
+    edge_count INT          NOT NULL,
+    graph      BYTEA        NOT NULL,
+    updated_at TIMESTAMP    NOT NULL DEFAULT now()
+);
+
+-- Analysis job of each project. Files are checkpointed through file_manifest as they are stored; a
+-- RUNNING job whose owner stopped sending heartbeats is resumed by any node and skips those files.
+CREATE TABLE IF NOT EXISTS analysis_job (
+    project_id    VARCHAR(255) PRIMARY KEY,
+    state         VARCHAR(16)  NOT NULL,
+    step          VARCHAR(32)  NOT NULL,
+    progress      INT          NOT NULL DEFAULT 0,
+    updated_files INT          NOT NULL DEFAULT 0,
+    skipped_files INT          NOT NULL DEFAULT 0,
+    deleted_files INT          NOT NULL DEFAULT 0,
+    error         TEXT,
+    owner         VARCHAR(64)  NOT NULL,
+    started_at    TIMESTAMP    NOT NULL DEFAULT now(),
+    heartbeat_at  TIMESTAMP    NOT NULL DEFAULT now(),
+    finished_at   TIMESTAMP
+);
+-- When the last analysis finished; versions the chat caches of every node
+ALTER TABLE analysis_job ADD COLUMN IF NOT EXISTS finished_at TIMESTAMP;
@@ -0,0 +1,92 @@
+package com.codeium.chatcodebase.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AnalysisProgressTest {
+    private final CodeAnalysisOrchestrator.AnalysisStatus status = new CodeAnalysisOrchestrator.AnalysisStatus();
+
+    @Test
+    void changesAreCoalescedAndTheStreamEndsWithTheFinalProgress() throws Exception {
+        List<AnalysisProgress> events = new CopyOnWriteArrayList<>();
+        CountDownLatch ended = new CountDownLatch(1);
+        status.events(Duration.ofSeconds(10)).doFinally(signal -> ended.countDown()).subscribe(events::add);
+
+        for (int i = 0; i < 1000; i++) {
+            status.fileFetched();
+        }
+        status.fetchCompleted();
+        for (int i = 0; i < 999; i++) {
+            status.incrementSkippedFiles();
+        }
+        status.fileFailed("Broken.java", "parse error");
+        status.setSuccess(true);
+        status.complete();
+
+        assertThat(ended.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(events).hasSize(2);
+        assertThat(events.get(0).fetchedFiles()).isZero();
+        AnalysisProgress last = events.get(1);
+        assertThat(last.done()).isTrue();
+        assertThat(last.totalFiles()).isEqualTo(1000);
+        assertThat(last.skippedFiles()).isEqualTo(999);
+        assertThat(last.failedFiles()).isEqualTo(1);
+        assertThat(last.progress()).isEqualTo(80);
+        assertThat(last.etaSeconds()).isZero();
+        assertThat(last.newErrors()).containsExactly(new CodeAnalysisOrchestrator.FileError("Broken.java", "parse error"));
+    }
+
+    @Test
+    void vectorsAreBeingStoredOnceEveryFetchedFileIsParsed() {
+        status.setCurrentStep(CodeAnalysisOrchestrator.AnalysisStep.FETCHING_FILES);
+        status.fileFetched();
+        status.fileFetched();
+        status.fileParsed();
+        status.setCurrentStep(CodeAnalysisOrchestrator.AnalysisStep.PARSING_AST);
+        status.fetchCompleted();
+        assertThat(status.getCurrentStep()).isEqualTo(CodeAnalysisOrchestrator.AnalysisStep.PARSING_AST);
+
+        status.fileParsed();
+        assertThat(status.getCurrentStep()).isEqualTo(CodeAnalysisOrchestrator.AnalysisStep.STORING_VECTORS);
+    }
+
+    @Test
+    void theFetchEndingAfterTheLastParsedFileStartsStoring() {
+        status.fileFetched();
+        status.fileParsed();
+        status.setCurrentStep(CodeAnalysisOrchestrator.AnalysisStep.PARSING_AST);
+        status.fetchCompleted();
+
+        assertThat(status.getCurrentStep()).isEqualTo(CodeAnalysisOrchestrator.AnalysisStep.STORING_VECTORS);
+    }
+
+    @Test
+    void errorsAreSentOnceAndTheEtaFollowsTheThroughput() {
+        for (int i = 0; i < 4; i++) {
+            status.fileFetched();
+        }
+        status.fetchCompleted();
+        status.fileFailed("A.java", "failed");
+        status.incrementUpdatedFiles();
+        AtomicInteger sentErrors = new AtomicInteger();
+
+        AnalysisProgress first = status.toProgress(0, sentErrors);
+        status.fileFailed("B.java", "failed");
+        AnalysisProgress second = status.toProgress(0, sentErrors);
+
+        assertThat(first.newErrors()).extracting(CodeAnalysisOrchestrator.FileError::path).containsExactly("A.java");
+        assertThat(second.newErrors()).extracting(CodeAnalysisOrchestrator.FileError::path).containsExactly("B.java");
+        assertThat(second.errorCount()).isEqualTo(2);
+        assertThat(second.progress()).isEqualTo(65);
+        assertThat(second.etaSeconds()).isNotNull();
+        assertThat(second.done()).isFalse();
+    }
+}
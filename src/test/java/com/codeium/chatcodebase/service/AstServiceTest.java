@@ -0,0 +1,97 @@
+package com.codeium.chatcodebase.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AstServiceTest {
+    private static final String SOURCE = """
+        package com.example;
+
+        import java.util.List;
+
+        public record Order(String id, List<String> lines) {
+            /** Lines of the order. */
+            public int count() {
+                return lines.size();
+            }
+
+            @Deprecated
+            public static <T extends Comparable<T>> List<T>   sorted(List<T> values,
+                                                                   boolean reversed) throws IllegalStateException {
+                return values;
+            }
+
+            interface Visitor {
+                void visit(Order order);
+            }
+        }
+        """;
+
+    private final AstService astService = new AstService();
+
+    @Test
+    void declarationsModeReadsSignaturesFromTheSource() {
+        AstService.AstDocument doc = parse("src/main/java/com/example/Order.java", SOURCE);
+
+        assertThat(doc.getParseError()).isNull();
+        assertThat(doc.getMetadata().getPackageName()).isEqualTo("com.example");
+        assertThat(doc.getMetadata().getDependencies()).containsExactly("java.util.List");
+        assertThat(doc.getMetadata().getClasses()).containsExactly("Order", "Visitor");
+        assertThat(doc.getMetadata().getMethods()).containsExactly(
+            "public int count()",
+            "public static <T extends Comparable<T>> List<T> sorted(List<T> values, boolean reversed) throws IllegalStateException",
+            "void visit(Order order)");
+        assertThat(doc.getMemberOffsets()).contains(SOURCE.indexOf("    /** Lines"), SOURCE.indexOf("    @Deprecated"));
+    }
+
+    @Test
+    void onlyPackageClassAndImportNamesAreInterned() {
+        SymbolTable symbols = new SymbolTable();
+
+        AstService.AstDocument doc = astService.parseFile(
+            new GitLabService.CodeFile("src/main/java/com/example/Order.java", SOURCE, "100644"), symbols);
+
+        assertThat(doc.getMetadata().getSymbols()).isSameAs(symbols);
+        assertThat(symbols.find("com.example")).isNotEqualTo(SymbolTable.NONE);
+        assertThat(symbols.find("com.example.Order")).isNotEqualTo(SymbolTable.NONE);
+        assertThat(symbols.find("java.util.List")).isNotEqualTo(SymbolTable.NONE);
+        assertThat(symbols.find("public int count()")).isEqualTo(SymbolTable.NONE);
+        assertThat(symbols.size()).isEqualTo(4);
+    }
+
+    @Test
+    void fullModePrintsSignaturesFromTheAst() {
+        AstService fullService = new AstService(AstService.ParseMode.FULL);
+
+        AstService.AstDocument doc = fullService.parseFile(
+            new GitLabService.CodeFile("src/main/java/com/example/Order.java", SOURCE, "100644"));
+
+        assertThat(doc.getParseError()).isNull();
+        assertThat(doc.getMetadata().getMethods()).contains("public int count()");
+    }
+
+    @Test
+    void filesThatFailToParseAreKeptAsText() {
+        AstService.AstDocument broken = parse("src/Broken.java", "class Broken { void m( { }");
+        AstService.AstDocument kotlin = parse("src/App.kt", "fun main() = println(\"hi\")");
+
+        assertThat(broken.getParseError()).startsWith("Parse error");
+        assertThat(broken.getRawContent()).isEqualTo("class Broken { void m( { }");
+        assertThat(broken.getMemberOffsets()).isEmpty();
+        assertThat(kotlin.getParseError()).isNull();
+        assertThat(kotlin.getMetadata().getClasses()).isEmpty();
+        assertThat(astService.parseFiles(List.of(
+            new GitLabService.CodeFile("src/Broken.java", "class Broken {", "100644"),
+            new GitLabService.CodeFile("src/Ok.java", "class Ok {}", "100644"),
+            new GitLabService.CodeFile("README.md", "# Readme", "100644"))))
+            .extracting(AstService.AstDocument::getFilePath)
+            .containsExactly("src/Broken.java", "src/Ok.java");
+    }
+
+    private AstService.AstDocument parse(String path, String source) {
+        return astService.parseFile(new GitLabService.CodeFile(path, source, "100644"));
+    }
+}
@@ -0,0 +1,145 @@
+package com.codeium.chatcodebase.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CachingEmbeddingModelTest {
+    private final CountingEmbeddingModel delegate = new CountingEmbeddingModel();
+    private final CachingEmbeddingModel cachingModel =
+        new CachingEmbeddingModel(delegate, new InMemoryCacheRepository(), "test-model");
+
+    @Test
+    void cachedTextsAreNotEmbeddedAgain() {
+        List<float[]> first = cachingModel.embed(List.of("a", "bb"));
+        List<float[]> second = cachingModel.embed(List.of("bb", "ccc", "a"));
+
+        assertThat(delegate.embeddedTexts).containsExactly("a", "bb", "ccc");
+        assertThat(second.get(0)).isEqualTo(first.get(1));
+        assertThat(second.get(1)).containsExactly(3f);
+        assertThat(second.get(2)).isEqualTo(first.get(0));
+        assertThat(cachingModel.getStats()).isEqualTo(CacheStats.of(2, 3));
+    }
+
+    @Test
+    void duplicateTextsInOneRequestAreEmbeddedOnce() {
+        List<float[]> vectors = cachingModel.embed(List.of("a", "a"));
+
+        assertThat(delegate.embeddedTexts).containsExactly("a");
+        assertThat(vectors).hasSize(2);
+        assertThat(vectors.get(1)).isEqualTo(vectors.get(0));
+        assertThat(cachingModel.getStats()).isEqualTo(CacheStats.of(0, 2));
+
+        cachingModel.embed(List.of("a", "a", "b"));
+        assertThat(cachingModel.getStats()).isEqualTo(CacheStats.of(2, 3));
+    }
+
+    @Test
+    void onlyCacheMissesAreMetered() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CachingEmbeddingModel meteredCache = new CachingEmbeddingModel(
+            new MeteredEmbeddingModel(delegate, registry), new InMemoryCacheRepository(), "test-model");
+        long modelNanos = MeteredEmbeddingModel.threadModelNanos();
+
+        meteredCache.embed(List.of("a", "bb"));
+        meteredCache.embed(List.of("bb", "ccc"));
+
+        assertThat(registry.get("model.embedding.duration").timer().count()).isEqualTo(2);
+        assertThat(registry.get("model.embedding.texts").counter().count()).isEqualTo(3);
+        assertThat(MeteredEmbeddingModel.threadModelNanos()).isGreaterThan(modelNanos);
+    }
+
+    @Test
+    void evictionDeletesInBatchesUntilTheLimitIsReached() {
+        InMemoryCacheRepository repository = new InMemoryCacheRepository();
+        for (int i = 0; i < EmbeddingCacheEvictor.BATCH_SIZE * 2 + 10; i++) {
+            repository.entries.put("key-" + i, new float[]{i});
+        }
+        EmbeddingCacheEvictor evictor = new EmbeddingCacheEvictor(repository);
+        ReflectionTestUtils.setField(evictor, "maxEntries", 5L);
+
+        evictor.evict();
+
+        assertThat(repository.entries).hasSize(5);
+        assertThat(repository.evictions)
+            .containsExactly(EmbeddingCacheEvictor.BATCH_SIZE, EmbeddingCacheEvictor.BATCH_SIZE, 5);
+    }
+
+    @Test
+    void onlyQueriesAreKeptInTheQueryCache() {
+        QueryCachingEmbeddingModel queryModel = new QueryCachingEmbeddingModel(delegate, new TtlCache<>(10, 60_000));
+
+        queryModel.embed(List.of("chunk"));
+        queryModel.embed("chunk");
+        queryModel.embedQuery("query");
+        queryModel.embed("query");
+        queryModel.embedQuery("query");
+
+        assertThat(delegate.embeddedTexts).containsExactly("chunk", "chunk", "query");
+    }
+
+    private static class CountingEmbeddingModel implements EmbeddingModel {
+        private final List<String> embeddedTexts = new ArrayList<>();
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddedTexts.add(text);
+                embeddings.add(new Embedding(new float[]{text.length()}, embeddings.size()));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+    }
+
+    private static class InMemoryCacheRepository extends EmbeddingCacheRepository {
+        private final Map<String, float[]> entries = new HashMap<>();
+        private final List<Integer> evictions = new ArrayList<>();
+
+        InMemoryCacheRepository() {
+            super(null);
+        }
+
+        @Override
+        public Map<String, float[]> findAll(Collection<String> keys) {
+            Map<String, float[]> found = new HashMap<>();
+            keys.stream().filter(entries::containsKey).forEach(key -> found.put(key, entries.get(key)));
+            return found;
+        }
+
+        @Override
+        public void touch(Collection<String> keys) {
+        }
+
+        @Override
+        public void saveAll(String model, Map<String, float[]> embeddings) {
+            entries.putAll(embeddings);
+        }
+
+        @Override
+        public int evict(long maxEntries, int batchSize) {
+            int deleted = (int) Math.min(batchSize, Math.max(0, entries.size() - maxEntries));
+            entries.keySet().removeAll(entries.keySet().stream().limit(deleted).toList());
+            evictions.add(deleted);
+            return deleted;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.codeium.chatcodebase.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+class ChatServiceTest {
+    // Names a code element, so the query is not rewritten
+    private static final String QUERY = "How is the ChatCache invalidated?";
+    private static final List<Document> DOCUMENTS = List.of(
+        new Document("a", "class ChatCache {}", Map.of("filePath", "ChatCache.java", "startLine", 1, "endLine", 9)));
+
+    private final ModelGate gate = new ModelGate(1);
+
+    @Test
+    void sourcesAreMergedPerFileInRetrievalOrder() {
+        List<Document> documents = List.of(
+            new Document("b", Map.of("filePath", "B.java", "startLine", 40, "endLine", 60)),
+            new Document("a", Map.of("filePath", "A.java")),
+            new Document("b", Map.of("filePath", "B.java", "startLine", 1, "endLine", 20)),
+            new Document("unknown", Map.of()));
+
+        assertThat(ChatService.toSources(documents)).containsExactly(
+            new ChatService.Source("B.java", 1, 60),
+            new ChatService.Source("A.java", null, null));
+    }
+
+    @Test
+    void slowRewritesAreSkippedOnlyUntilTheEstimateHasDecayed() {
+        ChatModel model = prompt -> {
+            throw new UnsupportedOperationException();
+        };
+        ChatService chatService = new ChatService(model, newChatCache(), null, new SimpleMeterRegistry(),
+            new ModelGate(1), new AnalysisMetrics(new SimpleMeterRegistry()), 30_000, 15_000, 3_000);
+        for (int i = 0; i < 5; i++) {
+            chatService.recordRewrite(40_000);
+        }
+        assertThat(chatService.rewriteFits(chatService.newTimings())).isFalse();
+
+        int skipped = 1;
+        while (!chatService.rewriteFits(chatService.newTimings())) {
+            skipped++;
+        }
+
+        assertThat(skipped).isBetween(2, 10);
+    }
+
+    private static ChatCache newChatCache() {
+        return new ChatCache(new AnalysisJobRepository(null) {
+            @Override
+            public Optional<Instant> findFinishedAt(String projectId) {
+                return Optional.empty();
+            }
+        }, 10, 60, 10);
+    }
+
+    @Test
+    void streamSendsSourcesTokensTimingsAndDone() {
+        ChatService chatService = chatService(prompt -> Flux.just(response("Hel"), response(""), response("lo")));
+
+        List<ChatService.ChatEvent> events = chatService.streamWithContext(null, QUERY)
+            .collectList()
+            .block(Duration.ofSeconds(5));
+
+        assertThat(events).extracting(ChatService.ChatEvent::name)
+            .containsExactly("sources", "token", "token", "timings", "done");
+        assertThat(events.get(0).data()).isEqualTo(List.of(new ChatService.Source("ChatCache.java", 1, 9)));
+        assertThat(events).extracting(ChatService.ChatEvent::data)
+            .contains(Map.of("text", "Hel"), Map.of("text", "lo"));
+        assertThat((Map<?, ?>) events.get(3).data()).isNotEmpty();
+        assertThat(gate.getAvailable()).isEqualTo(1);
+    }
+
+    @Test
+    void streamEndsWithAnErrorEventWhenTheModelFails() {
+        ChatService chatService = chatService(prompt -> Flux.concat(
+            Flux.just(response("Hel")), Flux.error(new IllegalStateException("model unavailable"))));
+
+        List<ChatService.ChatEvent> events = chatService.streamWithContext(null, QUERY)
+            .collectList()
+            .block(Duration.ofSeconds(5));
+
+        assertThat(events).extracting(ChatService.ChatEvent::name).containsExactly("sources", "token", "error");
+        assertThat(((Map<?, ?>) events.get(2).data()).get("message")).asString().contains("model unavailable");
+        assertThat(gate.getAvailable()).isEqualTo(1);
+    }
+
+    @Test
+    void cancelledStreamReleasesItsPermit() throws InterruptedException {
+        ChatService chatService = chatService(prompt -> Flux.concat(Flux.just(response("Hel")), Flux.never()));
+        List<ChatService.ChatEvent> events = new CopyOnWriteArrayList<>();
+
+        Disposable subscription = chatService.streamWithContext(null, QUERY).subscribe(events::add);
+        awaitUntil(() -> events.size() == 2);
+        assertThat(gate.getAvailable()).isZero();
+
+        // What the controller does when the client disconnects
+        subscription.dispose();
+
+        awaitUntil(() -> gate.getAvailable() == 1);
+        assertThat(events).extracting(ChatService.ChatEvent::name).containsExactly("sources", "token");
+    }
+
+    private ChatService chatService(StreamingModel model) {
+        RetrievalService retrievalService = new RetrievalService(null, null, null, null) {
+            @Override
+            public List<Document> retrieve(String projectId, String query, ChatTimings timings) {
+                return DOCUMENTS;
+            }
+        };
+        return new ChatService(model, newChatCache(), retrievalService, new SimpleMeterRegistry(), gate,
+            new AnalysisMetrics(new SimpleMeterRegistry()), 30_000, 15_000, 3_000);
+    }
+
+    private static ChatResponse response(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out waiting for the stream");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * A chat model that only streams.
+     */
+    @FunctionalInterface
+    private interface StreamingModel extends ChatModel {
+        @Override
+        default ChatResponse call(Prompt prompt) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        Flux<ChatResponse> stream(Prompt prompt);
+    }
+}
@@ -0,0 +1,417 @@
+package com.codeium.chatcodebase.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CodeAnalysisOrchestratorTest {
+    private static final String PROJECT = "group/project";
+
+    @TempDir
+    Path directory;
+
+    private final InMemoryJobRepository jobs = new InMemoryJobRepository();
+    private final BlockingGitLabService gitLab = new BlockingGitLabService();
+    private final InMemoryManifestRepository manifest = new InMemoryManifestRepository();
+    private final Map<String, Integer> deletedChunks = new ConcurrentHashMap<>();
+    private final List<Document> embeddedChunks = new CopyOnWriteArrayList<>();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AnalysisMetrics metrics = new AnalysisMetrics(registry);
+    private final List<Thread> threads = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        gitLab.release.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+    }
+
+    @Test
+    void aSecondRequestJoinsTheRunningAnalysis() throws Exception {
+        CodeAnalysisOrchestrator node = orchestrator();
+        CodeAnalysisOrchestrator otherNode = orchestrator();
+        start(node);
+        assertThat(gitLab.fetching.await(5, TimeUnit.SECONDS)).isTrue();
+
+        node.analyzeRepository(PROJECT);
+        otherNode.analyzeRepository(PROJECT);
+
+        assertThat(gitLab.fetches).isEqualTo(1);
+        assertThat(node.isAnalysisRunning(PROJECT)).isTrue();
+        assertThat(otherNode.isAnalysisRunning(PROJECT)).isTrue();
+        assertThat(otherNode.deleteProject(PROJECT)).isFalse();
+    }
+
+    @Test
+    void anInterruptedAnalysisStaysRunningAndIsResumedOnceStale() throws Exception {
+        CodeAnalysisOrchestrator node = orchestrator();
+        CodeAnalysisOrchestrator otherNode = orchestrator();
+        Thread analysis = start(node);
+        assertThat(gitLab.fetching.await(5, TimeUnit.SECONDS)).isTrue();
+
+        analysis.interrupt();
+        analysis.join(5000);
+
+        assertThat(jobs.job.running()).isTrue();
+        assertThat(otherNode.findStaleAnalyses()).isEmpty();
+        jobs.now = jobs.now.plus(Duration.ofMinutes(2));
+        assertThat(otherNode.findStaleAnalyses()).containsExactly(PROJECT);
+        assertThat(jobs.claim(PROJECT, "other", Duration.ofMinutes(1))).isTrue();
+    }
+
+    @Test
+    void statusIsTheLocalOneWhileRunningAndTheJobsOtherwise() throws Exception {
+        CodeAnalysisOrchestrator node = orchestrator();
+        CodeAnalysisOrchestrator otherNode = orchestrator();
+        assertThat(otherNode.getAnalysisStatus(PROJECT).getCurrentStep())
+            .isEqualTo(CodeAnalysisOrchestrator.AnalysisStep.NOT_STARTED);
+        start(node);
+        assertThat(gitLab.fetching.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(node.getAnalysisStatus(PROJECT)).isSameAs(node.getRunningStatus(PROJECT).orElseThrow());
+        assertThat(otherNode.getRunningStatus(PROJECT)).isEmpty();
+
+        gitLab.failure = new IllegalStateException("Project not found");
+        gitLab.release.countDown();
+        threads.get(0).join(5000);
+
+        CodeAnalysisOrchestrator.AnalysisStatus failed = otherNode.getAnalysisStatus(PROJECT);
+        assertThat(failed.isSuccess()).isFalse();
+        assertThat(failed.getError()).isNotNull();
+        assertThat(jobs.job.running()).isFalse();
+        assertThat(otherNode.deleteProject(PROJECT)).isTrue();
+        assertThat(jobs.job).isNull();
+    }
+
+    @Test
+    void onlyAnalyzedProjectsAreUsedAsTagValues() throws Exception {
+        CodeAnalysisOrchestrator node = orchestrator();
+        assertThat(metrics.projectTag(PROJECT)).isEqualTo(AnalysisMetrics.UNKNOWN_PROJECT);
+        start(node);
+        assertThat(gitLab.fetching.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(metrics.projectTag(PROJECT)).isEqualTo(PROJECT);
+        assertThat(metrics.projectTag("group/other")).isEqualTo(AnalysisMetrics.UNKNOWN_PROJECT);
+        assertThat(metrics.projectTag(null)).isEqualTo(AnalysisMetrics.NO_PROJECT);
+
+        gitLab.release.countDown();
+        threads.get(0).join(5000);
+        metrics.fileChunked("group/other", 1);
+        assertThat(registry.find("gitlab.fetch.duration").tag("project", PROJECT).meters()).isNotEmpty();
+        assertThat(node.deleteProject(PROJECT)).isTrue();
+        assertThat(metrics.projectTag(PROJECT)).isEqualTo(AnalysisMetrics.UNKNOWN_PROJECT);
+        assertThat(registry.find("gitlab.fetch.duration").tag("project", PROJECT).meters()).isEmpty();
+        assertThat(registry.getMeters()).extracting(meter -> meter.getId().getTag("project")).doesNotContain(PROJECT)
+            .contains("group/other");
+    }
+
+    @Test
+    void theChunksOfAFileWhoseFetchFailedAreKept() throws Exception {
+        CodeAnalysisOrchestrator node = orchestrator();
+        manifest.entries.put("src/Main.java", new FileManifestRepository.FileState("hash", 3));
+        gitLab.failures = List.of(new GitLabService.FetchFailure("src/Main.java", "503 Service Unavailable"));
+        gitLab.release.countDown();
+
+        start(node).join(5000);
+
+        CodeAnalysisOrchestrator.AnalysisStatus status = node.getAnalysisStatus(PROJECT);
+        assertThat(status.isSuccess()).isTrue();
+        assertThat(status.getDeletedFiles()).isZero();
+        assertThat(manifest.entries).containsKey("src/Main.java");
+        assertThat(deletedChunks).isEmpty();
+    }
+
+    @Test
+    void onlyChangedFilesAreEmbeddedAndRemovedFilesAreDeleted() throws Exception {
+        CodeAnalysisOrchestrator node = orchestrator();
+        String unchanged = "package app;\n\nclass Same {\n}\n";
+        manifest.entries.put("src/Same.java", new FileManifestRepository.FileState(DigestUtils.sha256Hex(unchanged), 2));
+        manifest.entries.put("src/Changed.java", new FileManifestRepository.FileState("old hash", 3));
+        manifest.entries.put("src/Removed.java", new FileManifestRepository.FileState("removed hash", 4));
+        String changed = "package app;\n\nclass Changed {\n    int size() {\n        return 1;\n    }\n}\n";
+        gitLab.files = List.of(
+            new GitLabService.CodeFile("src/Same.java", unchanged, "100644"),
+            new GitLabService.CodeFile("src/Changed.java", changed, "100644"),
+            new GitLabService.CodeFile("src/New.java", "package app;\n\nclass New {\n}\n", "100644"));
+        gitLab.release.countDown();
+
+        start(node).join(5000);
+
+        CodeAnalysisOrchestrator.AnalysisStatus status = node.getAnalysisStatus(PROJECT);
+        assertThat(status.isSuccess()).isTrue();
+        assertThat(status.getSkippedFiles().get()).isEqualTo(1);
+        assertThat(status.getUpdatedFiles().get()).isEqualTo(2);
+        assertThat(status.getDeletedFiles()).isEqualTo(1);
+        assertThat(embeddedChunks).extracting(chunk -> chunk.getMetadata().get("filePath"))
+            .containsOnly("src/Changed.java", "src/New.java");
+        // Stale chunks are deleted by their previous count, unchanged files are left alone
+        assertThat(deletedChunks).containsExactlyInAnyOrderEntriesOf(
+            Map.of("src/Changed.java", 3, "src/Removed.java", 4));
+        assertThat(manifest.entries).containsOnlyKeys("src/Same.java", "src/Changed.java", "src/New.java");
+        assertThat(manifest.entries.get("src/Same.java"))
+            .isEqualTo(new FileManifestRepository.FileState(DigestUtils.sha256Hex(unchanged), 2));
+        assertThat(manifest.entries.get("src/Changed.java")).isEqualTo(new FileManifestRepository.FileState(
+            DigestUtils.sha256Hex(changed), chunkCount("src/Changed.java")));
+        assertThat(manifest.entries.get("src/New.java").chunkCount()).isEqualTo(chunkCount("src/New.java"));
+    }
+
+    private int chunkCount(String path) {
+        return (int) embeddedChunks.stream().filter(chunk -> path.equals(chunk.getMetadata().get("filePath"))).count();
+    }
+
+    private Thread start(CodeAnalysisOrchestrator orchestrator) {
+        Thread thread = Thread.ofPlatform().start(() -> {
+            try {
+                orchestrator.analyzeRepository(PROJECT);
+            } catch (CodeAnalysisOrchestrator.AnalysisException e) {
+                // Recorded in the job
+            }
+        });
+        threads.add(thread);
+        return thread;
+    }
+
+    private CodeAnalysisOrchestrator orchestrator() {
+        DependencyGraphStore graphStore = new DependencyGraphStore(new NoGraphRepository());
+        CodeAnalysisOrchestrator orchestrator = new CodeAnalysisOrchestrator(gitLab, new AstService(),
+            new VectorStoreService(null, null, null) {
+                @Override
+                public void deleteFileChunks(String projectId, Map<String, Integer> chunkCounts) {
+                    deletedChunks.putAll(chunkCounts);
+                }
+
+                @Override
+                public <T> EmbeddingBatcher<T> newBatcher(String projectId, EmbeddingBatcher.Listener<T> listener) {
+                    return new EmbeddingBatcher<>(embeddedChunks::addAll, 8_000, 1, listener);
+                }
+            }, new DependencyService(), manifest,
+            graphStore, new DependencyAnalyticsService(graphStore), new ChatCache(jobs, 10, 60, 10),
+            new SymbolIndexService(new NoPartitions(), jobs, new SimpleMeterRegistry(), directory.toString()),
+            new NoPartitions(), jobs,
+            metrics);
+        ReflectionTestUtils.setField(orchestrator, "staleAfterMillis", 60_000L);
+        ReflectionTestUtils.setField(orchestrator, "queueCapacity", 4);
+        ReflectionTestUtils.setField(orchestrator, "parseWorkers", 1);
+        ReflectionTestUtils.setField(orchestrator, "chunkWorkers", 1);
+        return orchestrator;
+    }
+
+    /**
+     * Blocks every fetch until released, then fails it if a failure is set, or else fetches the given
+     * files and reports the given file failures.
+     */
+    private static class BlockingGitLabService extends GitLabService {
+        final CountDownLatch fetching = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile RuntimeException failure;
+        volatile List<FetchFailure> failures = List.of();
+        volatile List<CodeFile> files = List.of();
+        volatile int fetches;
+
+        BlockingGitLabService() {
+            super(null);
+        }
+
+        @Override
+        public List<FetchFailure> fetchRepository(String projectIdOrPath, Consumer<CodeFile> sink) {
+            fetches++;
+            fetching.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted", e);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            files.forEach(sink);
+            return failures;
+        }
+    }
+
+    /**
+     * The job table of {@link AnalysisJobRepository} for one project, with a clock set by the test.
+     */
+    private static class InMemoryJobRepository extends AnalysisJobRepository {
+        volatile Instant now = Instant.now();
+        volatile Row job;
+
+        InMemoryJobRepository() {
+            super(null);
+        }
+
+        record Row(String state, String owner, Instant heartbeat, CodeAnalysisOrchestrator.AnalysisStatus status) {
+            boolean running() {
+                return state.equals("RUNNING");
+            }
+        }
+
+        @Override
+        public synchronized boolean claim(String projectId, String owner, Duration staleAfter) {
+            return claim(owner, staleAfter, "RUNNING");
+        }
+
+        @Override
+        public synchronized boolean claimDeletion(String projectId, String owner, Duration staleAfter) {
+            return claim(owner, staleAfter, "DELETING");
+        }
+
+        private boolean claim(String owner, Duration staleAfter, String state) {
+            if (job != null && (job.running() || job.state().equals("DELETING")) && !isStale(staleAfter)) {
+                return false;
+            }
+            job = new Row(state, owner, now, new CodeAnalysisOrchestrator.AnalysisStatus());
+            return true;
+        }
+
+        @Override
+        public synchronized void checkpoint(String projectId, String owner,
+                                            CodeAnalysisOrchestrator.AnalysisStatus status) {
+            if (job != null && job.owner().equals(owner) && job.running()) {
+                job = new Row(job.state(), owner, now, status);
+            }
+        }
+
+        @Override
+        public synchronized void finish(String projectId, String owner, CodeAnalysisOrchestrator.AnalysisStatus status) {
+            if (job != null && job.owner().equals(owner)) {
+                job = new Row(status.isSuccess() ? "COMPLETED" : "FAILED", owner, now,
+                    new CodeAnalysisOrchestrator.AnalysisStatus(status.getCurrentStep(), status.getProgress().get(),
+                        status.getError(), status.isSuccess()));
+            }
+        }
+
+        @Override
+        public synchronized Optional<Instant> findFinishedAt(String projectId) {
+            return job == null || job.running() || job.state().equals("DELETING")
+                ? Optional.empty() : Optional.of(job.heartbeat());
+        }
+
+        @Override
+        public synchronized Optional<Job> load(String projectId) {
+            return Optional.ofNullable(job).map(row -> new Job(row.owner(), row.running(), row.status()));
+        }
+
+        @Override
+        public synchronized List<String> findStale(Duration staleAfter) {
+            return job != null && job.running() && isStale(staleAfter) ? List.of(PROJECT) : List.of();
+        }
+
+        @Override
+        public synchronized boolean isRunning(String projectId, Duration staleAfter) {
+            return job != null && job.running() && !isStale(staleAfter);
+        }
+
+        @Override
+        public synchronized void delete(String projectId) {
+            job = null;
+        }
+
+        private boolean isStale(Duration staleAfter) {
+            return job.heartbeat().isBefore(now.minus(staleAfter));
+        }
+    }
+
+    /**
+     * The manifest of one project.
+     */
+    private static class InMemoryManifestRepository extends FileManifestRepository {
+        final Map<String, FileState> entries = new ConcurrentHashMap<>();
+
+        InMemoryManifestRepository() {
+            super(null);
+        }
+
+        @Override
+        public Map<String, FileState> load(String projectId) {
+            return new HashMap<>(entries);
+        }
+
+        @Override
+        public void saveAll(String projectId, Map<String, FileState> entries) {
+            this.entries.putAll(entries);
+        }
+
+        @Override
+        public void deleteAll(String projectId, Collection<String> paths) {
+            paths.forEach(entries::remove);
+        }
+
+        @Override
+        public void deleteProject(String projectId) {
+            entries.clear();
+        }
+    }
+
+    private static class NoGraphRepository extends DependencyGraphRepository {
+        NoGraphRepository() {
+            super(null);
+        }
+
+        @Override
+        public Optional<Instant> findUpdatedAt(String projectId) {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<DependencyGraph> load(String projectId) {
+            return Optional.empty();
+        }
+
+        @Override
+        public Instant save(String projectId, DependencyGraph graph) {
+            return Instant.now();
+        }
+
+        @Override
+        public void delete(String projectId) {
+        }
+    }
+
+    private static class NoPartitions implements ProjectVectorPartitions {
+        @Override
+        public int countChunks(String projectId) {
+            return 0;
+        }
+
+        @Override
+        public void assignProject(String projectId, List<String> chunkIds) {
+        }
+
+        @Override
+        public int deleteProject(String projectId) {
+            return 0;
+        }
+
+        @Override
+        public void updateProjectIndex(String projectId) {
+        }
+
+        @Override
+        public void forEachChunk(String projectId, Consumer<Document> chunks) {
+        }
+    }
+}
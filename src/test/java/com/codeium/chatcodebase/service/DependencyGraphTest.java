@@ -0,0 +1,215 @@
+package com.codeium.chatcodebase.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DependencyGraphTest {
+    private static final DependencyService.DependencyData DATA = new DependencyService.DependencyData(
+        List.of(
+            node("src/main/java/a/A.java"),
+            node("src/main/java/b/B.java"),
+            node("src/main/java/c/C.java"),
+            node("src/test/java/a/A.java")),
+        List.of(
+            link("src/main/java/a/A.java", "src/main/java/c/C.java"),
+            link("src/main/java/a/A.java", "src/main/java/b/B.java"),
+            link("src/main/java/b/B.java", "src/main/java/c/C.java"),
+            link("src/main/java/b/B.java", "src/main/java/missing/M.java")));
+
+    @Test
+    void looksUpDependenciesAndDependentsOfAFile() {
+        DependencyGraph graph = DependencyGraph.of(DATA);
+
+        assertThat(graph.nodeCount()).isEqualTo(4);
+        assertThat(graph.edgeCount()).isEqualTo(3);
+        int a = graph.resolve("src/main/java/a/A.java");
+        int c = graph.resolve("src/main/java/c/C.java");
+        assertThat(graph.dependencies(a)).containsExactly("src/main/java/b/B.java", "src/main/java/c/C.java");
+        assertThat(graph.dependents(a)).isEmpty();
+        assertThat(graph.dependents(c)).containsExactly("src/main/java/a/A.java", "src/main/java/b/B.java");
+    }
+
+    @Test
+    void resolvesUniquePathSuffixes() {
+        DependencyGraph graph = DependencyGraph.of(DATA);
+
+        assertThat(graph.path(graph.resolve("b/B.java"))).isEqualTo("src/main/java/b/B.java");
+        assertThat(graph.resolve("a/A.java")).isEqualTo(-1);
+        assertThat(graph.resolve("Unknown.java")).isEqualTo(-1);
+    }
+
+    @Test
+    void survivesSerialization() {
+        DependencyGraph graph = DependencyGraph.of(DATA);
+
+        DependencyGraph restored = DependencyGraph.fromBytes(graph.toBytes());
+
+        assertThat(restored.toData()).isEqualTo(graph.toData());
+        int c = restored.resolve("src/main/java/c/C.java");
+        assertThat(restored.dependents(c)).containsExactly("src/main/java/a/A.java", "src/main/java/b/B.java");
+    }
+
+    @Test
+    void traversesDependenciesAndDependentsUpToADepth() {
+        DependencyGraph graph = DependencyGraph.of(chain("A", "B", "C", "D"));
+
+        DependencyGraph.Traversal dependencies = graph.traverse(graph.resolve("A"), 2, false);
+        DependencyGraph.Traversal impact = graph.traverse(graph.resolve("D"), 10, true);
+
+        assertThat(dependencies.ids()).containsExactly(graph.resolve("B"), graph.resolve("C"));
+        assertThat(dependencies.depths()).containsExactly(1, 2);
+        assertThat(impact.ids()).containsExactly(graph.resolve("C"), graph.resolve("B"), graph.resolve("A"));
+        assertThat(impact.depths()).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    void findsCyclesAsStronglyConnectedComponents() {
+        // A -> B -> C -> A and D -> E -> D, with F only depending on the cycles
+        DependencyService.DependencyData data = new DependencyService.DependencyData(
+            List.of(node("A"), node("B"), node("C"), node("D"), node("E"), node("F")),
+            List.of(link("A", "B"), link("B", "C"), link("C", "A"), link("C", "D"),
+                link("D", "E"), link("E", "D"), link("F", "A")));
+        DependencyGraph graph = DependencyGraph.of(data);
+
+        List<int[]> cycles = graph.cycles();
+
+        assertThat(cycles).hasSize(2);
+        assertThat(cycles.get(0)).containsExactly(graph.resolve("A"), graph.resolve("B"), graph.resolve("C"));
+        assertThat(cycles.get(1)).containsExactly(graph.resolve("D"), graph.resolve("E"));
+    }
+
+    @Test
+    void cycleDetectionHandlesDeepGraphsWithoutRecursion() {
+        String[] files = new String[200_000];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = "F" + i;
+        }
+        DependencyGraph graph = DependencyGraph.of(chain(files));
+
+        assertThat(graph.cycles()).isEmpty();
+    }
+
+    @Test
+    void ranksFilesByFanInAndFanOut() {
+        DependencyGraph graph = DependencyGraph.of(DATA);
+
+        int[] mostDependents = graph.topByDegree(2, false);
+        int[] mostDependencies = graph.topByDegree(10, true);
+
+        assertThat(mostDependents).containsExactly(
+            graph.resolve("src/main/java/c/C.java"), graph.resolve("src/main/java/b/B.java"));
+        assertThat(mostDependencies).containsExactly(
+            graph.resolve("src/main/java/a/A.java"), graph.resolve("src/main/java/b/B.java"));
+        assertThat(graph.topByDegree(0, true)).isEmpty();
+    }
+
+    @Test
+    void storeLoadsAMissingGraphOnlyOnce() {
+        InMemoryGraphRepository repository = new InMemoryGraphRepository();
+        DependencyGraphStore store = new DependencyGraphStore(repository);
+
+        assertThat(store.get("group/project")).isNull();
+        assertThat(store.get("group/project")).isNull();
+        assertThat(repository.queries).isEqualTo(1);
+
+        DependencyGraph graph = DependencyGraph.of(DATA);
+        store.put("group/project", graph);
+        assertThat(store.get("group/project")).isSameAs(graph);
+        assertThat(repository.queries).isEqualTo(1);
+    }
+
+    @Test
+    void storeRevalidatesCachedGraphsAgainstOtherNodes() {
+        InMemoryGraphRepository repository = new InMemoryGraphRepository();
+        AtomicLong nanos = new AtomicLong();
+        DependencyGraphStore store = new DependencyGraphStore(repository, nanos::get);
+        DependencyGraph graph = DependencyGraph.of(DATA);
+        store.put("group/project", graph);
+
+        // Stored by another node
+        DependencyGraph reanalyzed = DependencyGraph.of(chain("src/A.java", "src/B.java"));
+        repository.save("group/project", reanalyzed);
+        assertThat(store.get("group/project")).isSameAs(graph);
+        nanos.addAndGet(Duration.ofSeconds(11).toNanos());
+        assertThat(store.get("group/project")).isSameAs(reanalyzed);
+        int queries = repository.queries;
+        assertThat(store.get("group/project")).isSameAs(reanalyzed);
+        assertThat(repository.queries).isEqualTo(queries);
+
+        // Unchanged graphs are not loaded again
+        nanos.addAndGet(Duration.ofSeconds(11).toNanos());
+        assertThat(store.get("group/project")).isSameAs(reanalyzed);
+        assertThat(repository.queries).isEqualTo(queries + 1);
+
+        // Removed by another node
+        repository.delete("group/project");
+        nanos.addAndGet(Duration.ofSeconds(11).toNanos());
+        assertThat(store.get("group/project")).isNull();
+    }
+
+    private static DependencyService.DependencyData chain(String... files) {
+        List<DependencyService.DependencyNode> nodes = new ArrayList<>();
+        List<DependencyService.DependencyLink> links = new ArrayList<>();
+        for (int i = 0; i < files.length; i++) {
+            nodes.add(node(files[i]));
+            if (i > 0) {
+                links.add(link(files[i - 1], files[i]));
+            }
+        }
+        return new DependencyService.DependencyData(nodes, links);
+    }
+
+    private static DependencyService.DependencyNode node(String path) {
+        return new DependencyService.DependencyNode(path, path.substring(path.lastIndexOf('/') + 1), "file", 20);
+    }
+
+    private static DependencyService.DependencyLink link(String source, String target) {
+        return new DependencyService.DependencyLink(source, target, 1);
+    }
+
+    /**
+     * The graph of one project, counting the queries that read it.
+     */
+    private static class InMemoryGraphRepository extends DependencyGraphRepository {
+        private DependencyGraph graph;
+        private Instant updatedAt;
+        private int queries;
+
+        InMemoryGraphRepository() {
+            super(null);
+        }
+
+        @Override
+        public Optional<Instant> findUpdatedAt(String projectId) {
+            queries++;
+            return Optional.ofNullable(updatedAt);
+        }
+
+        @Override
+        public Optional<DependencyGraph> load(String projectId) {
+            queries++;
+            return Optional.ofNullable(graph);
+        }
+
+        @Override
+        public Instant save(String projectId, DependencyGraph graph) {
+            this.graph = graph;
+            updatedAt = updatedAt == null ? Instant.EPOCH : updatedAt.plusMillis(1);
+            return updatedAt;
+        }
+
+        @Override
+        public void delete(String projectId) {
+            graph = null;
+            updatedAt = null;
+        }
+    }
+}
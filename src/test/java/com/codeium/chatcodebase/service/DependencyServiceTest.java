@@ -0,0 +1,47 @@
+package com.codeium.chatcodebase.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DependencyServiceTest {
+    private final DependencyService dependencyService = new DependencyService();
+
+    @Test
+    void importsAreResolvedToTheFilesDeclaringTheClasses() {
+        SymbolTable symbols = new SymbolTable();
+        AstService.AstDocument order = document(symbols, "src/Order.java", "com.shop", List.of("Order", "Line"),
+            List.of("java.util.List", "com.shop.Customer", "com.shop.Customer", "com.shop.Line"));
+        AstService.AstDocument customer = document(symbols, "src/Customer.java", "com.shop", List.of("Customer"),
+            List.of("com.shop.Order"));
+
+        DependencyService.DependencyData data = dependencyService.analyzeDependencies(List.of(order, customer));
+
+        assertThat(data.nodes()).extracting(DependencyService.DependencyNode::id)
+            .containsExactly("src/Order.java", "src/Customer.java");
+        assertThat(data.links()).containsExactly(
+            new DependencyService.DependencyLink("src/Order.java", "src/Customer.java", 1),
+            new DependencyService.DependencyLink("src/Customer.java", "src/Order.java", 1));
+    }
+
+    @Test
+    void documentsWithTheirOwnSymbolTablesAreResolvedByName() {
+        DependencyService.Collector collector = dependencyService.newCollector();
+        collector.accept(document(new SymbolTable(), "src/A.java", "com.example", List.of("A"), List.of("com.example.B")));
+        collector.accept(document(new SymbolTable(), "src/B.java", "com.example", List.of("B"), List.of()));
+
+        assertThat(collector.build().links()).containsExactly(
+            new DependencyService.DependencyLink("src/A.java", "src/B.java", 1));
+    }
+
+    private static AstService.AstDocument document(SymbolTable symbols, String path, String packageName,
+                                                   List<String> classes, List<String> imports) {
+        AstService.AstMetadata metadata = new AstService.AstMetadata(symbols);
+        metadata.setPackageName(packageName);
+        classes.forEach(metadata::addClass);
+        imports.forEach(metadata::addDependency);
+        return new AstService.AstDocument(path, "class " + classes.get(0) + " {}", metadata);
+    }
+}
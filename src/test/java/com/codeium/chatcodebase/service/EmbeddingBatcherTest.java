@@ -0,0 +1,172 @@
+package com.codeium.chatcodebase.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EmbeddingBatcherTest {
+    private final List<List<String>> storedBatches = new CopyOnWriteArrayList<>();
+    private final Map<String, Integer> storedFiles = new ConcurrentHashMap<>();
+    private final Map<String, Exception> failedFiles = new ConcurrentHashMap<>();
+
+    private final EmbeddingBatcher.Listener<String> listener = new EmbeddingBatcher.Listener<>() {
+        @Override
+        public void fileStored(String file, int chunkCount) {
+            storedFiles.put(file, chunkCount);
+        }
+
+        @Override
+        public void fileFailed(String file, Exception cause) {
+            failedFiles.put(file, cause);
+        }
+    };
+
+    @Test
+    void chunksOfSeveralFilesShareABatch() throws InterruptedException {
+        EmbeddingBatcher<String> batcher = new EmbeddingBatcher<>(this::store, 100, 2, listener);
+
+        batcher.add("A.java", List.of(chunk("a1", 40)));
+        batcher.add("B.java", List.of(chunk("b1", 40), chunk("b2", 40)));
+        batcher.add("C.java", List.of());
+        batcher.flush();
+
+        assertThat(storedBatches).containsExactlyInAnyOrder(List.of("a1", "b1"), List.of("b2"));
+        assertThat(storedFiles).containsExactlyInAnyOrderEntriesOf(Map.of("A.java", 1, "B.java", 2, "C.java", 0));
+        assertThat(failedFiles).isEmpty();
+    }
+
+    @Test
+    void failedBatchIsSplitSoOnlyTheBadFileFails() throws InterruptedException {
+        EmbeddingBatcher<String> batcher = new EmbeddingBatcher<>(this::store, 1_000, 1, listener);
+
+        batcher.add("A.java", List.of(chunk("a1", 10), chunk("a2", 10)));
+        batcher.add("Bad.java", List.of(chunk("bad", 10)));
+        batcher.add("C.java", List.of(chunk("c1", 10)));
+        batcher.flush();
+
+        assertThat(storedFiles).containsOnlyKeys("A.java", "C.java");
+        assertThat(failedFiles).containsOnlyKeys("Bad.java");
+        assertThat(storedBatches).flatExtracting(batch -> batch).containsExactlyInAnyOrder("a1", "a2", "c1");
+    }
+
+    @Test
+    void unreachableModelFailsTheBatchOnceAndAbortsTheBatcher() throws InterruptedException {
+        AtomicInteger requests = new AtomicInteger();
+        EmbeddingBatcher<String> batcher = new EmbeddingBatcher<>(chunks -> {
+            requests.incrementAndGet();
+            throw new ResourceAccessException("Connection refused");
+        }, 30, 1, listener);
+
+        batcher.add("A.java", List.of(chunk("a1", 10), chunk("a2", 10)));
+        batcher.add("B.java", List.of(chunk("b1", 10), chunk("b2", 10)));
+
+        assertThatThrownBy(batcher::flush)
+            .isInstanceOf(EmbeddingBatcher.BatcherAbortedException.class)
+            .hasCauseInstanceOf(ResourceAccessException.class);
+        assertThatThrownBy(() -> batcher.add("C.java", List.of(chunk("c1", 10))))
+            .isInstanceOf(EmbeddingBatcher.BatcherAbortedException.class);
+        batcher.close();
+
+        // The batch of a1, a2 and b1 was sent once; b2 failed without a request
+        assertThat(requests).hasValue(1);
+        assertThat(storedFiles).isEmpty();
+        assertThat(failedFiles).containsOnlyKeys("A.java", "B.java");
+    }
+
+    @Test
+    void missingModelFailsTheBatchOnceAndAbortsTheBatcher() throws InterruptedException {
+        AtomicInteger requests = new AtomicInteger();
+        EmbeddingBatcher<String> batcher = new EmbeddingBatcher<>(chunks -> {
+            requests.incrementAndGet();
+            throw new NonTransientAiException("404 - model \"nomic-embed-text\" not found, try pulling it first");
+        }, 1_000, 1, listener);
+
+        batcher.add("A.java", List.of(chunk("a1", 10), chunk("a2", 10)));
+        batcher.add("B.java", List.of(chunk("b1", 10)));
+
+        assertThatThrownBy(batcher::flush)
+            .isInstanceOf(EmbeddingBatcher.BatcherAbortedException.class)
+            .hasCauseInstanceOf(NonTransientAiException.class);
+        batcher.close();
+
+        assertThat(requests).hasValue(1);
+        assertThat(failedFiles).containsOnlyKeys("A.java", "B.java");
+    }
+
+    @Test
+    void throttledBatchIsRetriedWithoutSplitting() throws InterruptedException {
+        AtomicInteger requests = new AtomicInteger();
+        EmbeddingBatcher<String> batcher = new EmbeddingBatcher<>(chunks -> {
+            if (requests.incrementAndGet() < 3) {
+                throw new NonTransientAiException("429 - server busy, please try again");
+            }
+            store(chunks);
+        }, 1_000, 1, listener, 1);
+
+        batcher.add("A.java", List.of(chunk("a1", 10), chunk("a2", 10)));
+        batcher.flush();
+
+        assertThat(requests).hasValue(3);
+        assertThat(storedBatches).containsExactly(List.of("a1", "a2"));
+        assertThat(storedFiles).containsOnlyKeys("A.java");
+    }
+
+    @Test
+    void onlyRejectedInputsAreSplit() {
+        assertThat(EmbeddingBatcher.classify(new NonTransientAiException("400 - input too long")))
+            .isEqualTo(EmbeddingBatcher.Failure.INPUT);
+        assertThat(EmbeddingBatcher.classify(HttpClientErrorException.create(HttpStatus.PAYLOAD_TOO_LARGE,
+            "Payload Too Large", HttpHeaders.EMPTY, new byte[0], null))).isEqualTo(EmbeddingBatcher.Failure.INPUT);
+        assertThat(EmbeddingBatcher.classify(
+            new IllegalStateException("input length exceeds maximum context length")))
+            .isEqualTo(EmbeddingBatcher.Failure.INPUT);
+        assertThat(EmbeddingBatcher.classify(new NonTransientAiException("429 - too many requests")))
+            .isEqualTo(EmbeddingBatcher.Failure.THROTTLED);
+        assertThat(EmbeddingBatcher.classify(new NonTransientAiException("404 - model not found")))
+            .isEqualTo(EmbeddingBatcher.Failure.FATAL);
+        assertThat(EmbeddingBatcher.classify(HttpClientErrorException.create(HttpStatus.FORBIDDEN,
+            "Forbidden", HttpHeaders.EMPTY, new byte[0], null))).isEqualTo(EmbeddingBatcher.Failure.FATAL);
+        assertThat(EmbeddingBatcher.classify(new ResourceAccessException("Connection refused")))
+            .isEqualTo(EmbeddingBatcher.Failure.FATAL);
+        assertThat(EmbeddingBatcher.classify(new ModelGate.GateInterruptedException(new InterruptedException())))
+            .isEqualTo(EmbeddingBatcher.Failure.FATAL);
+    }
+
+    @Test
+    void closingWithoutAFlushDiscardsThePartialBatch() throws InterruptedException {
+        EmbeddingBatcher<String> batcher = new EmbeddingBatcher<>(this::store, 100, 1, listener);
+
+        batcher.add("A.java", List.of(chunk("a1", 60)));
+        batcher.add("B.java", List.of(chunk("b1", 60)));
+        batcher.close();
+
+        assertThat(storedBatches).containsExactly(List.of("a1"));
+        assertThat(storedFiles).containsOnlyKeys("A.java");
+        assertThat(failedFiles).isEmpty();
+    }
+
+    private void store(List<Document> chunks) {
+        List<String> ids = chunks.stream().map(Document::getId).toList();
+        if (ids.contains("bad")) {
+            throw new NonTransientAiException("400 - input length exceeds maximum context length");
+        }
+        storedBatches.add(ids);
+    }
+
+    private Document chunk(String id, int tokens) {
+        return new Document(id, "x".repeat(tokens * 4 - 4), Map.of());
+    }
+}
@@ -0,0 +1,196 @@
+package com.codeium.chatcodebase.service;
+
+import org.gitlab4j.api.GitLabApiException;
+import org.gitlab4j.api.models.TreeItem;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GitLabServiceTest {
+    private final GitLabService gitLabService = new GitLabService(null); // archive reading needs no API access
+
+    @Test
+    void readArchiveStreamsSupportedEntries() throws IOException {
+        List<GitLabService.CodeFile> files = new ArrayList<>();
+
+        int count = gitLabService.readArchive(new ByteArrayInputStream(createArchive()), files::add);
+
+        assertThat(count).isEqualTo(2);
+        assertThat(files)
+            .extracting(GitLabService.CodeFile::path)
+            .containsExactly("src/main/java/App.java", "README.md");
+        assertThat(files.get(0).content()).isEqualTo("class App {}");
+    }
+
+    @Test
+    void withRetryRetriesRateLimitedCalls() throws Exception {
+        ReflectionTestUtils.setField(gitLabService, "initialBackoffMillis", 1L);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = gitLabService.withRetry("file", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new GitLabApiException("Too Many Requests", 429);
+            }
+            return "content";
+        });
+
+        assertThat(result).isEqualTo("content");
+        assertThat(attempts).hasValue(3);
+    }
+
+    @Test
+    void withRetryDoesNotRetryClientErrors() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> gitLabService.withRetry("file", () -> {
+            attempts.incrementAndGet();
+            throw new GitLabApiException("Not Found", 404);
+        })).isInstanceOf(GitLabApiException.class);
+        assertThat(attempts).hasValue(1);
+    }
+
+    @Test
+    void withRetryGivesUpAfterMaxAttempts() {
+        ReflectionTestUtils.setField(gitLabService, "initialBackoffMillis", 1L);
+        ReflectionTestUtils.setField(gitLabService, "maxAttempts", 2);
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> gitLabService.withRetry("file", () -> {
+            attempts.incrementAndGet();
+            throw new GitLabApiException("Service Unavailable", 503);
+        })).isInstanceOf(GitLabApiException.class);
+        assertThat(attempts).hasValue(2);
+    }
+
+    @Test
+    void processTreeNodesHoldsPermitsUntilTheSinkTakesTheFile() throws Exception {
+        AtomicInteger fetched = new AtomicInteger();
+        GitLabService service = new GitLabService(null) {
+            @Override
+            CodeFile processFile(String projectId, String branch, TreeItem node) {
+                fetched.incrementAndGet();
+                return new CodeFile(node.getPath(), "class A {}", null);
+            }
+        };
+        ReflectionTestUtils.setField(service, "fetchConcurrency", 2);
+        CountDownLatch blocked = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        List<TreeItem> nodes = List.of(blob("A.java"), blob("B.java"), blob("C.java"), blob("D.java"));
+
+        Thread fetch = Thread.ofVirtual().start(() -> service.processTreeNodes("project", "main", nodes, file -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        assertThat(blocked.await(5, TimeUnit.SECONDS)).isTrue();
+        Thread.sleep(50);
+
+        assertThat(fetched).hasValue(2);
+        release.countDown();
+        fetch.join(5000);
+        assertThat(fetched).hasValue(4);
+    }
+
+    @Test
+    void processTreeNodesReportsMissingFilesAndUnexpectedErrors() {
+        GitLabService service = new GitLabService(null) {
+            @Override
+            CodeFile processFile(String projectId, String branch, TreeItem node) {
+                return switch (node.getPath()) {
+                    case "Missing.java" -> throw new RepositoryFetchException("File not found", null);
+                    case "Broken.java" -> throw new IllegalStateException("Malformed response");
+                    default -> new CodeFile(node.getPath(), "class A {}", null);
+                };
+            }
+        };
+        List<GitLabService.CodeFile> files = new ArrayList<>();
+
+        List<GitLabService.FetchFailure> failures = service.processTreeNodes("project", "main",
+            List.of(blob("A.java"), blob("Missing.java"), blob("Broken.java")), files::add);
+
+        assertThat(files).extracting(GitLabService.CodeFile::path).containsExactly("A.java");
+        assertThat(failures).containsExactlyInAnyOrder(
+            new GitLabService.FetchFailure("Missing.java", "File not found"),
+            new GitLabService.FetchFailure("Broken.java", "Malformed response"));
+    }
+
+    @Test
+    void processTreeNodesFetchesEveryFileFromTheGivenBranch() {
+        List<String> branches = new CopyOnWriteArrayList<>();
+        GitLabService service = new GitLabService(null) {
+            @Override
+            CodeFile processFile(String projectId, String branch, TreeItem node) {
+                branches.add(projectId + "@" + branch);
+                return new CodeFile(node.getPath(), "class A {}", null);
+            }
+        };
+
+        service.processTreeNodes("a", "develop", List.of(blob("A.java"), blob("B.java")), file -> {});
+        service.processTreeNodes("b", "main", List.of(blob("C.java")), file -> {});
+
+        assertThat(branches).containsExactlyInAnyOrder("a@develop", "a@develop", "b@main");
+    }
+
+    @Test
+    void processTreeNodesReportsExceptionsOfTheSink() {
+        GitLabService service = new GitLabService(null) {
+            @Override
+            CodeFile processFile(String projectId, String branch, TreeItem node) {
+                return new CodeFile(node.getPath(), "class A {}", null);
+            }
+        };
+
+        List<GitLabService.FetchFailure> failures = service.processTreeNodes("project", "main",
+            List.of(blob("A.java")), file -> {
+                throw new IllegalStateException("Queue closed");
+            });
+
+        assertThat(failures).containsExactly(new GitLabService.FetchFailure("A.java", "Queue closed"));
+    }
+
+    private static TreeItem blob(String path) {
+        TreeItem item = new TreeItem();
+        item.setPath(path);
+        item.setType(TreeItem.Type.BLOB);
+        return item;
+    }
+
+    private byte[] createArchive() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            addEntry(zip, "repo-main-abc123/", null);
+            addEntry(zip, "repo-main-abc123/src/main/java/App.java", "class App {}");
+            addEntry(zip, "repo-main-abc123/src/test/java/AppTest.java", "class AppTest {}");
+            addEntry(zip, "repo-main-abc123/logo.png", "binary");
+            addEntry(zip, "repo-main-abc123/big.txt", "x".repeat(100_001));
+            addEntry(zip, "repo-main-abc123/README.md", "# Repo");
+        }
+        return out.toByteArray();
+    }
+
+    private void addEntry(ZipOutputStream zip, String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        if (content != null) {
+            zip.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        zip.closeEntry();
+    }
+}
@@ -0,0 +1,167 @@
+package com.codeium.chatcodebase.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswIndexTest {
+    private static final int DIMENSION = 32;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void approximateSearchFindsMostExactNeighbors() throws Exception {
+        Random random = new Random(7);
+        try (HnswIndex index = HnswIndex.open(directory, DIMENSION, 8, 64)) {
+            for (int i = 0; i < 3000; i++) {
+                index.add(randomVector(random));
+            }
+
+            int found = 0;
+            for (int q = 0; q < 50; q++) {
+                float[] query = randomVector(random);
+                int[] exact = index.exactSearch(query, 10, node -> true).nodes();
+                int[] approximate = index.search(query, 10, 64, node -> true).nodes();
+                found += (int) Arrays.stream(approximate).filter(node -> contains(exact, node)).count();
+            }
+            assertThat(found / 500.0).isGreaterThan(0.9);
+        }
+    }
+
+    @Test
+    void resultsAreOrderedAndExcludeDeletedAndRejectedNodes() throws Exception {
+        Random random = new Random(11);
+        try (HnswIndex index = HnswIndex.open(directory, DIMENSION, 8, 64)) {
+            for (int i = 0; i < 500; i++) {
+                index.add(randomVector(random));
+            }
+            float[] query = index.vector(42);
+            assertThat(index.search(query, 1, 32, node -> true).nodes()).containsExactly(42);
+
+            index.delete(42);
+            HnswIndex.Neighbors neighbors = index.search(query, 10, 32, node -> node % 2 == 0);
+
+            assertThat(neighbors.nodes()).hasSize(10).doesNotContain(42);
+            assertThat(Arrays.stream(neighbors.nodes()).allMatch(node -> node % 2 == 0)).isTrue();
+            for (int i = 1; i < neighbors.scores().length; i++) {
+                assertThat(neighbors.scores()[i]).isLessThanOrEqualTo(neighbors.scores()[i - 1]);
+            }
+            assertThat(index.liveCount()).isEqualTo(499);
+        }
+    }
+
+    @Test
+    void indexIsRestoredFromItsFiles() throws Exception {
+        Random random = new Random(13);
+        float[][] vectors = new float[300][];
+        try (HnswIndex index = HnswIndex.open(directory, DIMENSION, 8, 64)) {
+            for (int i = 0; i < vectors.length; i++) {
+                vectors[i] = randomVector(random);
+                index.add(vectors[i]);
+            }
+            index.delete(7);
+        }
+
+        // The dimension of an existing index is kept
+        try (HnswIndex index = HnswIndex.open(directory, 768, 16, 100)) {
+            assertThat(index.dimension()).isEqualTo(DIMENSION);
+            assertThat(index.size()).isEqualTo(300);
+            assertThat(index.isDeleted(7)).isTrue();
+            assertThat(index.search(vectors[123], 1, 32, node -> true).nodes()).containsExactly(123);
+
+            index.add(randomVector(random));
+            assertThat(index.size()).isEqualTo(301);
+        }
+    }
+
+    @Test
+    void quantizedSearchReranksCandidatesWithFloatVectors() throws Exception {
+        Random random = new Random(17);
+        try (HnswIndex index = HnswIndex.open(directory, DIMENSION, 8, 64, VectorQuantization.INT8)) {
+            for (int i = 0; i < 2000; i++) {
+                index.add(randomVector(random));
+            }
+
+            int found = 0;
+            for (int q = 0; q < 50; q++) {
+                float[] query = randomVector(random);
+                HnswIndex.Neighbors exact = index.exactSearch(query, 10, node -> true);
+                HnswIndex.Neighbors approximate = index.search(query, 10, 64, node -> true);
+                found += (int) Arrays.stream(approximate.nodes()).filter(node -> contains(exact.nodes(), node)).count();
+                if (approximate.nodes()[0] == exact.nodes()[0]) {
+                    assertThat(approximate.scores()[0]).isEqualTo(exact.scores()[0]);
+                }
+            }
+            assertThat(found / 500.0).isGreaterThan(0.9);
+        }
+    }
+
+    @Test
+    void quantizationIsSwitchedWithoutRebuildingTheGraph() throws Exception {
+        Random random = new Random(19);
+        try (HnswIndex index = HnswIndex.open(directory, DIMENSION, 8, 64)) {
+            for (int i = 0; i < 500; i++) {
+                index.add(randomVector(random));
+            }
+            index.quantize(VectorQuantization.BINARY);
+            assertThat(index.search(index.vector(42), 1, 32, node -> true).nodes()).containsExactly(42);
+            index.add(randomVector(random));
+        }
+
+        try (HnswIndex index = HnswIndex.open(directory, DIMENSION, 8, 64, VectorQuantization.NONE)) {
+            assertThat(index.quantization()).isEqualTo(VectorQuantization.BINARY);
+            assertThat(index.search(index.vector(500), 1, 32, node -> true).nodes()).containsExactly(500);
+
+            index.quantize(VectorQuantization.NONE);
+            assertThat(directory.resolve("codes-binary.bin")).doesNotExist();
+            assertThat(index.search(index.vector(42), 1, 32, node -> true).nodes()).containsExactly(42);
+        }
+    }
+
+    @Test
+    void evaluationReportsRecallOfEveryQuantization() throws Exception {
+        Random random = new Random(23);
+        try (HnswIndex index = HnswIndex.open(directory, DIMENSION, 8, 64)) {
+            for (int i = 0; i < 2000; i++) {
+                index.add(randomVector(random));
+            }
+            index.delete(3);
+
+            RecallReport report = index.evaluate(20, 10, 64, 1);
+
+            assertThat(report.quantization()).isEqualTo(VectorQuantization.NONE);
+            assertThat(report.chunks()).isEqualTo(1999);
+            assertThat(report.queries()).isEqualTo(20);
+            assertThat(report.recall()).isGreaterThan(0.9);
+            assertThat(report.quantizations()).extracting(RecallReport.QuantizationRecall::quantization)
+                .containsExactly(VectorQuantization.NONE, VectorQuantization.INT8, VectorQuantization.BINARY);
+            assertThat(report.quantizations()).extracting(RecallReport.QuantizationRecall::bytesPerVector)
+                .containsExactly(128, 36, 8);
+            assertThat(report.quantizations().get(0).recall()).isEqualTo(1.0);
+            assertThat(report.quantizations().get(1).recall()).isGreaterThan(0.9);
+            // 64 random candidates would hold about 3% of the neighbors; re-ranking more candidates finds more
+            double binaryRecall = report.quantizations().get(2).recall();
+            assertThat(binaryRecall).isGreaterThan(0.4);
+            assertThat(index.evaluate(20, 10, 256, 1).quantizations().get(2).recall())
+                .isGreaterThan(Math.max(binaryRecall, 0.75));
+        }
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static boolean contains(int[] nodes, int node) {
+        return Arrays.stream(nodes).anyMatch(candidate -> candidate == node);
+    }
+}
@@ -0,0 +1,200 @@
+package com.codeium.chatcodebase.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class HnswVectorStoreTest {
+    @TempDir
+    Path directory;
+
+    private final EmbeddingModel embeddingModel = new LetterEmbeddingModel();
+
+    @Test
+    void searchesAreScopedToTheProject() {
+        try (HnswVectorStore store = newStore()) {
+            store.add(List.of(
+                chunk("a1", "aaa", "alpha"),
+                chunk("a2", "abc", "alpha"),
+                chunk("b1", "aaa", "beta")));
+
+            List<Document> results = store.similaritySearch(SearchRequest.builder()
+                .query("aaa")
+                .topK(5)
+                .filterExpression(ProjectVectorPartitions.projectFilter("alpha"))
+                .build());
+
+            assertThat(results).extracting(Document::getId).containsExactly("a1", "a2");
+            assertThat(results.get(0).getScore()).isCloseTo(1.0, within(1e-6));
+            assertThat(store.similaritySearch(SearchRequest.builder().query("aaa").topK(5).build()))
+                .extracting(Document::getId).containsExactlyInAnyOrder("a1", "a2", "b1");
+        }
+    }
+
+    @Test
+    void metadataFiltersAreApplied() {
+        try (HnswVectorStore store = newStore()) {
+            store.add(List.of(chunk("a1", "aaa", "alpha"), chunk("a2", "abc", "alpha")));
+
+            FilterExpressionBuilder b = new FilterExpressionBuilder();
+            List<Document> results = store.similaritySearch(SearchRequest.builder()
+                .query("aaa")
+                .topK(5)
+                .filterExpression(b.and(b.eq(ProjectVectorPartitions.PROJECT_ID, "alpha"), b.eq("filePath", "abc")).build())
+                .build());
+
+            assertThat(results).extracting(Document::getId).containsExactly("a2");
+        }
+    }
+
+    @Test
+    void conjunctionsWithoutAProjectSearchEveryPartition() {
+        try (HnswVectorStore store = newStore()) {
+            store.add(List.of(chunk("a1", "aaa", "alpha"), chunk("a2", "abc", "alpha"), chunk("b1", "abc", "beta")));
+
+            FilterExpressionBuilder b = new FilterExpressionBuilder();
+            List<Document> results = store.similaritySearch(SearchRequest.builder()
+                .query("aaa")
+                .topK(5)
+                .filterExpression(b.and(b.eq("filePath", "abc"), b.ne("filePath", "aaa")).build())
+                .build());
+
+            assertThat(results).extracting(Document::getId).containsExactlyInAnyOrder("a2", "b1");
+        }
+    }
+
+    @Test
+    void projectsAreScopedOnEitherSideOfAConjunction() {
+        FilterExpressionBuilder b = new FilterExpressionBuilder();
+
+        assertThat(HnswVectorStore.scopedProject(
+            b.and(b.eq("filePath", "abc"), b.eq(ProjectVectorPartitions.PROJECT_ID, "alpha")).build()))
+            .isEqualTo("alpha");
+        assertThat(HnswVectorStore.scopedProject(b.and(b.eq("filePath", "abc"), b.eq("language", "java")).build()))
+            .isNull();
+    }
+
+    @Test
+    void replacedDeletedAndProjectChunksSurviveARestart() {
+        try (HnswVectorStore store = newStore()) {
+            store.add(List.of(chunk("a1", "aaa", "alpha"), chunk("a2", "abc", "alpha"), chunk("b1", "bbb", "beta")));
+            store.add(List.of(chunk("a1", "ccc", "alpha")));
+            store.delete(List.of("a2"));
+            assertThat(store.deleteProject("beta")).isEqualTo(1);
+        }
+
+        try (HnswVectorStore store = newStore()) {
+            assertThat(store.countChunks("alpha")).isEqualTo(1);
+            assertThat(store.countChunks("beta")).isZero();
+            List<Document> results = store.similaritySearch(SearchRequest.builder().query("ccc").topK(5).build());
+            assertThat(results).extracting(Document::getText).containsExactly("ccc");
+            assertThat(results.get(0).getMetadata()).containsEntry("filePath", "ccc");
+        }
+    }
+
+    @Test
+    void partitionsAreCompactedOnceEnoughChunksAreDeleted() throws Exception {
+        Path partition = directory.resolve(HnswVectorStore.partitionKey("alpha"));
+        Path log = partition.resolve("documents.log");
+        try (HnswVectorStore store = newStore(0.5)) {
+            store.add(List.of(chunk("a1", "aaa", "alpha"), chunk("a2", "abc", "alpha"), chunk("a3", "bcd", "alpha"),
+                chunk("a4", "cde", "alpha")));
+            store.delete(List.of("a1"));
+            long uncompacted = Files.size(log);
+
+            store.delete(List.of("a2"));
+            store.awaitCompactions();
+
+            assertThat(Files.size(log)).isLessThan(uncompacted);
+            assertThat(partition.resolve("compacting")).doesNotExist();
+            assertThat(partition.resolve("compacted")).doesNotExist();
+            assertThat(store.countChunks("alpha")).isEqualTo(2);
+            store.add(List.of(chunk("a5", "abd", "alpha")));
+            assertThat(store.similaritySearch(SearchRequest.builder().query("bcd").topK(5).build()))
+                .extracting(Document::getId).containsExactlyInAnyOrder("a3", "a4", "a5");
+        }
+
+        try (HnswVectorStore store = newStore(0.5)) {
+            store.delete(List.of("a3"));
+            assertThat(store.countChunks("alpha")).isEqualTo(2);
+            assertThat(store.similaritySearch(SearchRequest.builder().query("cde").topK(1).build()))
+                .extracting(Document::getText).containsExactly("cde");
+        }
+    }
+
+    @Test
+    void chunksChangedDuringACompactionAreKept() {
+        try (HnswVectorStore store = newStore(0.5)) {
+            List<Document> chunks = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                chunks.add(chunk("a" + i, text(i), "alpha"));
+            }
+            store.add(chunks);
+            store.delete(chunks.subList(0, 100).stream().map(Document::getId).toList());
+
+            // Runs while the compaction copies the live chunks or after it
+            store.add(List.of(chunk("b1", "zzz", "alpha")));
+            store.delete(List.of("a150"));
+            store.awaitCompactions();
+
+            assertThat(store.countChunks("alpha")).isEqualTo(100);
+            assertThat(store.similaritySearch(SearchRequest.builder().query("zzz").topK(1).build()))
+                .extracting(Document::getId).containsExactly("b1");
+            assertThat(store.similaritySearch(SearchRequest.builder().query(text(150)).topK(200).build()))
+                .extracting(Document::getId).doesNotContain("a150").contains("a151");
+        }
+    }
+
+    private static String text(int i) {
+        return "a".repeat(i % 7 + 1) + "b".repeat(i % 11 + 1) + "c".repeat(i / 10 + 1);
+    }
+
+    private HnswVectorStore newStore() {
+        return newStore(0.25);
+    }
+
+    private HnswVectorStore newStore(double compactionRatio) {
+        return new HnswVectorStore(directory, embeddingModel, 26, 8, 32, 32, VectorQuantization.NONE,
+            compactionRatio);
+    }
+
+    private static Document chunk(String id, String text, String projectId) {
+        return new Document(id, text, Map.of(ProjectVectorPartitions.PROJECT_ID, projectId, "filePath", text));
+    }
+
+    /**
+     * Embeds a text as its letter counts.
+     */
+    private static class LetterEmbeddingModel implements EmbeddingModel {
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                float[] vector = new float[26];
+                text.chars().filter(c -> c >= 'a' && c <= 'z').forEach(c -> vector[c - 'a']++);
+                embeddings.add(new Embedding(vector, embeddings.size()));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.codeium.chatcodebase.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ModelGateTest {
+    private final ModelGate gate = new ModelGate(1);
+    private final List<String> admitted = new CopyOnWriteArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+
+    @Test
+    void interactiveRequestsGoFirstAndProjectsTakeTurns() throws Exception {
+        ModelGate.Permit held = gate.acquireBulk("a");
+        waitingBulk("a", "a1");
+        waitingBulk("a", "a2");
+        waitingBulk("a", "a3");
+        waitingBulk("b", "b1");
+        waitingInteractive("chat");
+
+        held.close();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        assertThat(admitted).containsExactly("chat", "a1", "b1", "a2", "a3");
+        assertThat(gate.getAvailable()).isEqualTo(1);
+    }
+
+    @Test
+    void interruptedWaiterGivesUpItsTurn() throws Exception {
+        ModelGate.Permit held = gate.acquireInteractive();
+        Thread interrupted = waitingBulk("a", "a1");
+        waitingBulk("b", "b1");
+
+        interrupted.interrupt();
+        interrupted.join(5000);
+        held.close();
+        held.close();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        assertThat(admitted).containsExactly("b1");
+        assertThat(gate.getAvailable()).isEqualTo(1);
+    }
+
+    private Thread waitingBulk(String projectId, String name) throws InterruptedException {
+        return startWaiting(() -> {
+            try {
+                ModelGate.Permit permit = gate.acquireBulk(projectId);
+                admitted.add(name);
+                permit.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private void waitingInteractive(String name) throws InterruptedException {
+        startWaiting(() -> gate.interactive(() -> admitted.add(name)));
+    }
+
+    /**
+     * Starts the thread and returns once it waits for the gate, so waiters queue in a known order.
+     */
+    private Thread startWaiting(Runnable waiter) throws InterruptedException {
+        Thread thread = Thread.ofPlatform().start(waiter);
+        threads.add(thread);
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        return thread;
+    }
+}
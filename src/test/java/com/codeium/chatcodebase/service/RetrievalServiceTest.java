@@ -0,0 +1,48 @@
+package com.codeium.chatcodebase.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetrievalServiceTest {
+
+    @Test
+    void queriesNamingCodeElementsContainIdentifiers() {
+        assertThat(RetrievalService.containsIdentifier("Where is analyzeRepository called?")).isTrue();
+        assertThat(RetrievalService.containsIdentifier("What does VectorStoreService do?")).isTrue();
+        assertThat(RetrievalService.containsIdentifier("explain max_tokens handling")).isTrue();
+        assertThat(RetrievalService.containsIdentifier("what calls chunkDocument()")).isTrue();
+        assertThat(RetrievalService.containsIdentifier("show me src/main/resources")).isTrue();
+        assertThat(RetrievalService.containsIdentifier("what is in AstService.java")).isTrue();
+
+        assertThat(RetrievalService.containsIdentifier("How does the analysis handle failures?")).isFalse();
+        assertThat(RetrievalService.containsIdentifier("Which service talks to the issue tracker?")).isFalse();
+    }
+
+    @Test
+    void identifierQueriesOnlyNameCodeElements() {
+        assertThat(RetrievalService.isIdentifierQuery("where is `AnalysisStatus.setProgress` used?")).isTrue();
+        assertThat(RetrievalService.isIdentifierQuery("chunkDocument()")).isTrue();
+        assertThat(RetrievalService.isIdentifierQuery("what is max_tokens")).isTrue();
+
+        assertThat(RetrievalService.isIdentifierQuery("how does analyzeRepository handle failures?")).isFalse();
+        assertThat(RetrievalService.isIdentifierQuery("where are files parsed?")).isFalse();
+    }
+
+    @Test
+    void fusionFavorsDocumentsRankedByBothRetrievers() {
+        Document a = new Document("a", "a", Map.of());
+        Document b = new Document("b", "b", Map.of());
+        Document c = new Document("c", "c", Map.of());
+        Document d = new Document("d", "d", Map.of());
+
+        List<Document> fused = RetrievalService.fuse(List.of(List.of(a, b, c), List.of(d, b, c)), 60, 3);
+
+        assertThat(fused).extracting(Document::getId).containsExactly("b", "c", "a");
+        assertThat(fused.get(0).getScore()).isEqualTo(2.0 / 62);
+    }
+}
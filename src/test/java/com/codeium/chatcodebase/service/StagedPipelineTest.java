@@ -0,0 +1,64 @@
+package com.codeium.chatcodebase.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StagedPipelineTest {
+
+    @Test
+    void everyItemPassesAllStages() throws InterruptedException {
+        StagedPipeline pipeline = new StagedPipeline("test");
+        Set<Integer> results = ConcurrentHashMap.newKeySet();
+
+        StagedPipeline.Channel<Integer> numbers = pipeline.source("numbers", 2,
+            sink -> IntStream.range(0, 1_000).forEach(sink::accept));
+        StagedPipeline.Channel<Integer> doubled = pipeline.stage("double", numbers, 4, 2,
+            (number, emit) -> emit.accept(number * 2));
+        pipeline.sink("collect", doubled, 3, results::add);
+        pipeline.await();
+
+        assertThat(results).hasSize(1_000).allMatch(number -> number % 2 == 0);
+    }
+
+    @Test
+    void failureInOneStageAbortsThePipeline() {
+        StagedPipeline pipeline = new StagedPipeline("test");
+
+        StagedPipeline.Channel<Integer> numbers = pipeline.source("numbers", 1, sink -> {
+            // Would block forever on the full queue if the failing sink did not abort the source
+            for (int i = 0; ; i++) {
+                sink.accept(i);
+            }
+        });
+        pipeline.sink("fail", numbers, 1, number -> {
+            throw new IllegalStateException("boom " + number);
+        });
+
+        assertThatThrownBy(pipeline::await)
+            .isInstanceOf(StagedPipeline.PipelineException.class)
+            .hasRootCauseMessage("boom 0");
+        assertThat(pipeline.isAborted()).isTrue();
+    }
+
+    @Test
+    void stageMayEmitSeveralItemsPerInput() throws InterruptedException {
+        StagedPipeline pipeline = new StagedPipeline("test");
+        Set<String> results = ConcurrentHashMap.newKeySet();
+
+        StagedPipeline.Channel<String> words = pipeline.source("words", 1,
+            sink -> List.of("ab", "cd").forEach(sink::accept));
+        StagedPipeline.Channel<String> letters = pipeline.stage("split", words, 2, 1,
+            (word, emit) -> word.chars().forEach(c -> emit.accept(String.valueOf((char) c))));
+        pipeline.sink("collect", letters, 2, results::add);
+        pipeline.await();
+
+        assertThat(results).containsExactlyInAnyOrder("a", "b", "c", "d");
+    }
+}
@@ -0,0 +1,213 @@
+package com.codeium.chatcodebase.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SymbolIndexTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void identifiersAreSplitIntoTheirParts() {
+        List<String> terms = new ArrayList<>();
+        SymbolIndex.tokenize("status.setProgress(MAX_VALUE); HTTPServer", terms::add);
+
+        assertThat(terms).containsExactly(
+            "status", "set", "progress", "setprogress", "max", "value", "max_value", "http", "server", "httpserver");
+    }
+
+    @Test
+    void stopWordsAreNotIndexed() {
+        List<String> terms = new ArrayList<>();
+        SymbolIndex.tokenize("where is the `AnalysisStatus` used?", terms::add);
+
+        assertThat(terms).containsExactly("analysis", "status", "analysisstatus");
+    }
+
+    @Test
+    void exactIdentifierOutranksPartialMatches() throws Exception {
+        SymbolIndex.Builder builder = SymbolIndex.builder(directory);
+        builder.add(new Document("progress", "int progress = 0; // progress of the step", Map.of()));
+        builder.add(new Document("setter", "public void setProgress(int progress) { this.progress = progress; }", Map.of()));
+        builder.add(new Document("other", "public void setCurrentStep(AnalysisStep step) {}", Map.of()));
+        try (SymbolIndex index = builder.build()) {
+            List<Document> results = index.search("where is setProgress used?", 10);
+
+            assertThat(results).extracting(Document::getId).containsExactly("setter", "progress", "other");
+            assertThat(results.get(0).getScore()).isGreaterThan(results.get(1).getScore());
+        }
+    }
+
+    @Test
+    void metadataFieldsAreSearchable() throws Exception {
+        SymbolIndex.Builder builder = SymbolIndex.builder(directory);
+        builder.add(new Document("fields", "class Status {}", Map.of("fields", List.of("currentStep"))));
+        builder.add(new Document("none", "class Other {}", Map.of()));
+
+        try (SymbolIndex index = builder.build()) {
+            assertThat(index.search("currentStep", 10)).extracting(Document::getId).containsExactly("fields");
+        }
+    }
+
+    @Test
+    void textsAreReadFromTheContentFile() throws Exception {
+        SymbolIndex.Builder builder = SymbolIndex.builder(directory);
+        builder.add(new Document("order", "record Order(String id) {} // Größe",
+            Map.of("filePath", "src/Order.java", "startLine", 3, "classes", List.of("Order"))));
+        SymbolIndex index = builder.build();
+
+        Document result = index.search("order", 1).get(0);
+
+        assertThat(result.getText()).isEqualTo("record Order(String id) {} // Größe");
+        assertThat(result.getMetadata()).containsEntry("filePath", "src/Order.java").containsEntry("startLine", 3)
+            .doesNotContainKey("classes");
+        index.close();
+        assertThat(contentFiles()).isEmpty();
+    }
+
+    @Test
+    void closingAnUnbuiltBuilderDeletesItsTexts() throws Exception {
+        SymbolIndex.Builder builder = SymbolIndex.builder(directory);
+        builder.add(new Document("a", "class A {}", Map.of()));
+
+        builder.close();
+
+        assertThat(contentFiles()).isEmpty();
+    }
+
+    @Test
+    void textsDoNotSpanSegments() throws Exception {
+        try (ContentStore store = new ContentStore(directory.resolve("texts" + ContentStore.FILE_SUFFIX), 16)) {
+            long first = store.append("0123456789");
+            long second = store.append("abcdefgh");
+            long third = store.append("");
+
+            assertThat(second).isEqualTo(16);
+            assertThat(store.read(first)).isEqualTo("0123456789");
+            assertThat(store.read(second)).isEqualTo("abcdefgh");
+            assertThat(store.read(third)).isEmpty();
+        }
+    }
+
+    @Test
+    void serviceRebuildsAMissingIndexFromTheStoredChunks() {
+        StoredChunks chunks = new StoredChunks();
+        chunks.documents.add(new Document("status", "class AnalysisStatus {}", Map.of("filePath", "src/Status.java")));
+        FinishedAt finishedAt = new FinishedAt(Instant.parse("2026-01-01T00:00:00Z"));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AtomicLong clock = new AtomicLong();
+        SymbolIndexService service = new SymbolIndexService(chunks, finishedAt, registry, directory.toString(), clock::get);
+
+        assertThat(service.search("p1", "AnalysisStatus", 10)).extracting(Document::getId).containsExactly("status");
+        assertThat(service.search("p1", "AnalysisStatus", 10)).hasSize(1);
+        assertThat(chunks.reads).hasValue(1);
+        assertThat(registry.counter("retrieval.symbol.index.rebuilt").count()).isEqualTo(1);
+
+        // Re-analyzed by another node
+        chunks.documents.add(new Document("step", "enum AnalysisStep {}", Map.of()));
+        finishedAt.value = Instant.parse("2026-01-02T00:00:00Z");
+        clock.addAndGet(Duration.ofSeconds(11).toNanos());
+
+        assertThat(service.search("p1", "AnalysisStep", 10)).extracting(Document::getId).containsExactly("step");
+        assertThat(chunks.reads).hasValue(2);
+    }
+
+    @Test
+    void serviceCountsSearchesOfProjectsWithoutStoredChunks() {
+        StoredChunks chunks = new StoredChunks();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SymbolIndexService service = new SymbolIndexService(chunks, new FinishedAt(Instant.now()), registry,
+            directory.toString(), System::nanoTime);
+
+        assertThat(service.search("p1", "status", 10)).isEmpty();
+        assertThat(service.search("p1", "status", 10)).isEmpty();
+
+        assertThat(chunks.reads).hasValue(1);
+        assertThat(registry.counter("retrieval.symbol.index.missing").count()).isEqualTo(2);
+    }
+
+    @Test
+    void serviceKeepsTheIndexOfAnAnalysisOnThisNode() {
+        StoredChunks chunks = new StoredChunks();
+        FinishedAt finishedAt = new FinishedAt(null);
+        AtomicLong clock = new AtomicLong();
+        SymbolIndexService service = new SymbolIndexService(chunks, finishedAt, new SimpleMeterRegistry(),
+            directory.toString(), clock::get);
+        SymbolIndex.Builder builder = service.newBuilder();
+        builder.add(new Document("status", "class AnalysisStatus {}", Map.of()));
+        service.put("p1", builder.build());
+
+        // The analysis finishes after it put its index
+        clock.addAndGet(Duration.ofSeconds(11).toNanos());
+        finishedAt.value = Instant.now();
+
+        assertThat(service.search("p1", "AnalysisStatus", 10)).extracting(Document::getId).containsExactly("status");
+        assertThat(chunks.reads).hasValue(0);
+    }
+
+    private static class StoredChunks implements ProjectVectorPartitions {
+        final List<Document> documents = new ArrayList<>();
+        final AtomicInteger reads = new AtomicInteger();
+
+        @Override
+        public int countChunks(String projectId) {
+            return documents.size();
+        }
+
+        @Override
+        public void assignProject(String projectId, List<String> chunkIds) {
+        }
+
+        @Override
+        public int deleteProject(String projectId) {
+            return 0;
+        }
+
+        @Override
+        public void updateProjectIndex(String projectId) {
+        }
+
+        @Override
+        public void forEachChunk(String projectId, Consumer<Document> chunks) {
+            reads.incrementAndGet();
+            documents.forEach(chunks);
+        }
+    }
+
+    private static class FinishedAt extends AnalysisJobRepository {
+        volatile Instant value;
+
+        FinishedAt(Instant value) {
+            super(null);
+            this.value = value;
+        }
+
+        @Override
+        public Optional<Instant> findFinishedAt(String projectId) {
+            return Optional.ofNullable(value);
+        }
+    }
+
+    private List<Path> contentFiles() throws Exception {
+        try (var files = Files.list(directory)) {
+            return files.toList();
+        }
+    }
+}
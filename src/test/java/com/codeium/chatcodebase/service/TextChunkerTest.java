@@ -0,0 +1,103 @@
+package com.codeium.chatcodebase.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TextChunkerTest {
+
+    @Test
+    void smallContentIsOneChunk() {
+        TextChunker chunker = new TextChunker(10, 2);
+
+        assertThat(chunker.split("class A {}")).containsExactly(new TextChunker.Span(0, 10));
+        assertThat(chunker.split("")).isEmpty();
+    }
+
+    @Test
+    void chunksEndAtTheHighestRankedBoundaryWithinTheOverlap() {
+        // 40 characters per chunk, boundaries are searched in the last 8 characters
+        TextChunker chunker = new TextChunker(10, 2);
+        String content = "int a = 1;\nint b = 2;\nint c = 3;\n\nint d;\n}\n" + "x".repeat(40);
+
+        List<TextChunker.Span> spans = chunker.split(content);
+
+        // "\n}" at 40 outranks the blank line at 32 and the statement end at 38
+        assertThat(spans.get(0)).isEqualTo(new TextChunker.Span(0, 42));
+        assertThat(spans.get(1).start()).isEqualTo(42 - 8);
+    }
+
+    @Test
+    void chunksCoverTheWholeContentWithOverlap() {
+        TextChunker chunker = new TextChunker(25, 5);
+        String content = SyntheticJava.lines(400);
+
+        List<TextChunker.Span> spans = chunker.split(content);
+
+        assertThat(spans.get(0).start()).isZero();
+        assertThat(spans.get(spans.size() - 1).end()).isEqualTo(content.length());
+        for (int i = 1; i < spans.size(); i++) {
+            assertThat(spans.get(i).start()).isLessThanOrEqualTo(spans.get(i - 1).end());
+            assertThat(spans.get(i).start()).isGreaterThan(spans.get(i - 1).start());
+        }
+        assertThat(spans).allSatisfy(span -> assertThat(span.length()).isLessThanOrEqualTo(100 + 2));
+    }
+
+    @Test
+    void contentWithoutBoundariesIsCutAtTheChunkSize() {
+        TextChunker chunker = new TextChunker(10, 2);
+
+        List<TextChunker.Span> spans = chunker.split("x".repeat(100));
+
+        assertThat(spans).first().isEqualTo(new TextChunker.Span(0, 40));
+        assertThat(spans).last().extracting(TextChunker.Span::end).isEqualTo(100);
+    }
+
+    @Test
+    void overlapLargerThanChunkStillTerminates() {
+        TextChunker chunker = new TextChunker(1, 5);
+
+        List<TextChunker.Span> spans = chunker.split("x".repeat(50));
+
+        assertThat(spans).last().extracting(TextChunker.Span::end).isEqualTo(50);
+    }
+
+    @Test
+    void packKeepsUnitsWholeAndSplitsOnlyOversizeUnits() {
+        // 40 characters per chunk
+        TextChunker chunker = new TextChunker(10, 2);
+        String content = "a".repeat(15) + "b".repeat(20) + "c".repeat(10) + "d".repeat(90) + "e".repeat(5);
+        int[] unitStarts = {15, 35, 45, 135};
+
+        List<TextChunker.Span> spans = chunker.pack(content, unitStarts);
+
+        assertThat(spans).startsWith(new TextChunker.Span(0, 35), new TextChunker.Span(35, 45));
+        assertThat(spans.subList(2, spans.size() - 1))
+            .allSatisfy(span -> assertThat(span.start()).isBetween(45, 135))
+            .allSatisfy(span -> assertThat(span.end()).isBetween(45, 135));
+        assertThat(spans).last().isEqualTo(new TextChunker.Span(135, 140));
+    }
+
+    @Test
+    void lineAtFindsTheLineOfAnOffset() {
+        int[] lineStarts = TextChunker.lineStarts("ab\ncd\n\ne");
+
+        assertThat(lineStarts).containsExactly(0, 3, 6, 7);
+        assertThat(TextChunker.lineAt(lineStarts, 0)).isEqualTo(1);
+        assertThat(TextChunker.lineAt(lineStarts, 2)).isEqualTo(1);
+        assertThat(TextChunker.lineAt(lineStarts, 3)).isEqualTo(2);
+        assertThat(TextChunker.lineAt(lineStarts, 7)).isEqualTo(4);
+    }
+
+    private static final class SyntheticJava {
+        static String lines(int count) {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                builder.append(i % 7 == 0 ? "}\n" : "    int field" + i + " = " + i + ";\n");
+            }
+            return builder.toString();
+        }
+    }
+}
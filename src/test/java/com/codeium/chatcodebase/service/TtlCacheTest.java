@@ -0,0 +1,102 @@
+package com.codeium.chatcodebase.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TtlCacheTest {
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    void entriesExpireAfterTheTimeToLive() {
+        TtlCache<String, String> cache = new TtlCache<>(10, 1_000, now::get);
+        cache.put("query", "rewritten");
+
+        now.addAndGet(999_000_000L);
+        assertThat(cache.get("query")).isEqualTo("rewritten");
+        now.addAndGet(2_000_000L);
+        assertThat(cache.get("query")).isNull();
+        assertThat(cache.getStats()).isEqualTo(CacheStats.of(1, 1));
+    }
+
+    @Test
+    void leastRecentlyUsedEntriesAreEvictedBeyondTheBound() {
+        TtlCache<String, String> cache = new TtlCache<>(2, 1_000, now::get);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.get("a")).isEqualTo("1");
+        assertThat(cache.get("c")).isEqualTo("3");
+    }
+
+    @Test
+    void computeIfAbsentLoadsOnlyOnMisses() {
+        TtlCache<String, String> cache = new TtlCache<>(10, 1_000, now::get);
+        AtomicLong loads = new AtomicLong();
+
+        cache.computeIfAbsent("query", key -> key + loads.incrementAndGet());
+        String second = cache.computeIfAbsent("query", key -> key + loads.incrementAndGet());
+
+        assertThat(second).isEqualTo("query1");
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void chatCacheInvalidatesRetrievalsOfAReanalyzedProject() {
+        ChatCache chatCache = new ChatCache(new FinishedJobRepository(), 10, 60, 10, now::get);
+        AtomicLong searches = new AtomicLong();
+
+        chatCache.retrieve("1", "How is  the Cache built?", () -> { searches.incrementAndGet(); return List.of(); });
+        chatCache.retrieve("1", "how is the cache built?", () -> { searches.incrementAndGet(); return List.of(); });
+        chatCache.invalidate("1");
+        chatCache.retrieve("1", "how is the cache built?", () -> { searches.incrementAndGet(); return List.of(); });
+
+        assertThat(searches).hasValue(2);
+        assertThat(chatCache.getStats().get("retrievals")).isEqualTo(CacheStats.of(1, 2));
+    }
+
+    @Test
+    void chatCacheDropsRetrievalsOnceAnotherNodeFinishedAnAnalysis() {
+        FinishedJobRepository jobs = new FinishedJobRepository();
+        jobs.finishedAt = Instant.parse("2026-01-01T10:00:00Z");
+        ChatCache chatCache = new ChatCache(jobs, 10, 60, 10, now::get);
+        AtomicLong searches = new AtomicLong();
+
+        chatCache.retrieve("1", "how is the cache built?", () -> { searches.incrementAndGet(); return List.of(); });
+        chatCache.putRewrite("1", "how is the cache built?", "cache construction");
+        jobs.finishedAt = Instant.parse("2026-01-01T11:00:00Z");
+        chatCache.retrieve("1", "how is the cache built?", () -> { searches.incrementAndGet(); return List.of(); });
+        assertThat(searches).hasValue(1);
+
+        now.addAndGet(10_001_000_000L);
+        chatCache.retrieve("1", "how is the cache built?", () -> { searches.incrementAndGet(); return List.of(); });
+
+        assertThat(searches).hasValue(2);
+        assertThat(chatCache.getRewrite("1", "how is the cache built?")).isNull();
+    }
+
+    /**
+     * Reports the finish time set by the test as the last analysis of every project.
+     */
+    private static class FinishedJobRepository extends AnalysisJobRepository {
+        volatile Instant finishedAt;
+
+        FinishedJobRepository() {
+            super(null);
+        }
+
+        @Override
+        public Optional<Instant> findFinishedAt(String projectId) {
+            return Optional.ofNullable(finishedAt);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.codeium.chatcodebase.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class VectorStoreServiceTest {
+    private static final String SOURCE = """
+        package com.example;
+
+        import java.util.List;
+
+        public class Orders {
+            private final List<String> ids = List.of();
+
+            /**
+             * Counts the orders.
+             */
+            public int count() {
+                return ids.size();
+            }
+
+            @Override
+            public String toString() {
+                return "Orders" + ids;
+            }
+
+            static class Line {
+                int quantity;
+            }
+        }
+        """;
+
+    private final AstService astService = new AstService();
+
+    @Test
+    void memberOffsetsStartAtTheCommentOrAnnotationOfEachMember() {
+        AstService.AstDocument doc = parse(SOURCE);
+
+        assertThat(doc.getMemberOffsets())
+            .containsExactly(
+                SOURCE.indexOf("public class Orders"),
+                SOURCE.indexOf("    private final"),
+                SOURCE.indexOf("    /**"),
+                SOURCE.indexOf("    @Override"),
+                SOURCE.indexOf("    static class Line"),
+                SOURCE.indexOf("        int quantity"));
+    }
+
+    @Test
+    void astChunkingKeepsMembersWholeAndRecordsLineRanges() {
+        VectorStoreService service = new VectorStoreService(null, null, null);
+        // 30 tokens, about 120 characters per chunk
+        ReflectionTestUtils.setField(service, "chunkSize", 30);
+        ReflectionTestUtils.setField(service, "chunkOverlap", 5);
+
+        List<Document> chunks = service.chunkDocument("project", parse(SOURCE));
+
+        assertThat(chunks).anySatisfy(chunk -> assertThat(chunk.getText())
+            .contains("/**\n     * Counts the orders.\n     */\n    public int count() {\n        return ids.size();\n    }"));
+        assertThat(chunks).anySatisfy(chunk -> assertThat(chunk.getText())
+            .contains("@Override\n    public String toString() {\n        return \"Orders\" + ids;\n    }"));
+        assertThat(chunks.get(0).getMetadata()).containsEntry("startLine", 1);
+        assertThat(chunks.get(chunks.size() - 1).getMetadata()).containsEntry("endLine", 23);
+        for (int i = 1; i < chunks.size(); i++) {
+            int previousEnd = (int) chunks.get(i - 1).getMetadata().get("endLine");
+            assertThat(chunks.get(i).getMetadata().get("startLine")).isEqualTo(previousEnd + 1);
+        }
+    }
+
+    @Test
+    void chunksCarryTheirProjectAndStableIds() {
+        VectorStoreService service = new VectorStoreService(null, null, null);
+
+        List<Document> chunks = service.chunkDocument("group/project", parse(SOURCE));
+
+        assertThat(chunks).allSatisfy(chunk ->
+            assertThat(chunk.getMetadata()).containsEntry(ProjectVectorPartitions.PROJECT_ID, "group/project"));
+        assertThat(chunks.get(0).getId())
+            .isEqualTo(VectorStoreService.chunkId("group/project", "src/main/java/com/example/Orders.java", 1));
+        assertThat(service.chunkDocument(null, parse(SOURCE)).get(0).getMetadata())
+            .doesNotContainKey(ProjectVectorPartitions.PROJECT_ID);
+    }
+
+    @Test
+    void textChunkingIgnoresMemberOffsets() {
+        VectorStoreService service = new VectorStoreService(null, null, null);
+        ReflectionTestUtils.setField(service, "chunkingMode", VectorStoreService.ChunkingMode.TEXT);
+        ReflectionTestUtils.setField(service, "chunkSize", 25);
+        ReflectionTestUtils.setField(service, "chunkOverlap", 5);
+        AstService.AstDocument doc = parse(SOURCE);
+
+        assertThat(service.splitDocument(doc)).isEqualTo(service.getChunker().split(SOURCE));
+    }
+
+    @Test
+    void searchesRejectProjectIdsThatWouldNeedEscaping() {
+        VectorStoreService service = new VectorStoreService(null, null, null);
+
+        assertThat(ProjectVectorPartitions.isValidProjectId("group/sub-group/project.name_1")).isTrue();
+        assertThatThrownBy(() -> service.semanticSearch("1\" || $.x == \"1", "query", 5))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private AstService.AstDocument parse(String source) {
+        return astService.parseFile(new GitLabService.CodeFile("src/main/java/com/example/Orders.java", source, "100644"));
+    }
+}